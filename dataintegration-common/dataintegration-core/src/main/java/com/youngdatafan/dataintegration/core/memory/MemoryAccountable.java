@@ -0,0 +1,26 @@
+package com.youngdatafan.dataintegration.core.memory;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 在内存中缓存数据的步骤数据对象实现该接口，执行引擎据此统计单次执行的内存占用.
+ * <p>
+ * 由执行引擎的监控线程调用，实现只需要返回近似值，不需要加锁.
+ * 步骤插件以 ark 插件隔离加载，插件中的本接口和引擎中的不是同一个类，引擎按 JDK 的 {@link LongSupplier} 识别.
+ *
+ * @author gavin
+ */
+public interface MemoryAccountable extends LongSupplier {
+
+    /**
+     * 当前缓存数据的估算字节数.
+     *
+     * @return 字节数
+     */
+    long getEstimatedBytes();
+
+    @Override
+    default long getAsLong() {
+        return getEstimatedBytes();
+    }
+}
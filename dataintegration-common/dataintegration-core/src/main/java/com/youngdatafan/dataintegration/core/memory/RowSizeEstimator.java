@@ -0,0 +1,69 @@
+package com.youngdatafan.dataintegration.core.memory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * 按字段值的类型估算一行数据占用的堆内存.
+ *
+ * @author gavin
+ */
+public final class RowSizeEstimator {
+
+    /**
+     * 对象头
+     */
+    private static final int OBJECT_HEADER = 16;
+
+    /**
+     * 对象引用
+     */
+    private static final int REFERENCE = 8;
+
+    private RowSizeEstimator() {
+    }
+
+    /**
+     * 估算一行数据的字节数，包括行数组本身.
+     *
+     * @param row 行数据
+     * @return 字节数
+     */
+    public static long estimate(Object[] row) {
+        if (row == null) {
+            return 0;
+        }
+        long bytes = OBJECT_HEADER + (long) REFERENCE * row.length;
+        for (Object value : row) {
+            bytes += estimateValue(value);
+        }
+        return bytes;
+    }
+
+    /**
+     * 估算单个字段值的字节数.
+     *
+     * @param value 字段值
+     * @return 字节数
+     */
+    public static long estimateValue(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            // String 对象 + char 数组
+            return OBJECT_HEADER + 8 + OBJECT_HEADER + 2L * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) value).length;
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return OBJECT_HEADER * 2 + 8 + value.toString().length() / 2;
+        }
+        if (value instanceof java.util.Date) {
+            // Timestamp 多一个纳秒字段
+            return value instanceof java.sql.Timestamp ? OBJECT_HEADER + 16 : OBJECT_HEADER + 8;
+        }
+        return OBJECT_HEADER + 8;
+    }
+}
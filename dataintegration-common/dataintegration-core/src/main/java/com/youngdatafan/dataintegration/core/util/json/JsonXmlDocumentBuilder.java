@@ -0,0 +1,182 @@
+package com.youngdatafan.dataintegration.core.util.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.json.JSONException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * 流式读取json，直接构建xml Document
+ * <p>
+ * 转换规则与 {@link XML#toString(Object)} 一致，但不再生成中间的 JSONLinkedObject 和xml字符串，
+ * 也不需要再对xml字符串做一次解析，大项目文件可以明显减少内存分配。
+ *
+ * @author gavin
+ */
+public final class JsonXmlDocumentBuilder {
+
+    private static final String CONTENT = "content";
+
+    private static final String ARRAY = "array";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonXmlDocumentBuilder() {
+    }
+
+    /**
+     * json字符串转换成xml Document
+     *
+     * @param json json字符串，根节点必须是对象
+     * @return Document
+     * @throws IOException json格式错误
+     */
+    public static Document toDocument(String json) throws IOException {
+        return toDocument(new StringReader(json));
+    }
+
+    /**
+     * json转换成xml Document
+     *
+     * @param reader json输入
+     * @return Document
+     * @throws IOException json格式错误
+     */
+    public static Document toDocument(Reader reader) throws IOException {
+        final Document document = newDocument();
+        try (JsonParser parser = JSON_FACTORY.createParser(reader)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JSONException("A JSONObject text must begin with '{'");
+            }
+            writeFields(parser, document, document);
+        }
+        return document;
+    }
+
+    private static Document newDocument() {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 写入对象的所有字段，解析器位于 START_OBJECT 之后，返回时位于对应的 END_OBJECT
+     */
+    private static void writeFields(JsonParser parser, Document document, Node parent) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = unescape(parser.getCurrentName());
+            final JsonToken token = parser.nextToken();
+
+            if (CONTENT.equals(key)) {
+                // content作为父节点的文本
+                parent.appendChild(document.createTextNode(readContent(parser, token)));
+            } else if (token == JsonToken.START_ARRAY) {
+                // 数组转换成多个同名节点
+                JsonToken item;
+                while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (item == JsonToken.START_ARRAY) {
+                        final Element element = document.createElement(key);
+                        parent.appendChild(element);
+                        writeArray(parser, document, element, ARRAY);
+                    } else {
+                        writeValue(parser, document, parent, key, item);
+                    }
+                }
+            } else {
+                writeValue(parser, document, parent, key, token);
+            }
+        }
+    }
+
+    /**
+     * 数组中的每个元素都使用 tagName 作为节点名，解析器位于 START_ARRAY 之后，返回时位于对应的 END_ARRAY
+     */
+    private static void writeArray(JsonParser parser, Document document, Node parent, String tagName) throws IOException {
+        JsonToken item;
+        while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+            writeValue(parser, document, parent, tagName, item);
+        }
+    }
+
+    private static void writeValue(JsonParser parser, Document document, Node parent, String tagName, JsonToken token) throws IOException {
+        if (token == JsonToken.START_ARRAY) {
+            writeArray(parser, document, parent, tagName);
+            return;
+        }
+
+        final Element element = document.createElement(tagName);
+        parent.appendChild(element);
+        if (token == JsonToken.START_OBJECT) {
+            writeFields(parser, document, element);
+        } else {
+            final String text = scalarText(parser, token);
+            if (!text.isEmpty()) {
+                element.appendChild(document.createTextNode(text));
+            }
+        }
+    }
+
+    /**
+     * 读取content的文本，数组使用换行符连接
+     */
+    private static String readContent(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            return contentText(parser, token);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        JsonToken item;
+        for (int i = 0; (item = parser.nextToken()) != JsonToken.END_ARRAY; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(contentText(parser, item));
+        }
+        return sb.toString();
+    }
+
+    private static String contentText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            // 项目文件中不会出现，忽略
+            parser.skipChildren();
+            return "";
+        }
+        return scalarText(parser, token);
+    }
+
+    /**
+     * 标量的文本，数字、布尔、null 与 JSONLinkedObject 的输出保持一致
+     */
+    private static String scalarText(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return unescape(parser.getText());
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+            case VALUE_NULL:
+                return JSONLinkedObject.stringToValue(parser.getText()).toString();
+            default:
+                throw new JSONException("Unexpected json token: " + token);
+        }
+    }
+
+    /**
+     * 前端保存的项目文件中可能包含xml转义字符，与原来整体反转义使用相同的规则
+     */
+    private static String unescape(String text) {
+        return text.indexOf('&') < 0 ? text : StringEscapeUtils.unescapeXml(text);
+    }
+}
@@ -0,0 +1,64 @@
+package com.youngdatafan.dataintegration.core.util.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * @author gavin
+ */
+public class JsonXmlDocumentBuilderTest {
+
+    @Test
+    public void testSameAsXmlString() throws Exception {
+        assertSameDocument("{\"transformation\":{\"info\":{\"name\":\"数据探索 1\",\"description\":\"\",\"size_rowset\":10000,"
+                + "\"rate\":1.50,\"enabled\":true,\"sql\":null,\"created_date\":\"2020/02/05 13:34:55.102\"},"
+                + "\"order\":{\"hop\":[]},\"notepads\":\"\",\"connection\":{\"attributes\":{\"attribute\":["
+                + "{\"code\":\"PORT_NUMBER\",\"attribute\":0},"
+                + "{\"code\":\"CUSTOM_URL\",\"attribute\":\"jdbc:mysql://localhost:3306/dp?useUnicode=true&amp;useSSL=false\"}]}},"
+                + "\"step\":[{\"name\":\"a<b>\",\"sql\":\"select * from t where a > 1 and b = 'x'\",\"content\":[\"l1\",\"l2\"]},"
+                + "{\"name\":\"b\",\"matrix\":[[1,2],[\"x\",[3]]],\"copies\":[1,\"\",null]}]}}");
+    }
+
+    @Test
+    public void testSameAsXmlStringForKtr() throws Exception {
+        assertSameDocument(loadKtrAsJson());
+    }
+
+    @Test
+    public void testSameAsXmlStringForEntities() throws Exception {
+        assertSameDocument("{\"transformation\":{\"step\":[{\"name\":\"a &lt; b &amp;&amp; c &#62; d\","
+                + "\"description\":\"it&#39;s &#x4e2d;文\",\"sql\":\"select 'AT&T', '&nbsp;' from t\"}]}}");
+    }
+
+    private static void assertSameDocument(String json) throws Exception {
+        final Document expected = parseByXmlString(json);
+        final Document actual = JsonXmlDocumentBuilder.toDocument(json);
+        expected.normalizeDocument();
+        actual.normalizeDocument();
+        Assert.assertTrue(expected.getDocumentElement().isEqualNode(actual.getDocumentElement()));
+    }
+
+    /**
+     * 原有的转换方式：整体反转义后转换成xml字符串再解析，与原来 TransMetaCacheService 中的处理相同
+     */
+    private static Document parseByXmlString(String json) throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + XML.toString(new JSONLinkedObject(StringEscapeUtils.unescapeXml(json)));
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String loadKtrAsJson() throws Exception {
+        try (InputStream in = JsonXmlDocumentBuilderTest.class.getClassLoader().getResourceAsStream("dp_test.ktr")) {
+            final byte[] data = new byte[in.available()];
+            in.read(data);
+            return XML.toJSONObject(new String(data, StandardCharsets.UTF_8)).toString();
+        }
+    }
+}
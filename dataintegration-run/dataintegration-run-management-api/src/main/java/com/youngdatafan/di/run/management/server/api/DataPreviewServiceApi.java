@@ -1,16 +1,18 @@
 package com.youngdatafan.di.run.management.server.api;
 
 import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.di.run.management.server.dto.DataProfileDTO;
+import com.youngdatafan.di.run.management.server.dto.PreviewDataDTO;
+import com.youngdatafan.di.run.management.server.vo.DataProfileVO;
 import com.youngdatafan.di.run.management.server.vo.PreviewDataVO;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
 
 /**
  * @author gavin
@@ -19,21 +21,27 @@ import java.util.Map;
 @Api(tags = "数据预览API接口")
 public interface DataPreviewServiceApi {
 
-    @ApiOperation(value = "数据预览", produces = "application/json")
+    @ApiOperation(value = "数据预览，相同数据源和sql的结果会缓存，refresh为true时重新查询", produces = "application/json")
     @PostMapping(value = "/previewData")
-    Result<List<Map<String, Object>>, Object> previewData(@RequestHeader("authorization-userId") String userId
-            , @Validated @RequestBody PreviewDataVO previewDataVO);
+    Result<PreviewDataDTO, Object> previewData(@RequestHeader("authorization-userId") String userId
+            , @Validated @RequestBody PreviewDataVO previewDataVO
+            , @RequestParam(value = "refresh", defaultValue = "false") boolean refresh);
 
-    @ApiOperation(value = "excel数据下载")
+    @ApiOperation(value = "字段统计，一次查询统计所有字段的空值、最小最大值、不同值个数、高频值和分位数", produces = "application/json")
+    @PostMapping(value = "/profileData")
+    Result<DataProfileDTO, Object> profileData(@RequestHeader("authorization-userId") String userId
+            , @Validated @RequestBody DataProfileVO dataProfileVO);
+
+    @ApiOperation(value = "数据下载，支持xlsx、csv、tsv、jsonl格式")
     @RequestMapping(value = "/excelDownload")
     void excelDownload(@RequestHeader("authorization-userId") String userId
             , @Validated @RequestParam("paramsJson") String paramsJson
-            , HttpServletResponse response) throws IOException;
+            , HttpServletRequest request, HttpServletResponse response) throws IOException;
 
-    @ApiOperation(value = "excel数据下载根据原生sql")
+    @ApiOperation(value = "数据下载根据原生sql")
     @RequestMapping(value = "/excelDownloadByNativeSql")
     void excelDownloadByNativeSql(@RequestHeader("authorization-userId") String userId
             , @Validated @RequestParam("paramsJson") String paramsJson
-            , HttpServletResponse response) throws IOException;
+            , HttpServletRequest request, HttpServletResponse response) throws IOException;
 
 }
@@ -60,7 +60,8 @@ public interface PluginManageServiceApi {
     @PostMapping(value = "/getFieldMaxMinInfo")
     Result getFieldMaxMinInfo(@RequestHeader("authorization-userId") String userId, @RequestHeader("authorization-userName") String userName, @Validated @RequestBody ExecuteFieldSumVO executeFieldSumVO);
 
-    @ApiOperation(value = "获取之前步骤sql", notes = "获取字段最大最小值", produces = "application/json")
+    @ApiOperation(value = "获取之前步骤sql", notes = "结果按用户和转换缓存，refresh为true时重新执行前置步骤", produces = "application/json")
     @PostMapping(value = "/getPreStepSql")
-    Result getPreStepSql(@RequestHeader("authorization-userId") String userId, @RequestHeader("authorization-userName") String userName, @Validated @RequestBody ExecuteFieldSumVO executeFieldSumVO);
+    Result getPreStepSql(@RequestHeader("authorization-userId") String userId, @RequestHeader("authorization-userName") String userName, @Validated @RequestBody ExecuteFieldSumVO executeFieldSumVO
+            , @RequestParam(value = "refresh", defaultValue = "false") boolean refresh);
 }
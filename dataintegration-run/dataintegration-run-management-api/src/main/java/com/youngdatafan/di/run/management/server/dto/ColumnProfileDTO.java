@@ -0,0 +1,48 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * 字段统计信息
+ *
+ * @author gavin
+ */
+@Data
+@ApiModel("字段统计响应对象")
+public class ColumnProfileDTO {
+
+    @ApiModelProperty("字段名")
+    private String fieldName;
+
+    @ApiModelProperty("字段类型")
+    private String type;
+
+    @ApiModelProperty("行数")
+    private long count;
+
+    @ApiModelProperty("空值行数")
+    private long nullCount;
+
+    @ApiModelProperty("最小值")
+    private Object min;
+
+    @ApiModelProperty("最大值")
+    private Object max;
+
+    @ApiModelProperty("不同值个数，近似值，误差约2%")
+    private long distinct;
+
+    @ApiModelProperty("出现次数最多的值")
+    private List<ValueCountDTO> topValues;
+
+    @ApiModelProperty("平均值，只有数值字段有")
+    private Double mean;
+
+    @ApiModelProperty("分位数，只有数值字段有，key为p1、p25、p50、p75、p99")
+    private Map<String, Double> quantiles;
+
+}
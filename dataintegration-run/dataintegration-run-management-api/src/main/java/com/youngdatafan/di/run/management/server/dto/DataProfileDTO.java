@@ -0,0 +1,26 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * 数据统计结果
+ *
+ * @author gavin
+ */
+@Data
+@ApiModel("数据统计响应对象")
+public class DataProfileDTO {
+
+    @ApiModelProperty("统计的行数")
+    private long rows;
+
+    @ApiModelProperty("是否只统计了前 sampleRows 行")
+    private boolean sampled;
+
+    @ApiModelProperty("各字段统计信息，顺序与查询字段一致")
+    private List<ColumnProfileDTO> columns;
+
+}
@@ -0,0 +1,37 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * 执行日志
+ *
+ * @author gavin
+ */
+@Builder
+@Data
+@ApiModel("执行日志响应对象")
+public class ExecutionLogDTO {
+
+    @ApiModelProperty("执行器id")
+    private String executorId;
+
+    @ApiModelProperty("第一行的行号，从0开始")
+    private long fromLine;
+
+    @ApiModelProperty("下一次读取的起始行号")
+    private long nextLine;
+
+    @ApiModelProperty("当前总行数")
+    private long totalLines;
+
+    @ApiModelProperty("日志是否已经写完")
+    private boolean finished;
+
+    @ApiModelProperty("日志行")
+    private List<ExecutionLogLineDTO> lines;
+
+}
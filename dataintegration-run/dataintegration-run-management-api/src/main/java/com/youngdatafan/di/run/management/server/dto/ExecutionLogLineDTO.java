@@ -0,0 +1,29 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 执行日志行
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel("执行日志行")
+public class ExecutionLogLineDTO {
+
+    @ApiModelProperty("行号，从0开始")
+    private long lineNumber;
+
+    @ApiModelProperty("日志时间")
+    private long timestamp;
+
+    @ApiModelProperty("日志内容")
+    private String text;
+
+}
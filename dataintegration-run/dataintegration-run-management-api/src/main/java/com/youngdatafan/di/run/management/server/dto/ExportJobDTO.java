@@ -0,0 +1,59 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 数据导出任务
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+@ApiModel("数据导出任务响应对象")
+public class ExportJobDTO {
+
+    @ApiModelProperty("任务id")
+    private String jobId;
+
+    @ApiModelProperty("提交任务的用户id")
+    private String userId;
+
+    @ApiModelProperty("下载的文件名称，包括扩展名")
+    private String fileName;
+
+    @ApiModelProperty("文件格式")
+    private String format;
+
+    @ApiModelProperty("任务状态，QUEUED、RUNNING、SUCCESS、FAILED、CANCELLED")
+    private String status;
+
+    @ApiModelProperty("执行实例id")
+    private String instanceId;
+
+    @ApiModelProperty("提交时间，毫秒")
+    private long submitTime;
+
+    @ApiModelProperty("开始运行时间，毫秒")
+    private Long startTime;
+
+    @ApiModelProperty("结束时间，毫秒")
+    private Long endTime;
+
+    @ApiModelProperty("已写出的行数")
+    private long rows;
+
+    @ApiModelProperty("是否达到最大行数，之后的数据没有导出")
+    private boolean truncated;
+
+    @ApiModelProperty("文件大小，字节，导出成功后设置")
+    private Long size;
+
+    @ApiModelProperty("导出失败的原因")
+    private String message;
+
+}
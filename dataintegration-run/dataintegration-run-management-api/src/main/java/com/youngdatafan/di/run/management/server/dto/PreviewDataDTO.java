@@ -0,0 +1,35 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * 数据预览结果，字段名只返回一次，每行数据为数组，顺序与字段名一致
+ *
+ * @author gavin
+ */
+@Data
+@ApiModel("数据预览响应对象")
+public class PreviewDataDTO {
+
+    @ApiModelProperty("字段名")
+    private List<String> fieldNames;
+
+    @ApiModelProperty("行数据")
+    private List<Object[]> rows;
+
+    @ApiModelProperty("页号，从1开始，按字段分页时为空")
+    private Integer pageNo;
+
+    @ApiModelProperty("每页大小")
+    private int pageSize;
+
+    @ApiModelProperty("是否还有下一页")
+    private boolean hasMore;
+
+    @ApiModelProperty("按字段分页时本页最后一行的字段值，作为下一页的查询条件")
+    private Object lastKey;
+
+}
@@ -0,0 +1,30 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * 项目排队状态
+ *
+ * @author gavin
+ */
+@Builder
+@Data
+@ApiModel("项目排队状态响应对象")
+public class ProjectExecuteQueueDTO {
+
+    @ApiModelProperty(value = "请求编号")
+    private String requestId;
+
+    @ApiModelProperty("执行器id")
+    private String executorId;
+
+    @ApiModelProperty("排队位置，从1开始")
+    private int position;
+
+    @ApiModelProperty("当前排队总数")
+    private int queued;
+
+}
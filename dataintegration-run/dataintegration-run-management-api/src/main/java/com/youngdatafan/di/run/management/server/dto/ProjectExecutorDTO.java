@@ -28,6 +28,9 @@ public class ProjectExecutorDTO {
     @ApiModelProperty("是否执行完成")
     private boolean transFinished;
 
+    @ApiModelProperty("是否为增量消息(executorSteps只包含状态发生变化的步骤)")
+    private boolean incremental;
+
     @ApiModelProperty("运行时日志")
     private String log;
 
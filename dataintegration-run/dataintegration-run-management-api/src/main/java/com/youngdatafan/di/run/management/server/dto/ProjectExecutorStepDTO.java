@@ -76,6 +76,46 @@ public class ProjectExecutorStepDTO {
      */
     private String speed;
 
+    /**
+     * 输入 RowSet 缓存的行数
+     */
+    private Integer inputRowSetSize;
+
+    /**
+     * 输出 RowSet 缓存的行数
+     */
+    private Integer outputRowSetSize;
+
+    /**
+     * 单个 RowSet 的容量
+     */
+    private Integer rowSetCapacity;
+
+    /**
+     * 输出 RowSet 已满的等待时间（毫秒，采样估算）
+     */
+    private Long putBlockedMillis;
+
+    /**
+     * 输入 RowSet 为空的等待时间（毫秒，采样估算）
+     */
+    private Long getBlockedMillis;
+
+    /**
+     * 最近10秒的处理速度（条记录/秒）
+     */
+    private Double rowsPerSecond10s;
+
+    /**
+     * 最近60秒的处理速度（条记录/秒）
+     */
+    private Double rowsPerSecond60s;
+
+    /**
+     * 步骤线程CPU时间（毫秒），-1表示未采集到
+     */
+    private Long cpuMillis;
+
     /**
      * 预览数据 字段名集合
      */
@@ -198,6 +238,70 @@ public class ProjectExecutorStepDTO {
         this.speed = speed;
     }
 
+    public Integer getInputRowSetSize() {
+        return inputRowSetSize;
+    }
+
+    public void setInputRowSetSize(Integer inputRowSetSize) {
+        this.inputRowSetSize = inputRowSetSize;
+    }
+
+    public Integer getOutputRowSetSize() {
+        return outputRowSetSize;
+    }
+
+    public void setOutputRowSetSize(Integer outputRowSetSize) {
+        this.outputRowSetSize = outputRowSetSize;
+    }
+
+    public Integer getRowSetCapacity() {
+        return rowSetCapacity;
+    }
+
+    public void setRowSetCapacity(Integer rowSetCapacity) {
+        this.rowSetCapacity = rowSetCapacity;
+    }
+
+    public Long getPutBlockedMillis() {
+        return putBlockedMillis;
+    }
+
+    public void setPutBlockedMillis(Long putBlockedMillis) {
+        this.putBlockedMillis = putBlockedMillis;
+    }
+
+    public Long getGetBlockedMillis() {
+        return getBlockedMillis;
+    }
+
+    public void setGetBlockedMillis(Long getBlockedMillis) {
+        this.getBlockedMillis = getBlockedMillis;
+    }
+
+    public Double getRowsPerSecond10s() {
+        return rowsPerSecond10s;
+    }
+
+    public void setRowsPerSecond10s(Double rowsPerSecond10s) {
+        this.rowsPerSecond10s = rowsPerSecond10s;
+    }
+
+    public Double getRowsPerSecond60s() {
+        return rowsPerSecond60s;
+    }
+
+    public void setRowsPerSecond60s(Double rowsPerSecond60s) {
+        this.rowsPerSecond60s = rowsPerSecond60s;
+    }
+
+    public Long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    public void setCpuMillis(Long cpuMillis) {
+        this.cpuMillis = cpuMillis;
+    }
+
     public List<String> getPreviewFieldNames() {
         return previewFieldNames;
     }
@@ -0,0 +1,58 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 调度执行任务
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+@ApiModel("调度执行任务响应对象")
+public class ScheduleJobDTO {
+
+    @ApiModelProperty("任务id，与执行器id相同")
+    private String jobId;
+
+    @ApiModelProperty(value = "请求编号")
+    private String requestId;
+
+    @ApiModelProperty("项目编号")
+    private String projectId;
+
+    @ApiModelProperty("项目名称")
+    private String projectName;
+
+    @ApiModelProperty("任务状态，QUEUED、RUNNING、SUCCESS、FAILED、CANCELLED")
+    private String status;
+
+    @ApiModelProperty("执行实例id")
+    private String instanceId;
+
+    @ApiModelProperty("提交时间，毫秒")
+    private long submitTime;
+
+    @ApiModelProperty("开始运行时间，毫秒")
+    private Long startTime;
+
+    @ApiModelProperty("结束时间，毫秒")
+    private Long endTime;
+
+    @ApiModelProperty("执行失败的原因")
+    private String message;
+
+    @ApiModelProperty("执行完成后回调的地址")
+    private String webhookUrl;
+
+    @ApiModelProperty("步骤运行状态")
+    private List<ScheduleJobStepDTO> steps = new ArrayList<>();
+
+}
@@ -0,0 +1,56 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 调度执行任务步骤状态
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+@ApiModel("调度执行任务步骤状态")
+public class ScheduleJobStepDTO {
+
+    @ApiModelProperty("步骤名称")
+    private String stepName;
+
+    @ApiModelProperty("步骤副本")
+    private int copy;
+
+    @ApiModelProperty("步骤执行状态")
+    private String status;
+
+    @ApiModelProperty("读行数")
+    private long linesRead;
+
+    @ApiModelProperty("写行数")
+    private long linesWritten;
+
+    @ApiModelProperty("输入行数")
+    private long linesInput;
+
+    @ApiModelProperty("输出行数")
+    private long linesOutput;
+
+    @ApiModelProperty("更新行数")
+    private long linesUpdated;
+
+    @ApiModelProperty("拒绝行数")
+    private long linesRejected;
+
+    @ApiModelProperty("错误数")
+    private long errors;
+
+    @ApiModelProperty("累计运行时间，秒")
+    private double seconds;
+
+    @ApiModelProperty("最近10秒的处理速度（条记录/秒）")
+    private Double rowsPerSecond10s;
+
+}
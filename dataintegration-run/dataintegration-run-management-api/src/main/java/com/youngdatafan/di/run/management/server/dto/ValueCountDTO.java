@@ -0,0 +1,25 @@
+package com.youngdatafan.di.run.management.server.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 字段值及出现次数
+ *
+ * @author gavin
+ */
+@Data
+@ApiModel("字段值次数响应对象")
+public class ValueCountDTO {
+
+    @ApiModelProperty("字段值")
+    private Object value;
+
+    @ApiModelProperty("出现次数，近似值，不小于真实次数")
+    private long count;
+
+    @ApiModelProperty("出现次数的最大误差，为0时次数准确")
+    private long error;
+
+}
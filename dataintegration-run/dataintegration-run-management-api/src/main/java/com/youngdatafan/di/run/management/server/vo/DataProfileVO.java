@@ -0,0 +1,58 @@
+package com.youngdatafan.di.run.management.server.vo;
+
+import com.youngdatafan.di.run.management.util.SqlEncoderUtil;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+/**
+ * @author gavin
+ */
+@ApiModel(description = "数据统计对象")
+public class DataProfileVO {
+
+    @ApiModelProperty(value = "数据查询sql")
+    @NotBlank
+    private String dataQuerySql;
+    @ApiModelProperty(value = "数据源Id", required = true)
+    @NotNull
+    private String dataSourceId;
+    @ApiModelProperty(value = "最多统计的行数，为空时使用默认值")
+    private Integer sampleRows;
+    @ApiModelProperty(value = "每个字段返回出现次数最多的值个数，为空时使用默认值")
+    private Integer topK;
+
+    public String getDataQuerySql() {
+        return dataQuerySql;
+    }
+
+    public void setDataQuerySql(String dataQuerySql) {
+        this.dataQuerySql = SqlEncoderUtil.decode(dataQuerySql);
+    }
+
+    public String getDataSourceId() {
+        return dataSourceId;
+    }
+
+    public void setDataSourceId(String dataSourceId) {
+        this.dataSourceId = dataSourceId;
+    }
+
+    public Integer getSampleRows() {
+        return sampleRows;
+    }
+
+    public void setSampleRows(Integer sampleRows) {
+        this.sampleRows = sampleRows;
+    }
+
+    public Integer getTopK() {
+        return topK;
+    }
+
+    public void setTopK(Integer topK) {
+        this.topK = topK;
+    }
+}
@@ -17,9 +17,15 @@ public class PreviewDataVO {
     @ApiModelProperty(value = "数据查询sql")
     @NotBlank
     String dataQuerySql;
-    @ApiModelProperty(value = "查询多少条记录", required = true)
+    @ApiModelProperty(value = "每页记录数", required = true)
     @NotNull
     Integer size;
+    @ApiModelProperty(value = "页号，从1开始，默认第1页")
+    private Integer pageNo;
+    @ApiModelProperty(value = "按该字段分页，字段值需要唯一，为空时按页号分页")
+    private String keyField;
+    @ApiModelProperty(value = "按字段分页时上一页最后一行的字段值，为空时查询第一页")
+    private Object lastKey;
     @ApiModelProperty(value = "数据源Id", required = true)
     @NotNull
     private String dataSourceId;
@@ -47,4 +53,28 @@ public class PreviewDataVO {
     public void setSize(Integer size) {
         this.size = size;
     }
+
+    public Integer getPageNo() {
+        return pageNo;
+    }
+
+    public void setPageNo(Integer pageNo) {
+        this.pageNo = pageNo;
+    }
+
+    public String getKeyField() {
+        return keyField;
+    }
+
+    public void setKeyField(String keyField) {
+        this.keyField = keyField;
+    }
+
+    public Object getLastKey() {
+        return lastKey;
+    }
+
+    public void setLastKey(Object lastKey) {
+        this.lastKey = lastKey;
+    }
 }
@@ -17,7 +17,7 @@ public class PreviewDownloadVO {
     @ApiModelProperty(value = "数据查询sql")
     @NotBlank
     String dataQuerySql;
-    @ApiModelProperty(value = "下载的excel名称", required = true)
+    @ApiModelProperty(value = "下载的文件名称，不包括扩展名", required = true)
     @NotBlank
     private String fileName;
     @ApiModelProperty(value = "数据源Id", required = true)
@@ -28,6 +28,9 @@ public class PreviewDownloadVO {
     @NotNull
     private StepFieldVO[] stepFields;
 
+    @ApiModelProperty(value = "文件格式：xlsx、csv、tsv、jsonl，默认xlsx")
+    private String format;
+
     public String getFileName() {
         return fileName;
     }
@@ -59,4 +62,12 @@ public class PreviewDownloadVO {
     public void setStepFields(StepFieldVO[] stepFields) {
         this.stepFields = stepFields;
     }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
 }
@@ -55,6 +55,11 @@ public class ProjectExecutorParam {
      */
     private String userName;
 
+    /**
+     * 租户id
+     */
+    private String tenantId;
+
     /**
      * 从这个步骤开始执行
      */
@@ -86,10 +91,35 @@ public class ProjectExecutorParam {
     private int previewSize;
 
     /**
-     * 数据预览行数
+     * 数据预览模式，FIRST、LAST、RESERVOIR、STRIDED、STRATIFIED
      */
     private String previewModel;
 
+    /**
+     * 数据预览随机种子，RESERVOIR、STRATIFIED 模式使用，为空时随机
+     */
+    private Long previewSeed;
+
+    /**
+     * 数据预览分层字段，STRATIFIED 模式使用
+     */
+    private String previewKeyField;
+
+    /**
+     * 开启断点，按间隔记录输入步骤已提交的位置
+     */
+    private boolean checkpoint;
+
+    /**
+     * 表输入的断点字段，表输入按该字段排序并记录已提交的最大值
+     */
+    private String checkpointKeyField;
+
+    /**
+     * 从上次执行失败时记录的断点继续执行
+     */
+    private boolean resume;
+
     /**
      * 变量
      */
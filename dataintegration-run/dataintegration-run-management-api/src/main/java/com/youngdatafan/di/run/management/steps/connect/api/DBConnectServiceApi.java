@@ -34,15 +34,17 @@ public interface DBConnectServiceApi {
     @PostMapping(value = "/testConnect")
     Result testConnect(@Validated @RequestBody ConnectionDetailVO connectionDetailVO);
 
-    @ApiOperation(value = "预览数据")
+    @ApiOperation(value = "预览数据，相同连接和sql的结果会缓存，refresh为true时重新查询")
     @PostMapping(value = "/previewData")
-    Result<PreviewDataInfoDTO,Object> previewData(@Validated @RequestBody QueryVO queryVO);
+    Result<PreviewDataInfoDTO,Object> previewData(@Validated @RequestBody QueryVO queryVO
+            , @RequestParam(value = "refresh", defaultValue = "false") boolean refresh);
 
 
 
-    @ApiOperation(value = "获取字段信息")
+    @ApiOperation(value = "获取字段信息，相同连接和sql的结果会缓存，refresh为true时重新查询")
     @PostMapping(value = "/getFieldInfo")
-    Result<List<FieldDTO>,Object> getFieldInfo(@Validated @RequestBody QueryVO queryVO);
+    Result<List<FieldDTO>,Object> getFieldInfo(@Validated @RequestBody QueryVO queryVO
+            , @RequestParam(value = "refresh", defaultValue = "false") boolean refresh);
 
 
 
@@ -16,9 +16,10 @@ import java.util.List;
 @Api(tags = "csv文件输入接口")
 public interface DbLookupApi {
 
-    @ApiOperation(value = "获取字段", produces = "application/json")
+    @ApiOperation(value = "获取字段，相同连接和表的结果会缓存，refresh为true时重新查询", produces = "application/json")
     @PostMapping(value = "/getTableColumns")
     Result<List<TableFieldVO>, Object> getTableColumns(@RequestHeader("authorization-userId") String userId
-            , @RequestBody String json, @RequestParam String tableName, @RequestParam String connectName, @RequestParam String schema) throws KettleException, IOException;
+            , @RequestBody String json, @RequestParam String tableName, @RequestParam String connectName, @RequestParam String schema
+            , @RequestParam(value = "refresh", defaultValue = "false") boolean refresh) throws KettleException, IOException;
 
 }
@@ -0,0 +1,119 @@
+package com.youngdatafan.di.run.benchmark;
+
+import com.youngdatafan.dataintegration.core.util.encryption.DefaultEncryptionUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * 步骤基准测试基类
+ * <p>
+ * 每次调用完整处理一遍生成的数据（processRow 直到返回 false），步骤的创建、初始化和释放不计入测量时间。
+ * 结果中的吞吐为每秒处理的遍数，rows、bytes 为每秒的行数和字节数，分配速率使用 {@code -prof gc} 查看。
+ *
+ * @author gavin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public abstract class AbstractStepBenchmark {
+
+    /**
+     * 本地文件，插件按该类型创建文件系统配置
+     */
+    protected static final String FILE_SERVER_TYPE = "local";
+
+    /**
+     * 插件初始化时会解密 ftp 密码，本地文件使用加密后的空密码
+     */
+    protected static final String FTP_PASSWORD = DefaultEncryptionUtils.encrypt("");
+
+    /**
+     * 列数
+     */
+    @Param({"10", "50"})
+    public int columns;
+
+    /**
+     * 字符串字段的字符数
+     */
+    @Param({"16"})
+    public int fieldWidth;
+
+    /**
+     * 行数
+     */
+    @Param({"100000"})
+    public int rows;
+
+    protected BenchmarkData data;
+
+    protected File workDir;
+
+    private StepHarness harness;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        StepHarness.initEnvironment();
+        workDir = Files.createTempDirectory("dp-benchmark").toFile();
+        data = new BenchmarkData(columns, fieldWidth, rows);
+        harness = createHarness();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        harness.init();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        harness.dispose();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    @Benchmark
+    public void processRows(StepCounters counters, Blackhole blackhole) throws KettleException {
+        counters.rows += harness.run(blackhole);
+        counters.bytes += bytesPerPass();
+    }
+
+    /**
+     * 目录下所有文件的大小，用于统计输出步骤写出的字节数
+     */
+    protected static long sizeOf(File dir) {
+        return dir.exists() ? FileUtils.sizeOfDirectory(dir) : 0;
+    }
+
+    /**
+     * 创建被测步骤，生成的文件放在 {@link #workDir}
+     */
+    protected abstract StepHarness createHarness() throws Exception;
+
+    /**
+     * 处理一遍数据的字节数：文件输入为文件大小，文件输出为写出的文件大小，其它步骤为输入行估算的内存
+     */
+    protected abstract long bytesPerPass();
+}
@@ -0,0 +1,32 @@
+package com.youngdatafan.di.run.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.steps.textfileinput.TextFileInputField;
+
+/**
+ * 文本文件步骤基准测试基类，增加文件编码参数
+ *
+ * @author gavin
+ */
+public abstract class AbstractTextFileBenchmark extends AbstractStepBenchmark {
+
+    /**
+     * 文件编码
+     */
+    @Param({"UTF-8", "GBK"})
+    public String encoding;
+
+    /**
+     * csv 类输入步骤的字段定义
+     */
+    protected TextFileInputField[] csvInputFields() {
+        final TextFileInputField[] fields = new TextFileInputField[data.getColumns()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new TextFileInputField(BenchmarkData.fieldName(i), -1, -1);
+            fields[i].setType(data.getType(i));
+            fields[i].setTrimType(ValueMetaInterface.TRIM_TYPE_NONE);
+        }
+        return fields;
+    }
+}
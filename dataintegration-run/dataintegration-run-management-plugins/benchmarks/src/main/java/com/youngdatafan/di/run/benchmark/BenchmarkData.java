@@ -0,0 +1,212 @@
+package com.youngdatafan.di.run.benchmark;
+
+import com.youngdatafan.dataintegration.core.memory.RowSizeEstimator;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * 基准测试数据
+ * <p>
+ * 按列数、字段宽度和行数生成固定种子的数据：每3列中第2列为整数，其余为包含中文的字符串，
+ * 可以写成 csv、gzip 压缩的 csv 或者 xlsx 文件，不依赖任何外部服务。
+ *
+ * @author gavin
+ */
+public class BenchmarkData {
+
+    public static final String SEPARATOR = ",";
+
+    public static final String SHEET_NAME = "Sheet1";
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789数据集成测试字段转换".toCharArray();
+
+    private static final long SEED = 20200601L;
+
+    private final int columns;
+
+    private final int fieldWidth;
+
+    private final int rows;
+
+    private final RowMetaInterface rowMeta;
+
+    private final List<Object[]> data;
+
+    /**
+     * @param columns    列数
+     * @param fieldWidth 字符串字段的字符数
+     * @param rows       行数
+     */
+    public BenchmarkData(int columns, int fieldWidth, int rows) {
+        this.columns = columns;
+        this.fieldWidth = fieldWidth;
+        this.rows = rows;
+        this.rowMeta = createRowMeta(columns, fieldWidth);
+        this.data = createRows();
+    }
+
+    private static RowMetaInterface createRowMeta(int columns, int fieldWidth) {
+        final RowMetaInterface rowMeta = new RowMeta();
+        for (int i = 0; i < columns; i++) {
+            if (isInteger(i)) {
+                rowMeta.addValueMeta(new ValueMetaInteger(fieldName(i), 15, 0));
+            } else {
+                rowMeta.addValueMeta(new ValueMetaString(fieldName(i), fieldWidth, -1));
+            }
+        }
+        return rowMeta;
+    }
+
+    private List<Object[]> createRows() {
+        final Random random = new Random(SEED);
+        final List<Object[]> result = new ArrayList<>(rows);
+        final char[] chars = new char[fieldWidth];
+        for (int r = 0; r < rows; r++) {
+            final Object[] row = new Object[columns];
+            for (int i = 0; i < columns; i++) {
+                if (isInteger(i)) {
+                    row[i] = (long) random.nextInt(Integer.MAX_VALUE);
+                } else {
+                    for (int c = 0; c < chars.length; c++) {
+                        chars[c] = ALPHABET[random.nextInt(ALPHABET.length)];
+                    }
+                    row[i] = new String(chars);
+                }
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * 第i列是否为整数
+     */
+    public static boolean isInteger(int i) {
+        return i % 3 == 1;
+    }
+
+    public static String fieldName(int i) {
+        return "field" + i;
+    }
+
+    /**
+     * 写出带表头的 csv 文件，字段不含分隔符和换行，不使用包围符
+     *
+     * @param dir      目录
+     * @param encoding 编码
+     * @param gzip     是否 gzip 压缩
+     * @return 文件
+     */
+    public File writeCsv(File dir, String encoding, boolean gzip) throws IOException {
+        final File file = new File(dir, "data-" + columns + "x" + fieldWidth + "x" + rows + "-" + encoding + (gzip ? ".csv.gz" : ".csv"));
+        try (OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file), 65536) : new FileOutputStream(file);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, encoding), 65536)) {
+            for (int i = 0; i < columns; i++) {
+                if (i > 0) {
+                    writer.write(SEPARATOR);
+                }
+                writer.write(fieldName(i));
+            }
+            writer.write('\n');
+
+            for (Object[] row : data) {
+                for (int i = 0; i < columns; i++) {
+                    if (i > 0) {
+                        writer.write(SEPARATOR);
+                    }
+                    writer.write(String.valueOf(row[i]));
+                }
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 写出带表头的 xlsx 文件
+     *
+     * @param dir 目录
+     * @return 文件
+     */
+    public File writeXlsx(File dir) throws IOException {
+        final File file = new File(dir, "data-" + columns + "x" + fieldWidth + "x" + rows + ".xlsx");
+        final SXSSFWorkbook workbook = new SXSSFWorkbook(1000);
+        try (OutputStream out = new FileOutputStream(file)) {
+            final Sheet sheet = workbook.createSheet(SHEET_NAME);
+            final Row header = sheet.createRow(0);
+            for (int i = 0; i < columns; i++) {
+                header.createCell(i).setCellValue(fieldName(i));
+            }
+
+            for (int r = 0; r < data.size(); r++) {
+                final Object[] values = data.get(r);
+                final Row row = sheet.createRow(r + 1);
+                for (int i = 0; i < columns; i++) {
+                    final Cell cell = row.createCell(i);
+                    if (values[i] instanceof Long) {
+                        cell.setCellValue((Long) values[i]);
+                    } else {
+                        cell.setCellValue((String) values[i]);
+                    }
+                }
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+        return file;
+    }
+
+    /**
+     * 估算行占用的堆内存，用于内存中处理的步骤计算吞吐字节数
+     */
+    public static long estimateBytes(List<Object[]> rows) {
+        long bytes = 0;
+        for (Object[] row : rows) {
+            bytes += RowSizeEstimator.estimate(row);
+        }
+        return bytes;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    public List<Object[]> getData() {
+        return data;
+    }
+
+    /**
+     * 第i列的字段类型，见 {@link ValueMetaInterface}
+     */
+    public int getType(int i) {
+        return rowMeta.getValueMeta(i).getType();
+    }
+}
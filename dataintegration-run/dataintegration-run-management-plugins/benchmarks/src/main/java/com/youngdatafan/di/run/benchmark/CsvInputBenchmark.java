@@ -0,0 +1,44 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.io.File;
+import org.openjdk.jmh.annotations.Param;
+import org.pentaho.di.plugins.csv.input.step.CsvInputMeta2;
+
+/**
+ * csv文件输入
+ *
+ * @author gavin
+ */
+public class CsvInputBenchmark extends AbstractTextFileBenchmark {
+
+    /**
+     * 是否延迟转换
+     */
+    @Param({"true", "false"})
+    public boolean lazyConversion;
+
+    private File file;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        file = data.writeCsv(workDir, encoding, false);
+
+        final CsvInputMeta2 meta = new CsvInputMeta2();
+        meta.setDefault();
+        meta.setFilename(file.getAbsolutePath());
+        meta.setFileServerType(FILE_SERVER_TYPE);
+        meta.setFtpPassword(FTP_PASSWORD);
+        meta.setEncoding(encoding);
+        meta.setFileFormat("mixed");
+        meta.setDelimiter(BenchmarkData.SEPARATOR);
+        meta.setHeaderPresent(true);
+        meta.setLazyConversionActive(lazyConversion);
+        meta.setInputFields(csvInputFields());
+        return new StepHarness("CsvInput2", meta);
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return file.length();
+    }
+}
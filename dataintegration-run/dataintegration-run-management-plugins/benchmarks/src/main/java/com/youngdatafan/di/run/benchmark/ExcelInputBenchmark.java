@@ -0,0 +1,59 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.io.File;
+import org.openjdk.jmh.annotations.Param;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.plugins.excel.input.step.ExcelInputField;
+import org.pentaho.di.plugins.excel.input.step.ExcelInputMeta2;
+import org.pentaho.di.plugins.excel.input.step.SpreadSheetType;
+
+/**
+ * excel输入，读 xlsx 文件
+ *
+ * @author gavin
+ */
+public class ExcelInputBenchmark extends AbstractStepBenchmark {
+
+    /**
+     * 读取方式，POI 会把整个文件读入内存，需要配合较小的行数：-p spreadSheetType=POI -p rows=10000
+     */
+    @Param({"SAX_POI"})
+    public String spreadSheetType;
+
+    private File file;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        file = data.writeXlsx(workDir);
+
+        final ExcelInputMeta2 meta = new ExcelInputMeta2();
+        meta.setDefault();
+        meta.setFileName(new String[]{file.getAbsolutePath()});
+        meta.setFileMask(new String[]{""});
+        meta.setExcludeFileMask(new String[]{""});
+        meta.setFileRequired(new String[]{"Y"});
+        meta.setIncludeSubFolders(new String[]{"N"});
+        meta.setFileServerType(FILE_SERVER_TYPE);
+        meta.setFtpPassword(FTP_PASSWORD);
+        meta.setSheetName(new String[]{BenchmarkData.SHEET_NAME});
+        meta.setStartRow(new int[]{0});
+        meta.setStartColumn(new int[]{0});
+        meta.setStartsWithHeader(true);
+        meta.setAddResultFile(false);
+        meta.setSpreadSheetType(SpreadSheetType.valueOf(spreadSheetType));
+
+        final ExcelInputField[] fields = new ExcelInputField[data.getColumns()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new ExcelInputField(BenchmarkData.fieldName(i), -1, -1);
+            fields[i].setType(data.getType(i));
+            fields[i].setTrimType(ValueMetaInterface.TRIM_TYPE_NONE);
+        }
+        meta.setField(fields);
+        return new StepHarness("ExcelInput2", meta);
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return file.length();
+    }
+}
@@ -0,0 +1,50 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.io.File;
+import org.openjdk.jmh.annotations.Param;
+import org.pentaho.di.plugins.excelwriter.output.step.ExcelWriterStepField;
+import org.pentaho.di.plugins.excelwriter.output.step.ExcelWriterStepMeta2;
+
+/**
+ * excel输出，写 xlsx 文件
+ *
+ * @author gavin
+ */
+public class ExcelWriterBenchmark extends AbstractStepBenchmark {
+
+    /**
+     * 是否流式写出（SXSSF），非流式写出全部单元格都在内存中，需要配合较小的行数：-p streaming=false -p rows=10000
+     */
+    @Param({"true"})
+    public boolean streaming;
+
+    private File outputDir;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        outputDir = new File(workDir, "output");
+
+        final ExcelWriterStepMeta2 meta = new ExcelWriterStepMeta2();
+        meta.setDefault();
+        meta.setFileName(new File(outputDir, "output").getAbsolutePath());
+        meta.setExtension("xlsx");
+        meta.setFileServerType(FILE_SERVER_TYPE);
+        meta.setFtpPassword(FTP_PASSWORD);
+        meta.setStreamingData(streaming);
+        meta.setAddToResultFiles(false);
+
+        final ExcelWriterStepField[] fields = new ExcelWriterStepField[data.getColumns()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new ExcelWriterStepField(BenchmarkData.fieldName(i), data.getType(i), null);
+        }
+        meta.setOutputFields(fields);
+
+        return new StepHarness("TypeExitExcelWriterStep2", meta)
+                .addInput("input", data.getRowMeta(), data.getData());
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return sizeOf(outputDir);
+    }
+}
@@ -0,0 +1,64 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.util.List;
+import org.openjdk.jmh.annotations.Param;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.plugins.joinRows.step.JoinRowsMeta;
+
+/**
+ * 记录关联（笛卡尔积），不设置关联条件
+ * <p>
+ * 关联输入为前 lookupRows 行（字段重命名），主输入为前 rows / lookupRows 行，输出行数约为 rows；
+ * 关联输入超过 cacheSize 时写入临时文件。字节数按两个输入估算的内存计算。
+ *
+ * @author gavin
+ */
+public class JoinRowsBenchmark extends AbstractStepBenchmark {
+
+    /**
+     * 关联输入的行数
+     */
+    @Param({"10", "1000"})
+    public int lookupRows;
+
+    /**
+     * 关联输入在内存中缓存的行数
+     */
+    @Param({"500"})
+    public int cacheSize;
+
+    private long inputBytes;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        final List<Object[]> lookup = data.getData().subList(0, Math.min(lookupRows, data.getRows()));
+        final List<Object[]> main = data.getData().subList(0, Math.max(1, data.getRows() / lookup.size()));
+
+        final RowMetaInterface lookupRowMeta = new RowMeta();
+        for (ValueMetaInterface valueMeta : data.getRowMeta().getValueMetaList()) {
+            final ValueMetaInterface lookupValueMeta = valueMeta.clone();
+            lookupValueMeta.setName("lookup_" + valueMeta.getName());
+            lookupRowMeta.addValueMeta(lookupValueMeta);
+        }
+        inputBytes = BenchmarkData.estimateBytes(main) + BenchmarkData.estimateBytes(lookup);
+
+        final JoinRowsMeta meta = new JoinRowsMeta();
+        meta.setDefault();
+        meta.setDirectory(workDir.getAbsolutePath());
+        meta.setCacheSize(cacheSize);
+        meta.setMainStepname("main");
+        meta.setFileServerType(FILE_SERVER_TYPE);
+        meta.setFtpPassword(FTP_PASSWORD);
+
+        return new StepHarness("JoinRows2", meta)
+                .addInput("main", data.getRowMeta(), main)
+                .addInput("lookup", lookupRowMeta, lookup);
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return inputBytes;
+    }
+}
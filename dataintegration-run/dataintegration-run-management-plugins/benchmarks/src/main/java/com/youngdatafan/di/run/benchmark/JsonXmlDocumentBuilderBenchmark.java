@@ -0,0 +1,91 @@
+package com.youngdatafan.di.run.benchmark;
+
+import com.youngdatafan.dataintegration.core.util.json.JSONLinkedObject;
+import com.youngdatafan.dataintegration.core.util.json.JsonXmlDocumentBuilder;
+import com.youngdatafan.dataintegration.core.util.json.XML;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * 项目json转换成 Document：原来的 反转义 -> JSONLinkedObject -> xml字符串 -> 解析，与流式直接构建对比
+ * <p>
+ * 每个步骤20个字段，每次转换的分配字节数使用 {@code -prof gc} 查看。
+ *
+ * @author gavin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class JsonXmlDocumentBuilderBenchmark {
+
+    /**
+     * 步骤数
+     */
+    @Param({"50", "500"})
+    public int steps;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = project(steps);
+    }
+
+    @Benchmark
+    public Document xmlString() throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + XML.toString(new JSONLinkedObject(StringEscapeUtils.unescapeXml(json)));
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public Document streaming() throws Exception {
+        return JsonXmlDocumentBuilder.toDocument(json);
+    }
+
+    private static String project(int stepCount) {
+        final StringBuilder sb = new StringBuilder("{\"transformation\":{\"info\":{\"name\":\"benchmark\",\"size_rowset\":10000},\"order\":{\"hop\":[");
+        for (int i = 1; i < stepCount; i++) {
+            if (i > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"from\":\"step").append(i - 1).append("\",\"to\":\"step").append(i).append("\",\"enabled\":\"Y\"}");
+        }
+        sb.append("]},\"step\":[");
+        for (int i = 0; i < stepCount; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":\"step").append(i).append("\",\"type\":\"TableInput\",\"copies\":1,")
+                    .append("\"sql\":\"select a, b, c from t").append(i).append(" where a &gt; 1\",")
+                    .append("\"GUI\":{\"xloc\":").append(i * 10).append(",\"yloc\":160,\"draw\":\"Y\"},\"fields\":{\"field\":[");
+            for (int j = 0; j < 20; j++) {
+                if (j > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"name\":\"field").append(j).append("\",\"type\":\"String\",\"length\":100,\"precision\":null}");
+            }
+            sb.append("]}}");
+        }
+        return sb.append("]}}").toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.io.File;
+import org.openjdk.jmh.annotations.Param;
+import org.pentaho.di.plugins.parallelGzipCsvInput.step.ParGzipCsvInputMeta;
+
+/**
+ * gzip压缩csv文件输入，字节数按压缩后的文件大小计算
+ *
+ * @author gavin
+ */
+public class ParGzipCsvInputBenchmark extends AbstractTextFileBenchmark {
+
+    /**
+     * 是否延迟转换
+     */
+    @Param({"true", "false"})
+    public boolean lazyConversion;
+
+    private File file;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        file = data.writeCsv(workDir, encoding, true);
+
+        final ParGzipCsvInputMeta meta = new ParGzipCsvInputMeta();
+        meta.setDefault();
+        meta.setFilename(file.getAbsolutePath());
+        meta.setFileServerType(FILE_SERVER_TYPE);
+        meta.setFtpPassword(FTP_PASSWORD);
+        meta.setEncoding(encoding);
+        meta.setDelimiter(BenchmarkData.SEPARATOR);
+        meta.setHeaderPresent(true);
+        meta.setLazyConversionActive(lazyConversion);
+        meta.setInputFields(csvInputFields());
+        return new StepHarness("ParallelGzipCsvInput2", meta);
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return file.length();
+    }
+}
@@ -0,0 +1,33 @@
+package com.youngdatafan.di.run.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 吞吐计数，JMH 按测量时间换算为每秒的行数（rows）和字节数（bytes）
+ *
+ * @author gavin
+ */
+@AuxCounters(AuxCounters.Type.EVENTS)
+@State(Scope.Thread)
+public class StepCounters {
+
+    /**
+     * 步骤输出的行数
+     */
+    public long rows;
+
+    /**
+     * 步骤读取或写出的字节数
+     */
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        rows = 0;
+        bytes = 0;
+    }
+}
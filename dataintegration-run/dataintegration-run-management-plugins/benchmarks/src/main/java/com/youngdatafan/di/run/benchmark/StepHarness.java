@@ -0,0 +1,180 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.QueueRowSet;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+/**
+ * 单个步骤的运行环境
+ * <p>
+ * 不启动转换线程，直接在当前线程中初始化步骤并循环调用 processRow：
+ * 输入行预先放入内存中的 {@link QueueRowSet}，步骤没有输出连接，输出的行交给 {@link Blackhole} 消费。
+ * 每次调用 {@link #init()} 都会创建新的步骤，准备工作不计入测量时间。
+ *
+ * @author gavin
+ */
+public class StepHarness {
+
+    public static final String STEP_NAME = "benchmark";
+
+    private final String stepId;
+
+    private final StepMetaInterface meta;
+
+    private final List<Input> inputs = new ArrayList<>();
+
+    private Trans trans;
+
+    private StepDataInterface data;
+
+    private StepInterface step;
+
+    private Blackhole blackhole;
+
+    private long rows;
+
+    /**
+     * @param stepId 步骤类型
+     * @param meta   步骤配置
+     */
+    public StepHarness(String stepId, StepMetaInterface meta) {
+        this.stepId = stepId;
+        this.meta = meta;
+    }
+
+    /**
+     * 初始化 kettle 环境，每个进程只初始化一次
+     */
+    public static synchronized void initEnvironment() throws KettleException {
+        if (!KettleEnvironment.isInitialized()) {
+            KettleEnvironment.init(false);
+        }
+    }
+
+    /**
+     * 添加一个输入连接，第一个输入为主输入
+     *
+     * @param fromStepName 上游步骤名称
+     * @param rowMeta      行元数据
+     * @param rows         输入的行，每次初始化重新放入连接
+     */
+    public StepHarness addInput(String fromStepName, RowMetaInterface rowMeta, List<Object[]> rows) {
+        inputs.add(new Input(fromStepName, rowMeta, rows));
+        return this;
+    }
+
+    /**
+     * 创建并初始化步骤
+     */
+    public void init() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta stepMeta = new StepMeta(stepId, STEP_NAME, meta);
+        transMeta.addStep(stepMeta);
+
+        trans = new Trans(transMeta);
+        trans.setLogLevel(LogLevel.ERROR);
+        data = meta.getStepData();
+        step = meta.getStep(stepMeta, data, 0, transMeta, trans);
+        step.initializeVariablesFrom(trans);
+
+        for (Input input : inputs) {
+            final QueueRowSet rowSet = new QueueRowSet();
+            rowSet.setThreadNameFromToCopy(input.fromStepName, 0, STEP_NAME, 0);
+            for (Object[] row : input.rows) {
+                rowSet.putRow(input.rowMeta, row);
+            }
+            rowSet.setDone();
+            step.getInputRowSets().add(rowSet);
+        }
+
+        rows = 0;
+        step.addRowListener(new RowAdapter() {
+            @Override
+            public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+                rows++;
+                blackhole.consume(row);
+            }
+        });
+
+        if (!step.init(meta, data)) {
+            throw new IllegalStateException("步骤初始化失败：" + stepId + "，" + lastErrors());
+        }
+        // 步骤读写行之前会等待转换进入运行状态
+        trans.setRunning(true);
+    }
+
+    /**
+     * 循环调用 processRow 直到步骤处理完成
+     *
+     * @param blackhole 消费输出的行
+     * @return 输出的行数
+     */
+    public long run(Blackhole blackhole) throws KettleException {
+        this.blackhole = blackhole;
+        while (step.processRow(meta, data) && !step.isStopped()) {
+            // 处理下一行
+        }
+        if (step.getErrors() > 0) {
+            throw new IllegalStateException("步骤执行失败：" + stepId + "，" + lastErrors());
+        }
+        return rows;
+    }
+
+    /**
+     * 释放步骤资源，关闭文件
+     */
+    public void dispose() {
+        if (step == null) {
+            return;
+        }
+        try {
+            step.setStopped(true);
+            step.setRunning(false);
+            step.dispose(meta, data);
+        } finally {
+            trans.setRunning(false);
+            KettleLogStore.discardLines(trans.getLogChannelId(), true);
+            step = null;
+            data = null;
+            trans = null;
+            blackhole = null;
+        }
+    }
+
+    private String lastErrors() {
+        return KettleLogStore.getAppender().getBuffer(trans.getLogChannelId(), false).toString();
+    }
+
+    public StepInterface getStep() {
+        return step;
+    }
+
+    private static class Input {
+
+        private final String fromStepName;
+
+        private final RowMetaInterface rowMeta;
+
+        private final List<Object[]> rows;
+
+        Input(String fromStepName, RowMetaInterface rowMeta, List<Object[]> rows) {
+            this.fromStepName = fromStepName;
+            this.rowMeta = rowMeta;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.io.File;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.plugins.textfile.input.step.TextFileInputMeta2;
+import org.pentaho.di.trans.steps.file.BaseFileField;
+
+/**
+ * 文本文件输入
+ *
+ * @author gavin
+ */
+public class TextFileInputBenchmark extends AbstractTextFileBenchmark {
+
+    private File file;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        file = data.writeCsv(workDir, encoding, false);
+
+        final TextFileInputMeta2 meta = new TextFileInputMeta2();
+        meta.setDefault();
+        meta.allocateFiles(1);
+        meta.inputFiles.fileName[0] = file.getAbsolutePath();
+        meta.inputFiles.fileMask[0] = "";
+        meta.inputFiles.excludeFileMask[0] = "";
+        meta.inputFiles.fileRequired[0] = "Y";
+        meta.inputFiles.includeSubFolders[0] = "N";
+        meta.inputFiles.isaddresult = false;
+
+        meta.content.fileServerType = FILE_SERVER_TYPE;
+        meta.content.ftpPassword = FTP_PASSWORD;
+        meta.content.encoding = encoding;
+        meta.content.fileFormat = "mixed";
+        meta.content.separator = BenchmarkData.SEPARATOR;
+
+        final BaseFileField[] fields = new BaseFileField[data.getColumns()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new BaseFileField(BenchmarkData.fieldName(i), -1, -1);
+            fields[i].setType(data.getType(i));
+            fields[i].setTrimType(ValueMetaInterface.TRIM_TYPE_NONE);
+        }
+        meta.inputFields = fields;
+        return new StepHarness("TextFileInput2", meta);
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return file.length();
+    }
+}
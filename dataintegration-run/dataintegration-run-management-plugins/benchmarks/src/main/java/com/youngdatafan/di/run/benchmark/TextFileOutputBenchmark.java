@@ -0,0 +1,45 @@
+package com.youngdatafan.di.run.benchmark;
+
+import java.io.File;
+import org.pentaho.di.plugins.textfile.output.step.TextFileField;
+import org.pentaho.di.plugins.textfile.output.step.TextFileOutputMeta;
+
+/**
+ * 文本文件输出
+ *
+ * @author gavin
+ */
+public class TextFileOutputBenchmark extends AbstractTextFileBenchmark {
+
+    private File outputDir;
+
+    @Override
+    protected StepHarness createHarness() throws Exception {
+        outputDir = new File(workDir, "output");
+
+        final TextFileOutputMeta meta = new TextFileOutputMeta();
+        meta.setDefault();
+        meta.setFilename(new File(outputDir, "output").getAbsolutePath());
+        meta.setExtension("csv");
+        meta.setFileServerType(FILE_SERVER_TYPE);
+        meta.setFtpPassword(FTP_PASSWORD);
+        meta.setEncoding(encoding);
+        meta.setSeparator(BenchmarkData.SEPARATOR);
+        meta.setFileFormat("UNIX");
+        meta.setAddToResultFiles(false);
+
+        final TextFileField[] fields = new TextFileField[data.getColumns()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new TextFileField(BenchmarkData.fieldName(i), data.getType(i), null, -1, -1, null, null, null, null);
+        }
+        meta.setOutputFields(fields);
+
+        return new StepHarness("TextFileOutput2", meta)
+                .addInput("input", data.getRowMeta(), data.getData());
+    }
+
+    @Override
+    protected long bytesPerPass() {
+        return sizeOf(outputDir);
+    }
+}
@@ -68,6 +68,11 @@ import java.util.List;
 public class CsvInput extends BaseStep implements StepInterface {
     private static Class<?> PKG = CsvInput.class; // for i18n purposes, needed by Translator2!!
 
+    /**
+     * 断点续跑时跳过的行数变量前缀，变量名为前缀 + 步骤名称
+     */
+    public static final String CHECKPOINT_SKIP_ROWS_PREFIX = "DI_CHECKPOINT_SKIP_ROWS.";
+
     private CsvInputMeta2 meta;
     private CsvInputData data;
 
@@ -156,7 +161,12 @@ public class CsvInput extends BaseStep implements StepInterface {
                     return false;
                 }
             } else {
-                putRow( data.outputRowMeta, outputRowData ); // copy row to possible alternate rowset(s).
+                if ( data.checkpointSkipRows > 0 ) {
+                    // 断点续跑，上次已经提交的行不再输出
+                    data.checkpointSkipRows--;
+                } else {
+                    putRow( data.outputRowMeta, outputRowData ); // copy row to possible alternate rowset(s).
+                }
                 if ( checkFeedback( getLinesInput() ) ) {
                     if ( log.isBasic() ) {
                         logBasic( BaseMessages.getString( PKG, "CsvInput.Log.LineNumber", Long.toString( getLinesInput() ) ) );
@@ -953,6 +963,9 @@ public class CsvInput extends BaseStep implements StepInterface {
 
             data.totalBytesRead = 0L;
 
+            // 断点续跑，跳过上次已经提交的行
+            data.checkpointSkipRows = Const.toLong( getVariable( CHECKPOINT_SKIP_ROWS_PREFIX + getStepname() ), 0L );
+
             data.encodingType = EncodingType.guessEncodingType( realEncoding );
 
             // PDI-2489 - set the delimiter byte value to the code point of the
@@ -86,6 +86,11 @@ public class CsvInputData extends BaseStepData implements StepDataInterface {
 
   public List<String> tmpFiles = new ArrayList<>(2);
 
+  /**
+   * 断点续跑时需要跳过的行数
+   */
+  public long checkpointSkipRows;
+
   /**
    * Data class for CsvInput step
    *
@@ -22,6 +22,7 @@
 
 package org.pentaho.di.plugins.joinRows.step;
 
+import com.youngdatafan.dataintegration.core.memory.RowSizeEstimator;
 import com.youngdatafan.dataintegration.core.util.encryption.DefaultEncryptionUtils;
 import com.github.vfss3.FileServerConfig;
 import org.apache.commons.vfs2.FileObject;
@@ -89,6 +90,7 @@ public class JoinRows extends BaseStep implements StepInterface {
       data.joinrow = new Object[rowSetsSize][];
       data.rs = new RowSet[rowSetsSize];
       data.cache = new List[rowSetsSize];
+      data.cachedBytes = new long[rowSetsSize];
       data.position = new int[rowSetsSize];
       data.fileOutputStream = new FileOutputStream[rowSetsSize];
       data.dataOutputStream = new DataOutputStream[rowSetsSize];
@@ -399,6 +401,7 @@ public class JoinRows extends BaseStep implements StepInterface {
 
         // Add this row to the cache!
         data.cache[data.filenr].add( rowData );
+        data.cachedBytes[data.filenr] += RowSizeEstimator.estimate( rowData );
       } else {
         // we can't cope with this many rows: reset the cache...
         if ( log.isDetailed() ) {
@@ -406,6 +409,7 @@ public class JoinRows extends BaseStep implements StepInterface {
             PKG, "JoinRows.Log.RowsFound", meta.getCacheSize() + "", data.rs[data.filenr].getOriginStepName() ) );
         }
         data.cache[data.filenr] = null;
+        data.cachedBytes[data.filenr] = 0;
       }
 
     } else {
@@ -22,6 +22,7 @@
 
 package org.pentaho.di.plugins.joinRows.step;
 
+import com.youngdatafan.dataintegration.core.memory.MemoryAccountable;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
@@ -35,7 +36,7 @@ import java.util.List;
  * @since 24-jan-2005
  *
  */
-public class JoinRowsData extends BaseStepData implements StepDataInterface {
+public class JoinRowsData extends BaseStepData implements StepDataInterface, MemoryAccountable {
   public File[] file;
   public FileInputStream[] fileInputStream;
   public DataInputStream[] dataInputStream;
@@ -47,6 +48,11 @@ public class JoinRowsData extends BaseStepData implements StepDataInterface {
   public RowSet[] rs;
   public List<Object[]>[] cache;
 
+  /**
+   * Estimated heap bytes held by each cache, read by the engine's memory accounting
+   */
+  public long[] cachedBytes;
+
   public boolean caching;
 
   public FileOutputStream[] fileOutputStream;
@@ -65,4 +71,17 @@ public class JoinRowsData extends BaseStepData implements StepDataInterface {
     super();
   }
 
+  @Override
+  public long getEstimatedBytes() {
+    final long[] bytes = cachedBytes;
+    if ( bytes == null ) {
+      return 0;
+    }
+    long total = 0;
+    for ( long b : bytes ) {
+      total += b;
+    }
+    return total;
+  }
+
 }
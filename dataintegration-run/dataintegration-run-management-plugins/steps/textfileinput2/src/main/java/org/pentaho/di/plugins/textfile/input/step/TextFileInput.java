@@ -25,6 +25,7 @@ package org.pentaho.di.plugins.textfile.input.step;
 import java.util.Date;
 
 import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.playlist.FilePlayListAll;
 import org.pentaho.di.core.playlist.FilePlayListReplay;
 import org.pentaho.di.i18n.BaseMessages;
@@ -45,6 +46,11 @@ import org.pentaho.di.trans.steps.file.IBaseFileInputReader;
 public class TextFileInput extends BaseFileInputStep<TextFileInputMeta2, TextFileInputData> implements StepInterface {
   private static Class<?> PKG = TextFileInputMeta2.class; // for i18n purposes, needed by Translator2!!
 
+  /**
+   * 断点续跑时跳过的行数变量前缀，变量名为前缀 + 步骤名称
+   */
+  public static final String CHECKPOINT_SKIP_ROWS_PREFIX = "DI_CHECKPOINT_SKIP_ROWS.";
+
   public TextFileInput(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta,
                        Trans trans ) {
     super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
@@ -87,7 +93,8 @@ public class TextFileInput extends BaseFileInputStep<TextFileInputMeta2, TextFil
       return false;
     }
 
-
+    // 断点续跑，跳过上次已经提交的行
+    data.checkpointSkipRows = Const.toLong( getVariable( CHECKPOINT_SKIP_ROWS_PREFIX + getStepname() ), 0L );
 
     return true;
   }
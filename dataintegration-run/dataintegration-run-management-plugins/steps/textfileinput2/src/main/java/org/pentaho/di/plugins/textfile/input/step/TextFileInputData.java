@@ -71,6 +71,11 @@ public class TextFileInputData extends BaseFileInputStepData {
 
   public EncodingType encodingType;
 
+  /**
+   * 断点续跑时需要跳过的行数
+   */
+  public long checkpointSkipRows;
+
   public TextFileInputData() {
     // linked list is better, as usually .remove(0) is applied to this list
     lineBuffer = new LinkedList<TextFileLine>();
@@ -345,10 +345,15 @@ public class TextFileInputReader implements IBaseFileInputReader {
         }
       }
 
-      if ( log.isRowLevel() ) {
-        log.logRowlevel( "Putting row: " + data.outputRowMeta.getString( r ) );
+      if ( data.checkpointSkipRows > 0 ) {
+        // 断点续跑，上次已经提交的行不再输出
+        data.checkpointSkipRows--;
+      } else {
+        if ( log.isRowLevel() ) {
+          log.logRowlevel( "Putting row: " + data.outputRowMeta.getString( r ) );
+        }
+        step.putRow( data.outputRowMeta, r );
       }
-      step.putRow( data.outputRowMeta, r );
 
       if ( step.getLinesInput() >= meta.content.rowLimit && meta.content.rowLimit > 0 ) {
         close();
@@ -8,6 +8,7 @@ import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.util.sql.DataSourceWrap;
 import com.youngdatafan.dataintegration.core.util.sql.DatabaseType;
 import com.youngdatafan.di.run.management.datasource.feign.DatasourceServiceApiClient;
+import com.youngdatafan.di.run.management.server.service.DesignResultCacheService;
 import com.youngdatafan.portal.model.management.datasource.dto.DatasourceDTO;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
@@ -56,6 +57,7 @@ public class PluginRunDataSourceRepository {
      */
     private final Map<String, DataSourceWrap> clearFailDataSources = new ConcurrentHashMap<>();
     private final DatasourceServiceApiClient datasourceServiceApiClient;
+    private final DesignResultCacheService designResultCacheService;
     private final KettleTwoWayPasswordEncoder PASSWORD_ENCODER = new KettleTwoWayPasswordEncoder();
     /**
      * 数据源监控对象
@@ -80,8 +82,10 @@ public class PluginRunDataSourceRepository {
     private int maxPoolSize;
 
     @Autowired
-    public PluginRunDataSourceRepository(DatasourceServiceApiClient datasourceServiceApiClient) {
+    public PluginRunDataSourceRepository(DatasourceServiceApiClient datasourceServiceApiClient
+            , DesignResultCacheService designResultCacheService) {
         this.datasourceServiceApiClient = datasourceServiceApiClient;
+        this.designResultCacheService = designResultCacheService;
     }
 
     /**
@@ -121,6 +125,8 @@ public class PluginRunDataSourceRepository {
                     log.warn("数据库中数据源有更改，加入到清理map中 ,datasourceId: {}", datasourceId);
                     final DataSourceWrap remove = dataSources.remove(datasourceId);
                     clearFailDataSources.put(datasourceId + "_" + RandomStringUtils.randomAlphabetic(6), remove);
+                    // 清理该数据源的设计时查询缓存
+                    designResultCacheService.invalidate(datasourceId);
                 }
 
             } catch (ValidationException e) {
@@ -129,6 +135,7 @@ public class PluginRunDataSourceRepository {
                 log.warn("数据库不存在数据源则，加入到清理map中 ,datasourceId: {}", datasourceId);
                 final DataSourceWrap remove = dataSources.remove(datasourceId);
                 clearFailDataSources.put(datasourceId + "_" + RandomStringUtils.randomAlphabetic(6), remove);
+                designResultCacheService.invalidate(datasourceId);
 
             } catch (Exception e) {
                 log.error("datasourceId: {}", datasourceId, e);
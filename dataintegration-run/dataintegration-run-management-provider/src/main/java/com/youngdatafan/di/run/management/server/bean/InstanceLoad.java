@@ -0,0 +1,97 @@
+package com.youngdatafan.di.run.management.server.bean;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 执行实例负载
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class InstanceLoad {
+
+    /**
+     * 实例id
+     */
+    private String instanceId;
+
+    /**
+     * 实例地址
+     */
+    private String host;
+
+    /**
+     * 实例端口
+     */
+    private int port;
+
+    /**
+     * 执行中的项目数
+     */
+    private int running;
+
+    /**
+     * 排队中的项目数
+     */
+    private int queued;
+
+    /**
+     * 最大并发执行数
+     */
+    private int maxRunning;
+
+    /**
+     * 进程cpu使用率，0~1，无法获取时为负数
+     */
+    private double cpuLoad;
+
+    /**
+     * 可用堆内存，单位：字节
+     */
+    private long freeHeap;
+
+    /**
+     * 最大堆内存，单位：字节
+     */
+    private long maxHeap;
+
+    /**
+     * 引擎线程池活动线程数
+     */
+    private int engineActiveThreads;
+
+    /**
+     * 引擎线程池排队任务数
+     */
+    private int engineQueued;
+
+    /**
+     * 是否正在停止，停止中的实例不再接收新的执行
+     */
+    private boolean draining;
+
+    /**
+     * 上报时间
+     */
+    private long timestamp;
+
+    /**
+     * 负载评分，越小越空闲
+     *
+     * @return 负载评分
+     */
+    public double score() {
+        double score = (running + queued) / (double) Math.max(maxRunning, 1) * 0.6D;
+        if (cpuLoad >= 0) {
+            score += cpuLoad * 0.3D;
+        }
+        if (maxHeap > 0) {
+            score += (1 - freeHeap / (double) maxHeap) * 0.1D;
+        }
+        return score;
+    }
+}
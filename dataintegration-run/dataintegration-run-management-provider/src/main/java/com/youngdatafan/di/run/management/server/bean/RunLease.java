@@ -0,0 +1,62 @@
+package com.youngdatafan.di.run.management.server.bean;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 调度执行租约
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RunLease {
+
+    /**
+     * 项目id
+     */
+    private String projectId;
+
+    /**
+     * 执行器id
+     */
+    private String executorId;
+
+    /**
+     * 持有租约的实例id
+     */
+    private String instanceId;
+
+    /**
+     * 执行记录id
+     */
+    private Long historyId;
+
+    /**
+     * 开始时间，毫秒
+     */
+    private long startTime;
+
+    /**
+     * 获取租约时的到期时间，毫秒；续约只更新到期时间hash，索引中的值不变
+     */
+    private long expireAt;
+
+    /**
+     * 是否可以重新排队，只有按项目id执行的可以重新获取项目文件
+     */
+    private boolean requeueable;
+
+    /**
+     * 已经重新排队的次数
+     */
+    private int requeueCount;
+
+    /**
+     * 执行参数，重新排队时使用
+     */
+    private ProjectExecutorParam param;
+}
@@ -0,0 +1,101 @@
+package com.youngdatafan.di.run.management.server.cluster;
+
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * 实例优雅停止
+ * <p>
+ * 容器关闭事件发布时（所有组件停止之前）标记为停止中并上报，其他实例不再向本实例放置执行，新的调度执行转发到其他实例；
+ * 然后在 {@link #PHASE} 阶段等待本实例执行中和排队中的项目完成，超过 drainTimeoutSeconds 后继续停止。
+ *
+ * @author gavin
+ */
+@Component
+public class InstanceDrainLifecycle implements SmartLifecycle {
+
+    /**
+     * 停止阶段，低于默认阶段，在 web 服务停止之后等待，顺序确定；
+     * 同步等待调度执行结果的请求由 web 服务的优雅停止（server.shutdown=graceful）等待
+     */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(InstanceDrainLifecycle.class);
+
+    private final ProjectExecuteScheduler projectExecuteScheduler;
+
+    private final InstanceLoadRegistry instanceLoadRegistry;
+
+    /**
+     * 等待执行完成的最长时间，单位：秒
+     */
+    @Value("${dp.project.execute.placement.drainTimeoutSeconds:600}")
+    private int drainTimeoutSeconds;
+
+    private volatile boolean running;
+
+    @Autowired
+    public InstanceDrainLifecycle(ProjectExecuteScheduler projectExecuteScheduler, InstanceLoadRegistry instanceLoadRegistry) {
+        this.projectExecuteScheduler = projectExecuteScheduler;
+        this.instanceLoadRegistry = instanceLoadRegistry;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * 容器开始关闭，标记为停止中
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void onContextClosed() {
+        logger.info("实例开始停止，不再接收新的执行");
+        projectExecuteScheduler.setDraining(true);
+        instanceLoadRegistry.report();
+    }
+
+    @Override
+    public void stop() {
+        logger.info("等待执行中的项目完成");
+        projectExecuteScheduler.setDraining(true);
+
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drainTimeoutSeconds);
+        while (projectExecuteScheduler.getRunningCount() + projectExecuteScheduler.getQueuedCount() > 0
+                && System.currentTimeMillis() < deadline) {
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        logger.info("实例停止等待结束，执行中: {}, 排队中: {}"
+                , projectExecuteScheduler.getRunningCount(), projectExecuteScheduler.getQueuedCount());
+        try {
+            instanceLoadRegistry.unregister();
+        } catch (Exception e) {
+            logger.warn("删除实例负载记录失败", e);
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+}
@@ -0,0 +1,208 @@
+package com.youngdatafan.di.run.management.server.cluster;
+
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
+import com.youngdatafan.di.run.management.server.bean.InstanceLoad;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
+import com.youngdatafan.kettle.springboot.core.executor.ExecutorThreadPool;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 执行实例负载注册表
+ * <p>
+ * 每个实例定时把自己的负载写入redis hash，放置时读取所有实例的负载，选择最空闲的健康实例。
+ * 转发到其他实例的执行在对方下次上报前计入对方的排队数，避免上报间隔内的请求都转发到同一个实例。
+ *
+ * @author gavin
+ */
+@Component
+public class InstanceLoadRegistry {
+
+    /**
+     * 实例负载缓存key
+     */
+    public static final String INSTANCE_LOAD_CACHE_KEY = "di_instance_load";
+
+    private static final Logger logger = LoggerFactory.getLogger(InstanceLoadRegistry.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    private final ProjectExecuteScheduler projectExecuteScheduler;
+
+    @Value("${spring.cloud.consul.discovery.instance-id}")
+    private String instanceId;
+
+    @Value("${spring.cloud.client.ip-address:127.0.0.1}")
+    private String host;
+
+    @Value("${server.port}")
+    private int port;
+
+    /**
+     * 负载上报间隔，单位：毫秒
+     */
+    @Value("${dp.project.execute.placement.reportIntervalMs:5000}")
+    private long reportIntervalMs;
+
+    /**
+     * 已经注销，停止过程中不再上报
+     */
+    private volatile boolean unregistered;
+
+    /**
+     * 本实例转发到其他实例的时间，按目标实例id记录，对方上报的负载已经包含的转发会被移除
+     */
+    private final Map<String, Queue<Long>> placements = new ConcurrentHashMap<>();
+
+    @Autowired
+    public InstanceLoadRegistry(RedisTemplate<String, String> redisTemplate, ProjectExecuteScheduler projectExecuteScheduler) {
+        this.redisTemplate = redisTemplate;
+        this.projectExecuteScheduler = projectExecuteScheduler;
+    }
+
+    /**
+     * 定时上报本实例负载
+     */
+    @Scheduled(initialDelay = 1000, fixedDelayString = "${dp.project.execute.placement.reportIntervalMs:5000}")
+    public void report() {
+        if (unregistered) {
+            return;
+        }
+        try {
+            redisTemplate.opsForHash().put(INSTANCE_LOAD_CACHE_KEY, instanceId, JsonUtils.toString(currentLoad()));
+        } catch (Exception e) {
+            logger.warn("上报实例负载失败", e);
+        }
+    }
+
+    /**
+     * 删除本实例的负载记录
+     */
+    public void unregister() {
+        unregistered = true;
+        redisTemplate.opsForHash().delete(INSTANCE_LOAD_CACHE_KEY, instanceId);
+    }
+
+    /**
+     * 本实例当前负载
+     */
+    public InstanceLoad currentLoad() {
+        final InstanceLoad load = new InstanceLoad();
+        load.setInstanceId(instanceId);
+        load.setHost(host);
+        load.setPort(port);
+        load.setRunning(projectExecuteScheduler.getRunningCount());
+        load.setQueued(projectExecuteScheduler.getQueuedCount());
+        load.setMaxRunning(projectExecuteScheduler.getMaxRunning());
+        load.setDraining(projectExecuteScheduler.isDraining());
+
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            load.setCpuLoad(((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuLoad());
+        } else {
+            load.setCpuLoad(-1);
+        }
+
+        final Runtime runtime = Runtime.getRuntime();
+        load.setMaxHeap(runtime.maxMemory());
+        load.setFreeHeap(runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()));
+
+        final ThreadPoolExecutor enginePool = ExecutorThreadPool.getInstance().getThreadPoolExecutor();
+        if (enginePool != null) {
+            load.setEngineActiveThreads(enginePool.getActiveCount());
+            load.setEngineQueued(enginePool.getQueue().size());
+        }
+
+        load.setTimestamp(System.currentTimeMillis());
+        return load;
+    }
+
+    /**
+     * 所有健康实例的负载，超过3个上报周期没有更新或者正在停止的实例视为不健康
+     */
+    public List<InstanceLoad> healthyInstances() {
+        final long now = System.currentTimeMillis();
+        final long expireTime = now - reportIntervalMs * 3;
+        final Map<Object, Object> entries = redisTemplate.opsForHash().entries(INSTANCE_LOAD_CACHE_KEY);
+
+        List<InstanceLoad> loads = new ArrayList<>(entries.size());
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            try {
+                final InstanceLoad load = JsonUtils.parseObject((String) entry.getValue(), InstanceLoad.class);
+                if (load.getTimestamp() >= expireTime && !load.isDraining()) {
+                    loads.add(load);
+                } else if (load.getTimestamp() < now - reportIntervalMs * 20) {
+                    // 异常退出的实例没有注销，长时间没有上报的记录直接删除
+                    redisTemplate.opsForHash().delete(INSTANCE_LOAD_CACHE_KEY, entry.getKey());
+                }
+            } catch (IOException e) {
+                logger.error("解析实例负载错误，json: {}", entry.getValue());
+            }
+        }
+        return loads;
+    }
+
+    /**
+     * 选择执行实例
+     *
+     * @param threshold 本实例与最空闲实例的负载评分差超过该值时才转发，避免来回转发
+     * @return 需要转发的目标实例，本实例执行时返回null
+     */
+    public InstanceLoad selectTarget(double threshold) {
+        final InstanceLoad self = currentLoad();
+
+        InstanceLoad best = null;
+        for (InstanceLoad load : healthyInstances()) {
+            if (instanceId.equals(load.getInstanceId())) {
+                continue;
+            }
+            load.setQueued(load.getQueued() + pendingPlacements(load));
+            if (best == null || load.score() < best.score()) {
+                best = load;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+        // 停止中的实例只要有其他健康实例就转发
+        if (self.isDraining() || self.score() - best.score() > threshold) {
+            logger.info("项目执行转发到负载更低的实例，本实例负载: {}, 目标实例: {}, 目标负载: {}"
+                    , self.score(), best.getInstanceId(), best.score());
+            placements.computeIfAbsent(best.getInstanceId(), key -> new ConcurrentLinkedQueue<>()).add(System.currentTimeMillis());
+            return best;
+        }
+        return null;
+    }
+
+    /**
+     * 转发到实例、但是实例上报的负载还没有包含的执行数
+     */
+    private int pendingPlacements(InstanceLoad load) {
+        final Queue<Long> times = placements.get(load.getInstanceId());
+        if (times == null) {
+            return 0;
+        }
+        times.removeIf(time -> time <= load.getTimestamp());
+        return times.size();
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+}
@@ -0,0 +1,139 @@
+package com.youngdatafan.di.run.management.server.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 实例间转发请求签名
+ * <p>
+ * 转发请求的 {@link ScheduleExecutePlacementFilter#PLACED_HEADER} 值为 "来源实例id:时间戳:签名"，
+ * 签名是使用集群共享密钥对来源实例id、时间戳、请求方法和路径计算的 HmacSHA256。
+ * 共享密钥由第一个启动的实例随机生成并保存在redis中，调用方无法伪造该请求头跳过放置和路由。
+ *
+ * @author gavin
+ */
+@Component
+public class PeerRequestSigner {
+
+    /**
+     * 集群共享密钥缓存key
+     */
+    public static final String PEER_SECRET_CACHE_KEY = "di_peer_secret";
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerRequestSigner.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 签名有效时间，单位：毫秒
+     */
+    @Value("${dp.project.execute.placement.signatureTtlMs:300000}")
+    private long signatureTtlMs;
+
+    private volatile byte[] secret;
+
+    @Autowired
+    public PeerRequestSigner(RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 生成转发请求头的值
+     *
+     * @param instanceId 来源实例id
+     * @param method     请求方法
+     * @param requestUri 请求路径
+     * @return 请求头的值
+     */
+    public String sign(String instanceId, String method, String requestUri) {
+        final long timestamp = System.currentTimeMillis();
+        return instanceId + ":" + timestamp + ":" + signature(instanceId, timestamp, method, requestUri);
+    }
+
+    /**
+     * 请求是否由其他实例转发，请求头不存在、过期或者签名不正确时返回false
+     *
+     * @param request 请求
+     * @return 签名正确时返回true
+     */
+    public boolean isPeerRequest(HttpServletRequest request) {
+        final String value = request.getHeader(ScheduleExecutePlacementFilter.PLACED_HEADER);
+        if (value == null) {
+            return false;
+        }
+
+        // 实例id中可能有冒号，从后往前拆分
+        final int signatureIndex = value.lastIndexOf(':');
+        final int timestampIndex = signatureIndex > 0 ? value.lastIndexOf(':', signatureIndex - 1) : -1;
+        if (timestampIndex <= 0) {
+            return false;
+        }
+        final long timestamp;
+        try {
+            timestamp = Long.parseLong(value.substring(timestampIndex + 1, signatureIndex));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (Math.abs(System.currentTimeMillis() - timestamp) > signatureTtlMs) {
+            logger.warn("转发请求签名已过期，header: {}", value);
+            return false;
+        }
+
+        final String expected;
+        try {
+            expected = signature(value.substring(0, timestampIndex), timestamp, request.getMethod(), request.getRequestURI());
+        } catch (RuntimeException e) {
+            logger.warn("校验转发请求签名失败", e);
+            return false;
+        }
+        final boolean valid = MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8)
+                , value.substring(signatureIndex + 1).getBytes(StandardCharsets.UTF_8));
+        if (!valid) {
+            logger.warn("转发请求签名不正确，header: {}", value);
+        }
+        return valid;
+    }
+
+    private String signature(String instanceId, long timestamp, String method, String requestUri) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret(), ALGORITHM));
+            final byte[] digest = mac.doFinal((instanceId + ":" + timestamp + ":" + method + ":" + requestUri)
+                    .getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("计算转发请求签名失败", e);
+        }
+    }
+
+    private byte[] secret() {
+        byte[] current = secret;
+        if (current == null) {
+            final byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            // 只有第一个实例的密钥会写入，其他实例读取已有的密钥
+            redisTemplate.opsForValue().setIfAbsent(PEER_SECRET_CACHE_KEY, Base64.getEncoder().encodeToString(random));
+            final String value = redisTemplate.opsForValue().get(PEER_SECRET_CACHE_KEY);
+            if (value == null) {
+                throw new IllegalStateException("读取集群共享密钥失败");
+            }
+            current = Base64.getDecoder().decode(value);
+            secret = current;
+        }
+        return current;
+    }
+}
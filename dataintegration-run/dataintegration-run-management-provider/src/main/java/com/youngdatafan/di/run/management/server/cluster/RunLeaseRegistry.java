@@ -0,0 +1,511 @@
+package com.youngdatafan.di.run.management.server.cluster;
+
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
+import com.youngdatafan.di.run.management.server.bean.RunLease;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 调度执行租约注册表
+ * <p>
+ * 每个运行中的项目持有一个带过期时间的租约key（值为执行器id），按项目id直接读取即可判断是否在运行。
+ * 租约详情按项目id分片保存在索引hash中，获取租约时写入一次，续约只更新到期时间hash中的到期时间；
+ * 租约key和所在分片的索引、到期时间hash使用相同的hash tag，保证脚本操作的key在同一个槽。
+ * 本实例持有的所有租约在一次 pipeline 中续约；各实例定时扫描索引，租约key已经过期而索引还在的租约视为执行实例已失效，
+ * 通过脚本原子删除索引条目，删除成功的实例负责回调处理，保证每个过期租约只处理一次。
+ * 停止其他实例上的执行时写入取消标记，持有租约的实例续约时读取标记并停止执行，执行结束后才释放租约。
+ *
+ * @author gavin
+ */
+@Component
+public class RunLeaseRegistry {
+
+    /**
+     * 租约key前缀，后接 {分片}:项目id
+     */
+    public static final String LEASE_CACHE_PREFIX = "di_run_lease:";
+
+    /**
+     * 租约索引key前缀，后接 {分片}
+     */
+    public static final String INDEX_CACHE_PREFIX = "di_run_lease_index:";
+
+    /**
+     * 租约到期时间key前缀，后接 {分片}，hash的值为到期时间，毫秒
+     */
+    public static final String EXPIRE_CACHE_PREFIX = "di_run_lease_expire:";
+
+    /**
+     * 取消标记key前缀，后接 {分片}:项目id，值为要取消的执行器id
+     */
+    public static final String CANCEL_CACHE_PREFIX = "di_run_cancel:";
+
+    private static final Logger logger = LoggerFactory.getLogger(RunLeaseRegistry.class);
+
+    /**
+     * 获取租约，租约key不存在时写入租约和索引；返回 0 表示已被占用，1 表示获取成功，
+     * 否则返回被覆盖的过期租约，由调用方按过期处理
+     */
+    private static final String ACQUIRE_SCRIPT = "if not redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[3]) then return '0' end "
+            + "local old = redis.call('hget', KEYS[2], ARGV[2]) "
+            + "redis.call('hset', KEYS[2], ARGV[2], ARGV[4]) "
+            + "redis.call('hset', KEYS[3], ARGV[2], ARGV[5]) "
+            + "if old then return old end "
+            + "return '1'";
+
+    /**
+     * 续约，租约key已经过期但索引仍属于本执行（没有被其他实例判定过期）时重新写入租约key，
+     * 索引不变，只更新到期时间，返回 0 表示租约已丢失
+     */
+    private static final String RENEW_SCRIPT = "local owner = redis.call('get', KEYS[1]) "
+            + "if owner == ARGV[1] then "
+            + "  redis.call('pexpire', KEYS[1], ARGV[3]) "
+            + "elseif owner then "
+            + "  return 0 "
+            + "else "
+            + "  local v = redis.call('hget', KEYS[2], ARGV[2]) "
+            + "  if not v or cjson.decode(v).executorId ~= ARGV[1] then return 0 end "
+            + "  redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[3]) "
+            + "end "
+            + "redis.call('hset', KEYS[3], ARGV[2], ARGV[4]) "
+            + "return 1";
+
+    /**
+     * 释放租约，只删除属于该执行器的租约key、索引、到期时间和取消标记
+     */
+    private static final String RELEASE_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then redis.call('del', KEYS[1]) end "
+            + "local v = redis.call('hget', KEYS[2], ARGV[2]) "
+            + "if v and cjson.decode(v).executorId == ARGV[1] then "
+            + "  redis.call('hdel', KEYS[2], ARGV[2]) "
+            + "  redis.call('hdel', KEYS[4], ARGV[2]) "
+            + "end "
+            + "if redis.call('get', KEYS[3]) == ARGV[1] then redis.call('del', KEYS[3]) end "
+            + "return 1";
+
+    /**
+     * 认领过期租约，租约key不存在且索引没有变化时删除索引条目和到期时间，返回 1 表示认领成功
+     */
+    private static final String CLAIM_SCRIPT = "if redis.call('exists', KEYS[1]) == 0 and redis.call('hget', KEYS[2], ARGV[1]) == ARGV[2] then "
+            + "  redis.call('hdel', KEYS[3], ARGV[1]) "
+            + "  return redis.call('hdel', KEYS[2], ARGV[1]) "
+            + "end "
+            + "return 0";
+
+    private static final byte[] RENEW_SCRIPT_BYTES = RENEW_SCRIPT.getBytes(StandardCharsets.UTF_8);
+
+    private final RedisScript<String> acquireScript = new DefaultRedisScript<>(ACQUIRE_SCRIPT, String.class);
+
+    private final RedisScript<Long> releaseScript = new DefaultRedisScript<>(RELEASE_SCRIPT, Long.class);
+
+    private final RedisScript<Long> claimScript = new DefaultRedisScript<>(CLAIM_SCRIPT, Long.class);
+
+    /**
+     * 本实例持有的租约，项目id -> 租约
+     */
+    private final Map<String, RunLease> ownedLeases = new ConcurrentHashMap<>();
+
+    /**
+     * 已经处理过取消标记的执行器id，释放租约时移除
+     */
+    private final Set<String> cancelledExecutors = ConcurrentHashMap.newKeySet();
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${spring.cloud.consul.discovery.instance-id}")
+    private String instanceId;
+
+    /**
+     * 租约有效时间，单位：秒
+     */
+    @Value("${dp.project.execute.lease.ttlSeconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * 索引分片数，修改分片数需要所有实例同时重启
+     */
+    @Value("${dp.project.execute.lease.shards:16}")
+    private int shards;
+
+    /**
+     * 租约到期后再等待的时间，避免时钟偏差导致误判，单位：毫秒
+     */
+    @Value("${dp.project.execute.lease.graceMs:5000}")
+    private long graceMs;
+
+    private volatile Listener listener;
+
+    private Counter expiredCounter;
+
+    private Counter lostCounter;
+
+    @Autowired
+    public RunLeaseRegistry(RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("dp.execute.lease.owned", ownedLeases, Map::size)
+                .description("本实例持有的执行租约数")
+                .register(meterRegistry);
+        expiredCounter = Counter.builder("dp.execute.lease.expired")
+                .description("本实例认领处理的过期租约数")
+                .register(meterRegistry);
+        lostCounter = Counter.builder("dp.execute.lease.lost")
+                .description("本实例续约失败丢失的租约数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 租约回调
+     */
+    public interface Listener {
+
+        /**
+         * 租约已过期，执行实例已经失效，每个租约只会在一个实例上回调一次
+         *
+         * @param lease 过期的租约
+         */
+        void onExpired(RunLease lease);
+
+        /**
+         * 本实例持有的租约已经丢失（已被判定过期或者被新的执行占用），本地执行需要停止
+         *
+         * @param lease 丢失的租约
+         */
+        void onLost(RunLease lease);
+
+        /**
+         * 其他实例请求取消本实例持有租约的执行，执行结束后释放租约
+         *
+         * @param lease 本实例持有的租约
+         * @return 是否已经停止执行，执行还在启动中时返回false，下次续约时再次回调
+         */
+        boolean onCancel(RunLease lease);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 获取项目的执行租约
+     *
+     * @param lease 租约，需要设置项目id和执行器id
+     * @return 项目已经在运行时返回false
+     */
+    public boolean acquire(RunLease lease) {
+        final String projectId = lease.getProjectId();
+        final int shard = shardOf(projectId, shards);
+        lease.setInstanceId(instanceId);
+        lease.setExpireAt(System.currentTimeMillis() + ttlSeconds * 1000);
+
+        final String result = redisTemplate.execute(acquireScript
+                , Arrays.asList(leaseKey(projectId, shard), indexKey(shard), expireKey(shard))
+                , lease.getExecutorId(), projectId, String.valueOf(ttlSeconds * 1000), JsonUtils.toString(lease)
+                , String.valueOf(lease.getExpireAt()));
+        if ("0".equals(result)) {
+            return false;
+        }
+        ownedLeases.put(projectId, lease);
+
+        // 覆盖了还没有被扫描到的过期租约，由本实例处理
+        if (result != null && !"1".equals(result)) {
+            fireExpired(result);
+        }
+        return true;
+    }
+
+    /**
+     * 释放租约
+     *
+     * @param projectId  项目id
+     * @param executorId 执行器id
+     */
+    public void release(String projectId, String executorId) {
+        ownedLeases.computeIfPresent(projectId, (k, v) -> executorId.equals(v.getExecutorId()) ? null : v);
+        cancelledExecutors.remove(executorId);
+        final int shard = shardOf(projectId, shards);
+        redisTemplate.execute(releaseScript
+                , Arrays.asList(leaseKey(projectId, shard), indexKey(shard), cancelKey(projectId, shard), expireKey(shard))
+                , executorId, projectId);
+    }
+
+    /**
+     * 请求取消执行，持有租约的实例在下次续约时停止执行，执行结束后释放租约
+     *
+     * @param projectId  项目id
+     * @param executorId 执行器id
+     */
+    public void requestCancel(String projectId, String executorId) {
+        redisTemplate.opsForValue().set(cancelKey(projectId, shardOf(projectId, shards)), executorId, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 项目运行中的执行器id
+     *
+     * @param projectId 项目id
+     * @return 项目没有在运行时返回null
+     */
+    public String getExecutorId(String projectId) {
+        return redisTemplate.opsForValue().get(leaseKey(projectId, shardOf(projectId, shards)));
+    }
+
+    /**
+     * 项目的租约详情
+     *
+     * @param projectId 项目id
+     * @return 项目没有在运行时返回null
+     */
+    public RunLease get(String projectId) {
+        final int shard = shardOf(projectId, shards);
+        final String executorId = redisTemplate.opsForValue().get(leaseKey(projectId, shard));
+        if (executorId == null) {
+            return null;
+        }
+        final Object json = redisTemplate.opsForHash().get(indexKey(shard), projectId);
+        if (json != null) {
+            try {
+                final RunLease lease = JsonUtils.parseObject((String) json, RunLease.class);
+                if (executorId.equals(lease.getExecutorId())) {
+                    return lease;
+                }
+            } catch (IOException e) {
+                logger.error("解析执行租约错误，json: {}", json);
+            }
+        }
+        final RunLease lease = new RunLease();
+        lease.setProjectId(projectId);
+        lease.setExecutorId(executorId);
+        return lease;
+    }
+
+    /**
+     * 在一次 pipeline 中续约本实例持有的所有租约，同时读取取消标记
+     */
+    @Scheduled(initialDelay = 1000, fixedDelayString = "${dp.project.execute.lease.renewIntervalMs:10000}")
+    public void renew() {
+        if (ownedLeases.isEmpty()) {
+            return;
+        }
+        final List<RunLease> leases = new ArrayList<>(ownedLeases.values());
+        final long expireAt = System.currentTimeMillis() + ttlSeconds * 1000;
+        final byte[] ttl = bytes(String.valueOf(ttlSeconds * 1000));
+        final byte[] expireAtBytes = bytes(String.valueOf(expireAt));
+
+        final List<Object> results;
+        try {
+            results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (RunLease lease : leases) {
+                    lease.setExpireAt(expireAt);
+                    final int shard = shardOf(lease.getProjectId(), shards);
+                    connection.eval(RENEW_SCRIPT_BYTES, ReturnType.INTEGER, 3, bytes(leaseKey(lease.getProjectId(), shard))
+                            , bytes(indexKey(shard)), bytes(expireKey(shard)), bytes(lease.getExecutorId())
+                            , bytes(lease.getProjectId()), ttl, expireAtBytes);
+                    connection.get(bytes(cancelKey(lease.getProjectId(), shard)));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 租约key过期后，只要索引没有被其他实例认领，下次续约时会重新写入
+            logger.warn("执行租约续约失败，租约数: {}", leases.size(), e);
+            return;
+        }
+
+        for (int i = 0; i < leases.size() && i * 2 + 1 < results.size(); i++) {
+            final RunLease lease = leases.get(i);
+            if (!Long.valueOf(0L).equals(results.get(i * 2))) {
+                if (lease.getExecutorId().equals(string(results.get(i * 2 + 1)))) {
+                    fireCancel(lease);
+                }
+                continue;
+            }
+            // 已经释放的租约不处理
+            if (!ownedLeases.remove(lease.getProjectId(), lease)) {
+                continue;
+            }
+            lostCounter.increment();
+            logger.error("执行租约已丢失，projectId: {}, executorId: {}", lease.getProjectId(), lease.getExecutorId());
+            final Listener current = listener;
+            if (current != null) {
+                try {
+                    current.onLost(lease);
+                } catch (Exception e) {
+                    logger.error("处理丢失的执行租约失败，executorId: {}", lease.getExecutorId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描所有分片的索引和到期时间，认领并处理过期的租约
+     */
+    @Scheduled(initialDelay = 5000, fixedDelayString = "${dp.project.execute.lease.scanIntervalMs:15000}")
+    public void scan() {
+        final List<Object> indexes;
+        try {
+            indexes = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    final RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    for (int shard = 0; shard < shards; shard++) {
+                        ops.opsForHash().entries(indexKey(shard));
+                        ops.opsForHash().entries(expireKey(shard));
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("扫描执行租约失败", e);
+            return;
+        }
+
+        final long deadline = System.currentTimeMillis() - graceMs;
+        // 每个分片两个结果：索引、到期时间
+        for (int shard = 0; shard * 2 + 1 < indexes.size(); shard++) {
+            final Map<?, ?> entries = (Map<?, ?>) indexes.get(shard * 2);
+            if (entries == null) {
+                continue;
+            }
+            final Map<?, ?> expires = (Map<?, ?>) indexes.get(shard * 2 + 1);
+            for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                final String projectId = (String) entry.getKey();
+                final String json = (String) entry.getValue();
+                final Object renewedAt = expires == null ? null : expires.get(projectId);
+                try {
+                    final long expireAt = renewedAt != null ? Long.parseLong((String) renewedAt)
+                            : JsonUtils.parseObject(json, RunLease.class).getExpireAt();
+                    if (expireAt >= deadline) {
+                        continue;
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    logger.error("解析执行租约错误，json: {}, expireAt: {}", json, renewedAt);
+                }
+                final Long claimed = redisTemplate.execute(claimScript
+                        , Arrays.asList(leaseKey(projectId, shard), indexKey(shard), expireKey(shard)), projectId, json);
+                if (claimed != null && claimed == 1) {
+                    fireExpired(json);
+                }
+            }
+        }
+    }
+
+    private void fireCancel(RunLease lease) {
+        if (cancelledExecutors.contains(lease.getExecutorId())) {
+            return;
+        }
+        logger.info("收到执行取消请求，projectId: {}, executorId: {}", lease.getProjectId(), lease.getExecutorId());
+        final Listener current = listener;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (current.onCancel(lease)) {
+                cancelledExecutors.add(lease.getExecutorId());
+            }
+        } catch (Exception e) {
+            logger.error("处理执行取消请求失败，executorId: {}", lease.getExecutorId(), e);
+        }
+    }
+
+    private void fireExpired(String json) {
+        final RunLease lease;
+        try {
+            lease = JsonUtils.parseObject(json, RunLease.class);
+        } catch (IOException e) {
+            logger.error("解析过期的执行租约错误，json: {}", json);
+            return;
+        }
+        expiredCounter.increment();
+        logger.warn("执行租约已过期，projectId: {}, executorId: {}, instanceId: {}"
+                , lease.getProjectId(), lease.getExecutorId(), lease.getInstanceId());
+
+        final Listener current = listener;
+        if (current != null) {
+            try {
+                current.onExpired(lease);
+            } catch (Exception e) {
+                logger.error("处理过期的执行租约失败，executorId: {}", lease.getExecutorId(), e);
+            }
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(Object value) {
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * 项目所在分片
+     */
+    public static int shardOf(String projectId, int shards) {
+        return Math.floorMod(projectId.hashCode(), shards);
+    }
+
+    /**
+     * 租约key，使用分片作为hash tag
+     */
+    public static String leaseKey(String projectId, int shard) {
+        return LEASE_CACHE_PREFIX + "{" + shard + "}:" + projectId;
+    }
+
+    /**
+     * 取消标记key，使用分片作为hash tag
+     */
+    public static String cancelKey(String projectId, int shard) {
+        return CANCEL_CACHE_PREFIX + "{" + shard + "}:" + projectId;
+    }
+
+    /**
+     * 索引key，使用分片作为hash tag
+     */
+    public static String indexKey(int shard) {
+        return INDEX_CACHE_PREFIX + "{" + shard + "}";
+    }
+
+    /**
+     * 到期时间key，使用分片作为hash tag
+     */
+    public static String expireKey(int shard) {
+        return EXPIRE_CACHE_PREFIX + "{" + shard + "}";
+    }
+
+    public String leaseKey(String projectId) {
+        return leaseKey(projectId, shardOf(projectId, shards));
+    }
+}
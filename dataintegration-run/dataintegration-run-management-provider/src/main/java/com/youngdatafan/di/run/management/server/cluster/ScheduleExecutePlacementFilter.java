@@ -0,0 +1,193 @@
+package com.youngdatafan.di.run.management.server.cluster;
+
+import com.youngdatafan.di.run.management.server.bean.InstanceLoad;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * 调度执行放置过滤器
+ * <p>
+ * 调度执行任务提交请求到达时，如果本实例负载明显高于集群中最空闲的健康实例（或者本实例正在停止），
+ * 把请求原样转发到该实例执行并返回其响应。只转发立即返回的异步提交接口，同步执行接口在本实例执行，
+ * 不会为了等待其他实例执行完成长时间占用请求线程。
+ * 被转发的请求带有 {@link PeerRequestSigner} 签名的 {@link #PLACED_HEADER}，签名正确时不会再次转发。
+ * 转发时带上网关传入的用户请求头，等待响应的时间不超过 readTimeoutMs。
+ *
+ * @author gavin
+ */
+@Component
+public class ScheduleExecutePlacementFilter extends OncePerRequestFilter {
+
+    /**
+     * 已放置请求头，值为转发来源实例id、时间戳和签名
+     */
+    public static final String PLACED_HEADER = "x-dp-placed-by";
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleExecutePlacementFilter.class);
+
+    /**
+     * 网关传入的用户信息请求头前缀，转发时原样带上
+     */
+    private static final String AUTHORIZATION_HEADER_PREFIX = "authorization";
+
+    private static final Set<String> PLACEMENT_PATHS = new HashSet<>(Arrays.asList(
+            "/scheduleJob/submitById", "/scheduleJob/submitByFile"));
+
+    private final InstanceLoadRegistry instanceLoadRegistry;
+
+    private final PeerRequestSigner peerRequestSigner;
+
+    /**
+     * 是否启用负载放置
+     */
+    @Value("${dp.project.execute.placement.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 负载评分差阈值
+     */
+    @Value("${dp.project.execute.placement.threshold:0.2}")
+    private double threshold;
+
+    /**
+     * 转发连接超时时间，单位：毫秒
+     */
+    @Value("${dp.project.execute.placement.connectTimeoutMs:5000}")
+    private int connectTimeoutMs;
+
+    /**
+     * 转发等待响应的最长时间，提交接口立即返回，单位：毫秒
+     */
+    @Value("${dp.project.execute.placement.readTimeoutMs:30000}")
+    private int readTimeoutMs;
+
+    private RestTemplate restTemplate;
+
+    @Autowired
+    public ScheduleExecutePlacementFilter(InstanceLoadRegistry instanceLoadRegistry, PeerRequestSigner peerRequestSigner) {
+        this.instanceLoadRegistry = instanceLoadRegistry;
+        this.peerRequestSigner = peerRequestSigner;
+    }
+
+    @PostConstruct
+    public void init() {
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        // 目标实例异常时不会一直占用请求线程
+        requestFactory.setReadTimeout(readTimeoutMs);
+
+        restTemplate = new RestTemplate(requestFactory);
+        // 错误响应原样返回给调用方
+        restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled
+                || !HttpMethod.POST.matches(request.getMethod())
+                || !PLACEMENT_PATHS.contains(UrlPathHelper.defaultInstance.getPathWithinApplication(request))
+                || peerRequestSigner.isPeerRequest(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        InstanceLoad target = null;
+        try {
+            target = instanceLoadRegistry.selectTarget(threshold);
+        } catch (Exception e) {
+            logger.warn("选择执行实例失败，在本实例执行", e);
+        }
+
+        if (target == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final ResponseEntity<byte[]> forwardResponse;
+        try {
+            forwardResponse = forward(request, target);
+        } catch (ResourceAccessException e) {
+            if (e.getCause() instanceof ConnectException) {
+                // 请求没有发送出去，在本实例执行
+                logger.warn("转发到实例失败，在本实例执行，instanceId: {}", target.getInstanceId(), e);
+                filterChain.doFilter(request, response);
+                return;
+            }
+            throw e;
+        }
+
+        response.setStatus(forwardResponse.getStatusCodeValue());
+        final MediaType contentType = forwardResponse.getHeaders().getContentType();
+        if (contentType != null) {
+            response.setContentType(contentType.toString());
+        }
+        if (forwardResponse.getBody() != null) {
+            response.getOutputStream().write(forwardResponse.getBody());
+        }
+    }
+
+    private ResponseEntity<byte[]> forward(HttpServletRequest request, InstanceLoad target) {
+        // 查询参数和表单参数都作为表单转发
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        request.getParameterMap().forEach((name, values) -> params.put(name, Arrays.asList(values)));
+
+        HttpHeaders headers = new HttpHeaders();
+        final Enumeration<String> headerNames = request.getHeaderNames();
+        while (headerNames.hasMoreElements()) {
+            final String name = headerNames.nextElement();
+            if (name.toLowerCase(Locale.ROOT).startsWith(AUTHORIZATION_HEADER_PREFIX)) {
+                headers.put(name, Collections.list(request.getHeaders(name)));
+            }
+        }
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        headers.set(PLACED_HEADER, peerRequestSigner.sign(instanceLoadRegistry.getInstanceId(), HttpMethod.POST.name(), request.getRequestURI()));
+
+        final URI uri = UriComponentsBuilder.newInstance()
+                .scheme("http")
+                .host(target.getHost())
+                .port(target.getPort())
+                .path(request.getRequestURI())
+                .build().toUri();
+
+        logger.info("转发调度执行请求: {}", uri);
+        return restTemplate.exchange(uri, HttpMethod.POST, new HttpEntity<>(params, headers), byte[].class);
+    }
+}
@@ -0,0 +1,149 @@
+package com.youngdatafan.di.run.management.server.cluster;
+
+import com.youngdatafan.di.run.management.server.bean.InstanceLoad;
+import com.youngdatafan.di.run.management.server.dto.ScheduleJobDTO;
+import com.youngdatafan.di.run.management.server.service.ExecutionLogService;
+import com.youngdatafan.di.run.management.server.service.ScheduleJobService;
+import java.io.IOException;
+import java.net.URI;
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * 调度执行任务日志路由过滤器
+ * <p>
+ * 执行日志写在执行实例的本地磁盘上，本实例没有该任务的日志时，把日志读取请求转发到执行实例并返回其响应。
+ * 被转发的请求带有 {@link PeerRequestSigner} 签名的 {@link ScheduleExecutePlacementFilter#PLACED_HEADER}，签名正确时不会再次转发。
+ *
+ * @author gavin
+ */
+@Component
+public class ScheduleJobLogRoutingFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleJobLogRoutingFilter.class);
+
+    private static final String LOG_PATH = "/scheduleJob/log";
+
+    private final InstanceLoadRegistry instanceLoadRegistry;
+
+    private final ScheduleJobService scheduleJobService;
+
+    private final ExecutionLogService executionLogService;
+
+    private final PeerRequestSigner peerRequestSigner;
+
+    /**
+     * 转发超时时间，单位：毫秒
+     */
+    @Value("${dp.project.execute.placement.connectTimeoutMs:5000}")
+    private int timeoutMs;
+
+    private RestTemplate restTemplate;
+
+    @Autowired
+    public ScheduleJobLogRoutingFilter(InstanceLoadRegistry instanceLoadRegistry, ScheduleJobService scheduleJobService
+            , ExecutionLogService executionLogService, PeerRequestSigner peerRequestSigner) {
+        this.instanceLoadRegistry = instanceLoadRegistry;
+        this.scheduleJobService = scheduleJobService;
+        this.executionLogService = executionLogService;
+        this.peerRequestSigner = peerRequestSigner;
+    }
+
+    @PostConstruct
+    public void init() {
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+
+        restTemplate = new RestTemplate(requestFactory);
+        // 错误响应原样返回给调用方
+        restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.GET.matches(request.getMethod())
+                || !LOG_PATH.equals(UrlPathHelper.defaultInstance.getPathWithinApplication(request))
+                || peerRequestSigner.isPeerRequest(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        final InstanceLoad target = findTarget(request.getParameter("jobId"));
+        if (target == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ScheduleExecutePlacementFilter.PLACED_HEADER
+                , peerRequestSigner.sign(instanceLoadRegistry.getInstanceId(), HttpMethod.GET.name(), request.getRequestURI()));
+
+        final URI uri = UriComponentsBuilder.newInstance()
+                .scheme("http")
+                .host(target.getHost())
+                .port(target.getPort())
+                .path(request.getRequestURI())
+                .query(request.getQueryString())
+                .build(true).toUri();
+
+        final ResponseEntity<byte[]> forwardResponse = restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        response.setStatus(forwardResponse.getStatusCodeValue());
+        final MediaType contentType = forwardResponse.getHeaders().getContentType();
+        if (contentType != null) {
+            response.setContentType(contentType.toString());
+        }
+        if (forwardResponse.getBody() != null) {
+            response.getOutputStream().write(forwardResponse.getBody());
+        }
+    }
+
+    /**
+     * 日志所在的实例，本实例有日志或者找不到执行实例时返回null
+     */
+    private InstanceLoad findTarget(String jobId) {
+        if (jobId == null || executionLogService.exists(jobId)) {
+            return null;
+        }
+        try {
+            final ScheduleJobDTO job = scheduleJobService.find(jobId);
+            if (job == null || instanceLoadRegistry.getInstanceId().equals(job.getInstanceId())) {
+                return null;
+            }
+            for (InstanceLoad load : instanceLoadRegistry.healthyInstances()) {
+                if (load.getInstanceId().equals(job.getInstanceId())) {
+                    return load;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("查找任务执行实例失败，jobId: {}", jobId, e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.youngdatafan.di.run.management.server.conf;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 项目运行状态推送调度线程池，所有执行器共享，不再为每个执行器占用一个轮询线程
+ *
+ * @author gavin
+ */
+@Component
+public class TransStatusPublishPool {
+
+    /**
+     * 调度线程数
+     */
+    @Value("${dp.project.execute.statusPublishPoolSize:2}")
+    private int poolSize;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = new ScheduledThreadPoolExecutor(poolSize, new ThreadFactory() {
+
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "dp-status-publish-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // 取消的任务立即从队列中移除
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null && !scheduler.isShutdown()) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+}
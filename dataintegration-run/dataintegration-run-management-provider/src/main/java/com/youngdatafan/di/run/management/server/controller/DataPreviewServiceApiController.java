@@ -1,11 +1,17 @@
 package com.youngdatafan.di.run.management.server.controller;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.youngdatafan.dataintegration.core.model.Result;
 import com.youngdatafan.dataintegration.core.util.JsonUtils;
 import com.youngdatafan.di.run.management.datasource.PluginRunDataSourceRepository;
 import com.youngdatafan.di.run.management.server.api.DataPreviewServiceApi;
+import com.youngdatafan.di.run.management.server.dto.DataProfileDTO;
+import com.youngdatafan.di.run.management.server.dto.PreviewDataDTO;
 import com.youngdatafan.di.run.management.server.service.DataDownloadService;
+import com.youngdatafan.di.run.management.server.service.DataProfileService;
+import com.youngdatafan.di.run.management.server.service.DesignResultCacheService;
 import com.youngdatafan.di.run.management.server.service.DataPreviewService;
+import com.youngdatafan.di.run.management.server.vo.DataProfileVO;
 import com.youngdatafan.di.run.management.server.vo.PreviewDataVO;
 import com.youngdatafan.di.run.management.server.vo.PreviewDownloadVO;
 import com.youngdatafan.dataintegration.core.util.sql.DataSourceWrap;
@@ -13,10 +19,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
 
 /**
  * @author gavin
@@ -26,36 +31,54 @@ import java.util.Map;
 @RequestMapping("/preview")
 public class DataPreviewServiceApiController implements DataPreviewServiceApi {
 
+    private static final TypeReference<PreviewDataDTO> PREVIEW_DATA_TYPE = new TypeReference<PreviewDataDTO>() {
+    };
+
     private final DataPreviewService dataPreviewService;
     private final DataDownloadService dataDownloadService;
+    private final DataProfileService dataProfileService;
+    private final DesignResultCacheService designResultCacheService;
     private final PluginRunDataSourceRepository pluginRunDataSourceRepository;
 
     @Autowired
-    public DataPreviewServiceApiController(DataPreviewService dataPreviewService, DataDownloadService dataDownloadService, PluginRunDataSourceRepository pluginRunDataSourceRepository) {
+    public DataPreviewServiceApiController(DataPreviewService dataPreviewService, DataDownloadService dataDownloadService
+            , DataProfileService dataProfileService, DesignResultCacheService designResultCacheService
+            , PluginRunDataSourceRepository pluginRunDataSourceRepository) {
         this.dataPreviewService = dataPreviewService;
         this.dataDownloadService = dataDownloadService;
+        this.dataProfileService = dataProfileService;
+        this.designResultCacheService = designResultCacheService;
         this.pluginRunDataSourceRepository = pluginRunDataSourceRepository;
     }
 
     @Override
-    public Result<List<Map<String, Object>>, Object> previewData(String userId, PreviewDataVO previewDataVO) {
+    public Result<PreviewDataDTO, Object> previewData(String userId, PreviewDataVO previewDataVO, boolean refresh) {
         final DataSourceWrap dataSource = pluginRunDataSourceRepository.getDataSource(userId, previewDataVO.getDataSourceId());
-        // 查询明细
-        final List<Map<String, Object>> previewData = dataPreviewService.previewData(dataSource, previewDataVO);
+        // 查询明细，数据源修改后按数据源id清理缓存
+        final String key = DesignResultCacheService.key("preview", previewDataVO.getDataQuerySql(), userId
+                , previewDataVO.getSize(), previewDataVO.getPageNo(), previewDataVO.getKeyField(), previewDataVO.getLastKey());
+        final PreviewDataDTO previewData = designResultCacheService.get(previewDataVO.getDataSourceId(), key, refresh
+                , PREVIEW_DATA_TYPE, () -> dataPreviewService.previewData(dataSource, previewDataVO));
 
         return Result.success(previewData);
     }
 
     @Override
-    public void excelDownload(String userId, String paramsJson, HttpServletResponse response) throws IOException {
+    public Result<DataProfileDTO, Object> profileData(String userId, DataProfileVO dataProfileVO) {
+        final DataSourceWrap dataSource = pluginRunDataSourceRepository.getDataSource(userId, dataProfileVO.getDataSourceId());
+        return Result.success(dataProfileService.profile(userId, dataSource, dataProfileVO));
+    }
+
+    @Override
+    public void excelDownload(String userId, String paramsJson, HttpServletRequest request, HttpServletResponse response) throws IOException {
         PreviewDownloadVO previewDownloadVO = JsonUtils.parseObject(paramsJson, PreviewDownloadVO.class);
-        dataDownloadService.downloadExcel(userId, previewDownloadVO, false, response);
+        dataDownloadService.download(userId, previewDownloadVO, false, request, response);
     }
 
     @Override
-    public void excelDownloadByNativeSql(String userId, String paramsJson, HttpServletResponse response) throws IOException {
+    public void excelDownloadByNativeSql(String userId, String paramsJson, HttpServletRequest request, HttpServletResponse response) throws IOException {
         PreviewDownloadVO previewDownloadVO = JsonUtils.parseObject(paramsJson, PreviewDownloadVO.class);
-        dataDownloadService.downloadExcel(userId, previewDownloadVO, true, response);
+        dataDownloadService.download(userId, previewDownloadVO, true, request, response);
     }
 
 
@@ -0,0 +1,68 @@
+package com.youngdatafan.di.run.management.server.controller;
+
+import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.di.run.management.server.dto.ExecutionLogDTO;
+import com.youngdatafan.di.run.management.server.service.ExecutionLogService;
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 执行日志查询
+ * <p>
+ * 执行器id可以从执行记录中获取，执行中和执行结束的日志都可以查询，只能查询自己的执行日志。
+ *
+ * @author gavin
+ */
+@RestController
+@RequestMapping("/executeLog")
+public class ExecutionLogController {
+
+    private final ExecutionLogService executionLogService;
+
+    @Autowired
+    public ExecutionLogController(ExecutionLogService executionLogService) {
+        this.executionLogService = executionLogService;
+    }
+
+    @GetMapping("/tail")
+    public Result<ExecutionLogDTO, Object> tail(@RequestHeader("authorization-userId") String userId
+            , @RequestParam("executorId") String executorId
+            , @RequestParam(value = "lines", defaultValue = "200") int lines) throws IOException {
+        executionLogService.checkOwner(userId, executorId);
+        return Result.success(executionLogService.tail(executorId, lines));
+    }
+
+    @GetMapping("/read")
+    public Result<ExecutionLogDTO, Object> read(@RequestHeader("authorization-userId") String userId
+            , @RequestParam("executorId") String executorId
+            , @RequestParam(value = "fromLine", defaultValue = "0") long fromLine
+            , @RequestParam(value = "limit", defaultValue = "200") int limit) throws IOException {
+        executionLogService.checkOwner(userId, executorId);
+        return Result.success(executionLogService.read(executorId, fromLine, limit));
+    }
+
+    @GetMapping("/seek")
+    public Result<ExecutionLogDTO, Object> seek(@RequestHeader("authorization-userId") String userId
+            , @RequestParam("executorId") String executorId
+            , @RequestParam("timestamp") long timestamp
+            , @RequestParam(value = "limit", defaultValue = "200") int limit) throws IOException {
+        executionLogService.checkOwner(userId, executorId);
+        return Result.success(executionLogService.seek(executorId, timestamp, limit));
+    }
+
+    @GetMapping("/grep")
+    public Result<ExecutionLogDTO, Object> grep(@RequestHeader("authorization-userId") String userId
+            , @RequestParam("executorId") String executorId
+            , @RequestParam("keyword") String keyword
+            , @RequestParam(value = "regex", defaultValue = "false") boolean regex
+            , @RequestParam(value = "fromLine", defaultValue = "0") long fromLine
+            , @RequestParam(value = "limit", defaultValue = "200") int limit) throws IOException {
+        executionLogService.checkOwner(userId, executorId);
+        return Result.success(executionLogService.grep(executorId, keyword, regex, fromLine, limit));
+    }
+}
@@ -0,0 +1,62 @@
+package com.youngdatafan.di.run.management.server.controller;
+
+import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.di.run.management.server.dto.ExportJobDTO;
+import com.youngdatafan.di.run.management.server.service.ExportJobService;
+import com.youngdatafan.di.run.management.server.vo.PreviewDownloadVO;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 数据导出任务接口
+ * <p>
+ * 提交后立即返回任务，调用方按任务id查询进度，导出成功后下载文件；下载支持 Range 请求，中断后可以继续。
+ *
+ * @author gavin
+ */
+@RestController
+@RequestMapping("/exportJob")
+public class ExportJobController {
+
+    private final ExportJobService exportJobService;
+
+    @Autowired
+    public ExportJobController(ExportJobService exportJobService) {
+        this.exportJobService = exportJobService;
+    }
+
+    @PostMapping("/submit")
+    public Result<ExportJobDTO, Object> submit(@RequestHeader("authorization-userId") String userId
+            , @Validated @RequestBody PreviewDownloadVO previewDownloadVO
+            , @RequestParam(value = "useNativeSql", defaultValue = "false") boolean useNativeSql) {
+        return Result.success(exportJobService.submit(userId, previewDownloadVO, useNativeSql));
+    }
+
+    @GetMapping("/status")
+    public Result<ExportJobDTO, Object> status(@RequestHeader("authorization-userId") String userId
+            , @RequestParam("jobId") String jobId) {
+        return Result.success(exportJobService.get(userId, jobId));
+    }
+
+    @PostMapping("/cancel")
+    public Result<Boolean, Object> cancel(@RequestHeader("authorization-userId") String userId
+            , @RequestParam("jobId") String jobId) {
+        return Result.success(exportJobService.cancel(userId, jobId));
+    }
+
+    @GetMapping("/download")
+    public void download(@RequestHeader("authorization-userId") String userId, @RequestParam("jobId") String jobId
+            , HttpServletRequest request, HttpServletResponse response) throws IOException {
+        exportJobService.download(userId, jobId, request, response);
+    }
+}
@@ -1,5 +1,6 @@
 package com.youngdatafan.di.run.management.server.controller;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.youngdatafan.dataintegration.core.exception.DpException;
 import com.youngdatafan.dataintegration.core.exception.ValidationException;
 import com.youngdatafan.dataintegration.core.model.Result;
@@ -21,6 +22,7 @@ import com.youngdatafan.di.run.management.server.entity.DpPortalPluginInfo;
 import com.youngdatafan.di.run.management.server.feign.BusinessModelServiceApiClient;
 import com.youngdatafan.di.run.management.server.function.FunctionDescription;
 import com.youngdatafan.di.run.management.server.function.FunctionLib;
+import com.youngdatafan.di.run.management.server.service.DesignResultCacheService;
 import com.youngdatafan.di.run.management.server.service.DpPortalPluginInfoService;
 import com.youngdatafan.di.run.management.server.service.ProjectExecutorService;
 import com.youngdatafan.di.run.management.server.util.TreeUtil;
@@ -106,6 +108,12 @@ public class PluginManageServiceApiController implements PluginManageServiceApi
     @Autowired
     private BusinessModelServiceApiClient businessModelServiceApiClient;
 
+    @Autowired
+    private DesignResultCacheService designResultCacheService;
+
+    private static final TypeReference<PreStepSqlInfoDTO> PRE_STEP_SQL_TYPE = new TypeReference<PreStepSqlInfoDTO>() {
+    };
+
     public static final KettleTwoWayPasswordEncoder PASSWORD_ENCODER = new KettleTwoWayPasswordEncoder();
 
     @Override
@@ -590,14 +598,21 @@ public class PluginManageServiceApiController implements PluginManageServiceApi
     }
 
     @Override
-    public Result getPreStepSql(String userId, String userName, ExecuteFieldSumVO executeFieldSumVO) {
-        String[] masterDatasourceId = new String[1];
-        List<String> stepSqls;
+    public Result getPreStepSql(String userId, String userName, ExecuteFieldSumVO executeFieldSumVO, boolean refresh) {
+        // 需要执行前置步骤才能得到sql，按用户和转换缓存
+        final String key = DesignResultCacheService.key("preStepSql", executeFieldSumVO.getTransJson()
+                , executeFieldSumVO.getCurrentStepName(), executeFieldSumVO.getField());
         try {
-            stepSqls = getPreStepSqls(userId, userName, executeFieldSumVO.getTransJson(), executeFieldSumVO.getCurrentStepName(), executeFieldSumVO.getField(), masterDatasourceId);
+            return Result.success(designResultCacheService.get("user_" + userId, key, refresh, PRE_STEP_SQL_TYPE
+                    , () -> buildPreStepSql(userId, userName, executeFieldSumVO)));
         } catch (DpException e) {
             return Result.fail(e.getStatusCode(), "", e.getMessage());
         }
+    }
+
+    private PreStepSqlInfoDTO buildPreStepSql(String userId, String userName, ExecuteFieldSumVO executeFieldSumVO) {
+        String[] masterDatasourceId = new String[1];
+        List<String> stepSqls = getPreStepSqls(userId, userName, executeFieldSumVO.getTransJson(), executeFieldSumVO.getCurrentStepName(), executeFieldSumVO.getField(), masterDatasourceId);
         StringBuffer stringBuffer = new StringBuffer();
         stringBuffer.append("select a.* from (");
         for (int i = 0; i < stepSqls.size(); i++) {
@@ -611,7 +626,7 @@ public class PluginManageServiceApiController implements PluginManageServiceApi
         PreStepSqlInfoDTO preStepSqlInfoDTO = new PreStepSqlInfoDTO();
         preStepSqlInfoDTO.setDataSourceId(masterDatasourceId[0]);
         preStepSqlInfoDTO.setPreStepSql(PASSWORD_ENCODER.encode(stringBuffer.toString()));
-        return Result.success(preStepSqlInfoDTO);
+        return preStepSqlInfoDTO;
     }
 
 
@@ -678,7 +693,7 @@ public class PluginManageServiceApiController implements PluginManageServiceApi
                     results.add(webSocketMessage);
                 }
             }
-        );
+        ).join();
         List<String> stepSqls = new ArrayList<>();
         //获取最后一步执行结果
         Result finalResult = results.getLast();
@@ -79,7 +79,7 @@ public class ProjectExecutorController {
 
         // 检查项目是否在运行
         projectExecutorService.checkExists(userId, projectExecutorParam.getProjectId());
-        // 异步执行
+        // 进入执行队列，异步执行
         projectExecutorService.asyncExecuteByFile(projectFile.getProjectFile(), projectExecutorParam
                 , (destination, webSocketMessage) -> {
                     // 发送消息给前端
@@ -109,7 +109,7 @@ public class ProjectExecutorController {
 
         // 检查项目是否在运行
         projectExecutorService.checkExists(userId, projectExecutorParam.getProjectId());
-        // 异步执行
+        // 进入执行队列，异步执行
         projectExecutorService.asyncExecuteByFile(projectFileExecutorVO.getProjectFile(), projectExecutorParam
                 , (destination, webSocketMessage) -> {
                     // 发送消息给前端
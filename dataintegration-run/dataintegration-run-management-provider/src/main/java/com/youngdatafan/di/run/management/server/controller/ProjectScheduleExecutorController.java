@@ -1,19 +1,12 @@
 package com.youngdatafan.di.run.management.server.controller;
 
-import com.youngdatafan.dataintegration.core.exception.ValidationException;
 import com.youngdatafan.dataintegration.core.model.Result;
-import com.youngdatafan.dataintegration.core.util.JsonUtils;
-import com.youngdatafan.dataintegration.core.util.StatusCode;
-import com.youngdatafan.di.run.management.server.dto.ProjectExecutorDTO;
-import com.youngdatafan.di.run.management.server.feign.ProjectServiceApiClient;
+import com.youngdatafan.di.run.management.server.service.ExecutionLogService;
 import com.youngdatafan.di.run.management.server.service.ProjectScheduleExecutorService;
+import com.youngdatafan.di.run.management.server.service.ScheduleJobService;
 import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
 import com.youngdatafan.di.run.management.server.vo.ProjectFileExecutorVO;
 import com.youngdatafan.di.run.management.server.vo.ProjectIdExecutorVO;
-import com.youngdatafan.portal.common.project.dto.ProjectFileDTO;
-import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -34,18 +27,19 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/scheduleExecute")
 public class ProjectScheduleExecutorController {
 
-    private static final Logger logger = LoggerFactory.getLogger(ProjectScheduleExecutorController.class);
-
     private final ProjectScheduleExecutorService projectScheduleExecutorService;
-    private final ProjectServiceApiClient projectServiceApiClient;
+    private final ExecutionLogService executionLogService;
+    private final ScheduleJobService scheduleJobService;
 
     @Value("${dp.exec.maxLogLength:65536}")
     private int maxLogLength;
 
     @Autowired
-    public ProjectScheduleExecutorController(ProjectScheduleExecutorService projectScheduleExecutorService, ProjectServiceApiClient projectServiceApiClient) {
+    public ProjectScheduleExecutorController(ProjectScheduleExecutorService projectScheduleExecutorService
+            , ExecutionLogService executionLogService, ScheduleJobService scheduleJobService) {
         this.projectScheduleExecutorService = projectScheduleExecutorService;
-        this.projectServiceApiClient = projectServiceApiClient;
+        this.executionLogService = executionLogService;
+        this.scheduleJobService = scheduleJobService;
     }
 
     @PostMapping("/executeById")
@@ -56,20 +50,6 @@ public class ProjectScheduleExecutorController {
         // 生成唯一的执行器id
         String executorId = projectScheduleExecutorService.generateExecutorId();
 
-        Result<ProjectFileDTO, Object> projectResult = projectServiceApiClient.getProjectFile(projectIdExecutorVO.getProjectId());
-        if (!StatusCode.CODE_10000.equals(projectResult.getCode())) {
-            // 打印日志
-            logger.warn(JsonUtils.toString(projectResult));
-            // 抛出异常
-            throw new ValidationException(StatusCode.CODE_10010.getCode(), "获取项目文件失败.");
-        }
-
-        // 判断项目文件是否存在
-        final ProjectFileDTO projectFile = projectResult.getContent();
-        if (projectFile == null || StringUtils.isBlank(projectFile.getProjectFile())) {
-            throw new ValidationException(StatusCode.CODE_10010.getCode(), "项目文件不存在或者没有执行权限。");
-        }
-
         // 创建执行参数对象
         ProjectExecutorParam projectExecutorParam = new ProjectExecutorParam();
         BeanUtils.copyProperties(projectIdExecutorVO, projectExecutorParam);
@@ -80,22 +60,21 @@ public class ProjectScheduleExecutorController {
         // 检查项目是否在运行
         projectScheduleExecutorService.checkExists(projectExecutorParam.getProjectId());
 
-        final StringBuilder log = new StringBuilder();
-        // 异步执行
-        projectScheduleExecutorService.executeByFile(log, projectFile.getProjectFile(), projectExecutorParam
-                , (destination, webSocketMessage) -> {
-                    // 打印日志
-                    logger.info("executorId: {} ,message: {}", executorId, JsonUtils.toString(webSocketMessage));
-
-                    final ProjectExecutorDTO content = (ProjectExecutorDTO) webSocketMessage.getContent();
-                    // 保存日志
-                    if (log.length() < maxLogLength && content != null) {
-                        log.append(content.getLog());
-                    }
-                });
+        // 提交后等待执行完成，日志写入执行日志文件
+        ScheduleJobService.await(scheduleJobService.submitById(projectExecutorParam, null));
 
         // 将执行器id返回
-        return Result.success(executorId, log.toString());
+        return Result.success(executorId, executionLogService.tailText(executorId, maxLogLength));
+    }
+
+    /**
+     * 从上次执行失败时记录的断点继续执行
+     */
+    @PostMapping("/resumeById")
+    public Result<String, Object> resumeById(@Validated ProjectIdExecutorVO projectIdExecutorVO) throws Exception {
+        projectIdExecutorVO.setCheckpoint(true);
+        projectIdExecutorVO.setResume(true);
+        return executeById(projectIdExecutorVO);
     }
 
     @PostMapping("/executeByFile")
@@ -116,21 +95,10 @@ public class ProjectScheduleExecutorController {
         // 检查项目是否在运行
         projectScheduleExecutorService.checkExists(projectExecutorParam.getProjectId());
 
-        final StringBuilder log = new StringBuilder();
-        // 异步执行
-        projectScheduleExecutorService.executeByFile(log, projectFileExecutorVO.getProjectFile(), projectExecutorParam
-                , (destination, webSocketMessage) -> {
-                    // 打印日志
-                    logger.info("executorId: {} ,message: {}", executorId, JsonUtils.toString(webSocketMessage));
-
-                    final ProjectExecutorDTO content = (ProjectExecutorDTO) webSocketMessage.getContent();
-                    // 保存日志
-                    if (log.length() < maxLogLength && content != null) {
-                        log.append(content.getLog());
-                    }
-                });
+        // 提交后等待执行完成，日志写入执行日志文件
+        ScheduleJobService.await(scheduleJobService.submitByFile(projectFileExecutorVO.getProjectFile(), projectExecutorParam, null));
         // 将执行器id返回
-        return Result.success(executorId, log.toString());
+        return Result.success(executorId, executionLogService.tailText(executorId, maxLogLength));
     }
 
     @GetMapping("/stop")
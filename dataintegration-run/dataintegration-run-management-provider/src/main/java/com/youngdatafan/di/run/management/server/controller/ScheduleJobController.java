@@ -0,0 +1,102 @@
+package com.youngdatafan.di.run.management.server.controller;
+
+import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.di.run.management.server.dto.ExecutionLogDTO;
+import com.youngdatafan.di.run.management.server.dto.ScheduleJobDTO;
+import com.youngdatafan.di.run.management.server.service.ExecutionLogService;
+import com.youngdatafan.di.run.management.server.service.ProjectScheduleExecutorService;
+import com.youngdatafan.di.run.management.server.service.ScheduleJobService;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import com.youngdatafan.di.run.management.server.vo.ProjectFileExecutorVO;
+import com.youngdatafan.di.run.management.server.vo.ProjectIdExecutorVO;
+import java.io.IOException;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 调度执行任务接口
+ * <p>
+ * 提交后立即返回任务，调用方按任务id查询状态、步骤运行状态和日志，执行完成后可以回调 webhook。
+ * 日志按行号增量读取，每次使用返回的 nextLine 作为下一次的 fromLine。
+ *
+ * @author gavin
+ */
+@RestController
+@RequestMapping("/scheduleJob")
+public class ScheduleJobController {
+
+    /**
+     * 调度执行使用的用户
+     */
+    private static final String SCHEDULE_USER = "schedule";
+
+    private final ProjectScheduleExecutorService projectScheduleExecutorService;
+    private final ScheduleJobService scheduleJobService;
+    private final ExecutionLogService executionLogService;
+
+    @Autowired
+    public ScheduleJobController(ProjectScheduleExecutorService projectScheduleExecutorService, ScheduleJobService scheduleJobService
+            , ExecutionLogService executionLogService) {
+        this.projectScheduleExecutorService = projectScheduleExecutorService;
+        this.scheduleJobService = scheduleJobService;
+        this.executionLogService = executionLogService;
+    }
+
+    @PostMapping("/submitById")
+    public Result<ScheduleJobDTO, Object> submitById(@Validated ProjectIdExecutorVO projectIdExecutorVO
+            , @RequestParam(value = "webhookUrl", required = false) String webhookUrl) {
+        ProjectExecutorParam projectExecutorParam = buildParam(projectIdExecutorVO);
+
+        // 检查项目是否在运行
+        projectScheduleExecutorService.checkExists(projectExecutorParam.getProjectId());
+        scheduleJobService.submitById(projectExecutorParam, webhookUrl);
+        return Result.success(scheduleJobService.get(projectExecutorParam.getExecutorId()));
+    }
+
+    @PostMapping("/submitByFile")
+    public Result<ScheduleJobDTO, Object> submitByFile(@Validated ProjectFileExecutorVO projectFileExecutorVO
+            , @RequestParam(value = "webhookUrl", required = false) String webhookUrl) {
+        ProjectExecutorParam projectExecutorParam = buildParam(projectFileExecutorVO);
+
+        // 检查项目是否在运行
+        projectScheduleExecutorService.checkExists(projectExecutorParam.getProjectId());
+        scheduleJobService.submitByFile(projectFileExecutorVO.getProjectFile(), projectExecutorParam, webhookUrl);
+        return Result.success(scheduleJobService.get(projectExecutorParam.getExecutorId()));
+    }
+
+    @GetMapping("/status")
+    public Result<ScheduleJobDTO, Object> status(@RequestParam("jobId") String jobId) {
+        return Result.success(scheduleJobService.get(jobId));
+    }
+
+    @GetMapping("/log")
+    public Result<ExecutionLogDTO, Object> log(@RequestParam("jobId") String jobId
+            , @RequestParam(value = "fromLine", defaultValue = "0") long fromLine
+            , @RequestParam(value = "limit", defaultValue = "200") int limit) throws IOException {
+        // 只能查询调度任务的日志，不能通过任务id读取设计器中其他用户的执行日志
+        scheduleJobService.get(jobId);
+        executionLogService.checkOwner(SCHEDULE_USER, jobId);
+        return Result.success(executionLogService.read(jobId, fromLine, limit));
+    }
+
+    @PostMapping("/cancel")
+    public Result<Boolean, Object> cancel(@RequestParam("jobId") String jobId) {
+        return Result.success(scheduleJobService.cancel(jobId));
+    }
+
+    private ProjectExecutorParam buildParam(Object executorVO) {
+        // 创建执行参数对象
+        ProjectExecutorParam projectExecutorParam = new ProjectExecutorParam();
+        BeanUtils.copyProperties(executorVO, projectExecutorParam);
+        projectExecutorParam.setExecutorId(projectScheduleExecutorService.generateExecutorId());
+        projectExecutorParam.setUserId(SCHEDULE_USER);
+        projectExecutorParam.setUserName(SCHEDULE_USER);
+        return projectExecutorParam;
+    }
+}
@@ -48,6 +48,16 @@ public class DpDeProjectExecHistory {
     */
     private Integer execSecond;
 
+    /**
+    * 执行器编号
+    */
+    private String executorId;
+
+    /**
+    * 执行日志文件
+    */
+    private String logFile;
+
     public Long getId() {
         return id;
     }
@@ -119,4 +129,20 @@ public class DpDeProjectExecHistory {
     public void setExecSecond(Integer execSecond) {
         this.execSecond = execSecond;
     }
+
+    public String getExecutorId() {
+        return executorId;
+    }
+
+    public void setExecutorId(String executorId) {
+        this.executorId = executorId;
+    }
+
+    public String getLogFile() {
+        return logFile;
+    }
+
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
 }
\ No newline at end of file
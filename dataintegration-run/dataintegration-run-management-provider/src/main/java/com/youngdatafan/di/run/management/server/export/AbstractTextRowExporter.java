@@ -0,0 +1,85 @@
+package com.youngdatafan.di.run.management.server.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * 文本格式导出，UTF-8 编码，按缓冲区大小分块写出
+ *
+ * @author gavin
+ */
+public abstract class AbstractTextRowExporter implements RowExporter {
+
+    static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final Writer writer;
+
+    protected RowMetaInterface rowMeta;
+
+    protected String[] headers;
+
+    protected AbstractTextRowExporter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void start(RowMetaInterface rowMeta, String[] headers) throws IOException {
+        this.rowMeta = rowMeta;
+        this.headers = headers;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * 字段值转为文本，不使用 Kettle 的格式掩码，数字不带千分位
+     *
+     * @return 空值返回 null
+     */
+    static String text(ValueMetaInterface valueMeta, Object value) throws KettleValueException {
+        if (value == null) {
+            return null;
+        }
+        switch (valueMeta.getType()) {
+            case ValueMetaInterface.TYPE_DATE:
+            case ValueMetaInterface.TYPE_TIMESTAMP:
+                return DateFormatUtils.format(valueMeta.getDate(value), DATE_FORMAT);
+            case ValueMetaInterface.TYPE_BIGNUMBER:
+                final BigDecimal bigNumber = valueMeta.getBigNumber(value);
+                return bigNumber == null ? null : bigNumber.toPlainString();
+            case ValueMetaInterface.TYPE_INTEGER:
+                return String.valueOf(valueMeta.getInteger(value));
+            case ValueMetaInterface.TYPE_NUMBER:
+                final Double number = valueMeta.getNumber(value);
+                return number == null ? null : plainNumber(number);
+            case ValueMetaInterface.TYPE_BOOLEAN:
+                return String.valueOf(valueMeta.getBoolean(value));
+            default:
+                return valueMeta.getString(value);
+        }
+    }
+
+    /**
+     * 浮点数转为文本，不使用科学计数法，很大或者很小的数在表格软件中按数字识别
+     */
+    static String plainNumber(double number) {
+        final String text = Double.toString(number);
+        if (text.indexOf('E') < 0 || Double.isNaN(number) || Double.isInfinite(number)) {
+            return text;
+        }
+        return new BigDecimal(text).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.youngdatafan.di.run.management.server.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * 分隔符文本导出
+ * <p>
+ * 包含分隔符、引号或者换行的值按 RFC 4180 加双引号；文件开头写出 BOM，Excel 打开时按 UTF-8 识别中文。
+ *
+ * @author gavin
+ */
+public class DelimitedRowExporter extends AbstractTextRowExporter {
+
+    private static final char QUOTE = '"';
+
+    private static final int BOM = 0xFEFF;
+
+    private final char delimiter;
+
+    public DelimitedRowExporter(OutputStream outputStream, char delimiter) {
+        super(outputStream);
+        this.delimiter = delimiter;
+    }
+
+    @Override
+    public void start(RowMetaInterface rowMeta, String[] headers) throws IOException {
+        super.start(rowMeta, headers);
+        writer.write(BOM);
+        for (int i = 0; i < headers.length; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            writeValue(headers[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void write(Object[] row) throws IOException, KettleValueException {
+        final int size = rowMeta.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            writeValue(text(rowMeta.getValueMeta(i), row[i]));
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeValue(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        if (!needsQuote(value)) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == QUOTE) {
+                writer.write(QUOTE);
+            }
+            writer.write(c);
+        }
+        writer.write(QUOTE);
+    }
+
+    private boolean needsQuote(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == delimiter || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
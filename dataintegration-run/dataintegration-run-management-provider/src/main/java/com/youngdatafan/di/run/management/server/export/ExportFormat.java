@@ -0,0 +1,93 @@
+package com.youngdatafan.di.run.management.server.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 导出格式
+ *
+ * @author gavin
+ */
+public enum ExportFormat {
+
+    XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", false) {
+        @Override
+        public RowExporter create(OutputStream outputStream) {
+            return new XlsxRowExporter(outputStream);
+        }
+    },
+
+    CSV("csv", "text/csv", true) {
+        @Override
+        public RowExporter create(OutputStream outputStream) {
+            return new DelimitedRowExporter(outputStream, ',');
+        }
+    },
+
+    TSV("tsv", "text/tab-separated-values", true) {
+        @Override
+        public RowExporter create(OutputStream outputStream) {
+            return new DelimitedRowExporter(outputStream, '\t');
+        }
+    },
+
+    JSONL("jsonl", "application/x-ndjson", true) {
+        @Override
+        public RowExporter create(OutputStream outputStream) throws IOException {
+            return new JsonLinesRowExporter(outputStream);
+        }
+    };
+
+    private final String extension;
+
+    private final String contentType;
+
+    /**
+     * 是否适合 gzip 压缩，xlsx 本身是 zip 文件
+     */
+    private final boolean compressible;
+
+    ExportFormat(String extension, String contentType, boolean compressible) {
+        this.extension = extension;
+        this.contentType = contentType;
+        this.compressible = compressible;
+    }
+
+    /**
+     * 创建导出器
+     *
+     * @param outputStream 输出流
+     * @return RowExporter
+     */
+    public abstract RowExporter create(OutputStream outputStream) throws IOException;
+
+    /**
+     * 按名称或者扩展名查找，为空时返回 xlsx
+     *
+     * @param name 格式名称，不区分大小写
+     * @return ExportFormat
+     */
+    public static ExportFormat of(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return XLSX;
+        }
+        for (ExportFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name.trim()) || format.extension.equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("不支持的导出格式：" + name);
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isCompressible() {
+        return compressible;
+    }
+}
@@ -0,0 +1,78 @@
+package com.youngdatafan.di.run.management.server.export;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * JSON Lines 导出，每行一个对象，键为表头
+ *
+ * @author gavin
+ */
+public class JsonLinesRowExporter extends AbstractTextRowExporter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonGenerator generator;
+
+    public JsonLinesRowExporter(OutputStream outputStream) throws IOException {
+        super(outputStream);
+        this.generator = JSON_FACTORY.createGenerator(writer);
+        // 由 finish 刷新缓冲区，输出流由调用方关闭
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        // 对象之间只用换行分隔
+        this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void write(Object[] row) throws IOException, KettleValueException {
+        generator.writeStartObject();
+        final int size = rowMeta.size();
+        for (int i = 0; i < size; i++) {
+            generator.writeFieldName(headers[i]);
+            writeValue(rowMeta.getValueMeta(i), row[i]);
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void writeValue(ValueMetaInterface valueMeta, Object value) throws IOException, KettleValueException {
+        if (value == null) {
+            generator.writeNull();
+            return;
+        }
+        switch (valueMeta.getType()) {
+            case ValueMetaInterface.TYPE_DATE:
+            case ValueMetaInterface.TYPE_TIMESTAMP:
+                generator.writeString(DateFormatUtils.format(valueMeta.getDate(value), DATE_FORMAT));
+                break;
+            case ValueMetaInterface.TYPE_BIGNUMBER:
+                generator.writeNumber(valueMeta.getBigNumber(value));
+                break;
+            case ValueMetaInterface.TYPE_INTEGER:
+                generator.writeNumber(valueMeta.getInteger(value));
+                break;
+            case ValueMetaInterface.TYPE_NUMBER:
+                generator.writeNumber(valueMeta.getNumber(value));
+                break;
+            case ValueMetaInterface.TYPE_BOOLEAN:
+                generator.writeBoolean(valueMeta.getBoolean(value));
+                break;
+            default:
+                generator.writeString(valueMeta.getString(value));
+                break;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        generator.flush();
+        super.finish();
+    }
+}
@@ -0,0 +1,33 @@
+package com.youngdatafan.di.run.management.server.export;
+
+import java.io.IOException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * 流式导出查询结果
+ * <p>
+ * 逐行写入输出流，内存占用与行数无关。调用顺序为 start -> write* -> finish，输出流由调用方关闭。
+ *
+ * @author gavin
+ */
+public interface RowExporter {
+
+    /**
+     * 写出表头
+     *
+     * @param rowMeta 字段类型
+     * @param headers 表头，与字段一一对应
+     */
+    void start(RowMetaInterface rowMeta, String[] headers) throws IOException;
+
+    /**
+     * 写出一行
+     */
+    void write(Object[] row) throws IOException, KettleValueException;
+
+    /**
+     * 写出剩余内容，不关闭输出流
+     */
+    void finish() throws IOException;
+}
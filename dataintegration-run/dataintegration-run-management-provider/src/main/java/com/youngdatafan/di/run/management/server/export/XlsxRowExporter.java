@@ -0,0 +1,219 @@
+package com.youngdatafan.di.run.management.server.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFCell;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * xlsx 导出
+ * <p>
+ * SXSSF 只在内存中保留最近的 {@link #WINDOW_SIZE} 行，其余行写入压缩的临时文件。
+ * 列宽按表头和前 {@link #SAMPLE_ROWS} 行估算，不使用 autoSizeColumn，避免写完后重新扫描全部行。
+ * 每个 sheet 最多 {@link #MAX_SHEET_ROWS} 行，超过后写入新的 sheet，并重复表头。
+ *
+ * @author gavin
+ */
+public class XlsxRowExporter implements RowExporter {
+
+    /**
+     * 内存中保留的行数
+     */
+    static final int WINDOW_SIZE = 100;
+
+    /**
+     * 估算列宽的行数
+     */
+    static final int SAMPLE_ROWS = 500;
+
+    /**
+     * 最大列宽，单位：字符
+     */
+    static final int MAX_COLUMN_CHARS = 80;
+
+    /**
+     * xlsx 每个 sheet 的最大行数，包括表头
+     */
+    public static final int MAX_SHEET_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    private final OutputStream outputStream;
+
+    private final SXSSFWorkbook book;
+
+    private final int maxSheetRows;
+
+    private SXSSFSheet sheet;
+
+    private RowMetaInterface rowMeta;
+
+    private String[] headers;
+
+    /**
+     * 估算的列宽
+     */
+    private int[] columnChars;
+
+    /**
+     * 是否还在估算列宽
+     */
+    private boolean sampling;
+
+    /**
+     * 当前 sheet 的行数
+     */
+    private int rowCount;
+
+    /**
+     * 已经估算的数据行数
+     */
+    private int sampledRows;
+
+    public XlsxRowExporter(OutputStream outputStream) {
+        this(outputStream, MAX_SHEET_ROWS);
+    }
+
+    /**
+     * @param outputStream 输出流
+     * @param maxSheetRows 每个 sheet 的最大行数，包括表头
+     */
+    public XlsxRowExporter(OutputStream outputStream, int maxSheetRows) {
+        if (maxSheetRows < 2 || maxSheetRows > MAX_SHEET_ROWS) {
+            throw new IllegalArgumentException("maxSheetRows must be between 2 and " + MAX_SHEET_ROWS);
+        }
+        this.outputStream = outputStream;
+        this.maxSheetRows = maxSheetRows;
+        this.book = new SXSSFWorkbook(null, WINDOW_SIZE, true);
+    }
+
+    @Override
+    public void start(RowMetaInterface rowMeta, String[] headers) {
+        this.rowMeta = rowMeta;
+        this.headers = headers;
+        this.columnChars = new int[headers.length];
+        this.sampling = true;
+        newSheet();
+    }
+
+    @Override
+    public void write(Object[] row) throws KettleValueException {
+        if (rowCount >= maxSheetRows) {
+            newSheet();
+        }
+        final SXSSFRow sxssfRow = sheet.createRow(rowCount++);
+        final int size = rowMeta.size();
+        for (int i = 0; i < size; i++) {
+            writeCell(sxssfRow, i, rowMeta.getValueMeta(i), row[i]);
+        }
+
+        if (sampling && ++sampledRows >= SAMPLE_ROWS) {
+            sampling = false;
+            applyColumnWidths();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (sampling) {
+            sampling = false;
+            applyColumnWidths();
+        }
+        try {
+            book.write(outputStream);
+        } finally {
+            // 删除临时文件
+            book.dispose();
+            book.close();
+        }
+    }
+
+    /**
+     * 创建新的 sheet 并写出表头
+     */
+    private void newSheet() {
+        sheet = book.createSheet("sheet" + (book.getNumberOfSheets() + 1));
+        rowCount = 0;
+        final SXSSFRow row = sheet.createRow(rowCount++);
+        for (int i = 0; i < headers.length; i++) {
+            row.createCell(i).setCellValue(headers[i]);
+            sample(i, headers[i]);
+        }
+        if (!sampling) {
+            applyColumnWidths();
+        }
+    }
+
+    private void writeCell(SXSSFRow sxssfRow, int i, ValueMetaInterface valueMeta, Object value) throws KettleValueException {
+        if (value == null) {
+            return;
+        }
+
+        final SXSSFCell cell = sxssfRow.createCell(i);
+        switch (valueMeta.getType()) {
+            case ValueMetaInterface.TYPE_NUMBER:
+                final Double number = valueMeta.getNumber(value);
+                cell.setCellValue(number);
+                sample(i, String.valueOf(number));
+                break;
+            case ValueMetaInterface.TYPE_INTEGER:
+                final Long integer = valueMeta.getInteger(value);
+                cell.setCellValue(integer);
+                sample(i, String.valueOf(integer));
+                break;
+            case ValueMetaInterface.TYPE_BIGNUMBER:
+                final BigDecimal bigNumber = valueMeta.getBigNumber(value);
+                cell.setCellValue(bigNumber.doubleValue());
+                sample(i, bigNumber.toPlainString());
+                break;
+            case ValueMetaInterface.TYPE_BOOLEAN:
+                cell.setCellValue(valueMeta.getBoolean(value));
+                sample(i, "FALSE");
+                break;
+            case ValueMetaInterface.TYPE_DATE:
+            case ValueMetaInterface.TYPE_TIMESTAMP:
+                final String date = DateFormatUtils.format(valueMeta.getDate(value), AbstractTextRowExporter.DATE_FORMAT);
+                cell.setCellValue(date);
+                sample(i, date);
+                break;
+            default:
+                final String text = valueMeta.getString(value);
+                cell.setCellValue(text);
+                sample(i, text);
+                break;
+        }
+    }
+
+    /**
+     * 记录样本行中每列的最大显示宽度，中文等全角字符按两个字符计算
+     */
+    private void sample(int i, String text) {
+        if (!sampling || text == null || columnChars[i] >= MAX_COLUMN_CHARS) {
+            return;
+        }
+        int chars = 0;
+        for (int j = 0; j < text.length() && chars < MAX_COLUMN_CHARS; j++) {
+            chars += text.charAt(j) < 0x2E80 ? 1 : 2;
+        }
+        columnChars[i] = Math.max(columnChars[i], Math.min(chars, MAX_COLUMN_CHARS));
+    }
+
+    /**
+     * 估算时可能已经写了多个 sheet，列宽设置到所有 sheet
+     */
+    private void applyColumnWidths() {
+        for (Sheet each : book) {
+            for (int i = 0; i < columnChars.length; i++) {
+                // 单位为 1/256 字符宽度，两边各留一个字符
+                each.setColumnWidth(i, (columnChars[i] + 2) * 256);
+            }
+        }
+    }
+}
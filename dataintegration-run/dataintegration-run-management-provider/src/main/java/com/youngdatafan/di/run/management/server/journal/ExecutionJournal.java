@@ -0,0 +1,569 @@
+package com.youngdatafan.di.run.management.server.journal;
+
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
+import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import com.youngdatafan.di.run.management.server.mapper.DpDeProjectExecHistoryMapper;
+import com.youngdatafan.di.run.management.server.util.ProjectExecuteStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * 执行日志，异步批量写入执行记录和redis缓存
+ * <p>
+ * 执行线程只把写入加入队列，由后台线程按间隔批量写入：执行记录使用 JDBC batch，redis 使用 pipeline。
+ * 写入都是幂等的（插入忽略已存在的主键、更新和redis写入覆盖）。执行记录和redis分别排队、分别退避，
+ * 一个目标不可用时不影响另一个。批量写入失败时逐条写入：部分成功说明失败的条目本身有问题，搁置后单独重试，
+ * 同一目标的后续条目排在搁置的条目之后；全部失败说明目标不可用，放回队首按退避时间重试。
+ * 超过重试次数的redis条目丢弃（缓存都有过期时间），执行记录一直搁置重试，不会丢弃。
+ * 运行中的执行登记在 redis 中，实例异常退出重启后把仍处于运行中的执行记录修正为终止并清理缓存。
+ *
+ * @author gavin
+ */
+@Component
+public class ExecutionJournal {
+
+    /**
+     * 运行中的执行缓存key前缀，后接实例id
+     */
+    public static final String RUNNING_CACHE_PREFIX = "di_journal_running_";
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionJournal.class);
+
+    /**
+     * 退避时间最多为 retryBackoffMs 的倍数，也是搁置条目的重试间隔
+     */
+    private static final int MAX_BACKOFF_STEPS = 10;
+
+    private final Sink dbSink = new Sink("db", true, this::writeDatabase);
+
+    private final Sink redisSink = new Sink("redis", false, this::writeRedis);
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final DpDeProjectExecHistoryMapper projectExecHistoryMapper;
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${spring.cloud.consul.discovery.instance-id}")
+    private String instanceId;
+
+    /**
+     * 是否异步写入，关闭时在调用线程中同步写入
+     */
+    @Value("${dp.project.execute.journal.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 写入间隔，单位：毫秒
+     */
+    @Value("${dp.project.execute.journal.flushIntervalMs:200}")
+    private long flushIntervalMs;
+
+    /**
+     * 每批最大条目数
+     */
+    @Value("${dp.project.execute.journal.batchSize:200}")
+    private int batchSize;
+
+    /**
+     * 最大重试次数，超过后redis条目丢弃，执行记录搁置
+     */
+    @Value("${dp.project.execute.journal.maxRetries:20}")
+    private int maxRetries;
+
+    /**
+     * 重试退避时间，按重试次数递增，单位：毫秒
+     */
+    @Value("${dp.project.execute.journal.retryBackoffMs:1000}")
+    private long retryBackoffMs;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private Counter dropped;
+
+    @Autowired
+    public ExecutionJournal(@Qualifier("DeMetaDataSqlSession") SqlSessionFactory sqlSessionFactory
+            , DpDeProjectExecHistoryMapper projectExecHistoryMapper, RedisTemplate<String, String> redisTemplate
+            , MeterRegistry meterRegistry) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.projectExecHistoryMapper = projectExecHistoryMapper;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("dp.execute.journal.lag", this, journal -> journal.lagMillis(System.currentTimeMillis()))
+                .description("执行日志最早待写入条目的等待时间，毫秒")
+                .register(meterRegistry);
+        Gauge.builder("dp.execute.journal.pending", this, ExecutionJournal::pending)
+                .description("执行日志待写入条目数")
+                .register(meterRegistry);
+        Gauge.builder("dp.execute.journal.parked", this, ExecutionJournal::parked)
+                .description("执行日志搁置重试的条目数")
+                .register(meterRegistry);
+        for (Sink sink : new Sink[]{dbSink, redisSink}) {
+            sink.flushed = counter("dp.execute.journal.flushed", sink.target);
+            sink.failed = counter("dp.execute.journal.failed", sink.target);
+        }
+        dropped = Counter.builder("dp.execute.journal.dropped")
+                .description("超过重试次数丢弃的redis条目数")
+                .register(meterRegistry);
+
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dp-execution-journal");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private Counter counter(String name, String target) {
+        return Counter.builder(name).tag("target", target).register(meterRegistry);
+    }
+
+    private long lagMillis(long now) {
+        return Math.max(dbSink.queue.lagMillis(now), redisSink.queue.lagMillis(now));
+    }
+
+    private int pending() {
+        return dbSink.queue.size() + redisSink.queue.size();
+    }
+
+    private int parked() {
+        return dbSink.parked.size() + redisSink.parked.size();
+    }
+
+    /**
+     * 停止时写入剩余条目
+     */
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = 0; i < 3 && pending() + parked() > 0; i++) {
+            for (Sink sink : new Sink[]{dbSink, redisSink}) {
+                sink.retryAt = 0;
+                sink.parkedRetryAt = 0;
+            }
+            flush();
+        }
+        if (pending() + parked() > 0) {
+            logger.error("执行日志未写入完成，剩余条目数: {}", pending() + parked());
+            // 执行记录输出到日志，便于手工补录
+            for (JournalQueue queue : new JournalQueue[]{dbSink.parked, dbSink.queue}) {
+                for (JournalEntry entry : queue.poll(queue.size())) {
+                    logger.error("执行记录未写入：{} {}", entry.getType(), JsonUtils.toString(entry.getHistory()));
+                }
+            }
+        }
+    }
+
+    /**
+     * 插入执行记录
+     */
+    public void insertHistory(DpDeProjectExecHistory history) {
+        append(JournalEntry.insertHistory(history));
+    }
+
+    /**
+     * 按主键更新执行记录的非空字段
+     */
+    public void updateHistory(DpDeProjectExecHistory history) {
+        append(JournalEntry.updateHistory(history));
+    }
+
+    /**
+     * redis SET
+     *
+     * @param ttl  过期时间，小于等于0时不过期
+     * @param unit 时间单位
+     */
+    public void set(String key, String value, long ttl, TimeUnit unit) {
+        append(JournalEntry.set(key, value, unit.toSeconds(ttl)));
+    }
+
+    /**
+     * redis HSET
+     */
+    public void hashPut(String key, String field, String value) {
+        append(JournalEntry.hashPut(key, field, value));
+    }
+
+    /**
+     * redis HDEL
+     */
+    public void hashDelete(String key, String field) {
+        append(JournalEntry.hashDelete(key, field));
+    }
+
+    /**
+     * redis DEL
+     */
+    public void delete(String key) {
+        append(JournalEntry.delete(key));
+    }
+
+    /**
+     * 登记运行中的执行
+     */
+    public void registerRunning(RunningExecution running) {
+        append(JournalEntry.hashPut(runningCacheKey(), running.getExecutorId(), JsonUtils.toString(running)));
+    }
+
+    /**
+     * 执行结束，取消登记
+     */
+    public void unregisterRunning(String executorId) {
+        append(JournalEntry.hashDelete(runningCacheKey(), executorId));
+    }
+
+    private String runningCacheKey() {
+        return RUNNING_CACHE_PREFIX + instanceId;
+    }
+
+    private void append(JournalEntry entry) {
+        final Sink sink = entry.getType().isDatabase() ? dbSink : redisSink;
+        if (enabled) {
+            sink.queue.add(entry);
+        } else {
+            // 同步写入，失败时直接抛出异常
+            sink.writer.accept(Collections.singletonList(entry));
+        }
+    }
+
+    /**
+     * 批量写入待写入的条目
+     */
+    void flush() {
+        flush(dbSink);
+        flush(redisSink);
+    }
+
+    private void flush(Sink sink) {
+        final long now = System.currentTimeMillis();
+        if (now < sink.retryAt) {
+            return;
+        }
+        if (now >= sink.parkedRetryAt && sink.parked.size() > 0) {
+            retryParked(sink);
+            sink.parkedRetryAt = now + retryBackoffMs * MAX_BACKOFF_STEPS;
+        }
+
+        List<JournalEntry> batch;
+        while (!(batch = sink.queue.poll(batchSize)).isEmpty()) {
+            final List<JournalEntry> entries = new ArrayList<>(batch.size());
+            for (JournalEntry entry : batch) {
+                // 同一目标已有搁置的条目时排在其后，保证写入顺序
+                if (sink.parked.contains(entry.getIdempotencyKey())) {
+                    sink.parked.add(entry);
+                } else {
+                    entries.add(entry);
+                }
+            }
+            if (!write(sink, entries)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 批量写入，失败时逐条写入，找出有问题的条目
+     *
+     * @return 是否继续写入，全部失败时目标不可用，条目已放回队首
+     */
+    private boolean write(Sink sink, List<JournalEntry> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+        try {
+            sink.writer.accept(entries);
+            sink.flushed.increment(entries.size());
+            sink.failures = 0;
+            return true;
+        } catch (Exception e) {
+            logger.warn("执行日志批量写入失败，target: {}, 条目数: {}", sink.target, entries.size(), e);
+        }
+
+        final List<JournalEntry> failed = entries.size() == 1 ? entries : writeEach(sink, entries);
+        sink.failed.increment(failed.size());
+        if (failed.size() < entries.size()) {
+            // 部分成功，失败的条目本身有问题，搁置后继续写入
+            failed.forEach(JournalEntry::incrementAttempts);
+            park(sink, failed);
+            sink.failures = 0;
+            return true;
+        }
+
+        // 全部失败，超过重试次数的目标整体搁置，其余条目按原顺序放回队首
+        final Set<String> exhaustedKeys = new HashSet<>();
+        for (JournalEntry entry : failed) {
+            if (entry.incrementAttempts() > maxRetries) {
+                exhaustedKeys.add(entry.getIdempotencyKey());
+            }
+        }
+        final List<JournalEntry> exhausted = new ArrayList<>();
+        final List<JournalEntry> requeue = new ArrayList<>(failed.size());
+        for (JournalEntry entry : failed) {
+            (exhaustedKeys.contains(entry.getIdempotencyKey()) ? exhausted : requeue).add(entry);
+        }
+        park(sink, exhausted);
+        sink.queue.requeue(requeue);
+        sink.failures++;
+        sink.retryAt = System.currentTimeMillis() + retryBackoffMs * Math.min(sink.failures, MAX_BACKOFF_STEPS);
+        return false;
+    }
+
+    /**
+     * 逐条写入，同一目标前面的条目失败时后面的条目不再写入
+     *
+     * @return 失败的条目，保持原顺序
+     */
+    private List<JournalEntry> writeEach(Sink sink, List<JournalEntry> entries) {
+        final List<JournalEntry> failed = new ArrayList<>();
+        final Set<String> failedKeys = new HashSet<>();
+        for (JournalEntry entry : entries) {
+            if (!failedKeys.contains(entry.getIdempotencyKey())) {
+                try {
+                    sink.writer.accept(Collections.singletonList(entry));
+                    sink.flushed.increment();
+                    continue;
+                } catch (Exception e) {
+                    logger.debug("执行日志写入失败：{} {}", entry.getType(), entry.getIdempotencyKey(), e);
+                }
+            }
+            failed.add(entry);
+            failedKeys.add(entry.getIdempotencyKey());
+        }
+        return failed;
+    }
+
+    /**
+     * 搁置条目，按重试间隔单独重试
+     */
+    private void park(Sink sink, List<JournalEntry> entries) {
+        for (JournalEntry entry : entries) {
+            if (drop(sink, entry)) {
+                continue;
+            }
+            logger.error("执行日志写入失败，搁置重试：{} {}", entry.getType()
+                    , entry.getHistory() == null ? entry.getIdempotencyKey() : JsonUtils.toString(entry.getHistory()));
+            sink.parked.add(entry);
+        }
+    }
+
+    private void retryParked(Sink sink) {
+        final List<JournalEntry> failed = writeEach(sink, sink.parked.poll(sink.parked.size()));
+        sink.failed.increment(failed.size());
+        final List<JournalEntry> requeue = new ArrayList<>(failed.size());
+        for (JournalEntry entry : failed) {
+            entry.incrementAttempts();
+            if (!drop(sink, entry)) {
+                requeue.add(entry);
+            }
+        }
+        sink.parked.requeue(requeue);
+    }
+
+    /**
+     * redis条目超过重试次数后丢弃，执行记录不丢弃
+     */
+    private boolean drop(Sink sink, JournalEntry entry) {
+        if (sink.durable || entry.getAttempts() <= maxRetries) {
+            return false;
+        }
+        logger.error("执行日志超过重试次数，丢弃：{} {}", entry.getType(), entry.getIdempotencyKey());
+        dropped.increment();
+        return true;
+    }
+
+    private void writeDatabase(List<JournalEntry> entries) {
+        try (SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH, false)) {
+            final DpDeProjectExecHistoryMapper mapper = session.getMapper(DpDeProjectExecHistoryMapper.class);
+            for (JournalEntry entry : entries) {
+                if (entry.getType() == JournalEntry.Type.HISTORY_INSERT) {
+                    mapper.insertIgnoreDuplicate(entry.getHistory());
+                } else {
+                    mapper.updateByPrimaryKeySelective(entry.getHistory());
+                }
+            }
+            session.commit();
+        }
+    }
+
+    private void writeRedis(List<JournalEntry> entries) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                final RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (JournalEntry entry : entries) {
+                    switch (entry.getType()) {
+                        case SET:
+                            if (entry.getTtlSeconds() > 0) {
+                                ops.opsForValue().set(entry.getKey(), entry.getValue(), entry.getTtlSeconds(), TimeUnit.SECONDS);
+                            } else {
+                                ops.opsForValue().set(entry.getKey(), entry.getValue());
+                            }
+                            break;
+                        case HSET:
+                            ops.opsForHash().put(entry.getKey(), entry.getField(), entry.getValue());
+                            break;
+                        case HDEL:
+                            ops.opsForHash().delete(entry.getKey(), entry.getField());
+                            break;
+                        case DEL:
+                            ops.delete(entry.getKey());
+                            break;
+                        case EXPIRE:
+                            ops.expire(entry.getKey(), entry.getTtlSeconds(), TimeUnit.SECONDS);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 实例启动后修正上次异常退出时仍在运行的执行
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        final String cacheKey = runningCacheKey();
+        final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+        final Map<Object, Object> entries;
+        try {
+            entries = redisTemplate.opsForHash().entries(cacheKey);
+        } catch (Exception e) {
+            logger.warn("读取运行中的执行失败，跳过修正", e);
+            return;
+        }
+
+        int reconciled = 0;
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            try {
+                final RunningExecution running = JsonUtils.parseObject((String) entry.getValue(), RunningExecution.class);
+                // 本次启动之后登记的执行不处理
+                if (running.getStartTime() >= jvmStartTime) {
+                    continue;
+                }
+                reconcile(running);
+                redisTemplate.opsForHash().delete(cacheKey, entry.getKey());
+                reconciled++;
+            } catch (Exception e) {
+                logger.warn("修正运行中的执行失败，executorId: {}", entry.getKey(), e);
+            }
+        }
+        if (reconciled > 0) {
+            logger.info("已修正上次异常退出时运行中的执行，数量: {}", reconciled);
+        }
+    }
+
+    private void reconcile(RunningExecution running) {
+        if (running.getHistoryId() != null) {
+            projectExecHistoryMapper.updateStatusIfRunning(running.getHistoryId(), ProjectExecuteStatus.TERMINATIN.name(), new Date());
+        }
+
+        // 缓存已经属于新的执行时不清理
+        if (running.getOwnerKey() != null) {
+            final Object owner = running.getOwnerField() == null
+                    ? redisTemplate.opsForValue().get(running.getOwnerKey())
+                    : redisTemplate.opsForHash().get(running.getOwnerKey(), running.getOwnerField());
+            if (owner == null || !owner.toString().contains(running.getExecutorId())) {
+                return;
+            }
+        }
+        if (!running.getDeleteKeys().isEmpty()) {
+            redisTemplate.delete(running.getDeleteKeys());
+        }
+        running.getDeleteHashFields().forEach((key, field) -> redisTemplate.opsForHash().delete(key, field));
+        logger.info("已清理异常退出的执行缓存，executorId: {}", running.getExecutorId());
+    }
+
+    /**
+     * 写入目标，执行记录和redis各一个
+     */
+    private static final class Sink {
+
+        private final String target;
+
+        /**
+         * 是否持久数据，持久数据超过重试次数后继续搁置重试，不丢弃
+         */
+        private final boolean durable;
+
+        private final Consumer<List<JournalEntry>> writer;
+
+        private final JournalQueue queue = new JournalQueue();
+
+        /**
+         * 搁置的条目，单独写入失败或者超过重试次数
+         */
+        private final JournalQueue parked = new JournalQueue();
+
+        private Counter flushed;
+
+        private Counter failed;
+
+        /**
+         * 连续整批失败的次数
+         */
+        private int failures;
+
+        /**
+         * 下次重试时间，毫秒
+         */
+        private volatile long retryAt;
+
+        /**
+         * 搁置条目的下次重试时间，毫秒
+         */
+        private volatile long parkedRetryAt;
+
+        Sink(String target, boolean durable, Consumer<List<JournalEntry>> writer) {
+            this.target = target;
+            this.durable = durable;
+            this.writer = writer;
+        }
+    }
+}
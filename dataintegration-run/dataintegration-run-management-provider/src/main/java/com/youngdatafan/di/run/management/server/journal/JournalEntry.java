@@ -0,0 +1,209 @@
+package com.youngdatafan.di.run.management.server.journal;
+
+import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * 执行日志条目，一次执行记录或者redis写入
+ * <p>
+ * 幂等键标识写入的目标（执行记录主键、redis key 或者 hash 字段），重试和合并都以幂等键为单位。
+ *
+ * @author gavin
+ */
+public final class JournalEntry {
+
+    /**
+     * 条目类型
+     */
+    public enum Type {
+        /**
+         * 插入执行记录
+         */
+        HISTORY_INSERT,
+        /**
+         * 按主键更新执行记录非空字段
+         */
+        HISTORY_UPDATE,
+        /**
+         * redis SET，可以带过期时间
+         */
+        SET,
+        /**
+         * redis HSET
+         */
+        HSET,
+        /**
+         * redis HDEL
+         */
+        HDEL,
+        /**
+         * redis DEL
+         */
+        DEL,
+        /**
+         * redis EXPIRE
+         */
+        EXPIRE;
+
+        public boolean isDatabase() {
+            return this == HISTORY_INSERT || this == HISTORY_UPDATE;
+        }
+    }
+
+    private final Type type;
+
+    private final String idempotencyKey;
+
+    private final String key;
+
+    private final String field;
+
+    private String value;
+
+    private final long ttlSeconds;
+
+    private final DpDeProjectExecHistory history;
+
+    private final long enqueueTime;
+
+    private int attempts;
+
+    private JournalEntry(Type type, String idempotencyKey, String key, String field, String value, long ttlSeconds
+            , DpDeProjectExecHistory history) {
+        this.type = type;
+        this.idempotencyKey = idempotencyKey;
+        this.key = key;
+        this.field = field;
+        this.value = value;
+        this.ttlSeconds = ttlSeconds;
+        this.history = history;
+        this.enqueueTime = System.currentTimeMillis();
+    }
+
+    public static JournalEntry insertHistory(DpDeProjectExecHistory history) {
+        return new JournalEntry(Type.HISTORY_INSERT, "history:" + history.getId(), null, null, null, 0, copy(history));
+    }
+
+    public static JournalEntry updateHistory(DpDeProjectExecHistory history) {
+        return new JournalEntry(Type.HISTORY_UPDATE, "history:" + history.getId(), null, null, null, 0, copy(history));
+    }
+
+    public static JournalEntry set(String key, String value, long ttlSeconds) {
+        return new JournalEntry(Type.SET, "redis:" + key, key, null, value, ttlSeconds, null);
+    }
+
+    public static JournalEntry hashPut(String key, String field, String value) {
+        return new JournalEntry(Type.HSET, "redis:" + key + ":" + field, key, field, value, 0, null);
+    }
+
+    public static JournalEntry hashDelete(String key, String field) {
+        return new JournalEntry(Type.HDEL, "redis:" + key + ":" + field, key, field, null, 0, null);
+    }
+
+    public static JournalEntry delete(String key) {
+        return new JournalEntry(Type.DEL, "redis:" + key, key, null, null, 0, null);
+    }
+
+    public static JournalEntry expire(String key, long ttlSeconds) {
+        return new JournalEntry(Type.EXPIRE, "redis-ttl:" + key, key, null, null, ttlSeconds, null);
+    }
+
+    private static DpDeProjectExecHistory copy(DpDeProjectExecHistory history) {
+        final DpDeProjectExecHistory copy = new DpDeProjectExecHistory();
+        BeanUtils.copyProperties(history, copy);
+        return copy;
+    }
+
+    /**
+     * 把同一目标的新条目合并到当前还没有写入的条目
+     *
+     * @param newer 同一幂等键的新条目
+     * @return 是否已合并，不能合并时需要追加
+     */
+    boolean merge(JournalEntry newer) {
+        if (type.isDatabase() && newer.type == Type.HISTORY_UPDATE) {
+            // 插入或者更新之后的更新，合并非空字段
+            mergeHistory(history, newer.history);
+            return true;
+        }
+        if (type == newer.type && ttlSeconds == newer.ttlSeconds && (type == Type.SET || type == Type.HSET)) {
+            value = newer.value;
+            return true;
+        }
+        // 删除和相同的过期时间重复执行没有意义
+        return type == newer.type && (type == Type.HDEL || type == Type.DEL || (type == Type.EXPIRE && ttlSeconds == newer.ttlSeconds));
+    }
+
+    private static void mergeHistory(DpDeProjectExecHistory target, DpDeProjectExecHistory update) {
+        if (update.getProjectId() != null) {
+            target.setProjectId(update.getProjectId());
+        }
+        if (update.getUserId() != null) {
+            target.setUserId(update.getUserId());
+        }
+        if (update.getUserName() != null) {
+            target.setUserName(update.getUserName());
+        }
+        if (update.getExecEnv() != null) {
+            target.setExecEnv(update.getExecEnv());
+        }
+        if (update.getStatus() != null) {
+            target.setStatus(update.getStatus());
+        }
+        if (update.getStartTime() != null) {
+            target.setStartTime(update.getStartTime());
+        }
+        if (update.getEndTime() != null) {
+            target.setEndTime(update.getEndTime());
+        }
+        if (update.getExecSecond() != null) {
+            target.setExecSecond(update.getExecSecond());
+        }
+        if (update.getExecutorId() != null) {
+            target.setExecutorId(update.getExecutorId());
+        }
+        if (update.getLogFile() != null) {
+            target.setLogFile(update.getLogFile());
+        }
+    }
+
+    int incrementAttempts() {
+        return ++attempts;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public DpDeProjectExecHistory getHistory() {
+        return history;
+    }
+
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
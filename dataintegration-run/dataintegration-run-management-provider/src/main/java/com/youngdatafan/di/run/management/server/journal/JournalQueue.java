@@ -0,0 +1,98 @@
+package com.youngdatafan.di.run.management.server.journal;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * 执行日志待写入队列
+ * <p>
+ * 按加入顺序写入；同一幂等键的最后一个条目还没有取出时，新条目直接合并到该条目（例如心跳只保留最新时间、
+ * 执行记录的更新合并到还没有写入的插入），类型不同的条目追加到队尾，保证同一目标的操作顺序不变。
+ * 写入失败的条目放回队首重试，放回的条目之后仍可以合并新条目。
+ *
+ * @author gavin
+ */
+public class JournalQueue {
+
+    private final Deque<JournalEntry> entries = new LinkedList<>();
+
+    /**
+     * 幂等键 -> 队列中该键的最后一个条目
+     */
+    private final Map<String, JournalEntry> lastEntries = new HashMap<>();
+
+    /**
+     * 加入队列
+     *
+     * @param entry 条目
+     * @return 是否合并到已有条目
+     */
+    public synchronized boolean add(JournalEntry entry) {
+        final JournalEntry last = lastEntries.get(entry.getIdempotencyKey());
+        if (last != null && last.merge(entry)) {
+            return true;
+        }
+        entries.addLast(entry);
+        lastEntries.put(entry.getIdempotencyKey(), entry);
+        return false;
+    }
+
+    /**
+     * 按顺序取出条目，取出后不再合并
+     *
+     * @param max 最大条目数
+     * @return 条目
+     */
+    public synchronized List<JournalEntry> poll(int max) {
+        List<JournalEntry> batch = new ArrayList<>(Math.min(max, entries.size()));
+        while (batch.size() < max && !entries.isEmpty()) {
+            final JournalEntry entry = entries.pollFirst();
+            lastEntries.remove(entry.getIdempotencyKey(), entry);
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    /**
+     * 写入失败的条目按原顺序放回队首
+     *
+     * @param failed 失败的条目
+     */
+    public synchronized void requeue(List<JournalEntry> failed) {
+        final ListIterator<JournalEntry> iterator = failed.listIterator(failed.size());
+        while (iterator.hasPrevious()) {
+            final JournalEntry entry = iterator.previous();
+            entries.addFirst(entry);
+            // 队列中已有同一幂等键的条目时，该条目在后面
+            lastEntries.putIfAbsent(entry.getIdempotencyKey(), entry);
+        }
+    }
+
+    /**
+     * 队列中是否有该幂等键的条目
+     */
+    public synchronized boolean contains(String idempotencyKey) {
+        return lastEntries.containsKey(idempotencyKey);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 最早的待写入条目等待的时间
+     *
+     * @param now 当前时间，毫秒
+     * @return 毫秒，没有待写入条目时返回0
+     */
+    public synchronized long lagMillis(long now) {
+        // 合并不改变加入时间，放回的条目在队首，队首就是最早的条目
+        final JournalEntry first = entries.peekFirst();
+        return first == null ? 0 : Math.max(0, now - first.getEnqueueTime());
+    }
+}
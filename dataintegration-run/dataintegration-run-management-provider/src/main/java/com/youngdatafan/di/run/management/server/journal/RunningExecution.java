@@ -0,0 +1,55 @@
+package com.youngdatafan.di.run.management.server.journal;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 运行中的执行，实例异常退出后重启时据此修正执行记录并清理redis缓存
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RunningExecution {
+
+    /**
+     * 执行器id
+     */
+    private String executorId;
+
+    /**
+     * 执行记录id
+     */
+    private Long historyId;
+
+    /**
+     * 开始时间，毫秒
+     */
+    private long startTime;
+
+    /**
+     * 归属检查的key，值包含执行器id时才清理缓存，避免误删其他实例上新的执行
+     */
+    private String ownerKey;
+
+    /**
+     * 归属检查的hash字段，为空时 ownerKey 为字符串
+     */
+    private String ownerField;
+
+    /**
+     * 需要删除的key
+     */
+    private List<String> deleteKeys = new ArrayList<>();
+
+    /**
+     * 需要删除的hash字段，key -> 字段
+     */
+    private Map<String, String> deleteHashFields = new HashMap<>();
+}
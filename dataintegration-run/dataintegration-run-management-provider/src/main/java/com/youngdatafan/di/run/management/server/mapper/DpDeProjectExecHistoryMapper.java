@@ -14,12 +14,27 @@ public interface DpDeProjectExecHistoryMapper {
 
     int insertSelective(DpDeProjectExecHistory record);
 
+    /**
+     * 插入，主键已存在时忽略，重试时保证幂等
+     */
+    int insertIgnoreDuplicate(DpDeProjectExecHistory record);
+
     DpDeProjectExecHistory selectByPrimaryKey(Long id);
 
     int updateByPrimaryKeySelective(DpDeProjectExecHistory record);
 
     int updateByPrimaryKey(DpDeProjectExecHistory record);
 
+    /**
+     * 只更新仍处于运行中的执行记录
+     */
+    int updateStatusIfRunning(@Param("id") Long id, @Param("status") String status, @Param("endTime") Date endTime);
+
+    /**
+     * 查询执行器的执行用户
+     */
+    String selectUserIdByExecutorId(@Param("executorId") String executorId);
+
     List<ProjectHistoryExecuteDTO> selectUserHistoryExecute(@Param("userId") String userId, @Param("projectName") String projectName
             , @Param("startTime") Date startTime, @Param("endTime") Date endTime);
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.youngdatafan.di.run.management.server.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 用户租户关系，执行排队时按租户限制并发
+ *
+ * @author gavin
+ */
+public interface DpUserTenantMapper {
+
+    /**
+     * 用户所属租户，属于多个租户时取第一个
+     */
+    String selectTenantIdByUserId(@Param("userId") String userId);
+
+    /**
+     * 项目创建人所属租户，调度执行没有真实用户时使用
+     */
+    String selectTenantIdByProjectId(@Param("projectId") String projectId);
+}
@@ -0,0 +1,171 @@
+package com.youngdatafan.di.run.management.server.profile;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.youngdatafan.di.run.management.server.dto.ColumnProfileDTO;
+import com.youngdatafan.di.run.management.server.dto.ValueCountDTO;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * 单个字段的统计，每个值只处理一次，内存占用与行数无关
+ *
+ * @author gavin
+ */
+class ColumnProfiler {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    /**
+     * HyperLogLog 精度，4KB，误差约1.6%
+     */
+    private static final int HLL_PRECISION = 12;
+
+    /**
+     * t-digest 压缩参数
+     */
+    private static final double COMPRESSION = 100;
+
+    /**
+     * Space-Saving 计数器个数是 topK 的倍数，计数器越多返回的高频值越准确
+     */
+    private static final int TOP_K_CAPACITY_FACTOR = 10;
+
+    private static final double[] QUANTILES = {0.01, 0.25, 0.5, 0.75, 0.99};
+
+    private final ValueMetaInterface valueMeta;
+
+    private final int topK;
+
+    private final HyperLogLog distinct = new HyperLogLog(HLL_PRECISION);
+
+    private final SpaceSaving<Object> topValues;
+
+    private final TDigest digest;
+
+    private long count;
+
+    private long nullCount;
+
+    private Object min;
+
+    private Object max;
+
+    private double sum;
+
+    ColumnProfiler(ValueMetaInterface valueMeta, int topK) {
+        this.valueMeta = normalStorage(valueMeta);
+        this.topK = topK;
+        this.topValues = new SpaceSaving<>(topK * TOP_K_CAPACITY_FACTOR);
+        this.digest = valueMeta.isNumeric() ? new TDigest(COMPRESSION) : null;
+    }
+
+    void add(Object value) throws KettleValueException {
+        count++;
+        if (value == null) {
+            nullCount++;
+            return;
+        }
+
+        if (min == null || valueMeta.compare(value, min) < 0) {
+            min = value;
+        }
+        if (max == null || valueMeta.compare(value, max) > 0) {
+            max = value;
+        }
+
+        final Object key = key(value);
+        distinct.offerHash(hash(key));
+        if (topK > 0) {
+            topValues.offer(key);
+        }
+
+        if (digest != null) {
+            final Double number = valueMeta.getNumber(value);
+            // NaN 不参与分位数和平均值计算
+            if (number != null && !Double.isNaN(number)) {
+                digest.add(number);
+                sum += number;
+            }
+        }
+    }
+
+    ColumnProfileDTO toDTO() throws KettleValueException {
+        final ColumnProfileDTO dto = new ColumnProfileDTO();
+        dto.setFieldName(valueMeta.getName());
+        dto.setType(valueMeta.getTypeDesc());
+        dto.setCount(count);
+        dto.setNullCount(nullCount);
+        dto.setMin(display(min));
+        dto.setMax(display(max));
+        dto.setDistinct(count == nullCount ? 0 : Math.max(1, distinct.cardinality()));
+
+        final List<ValueCountDTO> values = new ArrayList<>(topK);
+        for (SpaceSaving.Item<Object> item : topValues.top(topK)) {
+            final ValueCountDTO valueCount = new ValueCountDTO();
+            valueCount.setValue(item.getValue());
+            valueCount.setCount(item.getCount());
+            valueCount.setError(item.getError());
+            values.add(valueCount);
+        }
+        dto.setTopValues(values);
+
+        if (digest != null && digest.size() > 0) {
+            dto.setMean(sum / digest.size());
+            final Map<String, Double> quantiles = new LinkedHashMap<>();
+            for (double q : QUANTILES) {
+                quantiles.put("p" + Math.round(q * 100), digest.quantile(q));
+            }
+            dto.setQuantiles(quantiles);
+        }
+        return dto;
+    }
+
+    /**
+     * 用于去重和计数的值，BigDecimal 去掉末尾的0，二进制转为字符串
+     */
+    private Object key(Object value) throws KettleValueException {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).stripTrailingZeros();
+        } else if (value instanceof byte[]) {
+            return valueMeta.getString(value);
+        }
+        return value;
+    }
+
+    private Object display(Object value) throws KettleValueException {
+        return value instanceof byte[] ? valueMeta.getString(value) : value;
+    }
+
+    private static long hash(Object key) {
+        if (key instanceof Long) {
+            return HASH.hashLong((Long) key).asLong();
+        } else if (key instanceof Double) {
+            return HASH.hashLong(Double.doubleToLongBits((Double) key)).asLong();
+        } else if (key instanceof BigDecimal) {
+            return HASH.hashString(((BigDecimal) key).toPlainString(), StandardCharsets.UTF_8).asLong();
+        } else if (key instanceof Date) {
+            return HASH.hashLong(((Date) key).getTime()).asLong();
+        }
+        return HASH.hashString(key.toString(), StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * 查询结果是普通存储类型，延迟转换的字段比较前需要改为普通存储
+     */
+    private static ValueMetaInterface normalStorage(ValueMetaInterface valueMeta) {
+        if (valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+            return valueMeta;
+        }
+        final ValueMetaInterface clone = valueMeta.clone();
+        clone.setStorageType(ValueMetaInterface.STORAGE_TYPE_NORMAL);
+        return clone;
+    }
+}
@@ -0,0 +1,58 @@
+package com.youngdatafan.di.run.management.server.profile;
+
+/**
+ * HyperLogLog 基数估算
+ * <p>
+ * 2^precision 个寄存器，每个一个字节；precision 为 12 时占用 4KB，标准误差约 1.6%。
+ * 估算值较小时使用线性计数修正。
+ *
+ * @author gavin
+ */
+public class HyperLogLog {
+
+    private final int precision;
+
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision 需要在 4 到 18 之间");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * 加入一个值的64位哈希
+     */
+    public void offerHash(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        // 剩余的位左移到高位，末尾补1保证前导零个数有上限
+        final long remaining = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * 估算不同值的个数
+     */
+    public long cardinality() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,52 @@
+package com.youngdatafan.di.run.management.server.profile;
+
+import com.youngdatafan.di.run.management.server.dto.ColumnProfileDTO;
+import java.util.ArrayList;
+import java.util.List;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * 一次遍历同时统计所有字段：行数、空值、最小最大值、近似不同值个数(HyperLogLog)、
+ * 高频值(Space-Saving)和数值分位数(t-digest)
+ * <p>
+ * 非线程安全，每次统计创建一个实例。
+ *
+ * @author gavin
+ */
+public class RowProfiler {
+
+    private final ColumnProfiler[] columns;
+
+    private long rows;
+
+    /**
+     * @param rowMeta 字段，行数组可以比字段多，多出的值忽略
+     * @param topK    每个字段保留的高频值个数
+     */
+    public RowProfiler(RowMetaInterface rowMeta, int topK) {
+        this.columns = new ColumnProfiler[rowMeta.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnProfiler(rowMeta.getValueMeta(i), topK);
+        }
+    }
+
+    public void add(Object[] row) throws KettleValueException {
+        rows++;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].add(i < row.length ? row[i] : null);
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public List<ColumnProfileDTO> getColumnProfiles() throws KettleValueException {
+        final List<ColumnProfileDTO> profiles = new ArrayList<>(columns.length);
+        for (ColumnProfiler column : columns) {
+            profiles.add(column.toDTO());
+        }
+        return profiles;
+    }
+}
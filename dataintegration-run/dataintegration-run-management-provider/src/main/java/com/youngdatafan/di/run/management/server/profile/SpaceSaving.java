@@ -0,0 +1,193 @@
+package com.youngdatafan.di.run.management.server.profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Space-Saving 高频值统计
+ * <p>
+ * 最多保留 capacity 个计数器，已满时新值替换计数最小的值并继承其计数，
+ * 返回的计数是真实次数的上界，误差不超过被替换时的计数。出现次数超过 总数/capacity 的值一定会被保留。
+ * <p>
+ * 计数器按计数分桶（Stream-Summary），桶按计数升序组成双向链表，计数加一时移动到下一个桶，
+ * 计数最小的计数器在第一个桶中，每次加入值的时间与 capacity 无关。
+ *
+ * @param <T> 值类型，需要实现 equals 和 hashCode
+ * @author gavin
+ */
+public class SpaceSaving<T> {
+
+    private final int capacity;
+
+    private final Map<T, Counter<T>> counters;
+
+    /**
+     * 计数最小的桶
+     */
+    private Bucket<T> head;
+
+    /**
+     * 计数最大的桶
+     */
+    private Bucket<T> tail;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.counters = new HashMap<>(this.capacity * 2);
+    }
+
+    public void offer(T item) {
+        Counter<T> counter = counters.get(item);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter<>();
+            } else {
+                // 替换计数最小的值
+                counter = head.counters.iterator().next();
+                counters.remove(counter.item);
+                counter.error = counter.count;
+            }
+            counter.item = item;
+            counters.put(item, counter);
+        }
+        increment(counter);
+    }
+
+    /**
+     * 计数最大的k个值，按计数降序
+     */
+    public List<Item<T>> top(int k) {
+        final List<Item<T>> items = new ArrayList<>(Math.min(k, counters.size()));
+        for (Bucket<T> bucket = tail; bucket != null && items.size() < k; bucket = bucket.prev) {
+            for (Counter<T> counter : bucket.counters) {
+                if (items.size() >= k) {
+                    break;
+                }
+                items.add(new Item<>(counter.item, counter.count, counter.error));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 计数加一，移动到计数相同的桶，没有时在当前桶之后创建
+     */
+    private void increment(Counter<T> counter) {
+        final Bucket<T> bucket = counter.bucket;
+        final long count = counter.count + 1;
+
+        Bucket<T> target = bucket == null ? head : bucket.next;
+        if (target == null || target.count != count) {
+            target = new Bucket<>(count);
+            insertAfter(bucket, target);
+        }
+        target.counters.add(counter);
+        counter.count = count;
+        counter.bucket = target;
+
+        if (bucket != null) {
+            bucket.counters.remove(counter);
+            if (bucket.counters.isEmpty()) {
+                remove(bucket);
+            }
+        }
+    }
+
+    /**
+     * 在桶之后插入新桶，prev 为空时插入到链表头
+     */
+    private void insertAfter(Bucket<T> prev, Bucket<T> bucket) {
+        final Bucket<T> next = prev == null ? head : prev.next;
+        bucket.prev = prev;
+        bucket.next = next;
+        if (prev == null) {
+            head = bucket;
+        } else {
+            prev.next = bucket;
+        }
+        if (next == null) {
+            tail = bucket;
+        } else {
+            next.prev = bucket;
+        }
+    }
+
+    private void remove(Bucket<T> bucket) {
+        if (bucket.prev == null) {
+            head = bucket.next;
+        } else {
+            bucket.prev.next = bucket.next;
+        }
+        if (bucket.next == null) {
+            tail = bucket.prev;
+        } else {
+            bucket.next.prev = bucket.prev;
+        }
+    }
+
+    private static class Counter<T> {
+
+        private T item;
+
+        private long count;
+
+        private long error;
+
+        private Bucket<T> bucket;
+    }
+
+    private static class Bucket<T> {
+
+        private final long count;
+
+        /**
+         * 计数等于 count 的计数器
+         */
+        private final Set<Counter<T>> counters = new LinkedHashSet<>();
+
+        private Bucket<T> prev;
+
+        private Bucket<T> next;
+
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    public static class Item<T> {
+
+        private final T value;
+
+        private final long count;
+
+        private final long error;
+
+        Item(T value, long count, long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * 计数，真实次数的上界
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 计数的最大误差，为0时计数准确
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.youngdatafan.di.run.management.server.profile;
+
+import java.util.Arrays;
+
+/**
+ * 合并式 t-digest 分位数估算
+ * <p>
+ * 新值先写入缓冲区，缓冲区满时与已有的质心排序合并；质心大小上限为 4 * n * q * (1 - q) / compression，
+ * 两端的质心更小，尾部分位数更准确。质心个数与 compression 同一数量级，与数据量无关。
+ *
+ * @author gavin
+ */
+public class TDigest {
+
+    private final double compression;
+
+    private final double[] buffer;
+
+    private int buffered;
+
+    private double[] means = new double[0];
+
+    private double[] weights = new double[0];
+
+    private double totalWeight;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression) {
+        this.compression = compression;
+        this.buffer = new double[(int) Math.ceil(compression) * 5];
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (buffered == buffer.length) {
+            merge();
+        }
+        buffer[buffered++] = value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public long size() {
+        return (long) totalWeight + buffered;
+    }
+
+    /**
+     * 估算分位数
+     *
+     * @param q 0 到 1
+     * @return 没有数据时返回 NaN
+     */
+    public double quantile(double q) {
+        merge();
+        final int n = means.length;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1 || q <= 0) {
+            return q <= 0 ? min : means[0];
+        }
+        if (q >= 1) {
+            return max;
+        }
+
+        final double index = q * totalWeight;
+        // 第一个质心中心左侧，在最小值和质心之间插值
+        if (index < weights[0] / 2) {
+            return min + (means[0] - min) * index / (weights[0] / 2);
+        }
+
+        double cumulative = 0;
+        for (int i = 0; i < n - 1; i++) {
+            final double center = cumulative + weights[i] / 2;
+            final double nextCenter = cumulative + weights[i] + weights[i + 1] / 2;
+            if (index <= nextCenter) {
+                return means[i] + (means[i + 1] - means[i]) * (index - center) / (nextCenter - center);
+            }
+            cumulative += weights[i];
+        }
+
+        // 最后一个质心中心右侧
+        final double center = totalWeight - weights[n - 1] / 2;
+        return Math.min(max, means[n - 1] + (max - means[n - 1]) * (index - center) / (weights[n - 1] / 2));
+    }
+
+    private void merge() {
+        if (buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+
+        // 合并已有质心和缓冲区，两者都已排序
+        final int n = means.length + buffered;
+        final double[] inMeans = new double[n];
+        final double[] inWeights = new double[n];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < n; k++) {
+            if (j >= buffered || (i < means.length && means[i] <= buffer[j])) {
+                inMeans[k] = means[i];
+                inWeights[k] = weights[i];
+                i++;
+            } else {
+                inMeans[k] = buffer[j];
+                inWeights[k] = 1;
+                j++;
+            }
+        }
+        totalWeight += buffered;
+        buffered = 0;
+
+        final double[] outMeans = new double[n];
+        final double[] outWeights = new double[n];
+        int out = 0;
+        double soFar = 0;
+        double mean = inMeans[0];
+        double weight = inWeights[0];
+        for (int k = 1; k < n; k++) {
+            final double proposed = weight + inWeights[k];
+            final double q = (soFar + proposed / 2) / totalWeight;
+            if (proposed <= Math.max(1, 4 * totalWeight * q * (1 - q) / compression)) {
+                mean += (inMeans[k] - mean) * inWeights[k] / proposed;
+                weight = proposed;
+            } else {
+                outMeans[out] = mean;
+                outWeights[out] = weight;
+                out++;
+                soFar += weight;
+                mean = inMeans[k];
+                weight = inWeights[k];
+            }
+        }
+        outMeans[out] = mean;
+        outWeights[out] = weight;
+        out++;
+
+        means = Arrays.copyOf(outMeans, out);
+        weights = Arrays.copyOf(outWeights, out);
+    }
+}
@@ -0,0 +1,34 @@
+package com.youngdatafan.di.run.management.server.queue;
+
+/**
+ * 执行优先级，权重越大在公平队列中的出队越快
+ *
+ * @author gavin
+ */
+public enum ExecutePriority {
+
+    /**
+     * 交互式预览
+     */
+    PREVIEW(8),
+
+    /**
+     * 设计器运行
+     */
+    DESIGNER(4),
+
+    /**
+     * 调度批量执行
+     */
+    SCHEDULE(1);
+
+    private final int weight;
+
+    ExecutePriority(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
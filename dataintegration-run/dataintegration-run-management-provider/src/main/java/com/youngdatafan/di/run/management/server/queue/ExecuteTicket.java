@@ -0,0 +1,126 @@
+package com.youngdatafan.di.run.management.server.queue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 执行排队凭证
+ * <p>
+ * 获得执行许可后 {@link #getAdmission()} 完成，执行结束后必须调用 {@link #release()} 归还许可。
+ *
+ * @author gavin
+ */
+public class ExecuteTicket {
+
+    private final ProjectExecuteScheduler scheduler;
+
+    private final String executorId;
+
+    private final String tenantId;
+
+    private final String userId;
+
+    private final String projectId;
+
+    private final ExecutePriority priority;
+
+    private final QueuePositionListener positionListener;
+
+    /**
+     * 入队时间，单位：纳秒
+     */
+    private final long enqueueTime = System.nanoTime();
+
+    private final CompletableFuture<ExecuteTicket> admission = new CompletableFuture<>();
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    /**
+     * 公平队列的虚拟完成时间
+     */
+    double finishTag;
+
+    /**
+     * 入队序号，虚拟完成时间相同时先入队的优先
+     */
+    long sequence;
+
+    /**
+     * 最后一次通知的排队位置
+     */
+    volatile int position;
+
+    ExecuteTicket(ProjectExecuteScheduler scheduler, String executorId, String tenantId, String userId, String projectId
+            , ExecutePriority priority, QueuePositionListener positionListener) {
+        this.scheduler = scheduler;
+        this.executorId = executorId;
+        this.tenantId = tenantId;
+        this.userId = userId;
+        this.projectId = projectId;
+        this.priority = priority;
+        this.positionListener = positionListener;
+    }
+
+    /**
+     * 归还执行许可，重复调用无影响
+     */
+    public void release() {
+        if (admission.isDone() && !admission.isCompletedExceptionally() && released.compareAndSet(false, true)) {
+            scheduler.release(this);
+        }
+    }
+
+    /**
+     * 获得执行许可后完成，排队被取消时异常完成
+     */
+    public CompletableFuture<ExecuteTicket> getAdmission() {
+        return admission;
+    }
+
+    public String getExecutorId() {
+        return executorId;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getProjectId() {
+        return projectId;
+    }
+
+    public ExecutePriority getPriority() {
+        return priority;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    QueuePositionListener getPositionListener() {
+        return positionListener;
+    }
+
+    /**
+     * 排队位置变化监听
+     */
+    public interface QueuePositionListener {
+
+        /**
+         * 排队位置发生变化
+         *
+         * @param ticket   排队凭证
+         * @param position 排队位置，从1开始
+         * @param queued   当前排队总数
+         */
+        void onPositionChanged(ExecuteTicket ticket, int position, int queued);
+    }
+}
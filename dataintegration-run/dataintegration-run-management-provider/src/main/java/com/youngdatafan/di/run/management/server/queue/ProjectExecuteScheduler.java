@@ -0,0 +1,374 @@
+package com.youngdatafan.di.run.management.server.queue;
+
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 项目执行准入控制
+ * <p>
+ * 所有项目执行先进入公平队列，按 用户/租户/批量 的并发配额和节点最大并发数放行。
+ * 出队顺序采用自计时加权公平队列（SCFQ）：同一用户的排队任务虚拟完成时间依次递增，
+ * 权重（优先级）越高递增越慢，单个用户大量提交时其他用户的任务仍然可以穿插执行。
+ *
+ * @author gavin
+ */
+@Component
+public class ProjectExecuteScheduler {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    private static final Logger logger = LoggerFactory.getLogger(ProjectExecuteScheduler.class);
+
+    private static final Comparator<ExecuteTicket> TICKET_ORDER = Comparator
+            .comparingDouble((ExecuteTicket t) -> t.finishTag)
+            .thenComparingLong(t -> t.sequence);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 排队中的任务，按虚拟完成时间排序
+     */
+    private final TreeSet<ExecuteTicket> waiting = new TreeSet<>(TICKET_ORDER);
+
+    private final Map<String, ExecuteTicket> waitingByExecutorId = new HashMap<>();
+
+    /**
+     * 每个用户（调度批量执行按租户）最后一个排队任务的虚拟完成时间
+     */
+    private final Map<String, Double> lastFinishTags = new HashMap<>();
+
+    private final Map<String, Integer> runningByUser = new HashMap<>();
+
+    private final Map<String, Integer> runningByTenant = new HashMap<>();
+
+    private final Map<String, Integer> waitingByUser = new HashMap<>();
+
+    private final Map<ExecutePriority, Timer> waitTimers = new HashMap<>();
+
+    /**
+     * 节点最大并发执行数
+     */
+    @Value("${dp.project.execute.queue.maxRunning:20}")
+    private int maxRunning;
+
+    /**
+     * 单个租户最大并发执行数
+     */
+    @Value("${dp.project.execute.queue.maxRunningPerTenant:20}")
+    private int maxRunningPerTenant;
+
+    /**
+     * 单个用户最大并发执行数，不限制调度批量执行
+     */
+    @Value("${dp.project.execute.queue.maxRunningPerUser:3}")
+    private int maxRunningPerUser;
+
+    /**
+     * 调度批量执行最大并发数
+     */
+    @Value("${dp.project.execute.queue.maxRunningBatch:10}")
+    private int maxRunningBatch;
+
+    /**
+     * 最大排队数
+     */
+    @Value("${dp.project.execute.queue.maxQueued:500}")
+    private int maxQueued;
+
+    /**
+     * 单个用户最大排队数，不限制调度批量执行
+     */
+    @Value("${dp.project.execute.queue.maxQueuedPerUser:20}")
+    private int maxQueuedPerUser;
+
+    /**
+     * 实例停止中，不再接收新的执行
+     */
+    private volatile boolean draining;
+
+    private double virtualTime;
+
+    private long sequence;
+
+    private int running;
+
+    private int runningBatch;
+
+    @Autowired
+    public ProjectExecuteScheduler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        for (ExecutePriority priority : ExecutePriority.values()) {
+            waitTimers.put(priority, Timer.builder("dp.execute.queue.wait")
+                    .description("项目执行排队等待时间")
+                    .tag("priority", priority.name())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        Gauge.builder("dp.execute.queue.size", this, ProjectExecuteScheduler::getQueuedCount)
+                .description("排队中的项目数")
+                .register(meterRegistry);
+        Gauge.builder("dp.execute.running", this, ProjectExecuteScheduler::getRunningCount)
+                .description("执行中的项目数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交执行申请
+     *
+     * @param priority         优先级
+     * @param tenantId         租户id，为空时使用默认租户
+     * @param userId           用户id，可以为null；调度批量执行都使用同一个调度用户，不按用户限制排队数
+     * @param projectId        项目id
+     * @param executorId       执行器id
+     * @param positionListener 排队位置变化监听，可以为null
+     * @return 排队凭证
+     * @throws ValidationException 排队数超过限制或者实例正在停止
+     */
+    public ExecuteTicket submit(ExecutePriority priority, String tenantId, String userId, String projectId, String executorId
+            , ExecuteTicket.QueuePositionListener positionListener) {
+        final ExecuteTicket ticket = new ExecuteTicket(this, executorId
+                , StringUtils.defaultIfEmpty(tenantId, DEFAULT_TENANT), userId, projectId, priority, positionListener);
+
+        final List<ExecuteTicket> admitted;
+        synchronized (this) {
+            if (draining) {
+                throw new ValidationException(StatusCode.CODE_10010, "执行实例正在停止，请稍后再试");
+            }
+            if (waiting.size() >= maxQueued) {
+                throw new ValidationException(StatusCode.CODE_10010, "执行队列已满，请稍后再试");
+            }
+            if (priority != ExecutePriority.SCHEDULE && userId != null
+                    && waitingByUser.getOrDefault(userId, 0) >= maxQueuedPerUser) {
+                throw new ValidationException(StatusCode.CODE_10010, "排队中的项目过多，请稍后再试");
+            }
+
+            // 虚拟开始时间取当前虚拟时间和该用户上一个任务完成时间的较大值
+            final String flow = flowKey(ticket);
+            final double start = Math.max(virtualTime, lastFinishTags.getOrDefault(flow, 0D));
+            ticket.finishTag = start + 1D / priority.getWeight();
+            ticket.sequence = sequence++;
+            lastFinishTags.put(flow, ticket.finishTag);
+
+            waiting.add(ticket);
+            waitingByExecutorId.put(executorId, ticket);
+            increment(waitingByUser, userId);
+
+            admitted = dispatch();
+        }
+
+        logger.info("项目执行申请入队，executorId: {}, userId: {}, tenantId: {}, priority: {}"
+                , executorId, userId, ticket.getTenantId(), priority);
+        afterChanged(admitted);
+        return ticket;
+    }
+
+    /**
+     * 取消排队，已经开始执行的任务不处理
+     *
+     * @param executorId 执行器id
+     * @return 是否取消成功
+     */
+    public boolean cancel(String executorId) {
+        final ExecuteTicket ticket;
+        final List<ExecuteTicket> admitted;
+        synchronized (this) {
+            ticket = waitingByExecutorId.remove(executorId);
+            if (ticket == null) {
+                return false;
+            }
+            waiting.remove(ticket);
+            decrement(waitingByUser, ticket.getUserId());
+            admitted = dispatch();
+        }
+
+        logger.info("取消项目排队，executorId: {}", executorId);
+        ticket.getAdmission().completeExceptionally(new CancellationException("取消排队：" + executorId));
+        afterChanged(admitted);
+        return true;
+    }
+
+    /**
+     * 项目是否在排队中
+     */
+    public synchronized boolean isQueued(String executorId) {
+        return waitingByExecutorId.containsKey(executorId);
+    }
+
+    /**
+     * 用户的项目是否在排队中
+     */
+    public synchronized boolean isQueued(String userId, String projectId) {
+        for (ExecuteTicket ticket : waiting) {
+            if (Objects.equals(ticket.getUserId(), userId) && Objects.equals(ticket.getProjectId(), projectId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getQueuedCount() {
+        return waiting.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 设置停止中状态，停止中拒绝新的执行申请，已经排队的继续执行
+     */
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    /**
+     * 归还执行许可
+     */
+    void release(ExecuteTicket ticket) {
+        final List<ExecuteTicket> admitted;
+        synchronized (this) {
+            running--;
+            if (ticket.getPriority() == ExecutePriority.SCHEDULE) {
+                runningBatch--;
+            }
+            decrement(runningByUser, ticket.getUserId());
+            decrement(runningByTenant, ticket.getTenantId());
+            admitted = dispatch();
+        }
+        afterChanged(admitted);
+    }
+
+    /**
+     * 按顺序放行满足配额的任务，必须持有锁
+     *
+     * @return 本次放行的任务
+     */
+    private List<ExecuteTicket> dispatch() {
+        List<ExecuteTicket> admitted = new ArrayList<>();
+        final Iterator<ExecuteTicket> iterator = waiting.iterator();
+        while (running < maxRunning && iterator.hasNext()) {
+            final ExecuteTicket ticket = iterator.next();
+            if (!hasQuota(ticket)) {
+                // 配额不足时跳过，不阻塞后面其他用户的任务
+                continue;
+            }
+
+            iterator.remove();
+            waitingByExecutorId.remove(ticket.getExecutorId());
+            decrement(waitingByUser, ticket.getUserId());
+
+            running++;
+            if (ticket.getPriority() == ExecutePriority.SCHEDULE) {
+                runningBatch++;
+            }
+            increment(runningByUser, ticket.getUserId());
+            increment(runningByTenant, ticket.getTenantId());
+            virtualTime = Math.max(virtualTime, ticket.finishTag);
+            admitted.add(ticket);
+        }
+
+        if (!admitted.isEmpty()) {
+            // 完成时间已经落后于虚拟时间的用户不再需要记录
+            lastFinishTags.values().removeIf(tag -> tag <= virtualTime);
+        }
+        return admitted;
+    }
+
+    private boolean hasQuota(ExecuteTicket ticket) {
+        if (runningByTenant.getOrDefault(ticket.getTenantId(), 0) >= maxRunningPerTenant) {
+            return false;
+        }
+        if (ticket.getPriority() == ExecutePriority.SCHEDULE) {
+            return runningBatch < maxRunningBatch;
+        }
+        // 没有用户信息的执行（如接口预览）只受节点和租户配额限制
+        return ticket.getUserId() == null || runningByUser.getOrDefault(ticket.getUserId(), 0) < maxRunningPerUser;
+    }
+
+    /**
+     * 公平队列的分组，调度批量执行按租户分组，不同租户的批量任务穿插执行
+     */
+    private static String flowKey(ExecuteTicket ticket) {
+        if (ticket.getPriority() == ExecutePriority.SCHEDULE) {
+            return ExecutePriority.SCHEDULE.name() + ":" + ticket.getTenantId();
+        }
+        return ticket.getUserId();
+    }
+
+    /**
+     * 通知放行的任务和排队位置的变化，不能持有锁
+     */
+    private void afterChanged(List<ExecuteTicket> admitted) {
+        for (ExecuteTicket ticket : admitted) {
+            final long waitNanos = System.nanoTime() - ticket.getEnqueueTime();
+            waitTimers.get(ticket.getPriority()).record(waitNanos, TimeUnit.NANOSECONDS);
+            logger.info("项目执行申请放行，executorId: {}, 排队时间: {}ms", ticket.getExecutorId(), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            ticket.getAdmission().complete(ticket);
+        }
+
+        final List<ExecuteTicket> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(waiting);
+        }
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            final ExecuteTicket ticket = snapshot.get(i);
+            final int position = i + 1;
+            if (ticket.position != position) {
+                ticket.position = position;
+                notifyPosition(ticket, position, snapshot.size());
+            }
+        }
+    }
+
+    private void notifyPosition(ExecuteTicket ticket, int position, int queued) {
+        if (ticket.getPositionListener() == null) {
+            return;
+        }
+        try {
+            ticket.getPositionListener().onPositionChanged(ticket, position, queued);
+        } catch (Exception e) {
+            logger.warn("发送排队位置失败，executorId: {}", ticket.getExecutorId(), e);
+        }
+    }
+
+    private static void increment(Map<String, Integer> counter, String key) {
+        counter.merge(key, 1, Integer::sum);
+    }
+
+    private static void decrement(Map<String, Integer> counter, String key) {
+        counter.computeIfPresent(key, (k, v) -> v <= 1 ? null : v - 1);
+    }
+}
@@ -0,0 +1,135 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import com.youngdatafan.di.run.management.server.conf.TransStatusPublishPool;
+import com.youngdatafan.di.run.management.server.trans.TransCheckpointer;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import com.youngdatafan.kettle.springboot.core.entity.DpDeProjectCheckpoint;
+import com.youngdatafan.kettle.springboot.core.persist.EngineMetaDataPersistUtils;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.pentaho.di.trans.TransMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 项目断点续跑
+ * <p>
+ * 开启断点的调度执行按间隔把输入步骤已提交的位置保存到引擎元数据库，执行成功后删除，执行失败时保留；
+ * 续跑时从最后一个已提交的断点继续执行。
+ *
+ * @author gavin
+ */
+@Service
+public class CheckpointService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointService.class);
+
+    private final TransStatusPublishPool transStatusPublishPool;
+
+    /**
+     * 执行器id -> 断点记录
+     */
+    private final Map<String, TransCheckpointer> checkpointers = new ConcurrentHashMap<>();
+
+    /**
+     * 断点间隔，单位：秒
+     */
+    @Value("${dp.project.execute.checkpoint.intervalSeconds:60}")
+    private int intervalSeconds;
+
+    /**
+     * 等待转换静止的超时时间，超时后跳过本次断点，单位：秒
+     */
+    @Value("${dp.project.execute.checkpoint.quiesceTimeoutSeconds:10}")
+    private int quiesceTimeoutSeconds;
+
+    @Autowired
+    public CheckpointService(TransStatusPublishPool transStatusPublishPool) {
+        this.transStatusPublishPool = transStatusPublishPool;
+    }
+
+    /**
+     * 设置断点和续跑参数
+     *
+     * @param transExecutor   执行器，启动前调用
+     * @param executorParamVO 执行参数
+     */
+    public void prepare(TransExecutor transExecutor, ProjectExecutorParam executorParamVO) {
+        if (!executorParamVO.isCheckpoint() && !executorParamVO.isResume()) {
+            return;
+        }
+
+        final String projectId = executorParamVO.getProjectId();
+        final String keyField = executorParamVO.getCheckpointKeyField();
+        final TransMeta transMeta = transExecutor.getTransMeta();
+        final String reason = TransCheckpointer.checkSupported(transMeta, keyField);
+        if (reason != null) {
+            if (executorParamVO.isResume()) {
+                throw new ValidationException(StatusCode.CODE_10010.getCode(), "项目不支持断点续跑：" + reason);
+            }
+            logger.warn("项目不支持断点，不记录断点，projectId: {}, 原因: {}", projectId, reason);
+            return;
+        }
+
+        final List<DpDeProjectCheckpoint> checkpoints;
+        if (executorParamVO.isResume()) {
+            checkpoints = EngineMetaDataPersistUtils.selectCheckpoints(projectId);
+            logger.info("从断点继续执行，projectId: {}, 断点数: {}", projectId, checkpoints.size());
+        } else {
+            // 重新执行时清除上次的断点
+            EngineMetaDataPersistUtils.deleteCheckpoints(projectId);
+            checkpoints = Collections.emptyList();
+        }
+
+        final Map<String, DpDeProjectCheckpoint> baseCheckpoints = TransCheckpointer.applyResume(transMeta, keyField, checkpoints);
+        final TransCheckpointer checkpointer = new TransCheckpointer(projectId, executorParamVO.getExecutorId(), keyField
+                , baseCheckpoints, TimeUnit.SECONDS.toMillis(intervalSeconds), TimeUnit.SECONDS.toMillis(quiesceTimeoutSeconds));
+        transExecutor.setCheckpointer(checkpointer);
+        checkpointers.put(executorParamVO.getExecutorId(), checkpointer);
+    }
+
+    /**
+     * 开始记录断点
+     *
+     * @param executorId 执行器id，转换启动后调用
+     */
+    public void start(String executorId) {
+        final TransCheckpointer checkpointer = checkpointers.get(executorId);
+        if (checkpointer != null) {
+            checkpointer.start(transStatusPublishPool.getScheduler());
+        }
+    }
+
+    /**
+     * 停止记录断点，执行成功时删除项目的断点
+     *
+     * @param executorId 执行器id
+     * @param projectId  项目id
+     */
+    public void finish(String executorId, String projectId) {
+        final TransCheckpointer checkpointer = checkpointers.remove(executorId);
+        if (checkpointer == null) {
+            return;
+        }
+
+        try {
+            checkpointer.stop();
+            if (checkpointer.isCompleted()) {
+                EngineMetaDataPersistUtils.deleteCheckpoints(projectId);
+            } else {
+                logger.info("项目未执行完成，保留断点，projectId: {}, executorId: {}", projectId, executorId);
+            }
+        } catch (Exception e) {
+            logger.warn("保存断点失败，projectId: {}, executorId: {}", projectId, executorId, e);
+        }
+    }
+}
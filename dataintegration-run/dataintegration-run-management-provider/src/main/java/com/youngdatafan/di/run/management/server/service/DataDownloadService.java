@@ -3,38 +3,43 @@ package com.youngdatafan.di.run.management.server.service;
 import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.exception.DpException;
 import com.youngdatafan.di.run.management.datasource.PluginRunDataSourceRepository;
+import com.youngdatafan.di.run.management.server.export.ExportFormat;
+import com.youngdatafan.di.run.management.server.export.RowExporter;
 import com.youngdatafan.di.run.management.server.vo.PreviewDownloadVO;
 import com.youngdatafan.di.run.management.server.vo.StepFieldVO;
-import jxl.write.*;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.time.DateFormatUtils;
-import org.apache.poi.xssf.streaming.SXSSFCell;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.commons.lang3.StringUtils;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
-import org.pentaho.di.core.row.ValueMetaInterface;
 import com.youngdatafan.dataintegration.core.util.sql.DataSourceWrap;
+import com.youngdatafan.dataintegration.core.util.sql.DatabaseType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongPredicate;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * 预览数据下载
+ * <p>
+ * 查询结果按 {@link ExportFormat} 逐行写出到响应流，不在内存中保留全部结果；
+ * 客户端支持 gzip 时，文本格式压缩后传输。
  *
  * @author gavin
  * @since 2020/2/26 11:34 上午
@@ -43,6 +48,13 @@ import java.util.Map;
 @Service
 public class DataDownloadService {
 
+    /**
+     * 导出进度回调间隔行数
+     */
+    public static final int PROGRESS_ROWS = 10000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final PluginRunDataSourceRepository dataSourceRepository;
 
     /**
@@ -51,19 +63,41 @@ public class DataDownloadService {
     @Value("${dp.preview.downloadMaxRow:600000}")
     private int previewDownloadMaxRow;
 
+    /**
+     * 每次从数据库读取的行数，mysql 按行流式读取
+     */
+    @Value("${dp.preview.downloadFetchSize:1000}")
+    private int downloadFetchSize;
+
+    /**
+     * 是否启用gzip压缩
+     */
+    @Value("${dp.preview.downloadGzip:true}")
+    private boolean downloadGzip;
+
     @Autowired
     public DataDownloadService(PluginRunDataSourceRepository dataSourceRepository) {
         this.dataSourceRepository = dataSourceRepository;
     }
 
     /**
-     * 下载excle
+     * 下载数据文件
      *
      * @param userId            用户id
      * @param previewDownloadVO PreviewDownloadVO
+     * @param useNativeSql      是否直接执行查询sql
+     * @param request           http请求对象
      * @param response          http响应对象
      */
-    public void downloadExcel(String userId, PreviewDownloadVO previewDownloadVO, boolean useNativeSql, HttpServletResponse response) {
+    public void download(String userId, PreviewDownloadVO previewDownloadVO, boolean useNativeSql
+            , HttpServletRequest request, HttpServletResponse response) {
+        final ExportFormat format;
+        try {
+            format = ExportFormat.of(previewDownloadVO.getFormat());
+        } catch (IllegalArgumentException e) {
+            throw new DpException(StatusCode.CODE_10010.getCode(), e.getMessage());
+        }
+
         String fileName = previewDownloadVO.getFileName();
         //设置文件名的编码,将不安全的文件名改为UTF-8
         try {
@@ -72,31 +106,53 @@ public class DataDownloadService {
             log.error(e.getMessage());
         }
 
-        //兼容不同浏览器的中文乱码问题
-        response.setHeader("Content-disposition", "attachment;filename="
-                + fileName + ".xlsx;filename*=utf-8''" + fileName + ".xlsx");
-        // 定义输出类型
-        response.setContentType("application/msexcel");
-        response.setCharacterEncoding("UTF-8");
-
-        try (ServletOutputStream outputStream = response.getOutputStream()) {
-            // 生成excel文件并流式写出
-            generateExcelAndWriteStream(userId, previewDownloadVO, useNativeSql, outputStream);
+        final boolean gzip = downloadGzip && format.isCompressible() && acceptsGzip(request);
+        final String attachmentName = fileName + "." + format.getExtension();
+
+        // 查询出错时还没有写出响应，异常由统一的异常处理返回错误信息
+        final ResponseOutputStream outputStream = new ResponseOutputStream(() -> {
+            //兼容不同浏览器的中文乱码问题
+            response.setHeader("Content-disposition", "attachment;filename="
+                    + attachmentName + ";filename*=utf-8''" + attachmentName);
+            // 定义输出类型
+            response.setContentType(format.getContentType());
+            response.setCharacterEncoding("UTF-8");
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip");
+                response.setHeader("Vary", "Accept-Encoding");
+                return new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE);
+            }
+            return new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE);
+        });
+        try {
+            // 查询数据并流式写出
+            export(userId, previewDownloadVO, useNativeSql, format.create(outputStream), previewDownloadMaxRow, null);
+            outputStream.close();
+        } catch (DpException e) {
+            throw e;
         } catch (Exception e) {
             log.error(e.getMessage(), e);
-            throw new DpException(StatusCode.CODE_10010.getCode(), "excel数据下载失败");
+            throw new DpException(StatusCode.CODE_10010.getCode(), "数据下载失败");
         }
     }
 
     /**
-     * 生成excel并流式写出
+     * 查询数据并流式写出
      *
-     * @param outputStream 输出流
-     * @throws SQLException   sql执行错误
-     * @throws IOException    excel生成错误
-     * @throws WriteException 文件输出错误
+     * @param userId            用户id
+     * @param previewDownloadVO PreviewDownloadVO
+     * @param useNativeSql      是否直接执行查询sql
+     * @param exporter          导出器
+     * @param maxRow            最大行数
+     * @param progress          每写出 {@link #PROGRESS_ROWS} 行调用一次，参数为已写出的行数，返回false时取消导出，可以为空
+     * @return 写出的行数，以及是否还有超过最大行数的数据
+     * @throws SQLException          sql执行错误
+     * @throws IOException           文件输出错误
+     * @throws KettleValueException  字段值转换错误
+     * @throws CancellationException 导出被取消
      */
-    private void generateExcelAndWriteStream(String userId, PreviewDownloadVO previewDownloadVO, boolean useNativeSql, OutputStream outputStream) throws SQLException, IOException, WriteException {
+    public ExportResult export(String userId, PreviewDownloadVO previewDownloadVO, boolean useNativeSql, RowExporter exporter
+            , long maxRow, LongPredicate progress) throws SQLException, IOException, KettleValueException {
         StepFieldVO[] stepFields = previewDownloadVO.getStepFields();
 
         // 构件查询sql
@@ -113,232 +169,188 @@ public class DataDownloadService {
         }
 
         final DataSourceWrap dataSourceWrap = dataSourceRepository.getDataSource(userId, previewDownloadVO.getDatasourceId());
+        final DatabaseType databaseType = dataSourceWrap.getDatabaseType();
         final DatabaseMeta databaseMeta = new DatabaseMeta(""
-                , dataSourceWrap.getDatabaseType().name(), "JDBC", "", "", "", "", "");
+                , databaseType.name(), "JDBC", "", "", "", "", "");
         final Database database = new Database(databaseMeta);
 
+        PreparedStatement statement = null;
         ResultSet resultSet = null;
-        SXSSFWorkbook book = null;
+        boolean completed = false;
 
         try {
             // 获取数据库连接
             Connection connection = dataSourceWrap.getDataSource().getConnection();
             database.setConnection(connection);
-
-            // 创建一个Excel文件对象
-            book = new SXSSFWorkbook();
-
-            SXSSFSheet sheet = book.createSheet("sheet1");
-
-            SXSSFRow sxssfRow = sheet.createRow(0);
-
-            // 设置表头，第一行内容
-            for (int i = 0; i < stepFields.length; i++) {
-                StepFieldVO stepField = stepFields[i];
-                // 标题
-                SXSSFCell cell = sxssfRow.createCell(i);
-                cell.setCellValue(stepField.getFiledCname());
-            }
             log.info("查询sql为：{}", querySqlBuilder);
 
-            resultSet = database.openQuery(querySqlBuilder.toString());
-            RowMetaInterface rowMeta = null;
-            int rowCount = 0;
-            int[] fieldsWidth = new int[0];
-            while (true) {
-                // 最大行限制
-                if (rowCount++ > previewDownloadMaxRow) {
-                    log.info("已超过下载最大数据量:{}，文件名:{} 用户id:{}", rowCount, previewDownloadVO.getFileName(), userId);
-                    break;
-                }
+            statement = prepareStatement(databaseType, connection, querySqlBuilder.toString(), maxRow);
+            resultSet = database.openQuery(statement, new RowMeta(), new Object[0]);
+            final RowMetaInterface rowMeta = database.getReturnRowMeta();
 
-                // 获取字段信息
-                if (rowMeta == null) {
-                    rowMeta = database.getReturnRowMeta();
-                    fieldsWidth = new int[rowMeta.size()];
-                }
-                SXSSFRow sxssfRow1 = sheet.createRow(rowCount);
-                // 获取值
-                final Object[] row = database.getRow(resultSet);
-                if (row == null || row.length == 0) {
+            // 设置表头，没有中文名的字段使用字段名
+            final String[] headers = new String[rowMeta.size()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = stepFields != null && i < stepFields.length && StringUtils.isNotBlank(stepFields[i].getFiledCname())
+                        ? stepFields[i].getFiledCname() : rowMeta.getValueMeta(i).getName();
+            }
+            exporter.start(rowMeta, headers);
+
+            long rowCount = 0;
+            boolean truncated = false;
+            Object[] row;
+            while ((row = database.getRow(resultSet)) != null) {
+                // 最大行限制，读到第 maxRow + 1 行时说明还有数据没有导出
+                if (rowCount >= maxRow) {
+                    log.info("已超过下载最大数据量:{}，文件名:{} 用户id:{}", maxRow, previewDownloadVO.getFileName(), userId);
+                    truncated = true;
                     break;
                 }
-                final int fieldSize = rowMeta.size();
-
-                for (int i = 0; i < fieldSize; i++) {
-                    // 输出excel
-                    final ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+                exporter.write(row);
+                rowCount++;
 
-                    writeExcel(sxssfRow1, i, fieldsWidth, valueMeta, stepFields[i].getFiledCname(), row[i]);
+                if (progress != null && rowCount % PROGRESS_ROWS == 0 && !progress.test(rowCount)) {
+                    throw new CancellationException("导出已取消");
                 }
             }
             log.info("总行数:{}", rowCount);
-            sheet.trackAllColumnsForAutoSizing();
-            // 自动调整列大小
-            int nFields = fieldsWidth.length;
-            for (int i = 0; i < nFields; i++) {
-                sheet.autoSizeColumn(i);
-//                sheet.setColumnWidth(i, fieldsWidth[i]);
-            }
-
-            // 写入数据到目标文件
-            book.write(outputStream);
-        } catch (Exception e) {
-            log.error("excel数据下载失败", e);
 
+            exporter.finish();
+            completed = true;
+            return new ExportResult(rowCount, truncated);
         } finally {
+            // mysql 流式读取时关闭结果集会读完剩余的行，中途取消或者出错时先取消查询
+            if (!completed && statement != null && databaseType == DatabaseType.MYSQL) {
+                cancel(statement);
+            }
             if (resultSet != null) {
                 resultSet.close();
             }
+            if (statement != null) {
+                statement.close();
+            }
             database.disconnect();
+        }
+    }
 
-            if (book != null) {
-                try {
-                    // 关闭
-                    book.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+    private static void cancel(PreparedStatement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            log.warn("取消查询失败", e);
         }
     }
 
     /**
-     * 输出excel
+     * 只读、单向游标，按 fetchSize 分批读取，最多读取 maxRow + 1 行
      */
-    private void writeExcel(WritableSheet sheet, int row, int i
-            , Map<String, WritableCellFormat> formats, int[] fieldsWidth
-            , ValueMetaInterface vMeta, String cname, Object v) throws WriteException, KettleValueException {
-        final String name = vMeta.getName();
-        WritableCellFormat cellFormat = formats.get(name);
-
-        // prepare auto size columns
-        int vlen = cname.length();
-        if (v != null) {
-            vlen = Math.max(v.toString().trim().length(), vlen);
-        }
-        if (vlen > 0 && vlen > fieldsWidth[i]) {
-            fieldsWidth[i] = vlen + 3;
+    private PreparedStatement prepareStatement(DatabaseType databaseType, Connection connection, String sql, long maxRow) throws SQLException {
+        // postgresql 只有在事务中才按 fetchSize 分批读取
+        if (databaseType == DatabaseType.POSTGRESQL || databaseType == DatabaseType.KDW || databaseType == DatabaseType.ELK) {
+            connection.setAutoCommit(false);
         }
 
-        switch (vMeta.getType()) {
-            case ValueMetaInterface.TYPE_DATE: {
-                if (v != null && vMeta.getDate(v) != null) {
-                    if (cellFormat == null) {
-                        cellFormat = new WritableCellFormat(DateFormats.FORMAT9);
-                        formats.put(name, cellFormat);
-                    }
-                    DateTime dateTime = new DateTime(i, row, vMeta.getDate(v), cellFormat);
-                    sheet.addCell(dateTime);
-                }
-                break;
-            }
-            default:
-                // fallthrough
-                // Output the data value as a string
-            case ValueMetaInterface.TYPE_STRING:
-            case ValueMetaInterface.TYPE_BOOLEAN:
-            case ValueMetaInterface.TYPE_BINARY: {
-                if (cellFormat == null) {
-                    cellFormat = new WritableCellFormat();
-                    formats.put(name, cellFormat);
-                }
-                if (v != null) {
-                    Label label = new Label(i, row, vMeta.getString(v), cellFormat);
-                    sheet.addCell(label);
-                }
-                break;
-            }
-            case ValueMetaInterface.TYPE_NUMBER:
-            case ValueMetaInterface.TYPE_BIGNUMBER:
-            case ValueMetaInterface.TYPE_INTEGER: {
-                if (v != null) {
-                    if (cellFormat == null) {
-                        String format = "###,###.00";
-                        NumberFormat numberFormat = new NumberFormat(format);
-                        cellFormat = new WritableCellFormat(numberFormat);
-                        formats.put(name, cellFormat);
-                    }
-                    jxl.write.Number number =
-                            new jxl.write.Number(i, row, vMeta.getNumber(v), cellFormat);
-                    sheet.addCell(number);
-                }
-                break;
-            }
+        final PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            // 0 表示不限制
+            statement.setMaxRows(maxRow < Integer.MAX_VALUE ? (int) maxRow + 1 : 0);
+        } catch (SQLException e) {
+            log.debug("驱动不支持setMaxRows", e);
+        }
+        try {
+            // mysql 驱动只有 Integer.MIN_VALUE 才按行流式读取
+            statement.setFetchSize(databaseType == DatabaseType.MYSQL ? Integer.MIN_VALUE : downloadFetchSize);
+        } catch (SQLException e) {
+            log.debug("驱动不支持setFetchSize", e);
         }
+        return statement;
     }
 
     /**
-     * 输出excel
+     * 第一次写出时才设置响应头并打开响应流
+     * <p>
+     * 查询和读取字段信息失败时响应还没有提交，可以返回错误信息，而不是一个空文件。
      */
-    private void writeExcel(SXSSFRow sxssfRow, int i
-            , int[] fieldsWidth
-            , ValueMetaInterface vMeta, String cname, Object v) throws WriteException, KettleValueException {
-        // 创建Excel第一个选项卡对象
-
-        // prepare auto size columns
-        int vlen = cname.length();
-        if (v != null) {
-            vlen = Math.max(v.toString().trim().length(), vlen);
+    private static final class ResponseOutputStream extends OutputStream {
+
+        private final ResponseOpener opener;
+
+        private OutputStream delegate;
+
+        ResponseOutputStream(ResponseOpener opener) {
+            this.opener = opener;
         }
-        if (vlen > 0 && vlen > fieldsWidth[i]) {
-            fieldsWidth[i] = vlen + 3;
+
+        private OutputStream delegate() throws IOException {
+            if (delegate == null) {
+                delegate = opener.open();
+            }
+            return delegate;
         }
 
-        switch (vMeta.getType()) {
-            case ValueMetaInterface.TYPE_DATE: {
-                if (v != null && vMeta.getDate(v) != null) {
+        @Override
+        public void write(int b) throws IOException {
+            delegate().write(b);
+        }
 
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(DateFormatUtils.format(vMeta.getDate(v), "yyyy-MM-dd HH:mm:ss"));
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate().write(b, off, len);
+        }
 
-                }
-                break;
+        @Override
+        public void flush() throws IOException {
+            if (delegate != null) {
+                delegate.flush();
             }
-            default:
-                // fallthrough
-                // Output the data value as a string
-            case ValueMetaInterface.TYPE_STRING:
-                if (v != null) {
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(vMeta.getString(v));
-                }
-                break;
-            case ValueMetaInterface.TYPE_BOOLEAN:
-                if (v != null) {
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(vMeta.getBoolean(v));
-                }
-                break;
-            case ValueMetaInterface.TYPE_BINARY: {
+        }
+
+        /**
+         * 导出成功后调用，没有数据时也输出响应头
+         */
+        @Override
+        public void close() throws IOException {
+            delegate().close();
+        }
+    }
 
-                if (v != null) {
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(vMeta.getString(v));
+    @FunctionalInterface
+    private interface ResponseOpener {
 
-                }
-                break;
-            }
-            case ValueMetaInterface.TYPE_NUMBER:
-                if (v != null) {
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(vMeta.getNumber(v));
-                }
-                break;
-            case ValueMetaInterface.TYPE_BIGNUMBER:
-                if (v != null) {
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(vMeta.getBigNumber(v).doubleValue());
-                }
-                break;
-            case ValueMetaInterface.TYPE_INTEGER: {
-                if (v != null) {
+        OutputStream open() throws IOException;
+    }
 
-                    SXSSFCell cell = sxssfRow.createCell(i);
-                    cell.setCellValue(vMeta.getNumber(v));
-                }
-                break;
-            }
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        final String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    /**
+     * 导出结果
+     */
+    public static class ExportResult {
+
+        private final long rows;
+
+        private final boolean truncated;
+
+        public ExportResult(long rows, boolean truncated) {
+            this.rows = rows;
+            this.truncated = truncated;
+        }
+
+        /**
+         * 写出的行数
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * 是否达到最大行数，之后还有数据没有导出
+         */
+        public boolean isTruncated() {
+            return truncated;
         }
     }
 }
@@ -2,24 +2,49 @@ package com.youngdatafan.di.run.management.server.service;
 
 import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.exception.DpException;
+import com.youngdatafan.di.run.management.server.dto.PreviewDataDTO;
+import com.youngdatafan.di.run.management.server.util.PagingSql;
 import com.youngdatafan.di.run.management.server.vo.PreviewDataVO;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
 import com.youngdatafan.dataintegration.core.util.sql.DataSourceWrap;
 import com.youngdatafan.dataintegration.core.util.sql.DatabaseType;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * 数据预览
+ * <p>
+ * 查询按数据库类型改写为分页sql，并通过 setMaxRows、setFetchSize 限制驱动读取的行数，
+ * 超过查询超时时间后取消语句，结果按字段名 + 行数组返回，不会把整张表读入内存。
+ *
  * @author gavin
  * @since 2020/2/29 2:02 下午
  */
@@ -27,6 +52,46 @@ import java.util.Map;
 @Service
 public class DataPreviewService {
 
+    /**
+     * 每次从数据库读取的最大行数
+     */
+    private static final int MAX_FETCH_SIZE = 1000;
+
+    /**
+     * 每页最大记录数
+     */
+    @Value("${dp.preview.maxPageSize:10000}")
+    private int maxPageSize;
+
+    /**
+     * 查询超时时间，包括执行和读取结果，单位：秒
+     */
+    @Value("${dp.preview.queryTimeoutSeconds:60}")
+    private int queryTimeoutSeconds;
+
+    /**
+     * 超时取消查询的调度线程
+     */
+    private ScheduledThreadPoolExecutor cancelScheduler;
+
+    @PostConstruct
+    public void init() {
+        cancelScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dp-preview-cancel");
+            t.setDaemon(true);
+            return t;
+        });
+        // 查询完成后取消的任务立即从队列中移除
+        cancelScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (cancelScheduler != null) {
+            cancelScheduler.shutdownNow();
+        }
+    }
+
     /**
      * 数据预览
      *
@@ -34,94 +99,350 @@ public class DataPreviewService {
      * @param previewDataVO  PreviewStatsVO
      * @return data
      */
-    public List<Map<String, Object>> previewData(DataSourceWrap dataSourceWrap, PreviewDataVO previewDataVO) {
+    public PreviewDataDTO previewData(DataSourceWrap dataSourceWrap, PreviewDataVO previewDataVO) {
+        final Connection connection;
         try {
-            return executeQuery(dataSourceWrap.getDatabaseType(), dataSourceWrap.getDataSource().getConnection()
-                    , previewDataVO.getDataQuerySql(), 0, previewDataVO.getSize());
-        } catch (Exception e) {
-            throw new DpException(StatusCode.CODE_10010.getCode(), "数据预览查询失败");
+            connection = dataSourceWrap.getDataSource().getConnection();
+        } catch (SQLException e) {
+            throw new DpException(StatusCode.CODE_10010.getCode(), "数据预览查询失败", e);
+        }
+
+        if (StringUtils.isNotBlank(previewDataVO.getKeyField())) {
+            return executeQuery(dataSourceWrap.getDatabaseType(), connection, previewDataVO.getDataQuerySql()
+                    , previewDataVO.getKeyField(), previewDataVO.getLastKey(), previewDataVO.getSize());
         }
+        final Integer pageNo = previewDataVO.getPageNo();
+        return executeQuery(dataSourceWrap.getDatabaseType(), connection, previewDataVO.getDataQuerySql()
+                , pageNo == null ? 1 : pageNo, previewDataVO.getSize());
     }
 
     /**
-     * 执行查询
+     * 按页号分页查询，执行完成后关闭连接
      *
      * @param databaseType 数据库类型
      * @param connection   connection
      * @param sql          查询sql
      * @param rowMeta      参数值类型
      * @param params       查询参数
-     * @param pageNo       页号
+     * @param pageNo       页号，从1开始
      * @param pageSize     每页大小
-     * @return list map
+     * @return 一页数据
      */
-    public List<Map<String, Object>> executeQuery(DatabaseType databaseType, Connection connection
+    public PreviewDataDTO executeQuery(DatabaseType databaseType, Connection connection
             , String sql, RowMeta rowMeta, List<Object> params, int pageNo, int pageSize) {
-        List<Map<String, Object>> values = new ArrayList<>(pageSize / 2);
+        final int page = Math.max(pageNo, 1);
+        final int size = pageSize(pageSize);
+        // 多查一行判断是否还有下一页
+        final PagingSql pagingSql = PagingSql.offset(databaseType, sql, (long) (page - 1) * size, size + 1);
 
-        final DatabaseMeta databaseMeta = new DatabaseMeta(""
-                , databaseType.name(), "JDBC", "", "", "", "", "");
+        final PreviewDataDTO result = query(databaseType, connection, pagingSql, rowMeta
+                , params == null ? null : params.toArray(), size);
+        result.setPageNo(page);
+        return result;
+    }
+
+    /**
+     * 按页号分页查询，执行完成后关闭连接
+     *
+     * @param databaseType 数据库类型
+     * @param connection   connection
+     * @param sql          查询sql
+     * @param pageNo       页号，从1开始
+     * @param pageSize     每页大小
+     * @return 一页数据
+     */
+    public PreviewDataDTO executeQuery(DatabaseType databaseType, Connection connection
+            , String sql, int pageNo, int pageSize) {
+        return executeQuery(databaseType, connection, sql, null, null, pageNo, pageSize);
+    }
+
+    /**
+     * 按唯一字段分页查询，结果按该字段升序，执行完成后关闭连接
+     *
+     * @param databaseType 数据库类型
+     * @param connection   connection
+     * @param sql          查询sql
+     * @param keyField     分页字段
+     * @param lastKey      上一页最后一行的字段值，为空时查询第一页
+     * @param pageSize     每页大小
+     * @return 一页数据
+     */
+    public PreviewDataDTO executeQuery(DatabaseType databaseType, Connection connection
+            , String sql, String keyField, Object lastKey, int pageSize) {
+        final int size = pageSize(pageSize);
+        final DatabaseMeta databaseMeta = databaseMeta(databaseType);
+        final PagingSql pagingSql;
+        try {
+            pagingSql = PagingSql.keyset(databaseType, sql, databaseMeta.quoteField(keyField), lastKey != null, size + 1);
+        } catch (IllegalArgumentException e) {
+            closeQuietly(connection);
+            throw new DpException(StatusCode.CODE_10010.getCode(), e.getMessage());
+        }
+
+        RowMeta paramMeta = null;
+        Object[] params = null;
+        if (lastKey != null) {
+            paramMeta = new RowMeta();
+            params = new Object[]{keyValue(paramMeta, keyField, lastKey)};
+        }
+
+        final PreviewDataDTO result = query(databaseType, connection, pagingSql, paramMeta, params, size);
+        final int keyIndex = indexOf(result.getFieldNames(), keyField);
+        if (keyIndex >= 0 && !result.getRows().isEmpty()) {
+            result.setLastKey(result.getRows().get(result.getRows().size() - 1)[keyIndex]);
+        }
+        return result;
+    }
+
+    /**
+     * 执行分页sql，最多读取 pageSize + 1 行
+     */
+    private PreviewDataDTO query(DatabaseType databaseType, Connection connection, PagingSql pagingSql
+            , RowMeta paramMeta, Object[] params, int pageSize) {
+        final List<Object[]> rows = new ArrayList<>(Math.min(pageSize, MAX_FETCH_SIZE) + 1);
+        final RowMetaInterface rowMeta = scan(databaseType, connection, pagingSql, paramMeta, params
+                , pageSize + 1, (meta, row) -> {
+                    rows.add(row.length == meta.size() ? row : Arrays.copyOf(row, meta.size()));
+                    return rows.size() <= pageSize;
+                });
+
+        final PreviewDataDTO result = new PreviewDataDTO();
+        result.setFieldNames(Arrays.asList(rowMeta.getFieldNames()));
+        result.setPageSize(pageSize);
+        result.setHasMore(rows.size() > pageSize);
+        result.setRows(result.isHasMore() ? rows.subList(0, pageSize) : rows);
+        return result;
+    }
+
+    /**
+     * 执行sql并逐行交给 handler 处理，不在内存中保留结果，执行完成后关闭连接
+     * <p>
+     * 包装为子查询的sql执行失败，并且不改写的sql结果中有重名字段时，改为执行不改写的sql，两次执行共用同一个超时时间。
+     *
+     * @param limit 最多交给 handler 的行数，不包括需要跳过的行
+     * @return 结果字段，不包括分页追加的行号字段
+     */
+    RowMetaInterface scan(DatabaseType databaseType, Connection connection, PagingSql pagingSql
+            , RowMeta paramMeta, Object[] params, long limit, RowHandler handler) {
+        final DatabaseMeta databaseMeta = databaseMeta(databaseType);
         final Database database = new Database(databaseMeta);
+        final AtomicBoolean finished = new AtomicBoolean();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AtomicReference<PreparedStatement> running = new AtomicReference<>();
+        final RowMeta queryParamMeta = paramMeta == null ? new RowMeta() : paramMeta;
+        final Object[] queryParams = params == null ? new Object[0] : params;
+        PagingSql executing = pagingSql;
+        PreparedStatement statement = null;
         ResultSet resultSet = null;
+        ScheduledFuture<?> cancelTask = null;
 
         try {
             database.setConnection(connection);
-            // 获取分页sql
-            /*String pagingQuerySQL = databaseMeta.getDatabaseInterface().get(sql
-                , pageNo, pageSize);*/
-
-            String[] fieldNames = null;
-            if (rowMeta == null) {
-                resultSet = database.openQuery(sql);
-            } else {
-                resultSet = database.openQuery(sql, rowMeta, params.toArray());
+            // postgresql 只有在事务中才按 fetchSize 分批读取
+            if (usesCursorTransaction(databaseType)) {
+                connection.setAutoCommit(false);
             }
 
-            Object[] row;
-            while ((row = database.getRow(resultSet)) != null) {
-                // 获取字段名
-                if (fieldNames == null) {
-                    fieldNames = database.getReturnRowMeta().getFieldNames();
+            cancelTask = cancelScheduler.schedule(() -> {
+                if (!finished.get()) {
+                    cancelled.set(true);
+                    final PreparedStatement current = running.get();
+                    if (current != null) {
+                        cancel(current);
+                    }
+                }
+            }, queryTimeoutSeconds, TimeUnit.SECONDS);
+
+            try {
+                statement = prepare(connection, executing, limit, running, cancelled);
+                resultSet = database.openQuery(statement, queryParamMeta, queryParams);
+            } catch (SQLException | KettleDatabaseException e) {
+                if (cancelled.get() || executing.getFallback() == null) {
+                    throw e;
+                }
+
+                // 部分数据库子查询中不允许重名字段，不改写重新执行，结果中没有重名字段时按原来的错误处理
+                if (usesCursorTransaction(databaseType)) {
+                    connection.rollback();
                 }
+                if (statement != null) {
+                    statement.close();
+                    statement = null;
+                }
+                executing = executing.getFallback();
+                try {
+                    statement = prepare(connection, executing, limit, running, cancelled);
+                    resultSet = database.openQuery(statement, queryParamMeta, queryParams);
+                } catch (SQLException | KettleDatabaseException fallbackException) {
+                    e.addSuppressed(fallbackException);
+                    throw e;
+                }
+                if (!PagingSql.hasDuplicateColumns(resultSet.getMetaData())) {
+                    throw e;
+                }
+                log.debug("查询结果有重名字段，不包装为子查询执行，sql: {}", executing.getSql());
+            }
+
+            RowMetaInterface rowMeta = database.getReturnRowMeta();
+            // 丢弃分页追加的行号字段
+            if (executing.hasRowNumberColumn()) {
+                rowMeta = rowMeta.clone();
+                rowMeta.removeValueMeta(rowMeta.size() - 1);
+            }
 
-                // 数组转map
-                final int columnCount = fieldNames.length;
-                Map<String, Object> value = new HashMap<>(columnCount);
-                for (int i = 0; i < columnCount; i++) {
-                    value.put(fieldNames[i], row[i]);
+            Object[] row;
+            long skipped = 0;
+            while (!cancelled.get() && (row = database.getRow(resultSet)) != null) {
+                // 不支持偏移的分页方式由读取方跳过
+                if (skipped < executing.getSkipRows()) {
+                    skipped++;
+                    continue;
                 }
-                
-                values.add(value);
+                if (!handler.handle(rowMeta, row)) {
+                    break;
+                }
+            }
+            if (cancelled.get()) {
+                throw new DpException(StatusCode.CODE_10010.getCode(), "数据预览查询超过" + queryTimeoutSeconds + "秒，已取消");
             }
+            return rowMeta;
 
+        } catch (DpException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("数据查询sql", e);
+            log.error("数据预览查询失败，sql: {}", executing.getSql(), e);
+            if (cancelled.get()) {
+                throw new DpException(StatusCode.CODE_10010.getCode(), "数据预览查询超过" + queryTimeoutSeconds + "秒，已取消");
+            }
+            throw new DpException(StatusCode.CODE_10010.getCode(), "数据预览查询失败", e);
         } finally {
+            finished.set(true);
+            if (cancelTask != null) {
+                cancelTask.cancel(false);
+            }
             if (resultSet != null) {
                 try {
                     resultSet.close();
                 } catch (SQLException e) {
-                    e.printStackTrace();
+                    log.warn("关闭结果集失败", e);
+                }
+            }
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    log.warn("关闭查询语句失败", e);
                 }
             }
             database.disconnect();
         }
+    }
 
-        return values;
+    /**
+     * 创建查询语句并登记为超时时取消的语句，已经超时时直接取消
+     */
+    private PreparedStatement prepare(Connection connection, PagingSql pagingSql, long limit
+            , AtomicReference<PreparedStatement> running, AtomicBoolean cancelled) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(pagingSql.getSql()
+                , ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        configure(statement, pagingSql.getSkipRows() + limit);
+        running.set(statement);
+        if (cancelled.get()) {
+            cancel(statement);
+        }
+        return statement;
     }
 
     /**
-     * 执行查询
-     *
-     * @param databaseType 数据库类型
-     * @param connection   connection
-     * @param sql          查询sql
-     * @param pageNo       页号
-     * @param pageSize     每页大小
-     * @return list map
+     * 限制驱动返回和每次读取的行数，并设置查询超时，驱动不支持时忽略
      */
-    public List<Map<String, Object>> executeQuery(DatabaseType databaseType, Connection connection
-            , String sql, int pageNo, int pageSize) {
-        return executeQuery(databaseType, connection, sql, null, null, pageNo, pageSize);
+    private void configure(PreparedStatement statement, long maxRows) {
+        try {
+            statement.setMaxRows((int) Math.min(maxRows, Integer.MAX_VALUE));
+        } catch (SQLException e) {
+            log.debug("驱动不支持setMaxRows", e);
+        }
+        try {
+            statement.setFetchSize((int) Math.min(maxRows, MAX_FETCH_SIZE));
+        } catch (SQLException e) {
+            log.debug("驱动不支持setFetchSize", e);
+        }
+        try {
+            statement.setQueryTimeout(queryTimeoutSeconds);
+        } catch (SQLException e) {
+            log.debug("驱动不支持setQueryTimeout", e);
+        }
+    }
+
+    private static void cancel(PreparedStatement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            log.warn("取消数据预览查询失败", e);
+        }
+    }
+
+    private static boolean usesCursorTransaction(DatabaseType databaseType) {
+        return databaseType == DatabaseType.POSTGRESQL || databaseType == DatabaseType.KDW || databaseType == DatabaseType.ELK;
+    }
+
+    private int pageSize(int pageSize) {
+        return Math.max(1, Math.min(pageSize, maxPageSize));
+    }
+
+    private static DatabaseMeta databaseMeta(DatabaseType databaseType) {
+        return new DatabaseMeta("", databaseType.name(), "JDBC", "", "", "", "", "");
+    }
+
+    /**
+     * 分页字段的条件值，按json中的类型绑定参数
+     */
+    private static Object keyValue(RowMeta paramMeta, String keyField, Object lastKey) {
+        if (lastKey instanceof Integer || lastKey instanceof Long || lastKey instanceof Short || lastKey instanceof Byte) {
+            paramMeta.addValueMeta(new ValueMetaInteger(keyField));
+            return ((Number) lastKey).longValue();
+        } else if (lastKey instanceof BigInteger) {
+            paramMeta.addValueMeta(new ValueMetaBigNumber(keyField));
+            return new BigDecimal((BigInteger) lastKey);
+        } else if (lastKey instanceof BigDecimal) {
+            paramMeta.addValueMeta(new ValueMetaBigNumber(keyField));
+            return lastKey;
+        } else if (lastKey instanceof Number) {
+            paramMeta.addValueMeta(new ValueMetaNumber(keyField));
+            return ((Number) lastKey).doubleValue();
+        }
+        paramMeta.addValueMeta(new ValueMetaString(keyField));
+        return String.valueOf(lastKey);
+    }
+
+    private static int indexOf(List<String> fieldNames, String keyField) {
+        for (int i = 0; i < fieldNames.size(); i++) {
+            if (fieldNames.get(i).equalsIgnoreCase(keyField)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("关闭连接失败", e);
+        }
+    }
+
+    /**
+     * 逐行处理查询结果
+     */
+    @FunctionalInterface
+    interface RowHandler {
+
+        /**
+         * @param rowMeta 结果字段，行数组可能比字段多
+         * @param row     行数据
+         * @return false 时停止读取
+         */
+        boolean handle(RowMetaInterface rowMeta, Object[] row) throws KettleException;
     }
 }
@@ -0,0 +1,171 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.youngdatafan.dataintegration.core.exception.DpException;
+import com.youngdatafan.dataintegration.core.util.Md5Utils;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import com.youngdatafan.dataintegration.core.util.sql.DataSourceWrap;
+import com.youngdatafan.dataintegration.core.util.sql.DatabaseType;
+import com.youngdatafan.di.run.management.server.dto.DataProfileDTO;
+import com.youngdatafan.di.run.management.server.profile.RowProfiler;
+import com.youngdatafan.di.run.management.server.util.PagingSql;
+import com.youngdatafan.di.run.management.server.vo.DataProfileVO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 字段统计
+ * <p>
+ * 一条查询读取前 sampleRows 行，一次遍历统计所有字段，代替逐字段执行 group by、max/min 的多次查询。
+ * 结果按 用户 + 数据源 + sql + 参数 缓存，同一个key并发请求时只查询一次。
+ *
+ * @author gavin
+ */
+@Service
+public class DataProfileService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataProfileService.class);
+
+    private final DataPreviewService dataPreviewService;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 默认统计行数
+     */
+    @Value("${dp.preview.profile.sampleRows:100000}")
+    private int sampleRows;
+
+    /**
+     * 最大统计行数
+     */
+    @Value("${dp.preview.profile.maxSampleRows:1000000}")
+    private int maxSampleRows;
+
+    /**
+     * 默认高频值个数
+     */
+    @Value("${dp.preview.profile.topK:10}")
+    private int topK;
+
+    /**
+     * 最大高频值个数
+     */
+    @Value("${dp.preview.profile.maxTopK:100}")
+    private int maxTopK;
+
+    /**
+     * 最大缓存结果数
+     */
+    @Value("${dp.preview.profile.cache.maximumSize:200}")
+    private long cacheMaximumSize;
+
+    /**
+     * 缓存过期时间，单位：分钟
+     */
+    @Value("${dp.preview.profile.cache.expireAfterWriteMinutes:10}")
+    private long cacheExpireAfterWriteMinutes;
+
+    private Cache<String, DataProfileDTO> cache;
+
+    @Autowired
+    public DataProfileService(DataPreviewService dataPreviewService, MeterRegistry meterRegistry) {
+        this.dataPreviewService = dataPreviewService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterWrite(cacheExpireAfterWriteMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "dp.preview.profile.cache");
+    }
+
+    /**
+     * 统计查询结果的所有字段
+     *
+     * @param userId         用户id
+     * @param dataSourceWrap 数据源
+     * @param dataProfileVO  查询sql和统计参数
+     * @return 统计结果
+     */
+    public DataProfileDTO profile(String userId, DataSourceWrap dataSourceWrap, DataProfileVO dataProfileVO) {
+        final int rows = limit(dataProfileVO.getSampleRows(), sampleRows, maxSampleRows);
+        final int k = limit(dataProfileVO.getTopK(), topK, maxTopK);
+        final String sql = dataProfileVO.getDataQuerySql();
+        final String key = Md5Utils.encode(userId + "_" + dataProfileVO.getDataSourceId() + "_" + rows + "_" + k + "_" + sql
+                , "UTF-8", false);
+
+        try {
+            return cache.get(key, () -> profile(dataSourceWrap, sql, rows, k));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof DpException) {
+                throw (DpException) e.getCause();
+            }
+            throw new DpException(StatusCode.CODE_10010.getCode(), "字段统计失败", e.getCause());
+        }
+    }
+
+    private DataProfileDTO profile(DataSourceWrap dataSourceWrap, String sql, int sampleRows, int topK) throws KettleValueException {
+        final Connection connection;
+        try {
+            connection = dataSourceWrap.getDataSource().getConnection();
+        } catch (SQLException e) {
+            throw new DpException(StatusCode.CODE_10010.getCode(), "字段统计查询失败", e);
+        }
+
+        final long start = System.currentTimeMillis();
+        final DatabaseType databaseType = dataSourceWrap.getDatabaseType();
+        // 多查一行判断是否只统计了部分数据
+        final PagingSql pagingSql = PagingSql.offset(databaseType, sql, 0, sampleRows + 1);
+        final RowProfiler[] profiler = new RowProfiler[1];
+        final boolean[] sampled = new boolean[1];
+        final RowMetaInterface rowMeta = dataPreviewService.scan(databaseType, connection, pagingSql, null, null
+                , sampleRows + 1L, (meta, row) -> {
+                    if (profiler[0] == null) {
+                        profiler[0] = new RowProfiler(meta, topK);
+                    }
+                    if (profiler[0].getRows() >= sampleRows) {
+                        sampled[0] = true;
+                        return false;
+                    }
+                    profiler[0].add(row);
+                    return true;
+                });
+        if (profiler[0] == null) {
+            profiler[0] = new RowProfiler(rowMeta, topK);
+        }
+
+        final DataProfileDTO result = new DataProfileDTO();
+        result.setRows(profiler[0].getRows());
+        result.setSampled(sampled[0]);
+        result.setColumns(profiler[0].getColumnProfiles());
+        logger.info("字段统计完成，行数: {}，字段数: {}，耗时: {}ms", result.getRows(), rowMeta.size()
+                , System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private static int limit(Integer value, int defaultValue, int max) {
+        if (value == null || value <= 0) {
+            return defaultValue;
+        }
+        return Math.min(value, max);
+    }
+}
@@ -0,0 +1,304 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.youngdatafan.dataintegration.core.exception.DpException;
+import com.youngdatafan.dataintegration.core.util.Md5Utils;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 设计时查询结果缓存
+ * <p>
+ * 设计器调整步骤时会用相同的sql反复预览数据、获取字段，每次都要建立连接并重新执行。
+ * 结果先查进程内的LRU缓存，再查redis(可选，多实例共享)，都没有时才执行查询。
+ * 进程内缓存按结果序列化后的长度估算占用的内存，总量超过上限时淘汰最近最少使用的结果，几条大结果不会占满堆内存。
+ * <p>
+ * 缓存按分组保存，分组是数据源id，或者连接定义的md5(连接定义变化后自然不会命中)；
+ * 数据源修改后按数据源id清理分组。key 由 命名空间 + 规范化后的sql + 行数等参数 组成，过期时间较短。
+ *
+ * @author gavin
+ */
+@Service
+public class DesignResultCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DesignResultCacheService.class);
+
+    private static final String REDIS_KEY_PREFIX = "di_design_cache:";
+
+    /**
+     * 分组下所有的redis key，清理分组时使用
+     */
+    private static final String REDIS_GROUP_PREFIX = "di_design_cache_group:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 与接口返回使用同一个 ObjectMapper，redis中读取的结果返回给前端时格式不变
+     */
+    private final ObjectMapper objectMapper;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 是否启用缓存
+     */
+    @Value("${dp.designCache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 进程内缓存最大占用内存估算值，单位：MB
+     */
+    @Value("${dp.designCache.maximumWeightMb:64}")
+    private long maximumWeightMb;
+
+    /**
+     * 进程内缓存过期时间，单位：秒
+     */
+    @Value("${dp.designCache.ttlSeconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * 是否启用redis缓存
+     */
+    @Value("${dp.designCache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    /**
+     * redis缓存过期时间，单位：秒
+     */
+    @Value("${dp.designCache.redis.ttlSeconds:300}")
+    private long redisTtlSeconds;
+
+    private Cache<String, Object> cache;
+
+    private Counter redisHits;
+
+    private Counter redisMisses;
+
+    @Autowired
+    public DesignResultCacheService(RedisTemplate<String, String> redisTemplate, ObjectMapper objectMapper
+            , MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeightMb * 1024 * 1024)
+                .weigher(this::weigh)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "dp.design.cache");
+        redisHits = meterRegistry.counter("dp.design.cache.redis", "result", "hit");
+        redisMisses = meterRegistry.counter("dp.design.cache.redis", "result", "miss");
+    }
+
+    /**
+     * 获取缓存结果，没有时执行 loader 并缓存，同一个key并发请求时只执行一次
+     *
+     * @param group   分组，数据源id或者 {@link #definitionGroup(String)}
+     * @param key     {@link #key(String, String, Object...)}
+     * @param refresh 是否跳过缓存重新查询，查询结果会更新缓存
+     * @param type    结果类型，用于从redis中读取
+     * @param loader  查询，不能返回null
+     * @return 结果，不要修改
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String group, String key, boolean refresh, TypeReference<T> type, Callable<T> loader) {
+        if (!enabled) {
+            return call(loader);
+        }
+
+        final String cacheKey = group + ":" + key;
+        if (refresh) {
+            final T value = call(loader);
+            cache.put(cacheKey, value);
+            writeRedis(group, cacheKey, value);
+            return value;
+        }
+
+        try {
+            return (T) cache.get(cacheKey, () -> {
+                T value = readRedis(cacheKey, type);
+                if (value == null) {
+                    value = loader.call();
+                    writeRedis(group, cacheKey, value);
+                }
+                return value;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * 清理分组下的所有缓存，数据源修改或者删除时调用
+     *
+     * @param group 分组
+     */
+    public void invalidate(String group) {
+        final String prefix = group + ":";
+        cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+
+        if (redisEnabled) {
+            try {
+                final Set<String> keys = redisTemplate.opsForSet().members(REDIS_GROUP_PREFIX + group);
+                if (keys != null && !keys.isEmpty()) {
+                    redisTemplate.delete(keys);
+                }
+                redisTemplate.delete(REDIS_GROUP_PREFIX + group);
+            } catch (Exception e) {
+                logger.warn("清理redis设计时缓存失败，group: {}", group, e);
+            }
+        }
+        logger.info("清理设计时缓存，group: {}", group);
+    }
+
+    /**
+     * 以连接定义(xml)作为分组，连接信息变化后使用新的分组
+     */
+    public static String definitionGroup(String definition) {
+        return "def_" + Md5Utils.encode(definition, "UTF-8", false);
+    }
+
+    /**
+     * 缓存key
+     *
+     * @param namespace 命名空间，区分不同接口
+     * @param sql       查询sql，空白字符规范化后参与计算
+     * @param params    行数等其他影响结果的参数
+     * @return key
+     */
+    public static String key(String namespace, String sql, Object... params) {
+        final StringBuilder builder = new StringBuilder(normalize(sql));
+        for (Object param : params) {
+            builder.append('\u0001').append(param);
+        }
+        return namespace + ":" + Md5Utils.encode(builder.toString(), "UTF-8", false);
+    }
+
+    /**
+     * 引号外连续的空白字符合并为一个空格，去掉首尾空白和末尾的分号，只是格式不同的sql使用同一个key
+     */
+    public static String normalize(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        final StringBuilder builder = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean whitespace = false;
+        for (int i = 0; i < sql.length(); i++) {
+            final char c = sql.charAt(i);
+            if (quote != 0) {
+                builder.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                whitespace = true;
+            } else {
+                if (whitespace && builder.length() > 0) {
+                    builder.append(' ');
+                }
+                whitespace = false;
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                builder.append(c);
+            }
+        }
+
+        int end = builder.length();
+        while (end > 0 && (builder.charAt(end - 1) == ';' || builder.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        builder.setLength(end);
+        return builder.toString();
+    }
+
+    /**
+     * 估算缓存结果占用的字节数：按 json 长度计算，字符串每个字符两个字节
+     */
+    private int weigh(String key, Object value) {
+        long bytes = 2L * key.length();
+        try {
+            final CountingOutputStream outputStream = new CountingOutputStream(ByteStreams.nullOutputStream());
+            objectMapper.writeValue(outputStream, value);
+            bytes += 2 * outputStream.getCount();
+        } catch (IOException e) {
+            logger.warn("估算设计时缓存大小失败，key: {}", key, e);
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private <T> T readRedis(String cacheKey, TypeReference<T> type) {
+        if (!redisEnabled) {
+            return null;
+        }
+        try {
+            final String json = redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + cacheKey);
+            if (json == null) {
+                redisMisses.increment();
+                return null;
+            }
+            redisHits.increment();
+            return objectMapper.readerFor(type).with(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS).readValue(json);
+        } catch (Exception e) {
+            logger.warn("读取redis设计时缓存失败，key: {}", cacheKey, e);
+            return null;
+        }
+    }
+
+    private void writeRedis(String group, String cacheKey, Object value) {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            final String redisKey = REDIS_KEY_PREFIX + cacheKey;
+            redisTemplate.opsForValue().set(redisKey, objectMapper.writeValueAsString(value), redisTtlSeconds, TimeUnit.SECONDS);
+            redisTemplate.opsForSet().add(REDIS_GROUP_PREFIX + group, redisKey);
+            redisTemplate.expire(REDIS_GROUP_PREFIX + group, redisTtlSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("写入redis设计时缓存失败，key: {}", cacheKey, e);
+        }
+    }
+
+    private static <T> T call(Callable<T> loader) {
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        return new DpException(StatusCode.CODE_10010.getCode(), e.getMessage(), e);
+    }
+}
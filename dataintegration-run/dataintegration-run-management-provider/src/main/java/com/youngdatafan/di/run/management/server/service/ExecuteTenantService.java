@@ -0,0 +1,87 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.youngdatafan.di.run.management.server.mapper.DpUserTenantMapper;
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 项目执行所属租户
+ * <p>
+ * 租户只从用户租户关系中查询，不信任客户端传入的租户；调度执行的用户是固定的调度用户，使用项目创建人所属租户。
+ * 查询结果缓存一段时间，查询失败时使用默认租户，不影响执行。
+ *
+ * @author gavin
+ */
+@Service
+public class ExecuteTenantService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecuteTenantService.class);
+
+    /**
+     * 缓存中表示没有租户，Guava 缓存不能保存null
+     */
+    private static final String NONE = "";
+
+    private final DpUserTenantMapper dpUserTenantMapper;
+
+    /**
+     * 缓存过期时间，单位：分钟
+     */
+    @Value("${dp.project.execute.queue.tenantCacheMinutes:10}")
+    private long tenantCacheMinutes;
+
+    private Cache<String, String> cache;
+
+    @Autowired
+    public ExecuteTenantService(DpUserTenantMapper dpUserTenantMapper) {
+        this.dpUserTenantMapper = dpUserTenantMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(tenantCacheMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 获取执行所属租户
+     *
+     * @param priority 执行优先级，调度批量执行按项目查询
+     * @param param    执行参数，忽略其中的租户id
+     * @return 租户id，查询不到时返回默认租户
+     */
+    public String resolve(ExecutePriority priority, ProjectExecutorParam param) {
+        String tenantId = null;
+        if (priority != ExecutePriority.SCHEDULE && param.getUserId() != null) {
+            tenantId = lookup("user:" + param.getUserId(), () -> dpUserTenantMapper.selectTenantIdByUserId(param.getUserId()));
+        }
+        if (StringUtils.isEmpty(tenantId) && param.getProjectId() != null) {
+            tenantId = lookup("project:" + param.getProjectId(), () -> dpUserTenantMapper.selectTenantIdByProjectId(param.getProjectId()));
+        }
+        return StringUtils.defaultIfEmpty(tenantId, ProjectExecuteScheduler.DEFAULT_TENANT);
+    }
+
+    private String lookup(String key, Supplier<String> loader) {
+        try {
+            return cache.get(key, () -> StringUtils.defaultString(loader.get(), NONE));
+        } catch (ExecutionException | RuntimeException e) {
+            logger.warn("查询执行所属租户失败，使用默认租户，key: {}", key, e);
+            return null;
+        }
+    }
+}
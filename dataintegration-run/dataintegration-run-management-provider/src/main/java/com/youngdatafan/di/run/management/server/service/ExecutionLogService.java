@@ -0,0 +1,475 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import com.youngdatafan.di.run.management.server.dto.ExecutionLogDTO;
+import com.youngdatafan.di.run.management.server.dto.ExecutionLogLineDTO;
+import com.youngdatafan.di.run.management.server.mapper.DpDeProjectExecHistoryMapper;
+import com.youngdatafan.di.run.management.server.trans.ExecutionLogSpool;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.pentaho.di.core.Const;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * 执行日志服务
+ * <p>
+ * 管理执行日志落盘文件，提供按行号、时间读取，读取最后的日志和搜索日志。
+ * 执行中的日志从内存中的落盘对象读取，执行结束后从文件读取。
+ * 日志块由一个共享的写入线程压缩和写文件，队列满时在追加日志的线程中写入。
+ *
+ * @author gavin
+ */
+@Service
+public class ExecutionLogService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionLogService.class);
+
+    /**
+     * 执行中的日志
+     */
+    private final Map<String, ExecutionLogSpool> activeSpools = new ConcurrentHashMap<>();
+
+    /**
+     * 最近执行的执行用户，执行记录异步写入，刚开始和刚结束的执行可能还查询不到
+     */
+    private final Cache<String, String> owners = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    private final DpDeProjectExecHistoryMapper projectExecHistoryMapper;
+
+    private ThreadPoolExecutor writeExecutor;
+
+    /**
+     * 是否启用日志落盘
+     */
+    @Value("${dp.project.execute.log.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 日志目录，多实例部署时可以配置为共享目录
+     */
+    @Value("${dp.project.execute.log.folder:./exec_logs/}")
+    private String folder;
+
+    /**
+     * 压缩块大小，单位：字节
+     */
+    @Value("${dp.project.execute.log.blockSize:65536}")
+    private int blockSize;
+
+    /**
+     * 单次读取的最大行数
+     */
+    @Value("${dp.project.execute.log.maxReadLines:5000}")
+    private int maxReadLines;
+
+    /**
+     * 单次搜索扫描的最大行数
+     */
+    @Value("${dp.project.execute.log.maxGrepScanLines:1000000}")
+    private int maxGrepScanLines;
+
+    /**
+     * 单次搜索的最长时间，单位：毫秒
+     */
+    @Value("${dp.project.execute.log.maxGrepMillis:3000}")
+    private long maxGrepMillis;
+
+    /**
+     * 正则表达式的最大长度
+     */
+    @Value("${dp.project.execute.log.maxRegexLength:200}")
+    private int maxRegexLength;
+
+    /**
+     * 等待写入的最大块数
+     */
+    @Value("${dp.project.execute.log.maxQueuedBlocks:256}")
+    private int maxQueuedBlocks;
+
+    /**
+     * 日志保留天数
+     */
+    @Value("${dp.project.execute.log.retentionDays:7}")
+    private int retentionDays;
+
+    @Autowired
+    public ExecutionLogService(DpDeProjectExecHistoryMapper projectExecHistoryMapper) {
+        this.projectExecHistoryMapper = projectExecHistoryMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        writeExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueuedBlocks), r -> {
+            Thread t = new Thread(r, "dp-exec-log-writer");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (writeExecutor != null) {
+            // 写完已经提交的块
+            writeExecutor.shutdown();
+            writeExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 创建执行日志落盘文件
+     *
+     * @param executorId 执行器id
+     * @param userId     执行用户id
+     * @return 落盘对象，未启用或者创建失败时返回null
+     */
+    public ExecutionLogSpool create(String executorId, String userId) {
+        if (!enabled) {
+            return null;
+        }
+        if (userId != null) {
+            owners.put(executorId, userId);
+        }
+        try {
+            final ExecutionLogSpool spool = ExecutionLogSpool.create(new File(folder), executorId, blockSize, writeExecutor);
+            activeSpools.put(executorId, spool);
+            return spool;
+        } catch (IOException e) {
+            logger.warn("创建执行日志文件失败，executorId: {}", executorId, e);
+            return null;
+        }
+    }
+
+    /**
+     * 执行结束，写入剩余日志并关闭文件
+     *
+     * @param executorId 执行器id
+     */
+    public void close(String executorId) {
+        final ExecutionLogSpool spool = activeSpools.remove(executorId);
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    /**
+     * 日志文件名，保存到执行记录中
+     *
+     * @param executorId 执行器id
+     * @return 日志文件名
+     */
+    public String getLogFileName(String executorId) {
+        return enabled ? new File(folder, executorId + ExecutionLogSpool.LOG_FILE_SUFFIX).getPath() : null;
+    }
+
+    /**
+     * 执行日志是否在本实例上
+     *
+     * @param executorId 执行器id
+     * @return 日志正在写入或者日志文件存在时返回true
+     */
+    public boolean exists(String executorId) {
+        if (executorId == null || !executorId.matches("[A-Za-z0-9_-]+")) {
+            return false;
+        }
+        return activeSpools.containsKey(executorId) || new File(folder, executorId + ExecutionLogSpool.LOG_FILE_SUFFIX).exists();
+    }
+
+    /**
+     * 检查执行日志是否属于当前用户
+     *
+     * @param userId     当前用户id
+     * @param executorId 执行器id
+     */
+    public void checkOwner(String userId, String executorId) {
+        String owner = owners.getIfPresent(executorId);
+        if (owner == null) {
+            owner = projectExecHistoryMapper.selectUserIdByExecutorId(executorId);
+        }
+        // 不区分不存在和没有权限，避免探测其他用户的执行器id
+        if (userId == null || !userId.equals(owner)) {
+            throw new ValidationException(StatusCode.CODE_10010, "执行日志不存在");
+        }
+    }
+
+    /**
+     * 从指定行号开始读取
+     *
+     * @param executorId 执行器id
+     * @param fromLine   起始行号
+     * @param limit      最大行数
+     * @return ExecutionLogDTO
+     */
+    public ExecutionLogDTO read(String executorId, long fromLine, int limit) throws IOException {
+        final ExecutionLogSpool spool = getSpool(executorId);
+        return buildLog(spool, Math.max(fromLine, 0), spool.read(Math.max(fromLine, 0), limitLines(limit)));
+    }
+
+    /**
+     * 读取最后的日志
+     *
+     * @param executorId 执行器id
+     * @param lines      行数
+     * @return ExecutionLogDTO
+     */
+    public ExecutionLogDTO tail(String executorId, int lines) throws IOException {
+        final ExecutionLogSpool spool = getSpool(executorId);
+        final int limit = limitLines(lines);
+        final long fromLine = Math.max(spool.getTotalLines() - limit, 0);
+        return buildLog(spool, fromLine, spool.read(fromLine, limit));
+    }
+
+    /**
+     * 从指定时间开始读取
+     *
+     * @param executorId 执行器id
+     * @param timestamp  时间
+     * @param limit      最大行数
+     * @return ExecutionLogDTO
+     */
+    public ExecutionLogDTO seek(String executorId, long timestamp, int limit) throws IOException {
+        final ExecutionLogSpool spool = getSpool(executorId);
+        final long fromLine = spool.findLineByTime(timestamp);
+        return buildLog(spool, fromLine, spool.read(fromLine, limitLines(limit)));
+    }
+
+    /**
+     * 搜索日志，返回匹配的行；nextLine 为下一次搜索的起始行号
+     * <p>
+     * 默认按字面量匹配。扫描行数和时间都有上限，超过时返回已经找到的行，从 nextLine 继续搜索；
+     * 正则表达式限制长度，单行匹配超时时返回错误，避免回溯过多的表达式占用线程。
+     *
+     * @param executorId 执行器id
+     * @param keyword    关键字
+     * @param regex      关键字是否为正则表达式
+     * @param fromLine   起始行号
+     * @param limit      最大匹配行数
+     * @return ExecutionLogDTO
+     */
+    public ExecutionLogDTO grep(String executorId, String keyword, boolean regex, long fromLine, int limit) throws IOException {
+        if (regex && keyword.length() > maxRegexLength) {
+            throw new ValidationException(StatusCode.CODE_10010, "正则表达式不能超过" + maxRegexLength + "个字符");
+        }
+        final Pattern pattern;
+        try {
+            pattern = regex ? Pattern.compile(keyword) : Pattern.compile(keyword, Pattern.LITERAL);
+        } catch (PatternSyntaxException e) {
+            throw new ValidationException(StatusCode.CODE_10010, "正则表达式错误：" + e.getDescription());
+        }
+
+        final ExecutionLogSpool spool = getSpool(executorId);
+        final int maxMatches = limitLines(limit);
+        final long scanEnd = Math.max(fromLine, 0) + maxGrepScanLines;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxGrepMillis);
+
+        List<ExecutionLogSpool.LogLine> matches = new ArrayList<>();
+        long nextLine = Math.max(fromLine, 0);
+        scan:
+        while (matches.size() < maxMatches && nextLine < scanEnd) {
+            final List<ExecutionLogSpool.LogLine> lines = spool.read(nextLine, (int) Math.min(maxReadLines, scanEnd - nextLine));
+            if (lines.isEmpty()) {
+                break;
+            }
+            for (ExecutionLogSpool.LogLine line : lines) {
+                if (System.nanoTime() - deadline > 0) {
+                    break scan;
+                }
+                if (find(pattern, line.getText(), deadline)) {
+                    matches.add(line);
+                }
+                nextLine = line.getLineNumber() + 1;
+                if (matches.size() >= maxMatches) {
+                    break;
+                }
+            }
+        }
+
+        final ExecutionLogDTO log = buildLog(spool, Math.max(fromLine, 0), matches);
+        log.setNextLine(nextLine);
+        return log;
+    }
+
+    private static boolean find(Pattern pattern, String text, long deadline) {
+        try {
+            return pattern.matcher(new DeadlineCharSequence(text, deadline)).find();
+        } catch (DeadlineExceededException e) {
+            throw new ValidationException(StatusCode.CODE_10010, "正则表达式匹配超时，请简化表达式");
+        }
+    }
+
+    /**
+     * 读取最后的日志文本，不超过指定字符数
+     *
+     * @param executorId 执行器id
+     * @param maxLength  最大字符数
+     * @return 日志文本，日志不存在时返回空字符串
+     */
+    public String tailText(String executorId, int maxLength) {
+        final ExecutionLogSpool spool;
+        try {
+            spool = findSpool(executorId);
+        } catch (IOException e) {
+            logger.warn("读取执行日志失败，executorId: {}", executorId, e);
+            return "";
+        }
+        if (spool == null) {
+            return "";
+        }
+
+        // 从后向前按页读取，直到超过最大长度，按从新到旧的顺序收集，最后一次拼接
+        final List<String> texts = new ArrayList<>();
+        int length = 0;
+        long toLine = spool.getTotalLines();
+        try {
+            while (toLine > 0 && length < maxLength) {
+                final long fromLine = Math.max(toLine - maxReadLines, 0);
+                final List<ExecutionLogSpool.LogLine> lines = spool.read(fromLine, (int) (toLine - fromLine));
+                for (int i = lines.size() - 1; i >= 0 && length < maxLength; i--) {
+                    final String text = lines.get(i).getText();
+                    texts.add(text);
+                    length += text.length() + Const.CR.length();
+                }
+                toLine = fromLine;
+            }
+        } catch (IOException e) {
+            logger.warn("读取执行日志失败，executorId: {}", executorId, e);
+        }
+
+        final StringBuilder log = new StringBuilder(length);
+        for (int i = texts.size() - 1; i >= 0; i--) {
+            log.append(texts.get(i)).append(Const.CR);
+        }
+        return log.toString();
+    }
+
+    /**
+     * 定时删除过期的日志文件
+     */
+    @Scheduled(initialDelay = 60000, fixedDelayString = "${dp.project.execute.log.cleanFixedDelay:3600000}")
+    public void cleanExpiredLogs() {
+        final File[] files = new File(folder).listFiles((dir, name) -> name.endsWith(ExecutionLogSpool.LOG_FILE_SUFFIX)
+                || name.endsWith(ExecutionLogSpool.INDEX_FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        final long expireTime = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        for (File file : files) {
+            final String executorId = file.getName().substring(0, file.getName().lastIndexOf('.'));
+            if (file.lastModified() < expireTime && !activeSpools.containsKey(executorId)) {
+                logger.info("删除过期执行日志文件： filePath: {}, 删除状态:{}", file.getPath(), file.delete());
+            }
+        }
+    }
+
+    private ExecutionLogSpool getSpool(String executorId) throws IOException {
+        final ExecutionLogSpool spool = findSpool(executorId);
+        if (spool == null) {
+            throw new ValidationException(StatusCode.CODE_10010, "执行日志不存在");
+        }
+        return spool;
+    }
+
+    private ExecutionLogSpool findSpool(String executorId) throws IOException {
+        // 执行器id作为文件名，只允许字母数字
+        if (executorId == null || !executorId.matches("[A-Za-z0-9_-]+")) {
+            throw new ValidationException(StatusCode.CODE_10010, "执行器id错误");
+        }
+
+        final ExecutionLogSpool spool = activeSpools.get(executorId);
+        if (spool != null) {
+            return spool;
+        }
+        return ExecutionLogSpool.open(new File(folder), executorId);
+    }
+
+    private int limitLines(int lines) {
+        return Math.max(Math.min(lines, maxReadLines), 0);
+    }
+
+    /**
+     * 超过截止时间后读取字符时抛出异常，用于中断回溯过多的正则匹配
+     */
+    private static final class DeadlineCharSequence implements CharSequence {
+
+        private final CharSequence text;
+
+        private final long deadline;
+
+        private int reads;
+
+        DeadlineCharSequence(CharSequence text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            // 每读取一定字符数检查一次时间
+            if ((++reads & 0xFFF) == 0 && System.nanoTime() - deadline > 0) {
+                throw new DeadlineExceededException();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineCharSequence(text.subSequence(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    private static final class DeadlineExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceededException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private ExecutionLogDTO buildLog(ExecutionLogSpool spool, long fromLine, List<ExecutionLogSpool.LogLine> lines) {
+        List<ExecutionLogLineDTO> lineDTOS = new ArrayList<>(lines.size());
+        for (ExecutionLogSpool.LogLine line : lines) {
+            lineDTOS.add(new ExecutionLogLineDTO(line.getLineNumber(), line.getTimestamp(), line.getText()));
+        }
+
+        return ExecutionLogDTO.builder()
+                .executorId(spool.getExecutorId())
+                .fromLine(lines.isEmpty() ? fromLine : lines.get(0).getLineNumber())
+                .nextLine(lines.isEmpty() ? fromLine : lines.get(lines.size() - 1).getLineNumber() + 1)
+                .totalLines(spool.getTotalLines())
+                .finished(spool.isClosed())
+                .lines(lineDTOS).build();
+    }
+}
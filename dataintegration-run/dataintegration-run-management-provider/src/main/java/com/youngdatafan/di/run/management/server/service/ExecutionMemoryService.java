@@ -0,0 +1,172 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.trans.TransMemoryGuard;
+import com.youngdatafan.di.run.management.server.trans.TransPreview;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.pentaho.di.trans.Trans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * 单次执行内存预算
+ * <p>
+ * 按执行类型（预览、设计器运行、调度执行）分别设置预算，执行启动后登记 {@link TransMemoryGuard}，
+ * 定时估算内存占用：接近预算时暂停输入步骤，超过预算时只停止该次执行，避免单个执行耗尽整个实例的堆内存。
+ *
+ * @author gavin
+ */
+@Service
+public class ExecutionMemoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionMemoryService.class);
+
+    private final Map<String, TransMemoryGuard> guards = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 是否开启内存预算
+     */
+    @Value("${dp.project.execute.memory.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 预览执行预算，单位：MB
+     */
+    @Value("${dp.project.execute.memory.previewBudgetMb:256}")
+    private long previewBudgetMb;
+
+    /**
+     * 设计器运行预算，单位：MB
+     */
+    @Value("${dp.project.execute.memory.designerBudgetMb:512}")
+    private long designerBudgetMb;
+
+    /**
+     * 调度执行预算，单位：MB
+     */
+    @Value("${dp.project.execute.memory.scheduleBudgetMb:1024}")
+    private long scheduleBudgetMb;
+
+    /**
+     * 达到预算的该比例时暂停输入步骤
+     */
+    @Value("${dp.project.execute.memory.throttleRatio:0.8}")
+    private double throttleRatio;
+
+    /**
+     * 暂停输入步骤后内存持续不回落的最长时间，超过后停止执行，单位：秒
+     */
+    @Value("${dp.project.execute.memory.throttleTimeoutSeconds:120}")
+    private long throttleTimeoutSeconds;
+
+    private Counter throttledCounter;
+
+    private Counter abortedCounter;
+
+    @Autowired
+    public ExecutionMemoryService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("dp.execute.memory.estimated", guards, ExecutionMemoryService::totalEstimatedBytes)
+                .description("所有执行估算占用的内存，单位：字节")
+                .register(meterRegistry);
+        throttledCounter = Counter.builder("dp.execute.memory.throttled")
+                .description("因接近内存预算暂停输入步骤的次数")
+                .register(meterRegistry);
+        abortedCounter = Counter.builder("dp.execute.memory.aborted")
+                .description("因超过内存预算停止的执行数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 登记执行，转换启动后调用
+     *
+     * @param executorId   执行器id
+     * @param priority     执行类型
+     * @param trans        转换
+     * @param transPreview 预览数据，没有时为空
+     */
+    public void register(String executorId, ExecutePriority priority, Trans trans, TransPreview transPreview) {
+        if (!enabled || trans == null) {
+            return;
+        }
+        final long budgetBytes = budgetMb(priority) * 1024 * 1024;
+        guards.put(executorId, new TransMemoryGuard(trans, transPreview, budgetBytes, throttleRatio
+                , TimeUnit.SECONDS.toMillis(throttleTimeoutSeconds)));
+    }
+
+    /**
+     * 移除执行，执行结束后调用
+     *
+     * @param executorId 执行器id
+     */
+    public void unregister(String executorId) {
+        guards.remove(executorId);
+    }
+
+    /**
+     * 检查所有执行的内存占用
+     */
+    @Scheduled(initialDelay = 1000, fixedDelayString = "${dp.project.execute.memory.checkIntervalMs:1000}")
+    public void check() {
+        if (guards.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, TransMemoryGuard> entry : guards.entrySet()) {
+            try {
+                final TransMemoryGuard.State previous = entry.getValue().getState();
+                final TransMemoryGuard.State state = entry.getValue().check(now);
+                if (state == previous) {
+                    continue;
+                }
+                if (state == TransMemoryGuard.State.THROTTLED) {
+                    throttledCounter.increment();
+                    logger.warn("执行内存接近预算，暂停输入步骤，executorId: {}, 估算: {}MB", entry.getKey()
+                            , entry.getValue().getEstimatedBytes() / 1024 / 1024);
+                } else if (state == TransMemoryGuard.State.ABORTED) {
+                    abortedCounter.increment();
+                    logger.error("执行内存超过预算，已停止执行，executorId: {}, 估算: {}MB, 预算: {}MB", entry.getKey()
+                            , entry.getValue().getEstimatedBytes() / 1024 / 1024, entry.getValue().getBudgetBytes() / 1024 / 1024);
+                }
+            } catch (Exception e) {
+                logger.warn("检查执行内存失败，executorId: {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private long budgetMb(ExecutePriority priority) {
+        switch (priority) {
+            case PREVIEW:
+                return previewBudgetMb;
+            case DESIGNER:
+                return designerBudgetMb;
+            default:
+                return scheduleBudgetMb;
+        }
+    }
+
+    private static double totalEstimatedBytes(Map<String, TransMemoryGuard> guards) {
+        long total = 0;
+        for (TransMemoryGuard guard : guards.values()) {
+            total += guard.getEstimatedBytes();
+        }
+        return total;
+    }
+}
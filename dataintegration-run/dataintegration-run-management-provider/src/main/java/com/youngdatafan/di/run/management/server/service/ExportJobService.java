@@ -0,0 +1,557 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.github.vfss3.FileServerConfig;
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import com.youngdatafan.dataintegration.core.util.encryption.DefaultEncryptionUtils;
+import com.youngdatafan.di.run.management.server.dto.ExportJobDTO;
+import com.youngdatafan.di.run.management.server.export.ExportFormat;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.util.ByteRange;
+import com.youngdatafan.di.run.management.server.util.ExportJobStatus;
+import com.youngdatafan.di.run.management.server.vo.PreviewDownloadVO;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 数据导出任务
+ * <p>
+ * 提交后在后台线程中把查询结果写入文件，不受 dp.preview.downloadMaxRow 限制，不占用请求线程。
+ * 文件通过 Kettle VFS 写入配置的目录，可以是本地目录，也可以是文件管理服务使用的 s3、ftp 存储，多实例部署时需要使用共享存储。
+ * 任务状态和进度保存在redis中，任意实例都可以查询、取消和下载；下载支持 Range 请求，断开后可以从断点继续。
+ *
+ * @author gavin
+ */
+@Service
+public class ExportJobService {
+
+    /**
+     * 任务缓存key前缀，后接任务id
+     */
+    public static final String JOB_CACHE_PREFIX = "di_export_job:";
+
+    /**
+     * 取消请求key前缀，取消其他实例上的任务时写入
+     */
+    private static final String CANCEL_CACHE_PREFIX = "di_export_job_cancel:";
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportJobService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 导出文件名，任务id加扩展名，清理时只删除匹配的文件
+     */
+    private static final Pattern EXPORT_FILE_NAME = Pattern.compile("[0-9a-f]{32}\\.[a-z]+");
+
+    /**
+     * 本实例上未结束的任务
+     */
+    private final Map<String, ExportJobDTO> activeJobs = new ConcurrentHashMap<>();
+
+    /**
+     * 本实例上已经请求取消的任务
+     */
+    private final Set<String> cancelledJobs = ConcurrentHashMap.newKeySet();
+
+    private final DataDownloadService dataDownloadService;
+
+    private final ExecutionJournal executionJournal;
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    @Value("${spring.cloud.consul.discovery.instance-id}")
+    private String instanceId;
+
+    /**
+     * 导出文件目录，本地目录或者 s3://、ftp:// 地址
+     */
+    @Value("${dp.preview.export.folder:./exports/}")
+    private String folder;
+
+    /**
+     * 文件服务器类型，s3 或者 ftp，本地目录时为空
+     */
+    @Value("${dp.preview.export.fileServerType:}")
+    private String fileServerType;
+
+    @Value("${dp.preview.export.username:}")
+    private String username;
+
+    /**
+     * 加密后的密码
+     */
+    @Value("${dp.preview.export.password:}")
+    private String password;
+
+    /**
+     * 同时执行的导出任务数
+     */
+    @Value("${dp.preview.export.workers:2}")
+    private int workers;
+
+    /**
+     * 最大排队任务数
+     */
+    @Value("${dp.preview.export.maxQueued:20}")
+    private int maxQueued;
+
+    /**
+     * 单个任务最大导出行数
+     */
+    @Value("${dp.preview.export.maxRow:10000000}")
+    private long maxRow;
+
+    /**
+     * 任务状态和导出文件保存时间，单位：小时
+     */
+    @Value("${dp.preview.export.retentionHours:24}")
+    private long retentionHours;
+
+    /**
+     * 进度写入和取消检查的最小间隔，单位：毫秒
+     */
+    @Value("${dp.preview.export.progressIntervalMs:1000}")
+    private long progressIntervalMs;
+
+    @Value("${dp.project.execute.job.maxMessageLength:4000}")
+    private int maxMessageLength;
+
+    private ThreadPoolExecutor exportExecutor;
+
+    private ScheduledThreadPoolExecutor cleanScheduler;
+
+    @Autowired
+    public ExportJobService(DataDownloadService dataDownloadService, ExecutionJournal executionJournal
+            , RedisTemplate<String, String> redisTemplate) {
+        this.dataDownloadService = dataDownloadService;
+        this.executionJournal = executionJournal;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!folder.contains("://")) {
+            folder = new File(folder).getAbsolutePath();
+        }
+        if (!folder.endsWith("/")) {
+            folder = folder + "/";
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        exportExecutor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueued), r -> {
+            Thread t = new Thread(r, "dp-export-job-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        exportExecutor.allowCoreThreadTimeOut(true);
+
+        cleanScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dp-export-job-clean");
+            t.setDaemon(true);
+            return t;
+        });
+        cleanScheduler.scheduleWithFixedDelay(this::cleanExpiredFiles, 10, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (exportExecutor != null) {
+            exportExecutor.shutdownNow();
+        }
+        if (cleanScheduler != null) {
+            cleanScheduler.shutdownNow();
+        }
+        // 排队和正在导出的任务不会再完成，标记为失败，避免一直显示排队中或者导出中
+        for (ExportJobDTO job : activeJobs.values()) {
+            complete(job, false, new IllegalStateException("服务停止，导出任务已中断"));
+        }
+    }
+
+    /**
+     * 提交导出任务
+     *
+     * @param userId            用户id
+     * @param previewDownloadVO 查询和文件参数
+     * @param useNativeSql      是否直接执行查询sql
+     * @return 任务
+     */
+    public ExportJobDTO submit(String userId, PreviewDownloadVO previewDownloadVO, boolean useNativeSql) {
+        final ExportFormat format;
+        try {
+            format = ExportFormat.of(previewDownloadVO.getFormat());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(StatusCode.CODE_10010, e.getMessage());
+        }
+
+        final ExportJobDTO job = new ExportJobDTO();
+        job.setJobId(UUID.randomUUID().toString().replace("-", ""));
+        job.setUserId(userId);
+        job.setFileName(previewDownloadVO.getFileName() + "." + format.getExtension());
+        job.setFormat(format.name());
+        job.setStatus(ExportJobStatus.QUEUED.name());
+        job.setInstanceId(instanceId);
+        job.setSubmitTime(System.currentTimeMillis());
+
+        activeJobs.put(job.getJobId(), job);
+        // 提交后立即可以从其他实例查询，同步写入
+        redisTemplate.opsForValue().set(JOB_CACHE_PREFIX + job.getJobId(), JsonUtils.toString(job), retentionHours, TimeUnit.HOURS);
+        try {
+            exportExecutor.execute(() -> export(job, previewDownloadVO, useNativeSql, format));
+        } catch (RejectedExecutionException e) {
+            activeJobs.remove(job.getJobId());
+            executionJournal.delete(JOB_CACHE_PREFIX + job.getJobId());
+            throw new ValidationException(StatusCode.CODE_10010, "导出任务过多，请稍后再试");
+        }
+        return copy(job);
+    }
+
+    /**
+     * 查询任务
+     *
+     * @param userId 用户id，只能查询自己提交的任务
+     * @param jobId  任务id
+     * @return 任务
+     */
+    public ExportJobDTO get(String userId, String jobId) {
+        final ExportJobDTO active = activeJobs.get(jobId);
+        final ExportJobDTO job = active != null ? copy(active) : parse(redisTemplate.opsForValue().get(JOB_CACHE_PREFIX + jobId));
+        if (job == null || !job.getUserId().equals(userId)) {
+            throw new ValidationException(StatusCode.CODE_10010, "任务不存在或者已过期");
+        }
+        return job;
+    }
+
+    /**
+     * 取消任务，其他实例上的任务在开始导出、写入进度或者导出完成时停止
+     *
+     * @param userId 用户id
+     * @param jobId  任务id
+     * @return 任务已经结束时返回false
+     */
+    public boolean cancel(String userId, String jobId) {
+        final ExportJobDTO job = get(userId, jobId);
+        if (ExportJobStatus.valueOf(job.getStatus()).isFinished()) {
+            return false;
+        }
+        if (activeJobs.containsKey(jobId)) {
+            cancelledJobs.add(jobId);
+        } else {
+            redisTemplate.opsForValue().set(CANCEL_CACHE_PREFIX + jobId, userId, retentionHours, TimeUnit.HOURS);
+        }
+        return true;
+    }
+
+    /**
+     * 下载导出文件，支持单个范围的 Range 请求
+     *
+     * @param userId   用户id
+     * @param jobId    任务id
+     * @param request  http请求对象
+     * @param response http响应对象
+     */
+    public void download(String userId, String jobId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final ExportJobDTO job = get(userId, jobId);
+        if (!ExportJobStatus.SUCCESS.name().equals(job.getStatus())) {
+            throw new ValidationException(StatusCode.CODE_10010, "导出任务没有成功完成，不能下载");
+        }
+        final ExportFormat format = ExportFormat.valueOf(job.getFormat());
+        final FileObject file = resolve(jobId, format);
+        if (!file.exists()) {
+            throw new ValidationException(StatusCode.CODE_10010, "导出文件不存在或者已过期");
+        }
+
+        final long size = job.getSize();
+        final String etag = "\"" + jobId + "-" + size + "\"";
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setHeader("Content-disposition", "attachment;filename="
+                + encode(job.getFileName()) + ";filename*=utf-8''" + encode(job.getFileName()));
+        response.setContentType(format.getContentType());
+
+        // If-Range 与文件不一致时返回整个文件
+        final String ifRange = request.getHeader("If-Range");
+        ByteRange range = null;
+        if (ifRange == null || ifRange.equals(etag)) {
+            try {
+                range = ByteRange.parse(request.getHeader("Range"), size);
+            } catch (IllegalArgumentException e) {
+                response.setHeader("Content-Range", "bytes */" + size);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+
+        final long offset;
+        final long length;
+        if (range != null) {
+            offset = range.getStart();
+            length = range.getLength();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", range.contentRange(size));
+        } else {
+            offset = 0;
+            length = size;
+        }
+        response.setContentLengthLong(length);
+
+        try (InputStream inputStream = file.getContent().getInputStream()) {
+            IOUtils.copyLarge(inputStream, response.getOutputStream(), offset, length, new byte[BUFFER_SIZE]);
+        } catch (IOException e) {
+            // 客户端断开后可以按 Range 继续下载
+            logger.info("导出文件下载中断，jobId: {}, {}", jobId, e.getMessage());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * 执行导出，在导出线程中调用
+     */
+    private void export(ExportJobDTO job, PreviewDownloadVO previewDownloadVO, boolean useNativeSql, ExportFormat format) {
+        final String jobId = job.getJobId();
+        FileObject file = null;
+        Throwable throwable = null;
+        boolean cancelled = isCancelled(jobId);
+
+        if (!cancelled) {
+            synchronized (job) {
+                // 服务停止时已经标记为失败
+                if (ExportJobStatus.valueOf(job.getStatus()).isFinished()) {
+                    return;
+                }
+                job.setStatus(ExportJobStatus.RUNNING.name());
+                job.setStartTime(System.currentTimeMillis());
+                executionJournal.set(JOB_CACHE_PREFIX + jobId, JsonUtils.toString(job), retentionHours, TimeUnit.HOURS);
+            }
+
+            final long[] lastProgressTime = {System.currentTimeMillis()};
+            try {
+                file = resolve(jobId, format);
+                final FileObject parent = file.getParent();
+                if (parent != null && !parent.exists()) {
+                    parent.createFolder();
+                }
+
+                final DataDownloadService.ExportResult result;
+                try (OutputStream outputStream = new BufferedOutputStream(file.getContent().getOutputStream(), BUFFER_SIZE)) {
+                    result = dataDownloadService.export(job.getUserId(), previewDownloadVO, useNativeSql, format.create(outputStream)
+                            , maxRow, rowCount -> progress(job, rowCount, lastProgressTime));
+                }
+                final long size = file.getContent().getSize();
+                synchronized (job) {
+                    job.setRows(result.getRows());
+                    job.setTruncated(result.isTruncated());
+                    job.setSize(size);
+                }
+                // 最后一次写入进度之后的取消请求
+                cancelled = isCancelled(jobId);
+            } catch (CancellationException e) {
+                cancelled = true;
+            } catch (Throwable e) {
+                logger.error("数据导出失败，jobId: {}", jobId, e);
+                throwable = e;
+            }
+        }
+
+        if ((cancelled || throwable != null) && file != null) {
+            delete(file);
+        }
+        complete(job, cancelled, throwable);
+    }
+
+    /**
+     * 更新进度，按间隔写入redis并检查是否取消
+     *
+     * @return false 表示任务已经取消
+     */
+    private boolean progress(ExportJobDTO job, long rowCount, long[] lastProgressTime) {
+        final String jobId = job.getJobId();
+        if (cancelledJobs.contains(jobId)) {
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now - lastProgressTime[0] < progressIntervalMs) {
+            synchronized (job) {
+                job.setRows(rowCount);
+            }
+            return true;
+        }
+        lastProgressTime[0] = now;
+
+        if (isCancelled(jobId)) {
+            return false;
+        }
+        synchronized (job) {
+            job.setRows(rowCount);
+            executionJournal.set(JOB_CACHE_PREFIX + jobId, JsonUtils.toString(job), retentionHours, TimeUnit.HOURS);
+        }
+        return true;
+    }
+
+    /**
+     * 是否已经请求取消，包括其他实例写入的取消请求
+     */
+    private boolean isCancelled(String jobId) {
+        if (cancelledJobs.contains(jobId)) {
+            return true;
+        }
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.hasKey(CANCEL_CACHE_PREFIX + jobId))) {
+                cancelledJobs.add(jobId);
+                return true;
+            }
+        } catch (Exception e) {
+            logger.warn("检查数据导出任务取消请求失败，jobId: {}", jobId, e);
+        }
+        return false;
+    }
+
+    /**
+     * 导出结束，同步写入结束状态；已经结束的任务（服务停止时标记为失败）不再写入
+     */
+    private void complete(ExportJobDTO job, boolean cancelled, Throwable throwable) {
+        final String json;
+        synchronized (job) {
+            if (ExportJobStatus.valueOf(job.getStatus()).isFinished()) {
+                return;
+            }
+            if (cancelled) {
+                job.setStatus(ExportJobStatus.CANCELLED.name());
+            } else if (throwable == null) {
+                job.setStatus(ExportJobStatus.SUCCESS.name());
+            } else {
+                job.setStatus(ExportJobStatus.FAILED.name());
+                job.setMessage(StringUtils.right(String.valueOf(throwable.getMessage()), maxMessageLength));
+            }
+            job.setEndTime(System.currentTimeMillis());
+            json = JsonUtils.toString(job);
+        }
+
+        final String cacheKey = JOB_CACHE_PREFIX + job.getJobId();
+        try {
+            redisTemplate.opsForValue().set(cacheKey, json, retentionHours, TimeUnit.HOURS);
+            redisTemplate.delete(CANCEL_CACHE_PREFIX + job.getJobId());
+        } catch (Exception e) {
+            logger.warn("写入数据导出任务状态失败，jobId: {}", job.getJobId(), e);
+        }
+        // 覆盖还没有写入的进度
+        executionJournal.set(cacheKey, json, retentionHours, TimeUnit.HOURS);
+        activeJobs.remove(job.getJobId());
+        cancelledJobs.remove(job.getJobId());
+    }
+
+    /**
+     * 删除超过保存时间的导出文件
+     */
+    void cleanExpiredFiles() {
+        final long expireTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours);
+        try {
+            final FileObject exportFolder = resolve(folder);
+            if (!exportFolder.exists() || exportFolder.getType() != FileType.FOLDER) {
+                return;
+            }
+            for (FileObject child : exportFolder.getChildren()) {
+                if (child.getType() == FileType.FILE && EXPORT_FILE_NAME.matcher(child.getName().getBaseName()).matches()
+                        && child.getContent().getLastModifiedTime() < expireTime) {
+                    delete(child);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("清理导出文件失败，目录: {}", folder, e);
+        }
+    }
+
+    private FileObject resolve(String jobId, ExportFormat format) throws FileSystemException {
+        return resolve(folder + jobId + "." + format.getExtension());
+    }
+
+    private FileObject resolve(String path) throws FileSystemException {
+        try {
+            return KettleVFS.getFileObject(path, fileSystemOptions());
+        } catch (KettleFileException e) {
+            throw new FileSystemException(e);
+        }
+    }
+
+    private FileSystemOptions fileSystemOptions() throws FileSystemException {
+        if (StringUtils.isBlank(fileServerType)) {
+            return null;
+        }
+        return FileServerConfig.getFileSystemOptions(fileServerType, username
+                , StringUtils.isBlank(password) ? password : DefaultEncryptionUtils.decrypt(password));
+    }
+
+    private static void delete(FileObject file) {
+        try {
+            file.delete();
+        } catch (FileSystemException e) {
+            logger.warn("删除导出文件失败: {}", file.getName(), e);
+        }
+    }
+
+    private static ExportJobDTO copy(ExportJobDTO job) {
+        final String json;
+        synchronized (job) {
+            json = JsonUtils.toString(job);
+        }
+        return parse(json);
+    }
+
+    private static ExportJobDTO parse(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return JsonUtils.parseObject(json, ExportJobDTO.class);
+        } catch (IOException e) {
+            logger.error("解析数据导出任务错误，json: {}", json);
+            return null;
+        }
+    }
+
+    private static String encode(String fileName) {
+        try {
+            return URLEncoder.encode(fileName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return fileName;
+        }
+    }
+}
@@ -5,17 +5,23 @@ import com.youngdatafan.dataintegration.core.model.Result;
 import com.youngdatafan.dataintegration.core.util.JsonUtils;
 import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.util.UUIDUtils;
-import com.youngdatafan.dataintegration.core.util.json.JSONLinkedObject;
-import com.youngdatafan.dataintegration.core.util.json.XML;
 import com.youngdatafan.di.run.management.server.bean.ProjectExecutor;
+import com.youngdatafan.di.run.management.server.conf.TransStatusPublishPool;
+import com.youngdatafan.di.run.management.server.dto.ProjectExecuteQueueDTO;
 import com.youngdatafan.di.run.management.server.dto.ProjectExecutorDTO;
 import com.youngdatafan.di.run.management.server.dto.ProjectExecutorStepDTO;
 import com.youngdatafan.di.run.management.server.dto.ProjectHistoryExecuteDTO;
 import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.journal.RunningExecution;
 import com.youngdatafan.di.run.management.server.mapper.DpDeProjectExecHistoryMapper;
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.queue.ExecuteTicket;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
 import com.youngdatafan.di.run.management.server.trans.LogBrowser;
 import com.youngdatafan.di.run.management.server.trans.TransExecutor;
 import com.youngdatafan.di.run.management.server.trans.TransPreview;
+import com.youngdatafan.di.run.management.server.trans.TransStatusPublisher;
 import com.youngdatafan.di.run.management.server.util.ProjectExecuteEnv;
 import com.youngdatafan.di.run.management.server.util.ProjectExecuteStatus;
 import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
@@ -30,16 +36,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.RandomStringUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.pentaho.di.core.exception.KettleMissingPluginsException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogLevel;
-import org.pentaho.di.core.variables.Variables;
-import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.trans.TransExecutionConfiguration;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepData;
@@ -50,11 +55,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
 
 /**
  * 项目异步执行实现
@@ -74,12 +78,22 @@ public class ProjectExecutorService {
     private final ConcurrentHashMap<String, ProjectExecutor> executorMap = new ConcurrentHashMap<>();
     private final RedisTemplate<String, String> redisTemplate;
     private final DpDeProjectExecHistoryMapper projectExecHistoryMapper;
+    private final TransStatusPublishPool transStatusPublishPool;
+    private final Executor asyncTaskExecutor;
+    private final TransMetaCacheService transMetaCacheService;
+    private final ProjectExecuteScheduler projectExecuteScheduler;
+    private final ExecutionLogService executionLogService;
+    private final StepMetricsService stepMetricsService;
+    private final RowSetSizeService rowSetSizeService;
+    private final ExecutionJournal executionJournal;
+    private final ExecutionMemoryService executionMemoryService;
+    private final ExecuteTenantService executeTenantService;
 
 
     @Value("${spring.cloud.consul.discovery.instance-id}")
     private String instanceId;
     /**
-     * 刷新频率，单位：毫秒
+     * 状态推送最小间隔（最大推送频率），单位：毫秒
      */
     @Value("${dp.project.execute.refreshRateMs:800}")
     private int refreshRateMs;
@@ -97,11 +111,31 @@ public class ProjectExecutorService {
     private boolean deleteTmpFile;
     @Value("${kettle.engine.name:Pentaho local}")
     private String engineName;
+    /**
+     * 单次执行日志缓冲区行数
+     */
+    @Value("${dp.project.execute.logBufferLines:10000}")
+    private int logBufferLines;
 
     @Autowired
-    public ProjectExecutorService(RedisTemplate<String, String> redisTemplate, DpDeProjectExecHistoryMapper projectExecHistoryMapper) {
+    public ProjectExecutorService(RedisTemplate<String, String> redisTemplate, DpDeProjectExecHistoryMapper projectExecHistoryMapper
+            , TransStatusPublishPool transStatusPublishPool, @Qualifier("asyncTaskExecutor") Executor asyncTaskExecutor
+            , TransMetaCacheService transMetaCacheService, ProjectExecuteScheduler projectExecuteScheduler
+            , ExecutionLogService executionLogService, StepMetricsService stepMetricsService
+            , RowSetSizeService rowSetSizeService, ExecutionJournal executionJournal, ExecutionMemoryService executionMemoryService
+            , ExecuteTenantService executeTenantService) {
         this.redisTemplate = redisTemplate;
         this.projectExecHistoryMapper = projectExecHistoryMapper;
+        this.transStatusPublishPool = transStatusPublishPool;
+        this.asyncTaskExecutor = asyncTaskExecutor;
+        this.transMetaCacheService = transMetaCacheService;
+        this.projectExecuteScheduler = projectExecuteScheduler;
+        this.executionLogService = executionLogService;
+        this.stepMetricsService = stepMetricsService;
+        this.rowSetSizeService = rowSetSizeService;
+        this.executionJournal = executionJournal;
+        this.executionMemoryService = executionMemoryService;
+        this.executeTenantService = executeTenantService;
     }
 
     /**
@@ -132,6 +166,11 @@ public class ProjectExecutorService {
      * @param executorId 执行器id
      */
     public boolean stop(String executorId) {
+        // 还在排队中的直接取消
+        if (projectExecuteScheduler.cancel(executorId)) {
+            return true;
+        }
+
         ProjectExecutor projectExecutor = executorMap.get(executorId);
         if (projectExecutor == null) {
             logger.info("执行器不存在，执行器ID:{}", executorId);
@@ -152,7 +191,7 @@ public class ProjectExecutorService {
      */
     public void checkExists(String userId, String projectId) {
         final String cacheKey = CACHE_PREFIX + userId;
-        if (redisTemplate.opsForHash().hasKey(cacheKey, projectId)) {
+        if (redisTemplate.opsForHash().hasKey(cacheKey, projectId) || projectExecuteScheduler.isQueued(userId, projectId)) {
             throw new ValidationException(StatusCode.CODE_10010, "项目正在运行中");
         }
     }
@@ -172,16 +211,44 @@ public class ProjectExecutorService {
     }
 
     /**
-     * 异步执行
+     * 进入执行队列，获得执行许可后异步执行，排队位置变化时通过 /queueState 推送
      *
      * @param executorParamVO 执行参数
      * @param executeCallback 项目执行回调
      */
-    @Async("asyncTaskExecutor")
     public void asyncExecuteByFile(String projectFile, ProjectExecutorParam executorParamVO
             , ProjectExecuteCallback executeCallback) {
-        // 执行
-        executeByFile(projectFile, executorParamVO, executeCallback);
+        // 按用户所属租户限制并发
+        executorParamVO.setTenantId(executeTenantService.resolve(ExecutePriority.DESIGNER, executorParamVO));
+        final ExecuteTicket ticket = projectExecuteScheduler.submit(ExecutePriority.DESIGNER, executorParamVO.getTenantId()
+                , executorParamVO.getUserId(), executorParamVO.getProjectId(), executorParamVO.getExecutorId()
+                , (t, position, queued) -> executeCallback.onMessage("/queueState", Result.success(ProjectExecuteQueueDTO.builder()
+                        .requestId(executorParamVO.getRequestId())
+                        .executorId(t.getExecutorId())
+                        .position(position)
+                        .queued(queued).build())));
+
+        ticket.getAdmission().thenAcceptAsync(t -> {
+            try {
+                // 执行完成后归还执行许可
+                executeByFile(projectFile, executorParamVO, executeCallback).whenComplete((executor, throwable) -> t.release());
+            } catch (RuntimeException e) {
+                t.release();
+                throw e;
+            }
+        }, asyncTaskExecutor).exceptionally(throwable -> {
+            if (throwable.getCause() instanceof CancellationException) {
+                logger.info("项目已取消排队，执行器ID:{}", executorParamVO.getExecutorId());
+                executeCallback.onMessage("/runningState", Result.success(ProjectExecutorDTO.builder()
+                        .requestId(executorParamVO.getRequestId())
+                        .executorId(executorParamVO.getExecutorId())
+                        .transFinished(true)
+                        .log("项目已取消排队").build()));
+            } else {
+                logger.error("执行发生错误", throwable);
+            }
+            return null;
+        });
     }
 
     /**
@@ -189,8 +256,9 @@ public class ProjectExecutorService {
      *
      * @param executorParamVO 执行参数
      * @param executeCallback 项目执行回调
+     * @return 执行完成的future，状态推送和执行记录更新完成后完成
      */
-    public void executeByFile(String projectFile, ProjectExecutorParam executorParamVO
+    public CompletableFuture<TransExecutor> executeByFile(String projectFile, ProjectExecutorParam executorParamVO
             , ProjectExecuteCallback executeCallback) {
         executorParamVO.setStartTime(new Date());
         final String executorId = executorParamVO.getExecutorId();
@@ -201,11 +269,13 @@ public class ProjectExecutorService {
         final long currentTimeMillis = System.currentTimeMillis();
         // 保存执行流水
         final DpDeProjectExecHistory dpDeProjectExecHistory = saveExecuteHistory(executorParamVO);
-        TransExecutor executor = null;
+        // 登记运行中的执行，实例异常退出后重启时修正
+        registerRunning(executorParamVO, cacheKey, dpDeProjectExecHistory);
 
+        final CompletableFuture<TransExecutor> completion;
         try {
             // 执行
-            executor = execute(executorId, projectFile, executorParamVO, executeCallback);
+            completion = execute(executorId, projectFile, executorParamVO, executeCallback);
 
         } catch (ProjectExecuteException e) {
             // 响应错误信息
@@ -214,12 +284,33 @@ public class ProjectExecutorService {
             responseError(executorParamVO, executeCallback, executorId
                     , new LogBrowser(transExecutor).getRealTimeLog()
                     , stepDTOS);
+            finishExecute(executorParamVO, cacheKey, currentTimeMillis, dpDeProjectExecHistory, null);
+            return CompletableFuture.completedFuture(null);
 
         } catch (Exception e) {
             logger.error("执行发生错误", e);
             responseError(executorParamVO, executeCallback, executorId, "项目执行失败：\n" + e.getMessage(), null);
+            finishExecute(executorParamVO, cacheKey, currentTimeMillis, dpDeProjectExecHistory, null);
+            return CompletableFuture.completedFuture(null);
+        }
 
-        } finally {
+        // 执行完成后在异步线程池中清理，不占用状态推送线程
+        return completion.whenCompleteAsync((executor, throwable) -> {
+            if (throwable != null) {
+                logger.error("执行发生错误", throwable);
+                responseError(executorParamVO, executeCallback, executorId, "项目执行失败：\n" + throwable.getMessage(), null);
+            }
+            finishExecute(executorParamVO, cacheKey, currentTimeMillis, dpDeProjectExecHistory, executor);
+        }, asyncTaskExecutor);
+    }
+
+    /**
+     * 执行结束，清理缓存并更新执行记录
+     */
+    private void finishExecute(ProjectExecutorParam executorParamVO, String cacheKey, long currentTimeMillis
+            , DpDeProjectExecHistory dpDeProjectExecHistory, TransExecutor executor) {
+        final String executorId = executorParamVO.getExecutorId();
+        try {
             // 删除map缓存，并停止执行器
             executorMap.remove(executorId);
             logger.info("删除执行器缓存： executorId: {}", executorId);
@@ -231,11 +322,20 @@ public class ProjectExecutorService {
                 }
             }
 
-            // 删除redis缓存
+            // 删除redis缓存，检查项目是否运行直接读取该缓存，同步删除
             redisTemplate.opsForHash().delete(cacheKey, executorParamVO.getProjectId());
 
+        } finally {
+            // 保存连接缓存行数分析结果
+            rowSetSizeService.save(executor, executorParamVO.getProjectId());
+            // 移除步骤运行指标
+            stepMetricsService.unregister(executorId);
+            executionMemoryService.unregister(executorId);
+            // 写入剩余日志并关闭日志文件
+            executionLogService.close(executorId);
             // 更新执行历史状态
             updateHistoryStatus(currentTimeMillis, dpDeProjectExecHistory, executor);
+            executionJournal.unregisterRunning(executorId);
         }
     }
 
@@ -266,6 +366,7 @@ public class ProjectExecutorService {
         final String cacheKey = CACHE_PREFIX + userId;
 
         // 保存用户运行的项目
+        // 检查项目是否运行、停止和运行中的项目列表直接读取该缓存，同步写入
         final HashMap<Object, Object> executeProjectCacheMap = new HashMap<>(2);
         executeProjectCacheMap.put(executorParamVO.getProjectId(), JsonUtils.toString(executorParamVO));
         executeProjectCacheMap.put(INSTANCEID, instanceId);
@@ -277,6 +378,17 @@ public class ProjectExecutorService {
         return cacheKey;
     }
 
+    private void registerRunning(ProjectExecutorParam executorParamVO, String cacheKey, DpDeProjectExecHistory dpDeProjectExecHistory) {
+        final RunningExecution running = new RunningExecution();
+        running.setExecutorId(executorParamVO.getExecutorId());
+        running.setHistoryId(dpDeProjectExecHistory.getId());
+        running.setStartTime(System.currentTimeMillis());
+        running.setOwnerKey(cacheKey);
+        running.setOwnerField(executorParamVO.getProjectId());
+        running.getDeleteHashFields().put(cacheKey, executorParamVO.getProjectId());
+        executionJournal.registerRunning(running);
+    }
+
     private void updateHistoryStatus(long currentTimeMillis, DpDeProjectExecHistory dpDeProjectExecHistory, TransExecutor execute) {
         DpDeProjectExecHistory updateHistory = new DpDeProjectExecHistory();
         updateHistory.setId(dpDeProjectExecHistory.getId());
@@ -288,7 +400,7 @@ public class ProjectExecutorService {
         }
         updateHistory.setEndTime(new Date());
         updateHistory.setExecSecond((int) ((System.currentTimeMillis() - currentTimeMillis) / 1000));
-        projectExecHistoryMapper.updateByPrimaryKeySelective(updateHistory);
+        executionJournal.updateHistory(updateHistory);
     }
 
     private DpDeProjectExecHistory saveExecuteHistory(ProjectExecutorParam executorParamVO) {
@@ -300,7 +412,9 @@ public class ProjectExecutorService {
         dpDeProjectExecHistory.setExecEnv(ProjectExecuteEnv.JCPT.name());
         dpDeProjectExecHistory.setStatus(ProjectExecuteStatus.RUNNING.name());
         dpDeProjectExecHistory.setStartTime(new Date());
-        projectExecHistoryMapper.insert(dpDeProjectExecHistory);
+        dpDeProjectExecHistory.setExecutorId(executorParamVO.getExecutorId());
+        dpDeProjectExecHistory.setLogFile(executionLogService.getLogFileName(executorParamVO.getExecutorId()));
+        executionJournal.insertHistory(dpDeProjectExecHistory);
 
         return dpDeProjectExecHistory;
     }
@@ -311,9 +425,9 @@ public class ProjectExecutorService {
      * @param executorId      执行器编号
      * @param executorParamVO 执行参数
      * @param executeCallback 项目执行回调
-     * @return 执行器
+     * @return 状态推送完成的future
      */
-    private TransExecutor execute(String executorId, String projectFile, ProjectExecutorParam executorParamVO
+    private CompletableFuture<TransExecutor> execute(String executorId, String projectFile, ProjectExecutorParam executorParamVO
             , ProjectExecuteCallback executeCallback) throws Exception {
         // 启动转换
         TransExecutor transExecutor = start(executorId, projectFile, executorParamVO);
@@ -322,52 +436,37 @@ public class ProjectExecutorService {
         // 将TransExecutor添加到map中保存
         executorMap.put(executorId, projectExecutor);
 
-        // 日志浏览器
-        LogBrowser logBrowser = new LogBrowser(transExecutor);
-
-        // 循环发送运行状态
-        while (!transExecutor.isFinishedOrStopped()) {
-
-            // 根据步骤名称，构建步骤状态
-            List<ProjectExecutorStepDTO> executorSteps = buildStepStatus(transExecutor);
-            // 构建消息对象
-            Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(ProjectExecutorDTO.builder()
-                    .executorId(executorId)
-                    .requestId(executorParamVO.getRequestId())
-                    .executorSteps(executorSteps)
-                    .errors(transExecutor.getTrans().getErrors())
-                    // 获取实时日志
-                    .log(logBrowser.getRealTimeLog()).build());
-
-            // 回调消息
-            executeCallback.onMessage("/runningState", webSocketResponse);
-
-            try {
-                TimeUnit.MILLISECONDS.sleep(refreshRateMs);
-            } catch (InterruptedException e) {
-                logger.error("execute InterruptedException.");
-                break;
-            }
-        }
+        final TransPreview transPreview = transExecutor.getTransPreview();
 
-        //构建所有步骤状态
-        final List<ProjectExecutorStepDTO> executorSteps = buildStepStatus(transExecutor);
-        // 构建消息对象
-        Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(
-                ProjectExecutorDTO.builder()
-                        .executorId(executorId)
-                        .requestId(executorParamVO.getRequestId())
-                        .executorSteps(executorSteps)
-                        .errors(transExecutor.getTrans().getErrors())
-                        .transFinished(true)
-                        // 获取实时日志
-                        .log(logBrowser.getRealTimeLog()).build());
-        // 回调消息
-        executeCallback.onMessage("/runningState", webSocketResponse);
+        // 由步骤事件驱动推送运行状态，只发送有变化的步骤
+        TransStatusPublisher publisher = new TransStatusPublisher(transExecutor, transStatusPublishPool.getScheduler(), refreshRateMs
+                , step -> buildStepStatus(step, transPreview)
+                , (executorSteps, log, finished, incremental) -> {
+                    // 构建消息对象
+                    Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(ProjectExecutorDTO.builder()
+                            .executorId(executorId)
+                            .requestId(executorParamVO.getRequestId())
+                            .executorSteps(executorSteps)
+                            .errors(transExecutor.getTrans().getErrors())
+                            .transFinished(finished)
+                            .incremental(incremental)
+                            // 获取实时日志
+                            .log(log).build());
+
+                    // 回调消息
+                    executeCallback.onMessage("/runningState", webSocketResponse);
+
+                    if (finished) {
+                        logger.info("项目执行完成，执行器id:{}", executorId);
+                    }
+                });
 
-        logger.info("项目执行完成，执行器id:{}", executorId);
+        // 导出步骤运行指标
+        stepMetricsService.register(executorId, executorParamVO.getProjectId(), transExecutor.getRuntimeMetrics());
+        // 内存预算
+        executionMemoryService.register(executorId, ExecutePriority.DESIGNER, transExecutor.getTrans(), transExecutor.getTransPreview());
 
-        return transExecutor;
+        return publisher.start();
     }
 
     /**
@@ -388,47 +487,54 @@ public class ProjectExecutorService {
 
         // 循环步骤
         for (StepMetaDataCombi stepMetaDataCombi : steps) {
-            final StepInterface step = stepMetaDataCombi.step;
-
-            // 创建步骤状态对象
-            StepStatus stepStatus = new StepStatus(step);
-            // 构建步骤信息
-            final String stepname = step.getStepname();
-
-            // 处理预览数据
-            List<String[]> preViewData = null;
-            List<String> previewFieldNames = null;
-            if (step.getStatus() == BaseStepData.StepExecutionStatus.STATUS_FINISHED) {
-                preViewData = transPreview.getData(stepname);
-                previewFieldNames = transPreview.getFieldNames(stepname);
-                // 清理掉预览数据
-                transPreview.remove(stepname);
-            }
-
-            final ProjectExecutorStepDTO executorStep = ProjectExecutorStepDTO.builder()
-                    .stepName(stepname)
-                    .copy(stepStatus.getCopy())
-                    .priority(stepStatus.getPriority())
-                    .linesInput(stepStatus.getLinesInput())
-                    .linesOutput(stepStatus.getLinesOutput())
-                    .linesRead(stepStatus.getLinesRead())
-                    .linesOutput(stepStatus.getLinesOutput())
-                    .linesUpdated(stepStatus.getLinesUpdated())
-                    .linesRejected(stepStatus.getLinesRejected())
-                    .stepExecutionStatus(step.getStatus().name())
-                    .statusDescription(stepStatus.getStatusDescription())
-                    .seconds(stepStatus.getSeconds())
-                    .speed(stepStatus.getSpeed())
-                    .previewRows(preViewData)
-                    .previewFieldNames(previewFieldNames)
-                    .errors(stepStatus.getErrors()).build();
-
-            executorSteps.add(executorStep);
+            executorSteps.add(buildStepStatus(stepMetaDataCombi.step, transPreview));
         }
 
         return executorSteps;
     }
 
+    /**
+     * 构建步骤状态
+     *
+     * @param step         步骤
+     * @param transPreview 预览数据
+     * @return ProjectExecutorStepDTO
+     */
+    private ProjectExecutorStepDTO buildStepStatus(StepInterface step, TransPreview transPreview) {
+        // 创建步骤状态对象
+        StepStatus stepStatus = new StepStatus(step);
+        // 构建步骤信息
+        final String stepname = step.getStepname();
+
+        // 处理预览数据
+        List<String[]> preViewData = null;
+        List<String> previewFieldNames = null;
+        if (step.getStatus() == BaseStepData.StepExecutionStatus.STATUS_FINISHED) {
+            preViewData = transPreview.getData(stepname);
+            previewFieldNames = transPreview.getFieldNames(stepname);
+            // 清理掉预览数据
+            transPreview.remove(stepname);
+        }
+
+        return ProjectExecutorStepDTO.builder()
+                .stepName(stepname)
+                .copy(stepStatus.getCopy())
+                .priority(stepStatus.getPriority())
+                .linesInput(stepStatus.getLinesInput())
+                .linesOutput(stepStatus.getLinesOutput())
+                .linesRead(stepStatus.getLinesRead())
+                .linesOutput(stepStatus.getLinesOutput())
+                .linesUpdated(stepStatus.getLinesUpdated())
+                .linesRejected(stepStatus.getLinesRejected())
+                .stepExecutionStatus(step.getStatus().name())
+                .statusDescription(stepStatus.getStatusDescription())
+                .seconds(stepStatus.getSeconds())
+                .speed(stepStatus.getSpeed())
+                .previewRows(preViewData)
+                .previewFieldNames(previewFieldNames)
+                .errors(stepStatus.getErrors()).build();
+    }
+
     /**
      * 生成唯一的执行id
      *
@@ -473,6 +579,11 @@ public class ProjectExecutorService {
 
         // 创建执行器
         TransExecutor transExecutor = new TransExecutor(transMeta);
+        transExecutor.setLogBufferLines(logBufferLines);
+        // 日志落盘
+        transExecutor.setLogSpool(executionLogService.create(executorId, executorParamVO.getUserId()));
+        // 按历史执行设置缓存行数
+        rowSetSizeService.prepare(transExecutor, executorParamVO.getProjectId());
 
         try {
             //启动转换
@@ -494,40 +605,13 @@ public class ProjectExecutorService {
      * @return TransMeta
      */
     public TransMeta buildTransMeta(String executorId, String projectFile) throws IOException, KettleXMLException, KettleMissingPluginsException {
-        Document document;
-        //json转xml
-        if (!projectFile.startsWith("<?xml")) {
-            // json转xml
-            projectFile = StringEscapeUtils.unescapeXml(projectFile);
-            projectFile = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + XML.toString(new JSONLinkedObject(projectFile));
-
-            logger.debug("json转换成xml，转换后的xml:{}", projectFile);
-        }
-
-        // 写到临时目录
+        // 只有保留临时文件时才写文件，否则只作为转换文件名使用
         File outFile = new File(tmpFolder, executorId + tmpFileSuffix);
-        FileUtils.writeStringToFile(outFile, projectFile);
-
-        // 加载xml
-        document = XMLHandler.loadXMLString(projectFile);
-
-        TransMeta transMeta = new TransMeta();
-        transMeta.loadXML(
-                document.getDocumentElement(), outFile.getPath(), null, null, true, new Variables(),
-                (message, rememberText, rememberPropertyName) -> {
-                    // Yes means: overwrite
-                    return true;
-                });
-
-        if (transMeta.hasMissingPlugins()) {
-            logger.info("【{}】缺少执行插件。", projectFile);
-        }
-
-        return transMeta;
+        return transMetaCacheService.load(projectFile, outFile, !deleteTmpFile);
     }
 
     public boolean executorIsExists(String executorId) {
-        return executorMap.containsKey(executorId);
+        return executorMap.containsKey(executorId) || projectExecuteScheduler.isQueued(executorId);
     }
 
     /**
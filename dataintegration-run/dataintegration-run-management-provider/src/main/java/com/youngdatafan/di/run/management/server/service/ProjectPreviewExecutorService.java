@@ -3,9 +3,10 @@ package com.youngdatafan.di.run.management.server.service;
 
 import com.youngdatafan.dataintegration.core.exception.DpException;
 import com.youngdatafan.dataintegration.core.util.StatusCode;
-import com.youngdatafan.dataintegration.core.util.json.JSONLinkedObject;
-import com.youngdatafan.dataintegration.core.util.json.XML;
 import com.youngdatafan.di.run.management.server.dto.ProjectPreviewExecutorDTO;
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.queue.ExecuteTicket;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
 import com.youngdatafan.di.run.management.server.trans.LogBrowser;
 import com.youngdatafan.di.run.management.server.trans.TransPreview;
 import com.youngdatafan.di.run.management.server.trans.TransPreviewExecutor;
@@ -15,20 +16,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.TimeoutException;
 import org.apache.commons.lang.RandomStringUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.pentaho.di.core.exception.KettleMissingPluginsException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.row.RowMetaInterface;
-import org.pentaho.di.core.variables.Variables;
-import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.trans.TransMeta;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
 
 /**
  * 项目预览执行实现
@@ -40,6 +38,12 @@ import org.w3c.dom.Document;
 public class ProjectPreviewExecutorService {
     private static final Logger logger = LoggerFactory.getLogger(ProjectPreviewExecutorService.class);
 
+    private final TransMetaCacheService transMetaCacheService;
+
+    private final ProjectExecuteScheduler projectExecuteScheduler;
+
+    private final ExecutionMemoryService executionMemoryService;
+
     /**
      * 临时文件夹
      */
@@ -63,6 +67,19 @@ public class ProjectPreviewExecutorService {
      */
     @Value("${dp.project.execute.previewTimeoutSeconds:300}")
     private int previewTimeoutSeconds;
+    /**
+     * 单次执行日志缓冲区行数
+     */
+    @Value("${dp.project.execute.logBufferLines:10000}")
+    private int logBufferLines;
+
+    @Autowired
+    public ProjectPreviewExecutorService(TransMetaCacheService transMetaCacheService, ProjectExecuteScheduler projectExecuteScheduler
+            , ExecutionMemoryService executionMemoryService) {
+        this.transMetaCacheService = transMetaCacheService;
+        this.projectExecuteScheduler = projectExecuteScheduler;
+        this.executionMemoryService = executionMemoryService;
+    }
 
     /**
      * 根据项目文件执行
@@ -72,11 +89,26 @@ public class ProjectPreviewExecutorService {
     public ProjectPreviewExecutorDTO executeByFile(ProjectFilePreviewExecutorVO previewExecutorVO) throws Exception {
         String executorId = generateExecutorId(previewExecutorVO.getProjectId());
 
+        // 预览优先级最高，没有用户信息只受节点和租户配额限制
+        final ExecuteTicket ticket = projectExecuteScheduler.submit(ExecutePriority.PREVIEW, null, null
+                , previewExecutorVO.getProjectId(), executorId, null);
         try {
+            try {
+                ticket.getAdmission().get(previewTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                if (projectExecuteScheduler.cancel(executorId)) {
+                    throw new DpException(StatusCode.CODE_10010.getCode(), "执行队列繁忙，请稍后再试");
+                }
+            }
+
             // 执行
             return execute(executorId, previewExecutorVO);
 
         } finally {
+            executionMemoryService.unregister(executorId);
+            // 归还执行许可
+            ticket.release();
+
             if (deleteTmpFile) {
                 File tmpFile = new File(tmpFolder, executorId + tmpFileSuffix);
                 if (tmpFile.exists()) {
@@ -98,6 +130,9 @@ public class ProjectPreviewExecutorService {
         // 启动转换
         TransPreviewExecutor transExecutor = start(executorId, previewExecutorVO);
 
+        // 内存预算
+        executionMemoryService.register(executorId, ExecutePriority.PREVIEW, transExecutor.getTrans(), transExecutor.getTransPreview());
+
         // 日志浏览器
         LogBrowser logBrowser = new LogBrowser(transExecutor);
 
@@ -169,6 +204,7 @@ public class ProjectPreviewExecutorService {
         TransMeta transMeta = buildTransMeta(executorId, previewExecutorVO.getProjectFile());
 
         final TransPreviewExecutor transPreviewExecutor = new TransPreviewExecutor(transMeta);
+        transPreviewExecutor.setLogBufferLines(logBufferLines);
 
         try {
             // 启动预览作业
@@ -189,36 +225,9 @@ public class ProjectPreviewExecutorService {
      * @return TransMeta
      */
     public TransMeta buildTransMeta(String executorId, String projectFile) throws IOException, KettleXMLException, KettleMissingPluginsException {
-        Document document;
-        //json转xml
-        if (!projectFile.startsWith("<?xml")) {
-            // json转xml
-            projectFile = StringEscapeUtils.unescapeXml(projectFile);
-            projectFile = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + XML.toString(new JSONLinkedObject(projectFile));
-
-            logger.debug("json转换成xml，转换后的xml:{}", projectFile);
-        }
-
-        // 写到临时目录
+        // 只有保留临时文件时才写文件，否则只作为转换文件名使用
         File outFile = new File(tmpFolder, executorId + tmpFileSuffix);
-        FileUtils.writeStringToFile(outFile, projectFile);
-
-        // 加载xml
-        document = XMLHandler.loadXMLString(projectFile);
-
-        TransMeta transMeta = new TransMeta();
-        transMeta.loadXML(
-                document.getDocumentElement(), outFile.getPath(), null, null, true, new Variables(),
-                (message, rememberText, rememberPropertyName) -> {
-                    // Yes means: overwrite
-                    return true;
-                });
-
-        if (transMeta.hasMissingPlugins()) {
-            logger.info("【{}】缺少执行插件。", projectFile);
-        }
-
-        return transMeta;
+        return transMetaCacheService.load(projectFile, outFile, !deleteTmpFile);
     }
 
 }
@@ -4,49 +4,56 @@ package com.youngdatafan.di.run.management.server.service;
 import com.youngdatafan.dataintegration.core.exception.DpException;
 import com.youngdatafan.dataintegration.core.exception.ValidationException;
 import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
 import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.util.UUIDUtils;
-import com.youngdatafan.dataintegration.core.util.json.JSONLinkedObject;
-import com.youngdatafan.dataintegration.core.util.json.XML;
 import com.youngdatafan.di.run.management.server.bean.ProjectExecutor;
+import com.youngdatafan.di.run.management.server.bean.RunLease;
+import com.youngdatafan.di.run.management.server.cluster.RunLeaseRegistry;
+import com.youngdatafan.di.run.management.server.conf.TransStatusPublishPool;
 import com.youngdatafan.di.run.management.server.dto.ProjectExecutorDTO;
 import com.youngdatafan.di.run.management.server.dto.ProjectExecutorStepDTO;
 import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import com.youngdatafan.di.run.management.server.feign.ProjectServiceApiClient;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.journal.RunningExecution;
 import com.youngdatafan.di.run.management.server.mapper.DpDeProjectExecHistoryMapper;
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.queue.ExecuteTicket;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
 import com.youngdatafan.di.run.management.server.trans.LogBrowser;
 import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.trans.TransStatusPublisher;
 import com.youngdatafan.di.run.management.server.util.ProjectExecuteEnv;
 import com.youngdatafan.di.run.management.server.util.ProjectExecuteStatus;
 import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
 import com.youngdatafan.di.run.management.server.websocket.ProjectExecuteCallback;
+import com.youngdatafan.portal.common.project.dto.ProjectFileDTO;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PostConstruct;
 import org.apache.commons.lang.RandomStringUtils;
-import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
 import org.pentaho.di.core.exception.KettleMissingPluginsException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogLevel;
-import org.pentaho.di.core.variables.Variables;
-import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.trans.TransExecutionConfiguration;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepInterface;
-import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
 
 /**
  * 项目同步执行实现(调度)
@@ -57,18 +64,6 @@ import org.w3c.dom.Document;
 @Service
 public class ProjectScheduleExecutorService {
 
-    /**
-     * 实例id缓存key 前缀
-     */
-    public static final String INSTANCE_ID_CACHE_KEY_PREFIX = "instanceId_";
-
-    public static final String CACHE_PREFIX = "di_re_";
-
-    /**
-     * 集成调度执行心跳map缓存key
-     */
-    public static final String DI_SCHEDULE_EXEC_HEARTBEAT_CACHE_KEY = "di_schedule_exec_heartbeat";
-
     private static final Logger logger = LoggerFactory.getLogger(ProjectScheduleExecutorService.class);
 
     /**
@@ -76,27 +71,52 @@ public class ProjectScheduleExecutorService {
      */
     private final ConcurrentHashMap<String, ProjectExecutor> executorMap = new ConcurrentHashMap<>();
 
-    private final RedisTemplate<String, String> redisTemplate;
+    private final TransStatusPublishPool transStatusPublishPool;
+
+    private final TransMetaCacheService transMetaCacheService;
+
+    private final ProjectExecuteScheduler projectExecuteScheduler;
+
+    private final ExecutionLogService executionLogService;
+
+    private final StepMetricsService stepMetricsService;
+
+    private final RowSetSizeService rowSetSizeService;
+
+    private final CheckpointService checkpointService;
+
+    private final TransWarmPoolService transWarmPoolService;
+
+    private final StepParallelismService stepParallelismService;
+
+    private final ExecutionMemoryService executionMemoryService;
+
+    private final ExecutionJournal executionJournal;
+
+    private final RunLeaseRegistry runLeaseRegistry;
 
     private final DpDeProjectExecHistoryMapper projectExecHistoryMapper;
 
-    @Value("${spring.cloud.consul.discovery.instance-id}")
-    private String instanceId;
+    private final ProjectServiceApiClient projectServiceApiClient;
+
+    private final ExecuteTenantService executeTenantService;
+
+    private final Executor asyncTaskExecutor;
 
     /**
-     * 心跳保持间隔时间，单位：秒
+     * 租约过期时是否重新排队执行，只对按项目id执行的项目生效
      */
-    @Value("${dp.project.restExecute.heartbeatInterval:30}")
-    private int heartbeatInterval;
+    @Value("${dp.project.execute.lease.requeueOnExpire:false}")
+    private boolean requeueOnExpire;
 
     /**
-     * 心跳保持超时时间，单位：秒
+     * 同一次执行最多重新排队的次数
      */
-    @Value("${dp.project.restExecute.heartbeatTimeout:180}")
-    private int heartbeatTimeout;
+    @Value("${dp.project.execute.lease.maxRequeue:1}")
+    private int maxRequeue;
 
     /**
-     * 刷新频率，单位：毫秒
+     * 状态推送最小间隔（最大推送频率），单位：毫秒
      */
     @Value("${dp.project.restExecute.refreshRateMs:800}")
     private int refreshRateMs;
@@ -118,41 +138,119 @@ public class ProjectScheduleExecutorService {
 
     @Value("${kettle.engine.name:Pentaho local}")
     private String engineName;
+    /**
+     * 单次执行日志缓冲区行数
+     */
+    @Value("${dp.project.execute.logBufferLines:10000}")
+    private int logBufferLines;
+    /**
+     * 执行失败时返回的最大日志长度
+     */
+    @Value("${dp.exec.maxLogLength:65536}")
+    private int maxErrorLogLength;
 
     @Autowired
-    public ProjectScheduleExecutorService(RedisTemplate<String, String> redisTemplate, DpDeProjectExecHistoryMapper projectExecHistoryMapper) {
-        this.redisTemplate = redisTemplate;
+    public ProjectScheduleExecutorService(TransStatusPublishPool transStatusPublishPool, TransMetaCacheService transMetaCacheService
+        , ProjectExecuteScheduler projectExecuteScheduler, ExecutionLogService executionLogService
+        , StepMetricsService stepMetricsService, RowSetSizeService rowSetSizeService, CheckpointService checkpointService
+        , TransWarmPoolService transWarmPoolService, StepParallelismService stepParallelismService, ExecutionMemoryService executionMemoryService
+        , ExecutionJournal executionJournal, RunLeaseRegistry runLeaseRegistry, DpDeProjectExecHistoryMapper projectExecHistoryMapper
+        , ProjectServiceApiClient projectServiceApiClient, ExecuteTenantService executeTenantService
+        , @Qualifier("asyncTaskExecutor") Executor asyncTaskExecutor) {
+        this.transStatusPublishPool = transStatusPublishPool;
+        this.transMetaCacheService = transMetaCacheService;
+        this.projectExecuteScheduler = projectExecuteScheduler;
+        this.executionLogService = executionLogService;
+        this.stepMetricsService = stepMetricsService;
+        this.rowSetSizeService = rowSetSizeService;
+        this.checkpointService = checkpointService;
+        this.transWarmPoolService = transWarmPoolService;
+        this.stepParallelismService = stepParallelismService;
+        this.executionMemoryService = executionMemoryService;
+        this.executionJournal = executionJournal;
+        this.runLeaseRegistry = runLeaseRegistry;
         this.projectExecHistoryMapper = projectExecHistoryMapper;
+        this.projectServiceApiClient = projectServiceApiClient;
+        this.executeTenantService = executeTenantService;
+        this.asyncTaskExecutor = asyncTaskExecutor;
+    }
+
+    @PostConstruct
+    public void init() {
+        runLeaseRegistry.setListener(new RunLeaseRegistry.Listener() {
+            @Override
+            public void onExpired(RunLease lease) {
+                onLeaseExpired(lease);
+            }
+
+            @Override
+            public void onLost(RunLease lease) {
+                onLeaseLost(lease);
+            }
+
+            @Override
+            public boolean onCancel(RunLease lease) {
+                return stopLocal(lease.getExecutorId());
+            }
+        });
+        transWarmPoolService.setPreparer(this::prepareWarm);
     }
 
     /**
-     * 停止执行器
+     * 停止执行器，执行结束后由持有租约的实例释放租约
      *
      * @param projectId 项目id
+     * @return 项目没有在运行时返回false
      */
     public boolean stop(String projectId) {
-        final String cacheKey = CACHE_PREFIX + projectId;
-        String executorId = redisTemplate.opsForValue().get(cacheKey);
+        String executorId = runLeaseRegistry.getExecutorId(projectId);
         if (executorId == null) {
-            logger.info("项目不存在，执行器ID:{}", executorId);
+            logger.info("项目不存在，项目ID:{}", projectId);
             return false;
         }
 
-        // 删除缓存
-        redisTemplate.delete(Arrays.asList(cacheKey, INSTANCE_ID_CACHE_KEY_PREFIX + projectId));
-        // 删除redis心跳记录
-        redisTemplate.boundHashOps(DI_SCHEDULE_EXEC_HEARTBEAT_CACHE_KEY).delete(projectId);
+        if (stopLocal(executorId)) {
+            return true;
+        }
+
+        // 执行在其他实例上或者还在启动中，写入取消标记，持有租约的实例续约时停止
+        logger.info("请求取消执行，项目ID:{}，执行器ID:{}", projectId, executorId);
+        runLeaseRegistry.requestCancel(projectId, executorId);
+        return true;
+    }
+
+    /**
+     * 停止本实例上的执行
+     *
+     * @param executorId 执行器id
+     * @return 执行不在本实例上或者还在启动中时返回false
+     */
+    private boolean stopLocal(String executorId) {
+        // 还在排队中的直接取消
+        if (projectExecuteScheduler.cancel(executorId)) {
+            return true;
+        }
 
         ProjectExecutor projectExecutor = executorMap.get(executorId);
         if (projectExecutor == null) {
-            logger.info("执行器不存在，执行器ID:{}", executorId);
             return false;
+        }
+        logger.info("手动停止执行器，执行器ID:{}", executorId);
+        projectExecutor.getTransExecutor().stop();
+        return true;
+    }
 
-        } else {
-            logger.info("手动停止执行器，执行器ID:{}", executorId);
-            projectExecutor.getTransExecutor().stop();
-            return true;
+    /**
+     * 停止指定的执行，项目已经在运行其他执行时不停止
+     *
+     * @param projectId  项目id
+     * @param executorId 执行器id
+     */
+    public boolean stop(String projectId, String executorId) {
+        if (!executorId.equals(runLeaseRegistry.getExecutorId(projectId))) {
+            return false;
         }
+        return stop(projectId);
     }
 
     /**
@@ -161,87 +259,289 @@ public class ProjectScheduleExecutorService {
      * @param projectId 项目id
      */
     public void checkExists(String projectId) {
-        final String cacheKey = CACHE_PREFIX + projectId;
-        if (redisTemplate.opsForValue().get(cacheKey) != null) {
-            // 获取项目的最后心跳时间
-            final String lastHeartbeatTime = (String) redisTemplate.boundHashOps(DI_SCHEDULE_EXEC_HEARTBEAT_CACHE_KEY).get(projectId);
-
-            if (lastHeartbeatTime != null &&
-                (System.currentTimeMillis() - Long.parseLong(lastHeartbeatTime)) / 1000 >= heartbeatTimeout) {
-                throw new ValidationException(StatusCode.CODE_10010, "项目正在运行中");
-            }
+        // 租约过期即视为没有运行
+        if (runLeaseRegistry.getExecutorId(projectId) != null) {
+            throw new ValidationException(StatusCode.CODE_10010, "项目正在运行中");
         }
     }
 
     /**
-     * 根据项目文件执行
+     * 获取项目文件
+     *
+     * @param projectId 项目id
+     * @return 项目文件
+     */
+    public String getProjectFile(String projectId) {
+        Result<ProjectFileDTO, Object> projectResult = projectServiceApiClient.getProjectFile(projectId);
+        if (!StatusCode.CODE_10000.getCode().equals(projectResult.getCode())) {
+            // 打印日志
+            logger.warn(JsonUtils.toString(projectResult));
+            // 抛出异常
+            throw new ValidationException(StatusCode.CODE_10010.getCode(), "获取项目文件失败.");
+        }
+
+        // 判断项目文件是否存在
+        final ProjectFileDTO projectFile = projectResult.getContent();
+        if (projectFile == null || StringUtils.isBlank(projectFile.getProjectFile())) {
+            throw new ValidationException(StatusCode.CODE_10010.getCode(), "项目文件不存在或者没有执行权限。");
+        }
+        return projectFile.getProjectFile();
+    }
+
+    /**
+     * 根据项目id提交执行，执行实例失效时可以重新获取项目文件排队执行
+     *
+     * @param executorParamVO 执行参数
+     * @param executeCallback 项目执行回调
+     * @param finishListener  执行结束监听，在释放租约之前调用，可以为空
+     * @return 执行完成，执行失败时异常完成
+     */
+    public CompletableFuture<TransExecutor> submitById(ProjectExecutorParam executorParamVO, ProjectExecuteCallback executeCallback
+        , FinishListener finishListener) {
+        return submit(getProjectFile(executorParamVO.getProjectId()), executorParamVO, executeCallback, finishListener, true, 0);
+    }
+
+    /**
+     * 根据项目文件提交执行
      *
      * @param executorParamVO 执行参数
      * @param executeCallback 项目执行回调
+     * @param finishListener  执行结束监听，在释放租约之前调用，可以为空
+     * @return 执行完成，执行失败时异常完成
+     */
+    public CompletableFuture<TransExecutor> submitByFile(String projectFile, ProjectExecutorParam executorParamVO
+        , ProjectExecuteCallback executeCallback, FinishListener finishListener) {
+        return submit(projectFile, executorParamVO, executeCallback, finishListener, false, 0);
+    }
+
+    /**
+     * 获取租约并进入执行队列，获得执行许可后在异步线程池中启动转换，调用线程不等待执行完成
      */
-    public void executeByFile(StringBuilder log, String projectFile, ProjectExecutorParam executorParamVO
-        , ProjectExecuteCallback executeCallback) throws Exception {
+    private CompletableFuture<TransExecutor> submit(String projectFile, ProjectExecutorParam executorParamVO
+        , ProjectExecuteCallback executeCallback, FinishListener finishListener, boolean requeueable, int requeueCount) {
         executorParamVO.setStartTime(new Date());
         final String executorId = executorParamVO.getExecutorId();
-
         final String projectId = executorParamVO.getProjectId();
-        final String cacheKey = CACHE_PREFIX + projectId;
-
-        // 保存用户运行的项目，保存一天
-        redisTemplate.boundValueOps(cacheKey).set(executorId, 1, TimeUnit.DAYS);
-        // 记录项目的运行实例
-        redisTemplate.boundValueOps(INSTANCE_ID_CACHE_KEY_PREFIX + projectId).set(instanceId, 1, TimeUnit.DAYS);
-        // 保存项目启动时间到心跳map中
-        redisTemplate.boundHashOps(DI_SCHEDULE_EXEC_HEARTBEAT_CACHE_KEY).put(projectId, String.valueOf(System.currentTimeMillis()));
 
         final long currentTimeMillis = System.currentTimeMillis();
+        final DpDeProjectExecHistory dpDeProjectExecHistory = buildExecuteHistory(executorParamVO);
+
+        // 获取项目执行租约，同一项目同时只有一个执行
+        final RunLease lease = new RunLease();
+        lease.setProjectId(projectId);
+        lease.setExecutorId(executorId);
+        lease.setHistoryId(dpDeProjectExecHistory.getId());
+        lease.setStartTime(currentTimeMillis);
+        lease.setRequeueable(requeueable);
+        lease.setRequeueCount(requeueCount);
+        lease.setParam(executorParamVO);
+        if (!runLeaseRegistry.acquire(lease)) {
+            throw new ValidationException(StatusCode.CODE_10010, "项目正在运行中");
+        }
+
         // 保存执行流水
-        final DpDeProjectExecHistory dpDeProjectExecHistory = saveExecuteHistory(executorParamVO);
-        TransExecutor executor = null;
+        executionJournal.insertHistory(dpDeProjectExecHistory);
+        // 登记运行中的执行，实例异常退出后重启时修正
+        registerRunning(executorId, projectId, dpDeProjectExecHistory);
 
+        final AtomicReference<TransExecutor> executorRef = new AtomicReference<>();
+        final ExecuteTicket ticket;
         try {
-            // 执行
-            executor = execute(log, executorId, projectFile, executorParamVO, executeCallback);
+            // 进入执行队列，队列已满时直接拒绝；调度用户是固定的，按项目创建人所属租户限制并发
+            executorParamVO.setTenantId(executeTenantService.resolve(ExecutePriority.SCHEDULE, executorParamVO));
+            ticket = projectExecuteScheduler.submit(ExecutePriority.SCHEDULE, executorParamVO.getTenantId()
+                , executorParamVO.getUserId(), projectId, executorId, null);
+        } catch (RuntimeException e) {
+            finish(executorId, projectId, null, null, e, executeCallback, finishListener, currentTimeMillis, dpDeProjectExecHistory);
+            throw e;
+        }
 
-        } catch (Exception e) {
-            logger.error("执行发生错误", e);
+        // 获得执行许可后启动转换，启动过程包含解析和步骤初始化，不占用归还许可的线程
+        return ticket.getAdmission()
+            .thenComposeAsync(admitted -> {
+                try {
+                    return execute(executorId, projectFile, executorParamVO, executeCallback, executorRef);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, asyncTaskExecutor)
+            // 清理包含redis和文件操作，不占用状态推送线程
+            .whenCompleteAsync((executor, throwable) -> finish(executorId, projectId, ticket, executorRef.get(), throwable
+                , executeCallback, finishListener, currentTimeMillis, dpDeProjectExecHistory), asyncTaskExecutor);
+    }
+
+    /**
+     * 执行结束，归还许可并清理执行资源
+     */
+    private void finish(String executorId, String projectId, ExecuteTicket ticket, TransExecutor executor, Throwable throwable
+        , ProjectExecuteCallback executeCallback, FinishListener finishListener, long currentTimeMillis
+        , DpDeProjectExecHistory dpDeProjectExecHistory) {
+        final Throwable cause = unwrap(throwable);
+        if (cause != null) {
+            logger.error("执行发生错误", cause);
 
             // 构建消息对象
             Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(ProjectExecutorDTO.builder()
                 .executorId(executorId)
                 // 获取实时日志
-                .log("项目执行失败：\n" + e.getMessage()).build());
+                .log("项目执行失败：\n" + cause.getMessage()).build());
 
             // 回调消息
             executeCallback.onMessage("/runningState", webSocketResponse);
 
-            // 删除map缓存，并停止执行器
-            ProjectExecutor projectExecutor = executorMap.remove(executorId);
-            if (projectExecutor != null && projectExecutor.getTransExecutor() != null) {
-                projectExecutor.getTransExecutor().stop();
+            // 停止执行器
+            if (executor != null) {
+                executor.stop();
             }
+        }
 
-            throw e;
+        // 归还执行许可
+        if (ticket != null) {
+            ticket.release();
+        }
 
-        } finally {
-            // 删除map缓存，并停止执行器
-            executorMap.remove(executorId);
-            logger.info("删除执行器缓存： executorId: {}", executorId);
+        // 删除map缓存
+        executorMap.remove(executorId);
+        logger.info("删除执行器缓存： executorId: {}", executorId);
 
-            if (deleteTmpFile) {
-                File tmpFile = new File(tmpFolder, executorId + tmpFileSuffix);
-                if (tmpFile.exists()) {
-                    logger.info("删除临时文件： filePath: {}, 删除状态:{}", tmpFile.getPath(), tmpFile.delete());
-                }
+        if (deleteTmpFile) {
+            File tmpFile = new File(tmpFolder, executorId + tmpFileSuffix);
+            if (tmpFile.exists()) {
+                logger.info("删除临时文件： filePath: {}, 删除状态:{}", tmpFile.getPath(), tmpFile.delete());
+            }
+        }
+
+        // 保存最后提交的断点，执行成功时删除断点
+        checkpointService.finish(executorId, projectId);
+        // 保存连接缓存行数分析结果
+        rowSetSizeService.save(executor, projectId);
+        // 移除步骤运行指标
+        stepMetricsService.unregister(executorId);
+        executionMemoryService.unregister(executorId);
+
+        // 写入剩余日志并关闭日志文件
+        executionLogService.close(executorId);
+
+        // 更新执行历史状态
+        updateHistoryStatus(currentTimeMillis, dpDeProjectExecHistory, executor);
+        executionJournal.unregisterRunning(executorId);
+
+        if (finishListener != null) {
+            try {
+                finishListener.onFinish(executor, cause);
+            } catch (Exception e) {
+                logger.error("执行结束监听处理失败，executorId: {}", executorId, e);
+            }
+        }
+
+        // 最后释放租约，租约释放前执行结束的状态都已经记录
+        runLeaseRegistry.release(projectId, executorId);
+    }
+
+    /**
+     * 展开异步执行包装的异常
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * 执行结束监听
+     */
+    public interface FinishListener {
+
+        /**
+         * 执行结束
+         *
+         * @param executor  执行器，启动之前失败时为空
+         * @param throwable 执行失败的异常，执行成功时为空
+         */
+        void onFinish(TransExecutor executor, Throwable throwable);
+    }
+
+    private void registerRunning(String executorId, String projectId, DpDeProjectExecHistory dpDeProjectExecHistory) {
+        final String leaseKey = runLeaseRegistry.leaseKey(projectId);
+        final RunningExecution running = new RunningExecution();
+        running.setExecutorId(executorId);
+        running.setHistoryId(dpDeProjectExecHistory.getId());
+        running.setStartTime(System.currentTimeMillis());
+        running.setOwnerKey(leaseKey);
+        running.getDeleteKeys().add(leaseKey);
+        executionJournal.registerRunning(running);
+    }
+
+    /**
+     * 执行租约过期，执行实例已经失效：执行记录标记为终止（与实例重启时的修正一致），按配置重新排队
+     * <p>
+     * 每个过期租约只会在一个实例上回调一次，重新排队不依赖执行记录的更新结果：
+     * 执行记录由原实例异步写入，可能还没有写入，也可能已经被重启的原实例修正。
+     */
+    private void onLeaseExpired(RunLease lease) {
+        try {
+            terminateHistory(lease);
+        } catch (Exception e) {
+            logger.error("修正过期执行的执行记录失败，executorId: {}", lease.getExecutorId(), e);
+        }
+        if (!requeueOnExpire || !lease.isRequeueable() || lease.getParam() == null || lease.getRequeueCount() >= maxRequeue) {
+            return;
+        }
+
+        final ProjectExecutorParam param = lease.getParam();
+        param.setExecutorId(generateExecutorId());
+        // 开启断点时从最后提交的断点继续
+        param.setResume(param.isCheckpoint());
+        logger.info("执行实例失效，项目重新排队执行，projectId: {}, 原执行器id: {}, 执行器id: {}"
+            , lease.getProjectId(), lease.getExecutorId(), param.getExecutorId());
+
+        CompletableFuture.runAsync(() -> submit(getProjectFile(param.getProjectId()), param, (destination, webSocketMessage) -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("executorId: {} ,message: {}", param.getExecutorId(), JsonUtils.toString(webSocketMessage));
             }
+        }, null, true, lease.getRequeueCount() + 1), asyncTaskExecutor).exceptionally(throwable -> {
+            logger.error("重新排队执行失败，projectId: {}", param.getProjectId(), unwrap(throwable));
+            return null;
+        });
+    }
 
-            // 删除redis缓存
-            redisTemplate.delete(cacheKey);
-            // 删除redis心跳记录
-            redisTemplate.boundHashOps(DI_SCHEDULE_EXEC_HEARTBEAT_CACHE_KEY).delete(projectId);
+    /**
+     * 运行中的执行记录标记为终止；原实例还没有写入执行记录时补写一条已终止的记录，原实例之后写入的插入会被忽略
+     */
+    private void terminateHistory(RunLease lease) {
+        if (lease.getHistoryId() == null) {
+            return;
+        }
+        final Date now = new Date();
+        if (projectExecHistoryMapper.updateStatusIfRunning(lease.getHistoryId(), ProjectExecuteStatus.TERMINATIN.name(), now) > 0
+            || lease.getParam() == null) {
+            return;
+        }
+
+        final DpDeProjectExecHistory history = buildExecuteHistory(lease.getParam());
+        history.setId(lease.getHistoryId());
+        history.setExecutorId(lease.getExecutorId());
+        history.setStatus(ProjectExecuteStatus.TERMINATIN.name());
+        history.setStartTime(new Date(lease.getStartTime()));
+        history.setEndTime(now);
+        history.setExecSecond((int) ((now.getTime() - lease.getStartTime()) / 1000));
+        projectExecHistoryMapper.insertIgnoreDuplicate(history);
+    }
 
-            // 更新执行历史状态
-            updateHistoryStatus(currentTimeMillis, dpDeProjectExecHistory, executor);
+    /**
+     * 本实例的租约已经丢失，执行已经被其他实例判定失效，停止本地执行避免重复运行
+     */
+    private void onLeaseLost(RunLease lease) {
+        final String executorId = lease.getExecutorId();
+        if (projectExecuteScheduler.cancel(executorId)) {
+            return;
+        }
+        ProjectExecutor projectExecutor = executorMap.get(executorId);
+        if (projectExecutor != null && projectExecutor.getTransExecutor() != null) {
+            logger.warn("执行租约已丢失，停止执行器，执行器ID:{}", executorId);
+            projectExecutor.getTransExecutor().stop();
         }
     }
 
@@ -256,10 +556,10 @@ public class ProjectScheduleExecutorService {
         }
         updateHistory.setEndTime(new Date());
         updateHistory.setExecSecond((int) ((System.currentTimeMillis() - currentTimeMillis) / 1000));
-        projectExecHistoryMapper.updateByPrimaryKeySelective(updateHistory);
+        executionJournal.updateHistory(updateHistory);
     }
 
-    private DpDeProjectExecHistory saveExecuteHistory(ProjectExecutorParam executorParamVO) {
+    private DpDeProjectExecHistory buildExecuteHistory(ProjectExecutorParam executorParamVO) {
         final DpDeProjectExecHistory dpDeProjectExecHistory = new DpDeProjectExecHistory();
         dpDeProjectExecHistory.setId(UUIDUtils.nextId());
         dpDeProjectExecHistory.setProjectId(executorParamVO.getProjectId());
@@ -268,8 +568,8 @@ public class ProjectScheduleExecutorService {
         dpDeProjectExecHistory.setExecEnv(ProjectExecuteEnv.JC_YXPT.name());
         dpDeProjectExecHistory.setStatus(ProjectExecuteStatus.RUNNING.name());
         dpDeProjectExecHistory.setStartTime(new Date());
-        projectExecHistoryMapper.insert(dpDeProjectExecHistory);
-
+        dpDeProjectExecHistory.setExecutorId(executorParamVO.getExecutorId());
+        dpDeProjectExecHistory.setLogFile(executionLogService.getLogFileName(executorParamVO.getExecutorId()));
         return dpDeProjectExecHistory;
     }
 
@@ -279,114 +579,83 @@ public class ProjectScheduleExecutorService {
      * @param executorId      执行器编号
      * @param executorParamVO 执行参数
      * @param executeCallback 项目执行回调
-     * @return 执行器
+     * @param executorRef     启动后保存执行器，执行结束时清理
+     * @return 执行完成，转换有错误时异常完成
      */
-    private TransExecutor execute(StringBuilder log, String executorId, String projectFile, ProjectExecutorParam executorParamVO
-        , ProjectExecuteCallback executeCallback) throws Exception {
+    private CompletableFuture<TransExecutor> execute(String executorId, String projectFile, ProjectExecutorParam executorParamVO
+        , ProjectExecuteCallback executeCallback, AtomicReference<TransExecutor> executorRef) throws Exception {
         // 启动转换
         TransExecutor transExecutor = start(executorId, projectFile, executorParamVO);
+        executorRef.set(transExecutor);
         // 项目id
         final String projectId = executorParamVO.getProjectId();
-        // 上次心跳时间
-        long lastHeartbeatTime = System.currentTimeMillis();
 
         ProjectExecutor projectExecutor = new ProjectExecutor(transExecutor, null);
         // 将TransExecutor添加到map中保存
         executorMap.put(executorId, projectExecutor);
 
-        // 日志浏览器
-        LogBrowser logBrowser = new LogBrowser(transExecutor);
-
-        // 循环发送运行状态
-        while (!transExecutor.isFinishedOrStopped()) {
-
-            // 根据步骤名称，构建步骤状态
-            List<ProjectExecutorStepDTO> executorSteps = buildStepStatus(projectExecutor);
-            // 构建消息对象
-            Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(ProjectExecutorDTO.builder()
-                .executorId(executorId)
-                .executorSteps(executorSteps)
-                // 获取实时日志
-                .log(logBrowser.getRealTimeLog()).build());
-
-            // 回调消息
-            executeCallback.onMessage("/runningState", webSocketResponse);
-
-            try {
-                TimeUnit.MILLISECONDS.sleep(refreshRateMs);
-            } catch (InterruptedException e) {
-                logger.error("execute InterruptedException.");
-                break;
-            }
-
-            final long timeMillis = System.currentTimeMillis();
-            if ((timeMillis - lastHeartbeatTime) / 1000 >= heartbeatInterval) {
-                // 更新项目执行心跳时间map中
-                redisTemplate.boundHashOps(DI_SCHEDULE_EXEC_HEARTBEAT_CACHE_KEY).put(projectId, String.valueOf(timeMillis));
-
-                // 时间状态更新
-                lastHeartbeatTime = timeMillis;
+        // 由步骤事件驱动推送运行状态，只发送有变化的步骤
+        TransStatusPublisher publisher = new TransStatusPublisher(transExecutor, transStatusPublishPool.getScheduler(), refreshRateMs
+            , this::buildStepStatus
+            , (executorSteps, stepLog, finished, incremental) -> {
+                // 构建消息对象
+                Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(ProjectExecutorDTO.builder()
+                    .executorId(executorId)
+                    .executorSteps(executorSteps)
+                    .transFinished(finished)
+                    .incremental(incremental)
+                    // 获取实时日志
+                    .log(stepLog).build());
+
+                // 回调消息
+                executeCallback.onMessage("/runningState", webSocketResponse);
+            });
+        // 导出步骤运行指标
+        stepMetricsService.register(executorId, projectId, transExecutor.getRuntimeMetrics());
+        // 内存预算
+        executionMemoryService.register(executorId, ExecutePriority.SCHEDULE, transExecutor.getTrans(), transExecutor.getTransPreview());
+        // 按间隔记录断点
+        checkpointService.start(executorId);
+        return publisher.start().thenApply(completed -> {
+            logger.info("项目执行完成，执行器id:{}", executorId);
+
+            // 执行结果判断
+            if (completed.getTrans() != null && completed.getTrans().getErrors() > 0) {
+                logger.error("作业运行失败");
+                // 作业运行失败
+                throw new DpException(StatusCode.CODE_10010.getCode(), executionLogService.tailText(executorId, maxErrorLogLength));
             }
-        }
-
-        //构建所有步骤状态
-        final List<ProjectExecutorStepDTO> executorSteps = buildStepStatus(projectExecutor);
-        // 构建消息对象
-        Result<ProjectExecutorDTO, Object> webSocketResponse = Result.success(
-            ProjectExecutorDTO.builder()
-                .executorId(executorId)
-                .executorSteps(executorSteps)
-                .transFinished(true)
-                // 获取实时日志
-                .log(logBrowser.getRealTimeLog()).build());
-        // 回调消息
-        executeCallback.onMessage("/runningState", webSocketResponse);
-
-        logger.info("项目执行完成，执行器id:{}", executorId);
-
-        // 执行结果判断
-        if (transExecutor.getTrans() != null && transExecutor.getTrans().getErrors() > 0) {
-            logger.error("作业运行失败");
-            // 作业运行失败
-            throw new DpException(StatusCode.CODE_10010.getCode(), log.toString());
-        }
-        return transExecutor;
+            // 频繁执行的项目预热下一次执行
+            transWarmPoolService.offer(projectId, projectFile
+                    , completed.getTrans() == null ? null : completed.getTrans().getTransMeta(), executorParamVO);
+            return completed;
+        });
     }
 
     /**
-     * 构建所有步骤状态
+     * 构建步骤状态
      *
-     * @param projectExecutor ProjectExecutor
-     * @return ArrayList
+     * @param step 步骤
+     * @return ProjectExecutorStepDTO
      */
-    private List<ProjectExecutorStepDTO> buildStepStatus(ProjectExecutor projectExecutor) {
-        List<StepMetaDataCombi> steps = projectExecutor.getTransExecutor().getTrans().getSteps();
-        List<ProjectExecutorStepDTO> executorSteps = new ArrayList<>(steps.size());
-
-        // 循环步骤
-        for (StepMetaDataCombi stepMetaDataCombi : steps) {
-            final StepInterface step = stepMetaDataCombi.step;
-
-            // 创建步骤状态对象
-            StepStatus stepStatus = new StepStatus(step);
-            // 构建步骤信息
-            final ProjectExecutorStepDTO executorStep = ProjectExecutorStepDTO.builder()
-                .stepName(step.getStepname())
-                .linesInput(stepStatus.getLinesInput())
-                .linesOutput(stepStatus.getLinesOutput())
-                .linesRead(stepStatus.getLinesRead())
-                .linesOutput(stepStatus.getLinesOutput())
-                .linesUpdated(stepStatus.getLinesUpdated())
-                .linesRejected(stepStatus.getLinesRejected())
-                .stepExecutionStatus(step.getStatus().name())
-                .statusDescription(stepStatus.getStatusDescription())
-                .seconds(stepStatus.getSeconds())
-                .speed(stepStatus.getSpeed())
-                .errors(stepStatus.getErrors()).build();
-            executorSteps.add(executorStep);
-        }
-
-        return executorSteps;
+    private ProjectExecutorStepDTO buildStepStatus(StepInterface step) {
+        // 创建步骤状态对象
+        StepStatus stepStatus = new StepStatus(step);
+        // 构建步骤信息
+        return ProjectExecutorStepDTO.builder()
+            .stepName(step.getStepname())
+            .copy(stepStatus.getCopy())
+            .linesInput(stepStatus.getLinesInput())
+            .linesOutput(stepStatus.getLinesOutput())
+            .linesRead(stepStatus.getLinesRead())
+            .linesWritten(stepStatus.getLinesWritten())
+            .linesUpdated(stepStatus.getLinesUpdated())
+            .linesRejected(stepStatus.getLinesRejected())
+            .stepExecutionStatus(step.getStatus().name())
+            .statusDescription(stepStatus.getStatusDescription())
+            .seconds(stepStatus.getSeconds())
+            .speed(stepStatus.getSpeed())
+            .errors(stepStatus.getErrors()).build();
     }
 
     /**
@@ -408,9 +677,91 @@ public class ProjectScheduleExecutorService {
      * @return TransExecutor
      */
     private TransExecutor start(String executorId, String projectFile, ProjectExecutorParam executorParamVO) throws Exception {
+        TransExecutionConfiguration executionConfiguration = buildExecutionConfiguration(executorParamVO);
+
+        // 优先使用预热好的转换
+        if (transWarmPoolService.isEligible(executorParamVO)) {
+            final TransExecutor warmExecutor = transWarmPoolService.take(executorParamVO.getProjectId(), projectFile, executionConfiguration);
+            if (warmExecutor != null) {
+                logger.info("使用预热的转换启动，executorId: {}", executorId);
+                return launch(executorId, warmExecutor, executorParamVO);
+            }
+        }
+
         // 构建TransMeta 对象
         TransMeta transMeta = buildTransMeta(executorId, projectFile);
 
+        // 创建执行器
+        TransExecutor transExecutor = new TransExecutor(transMeta);
+        transExecutor.setLogBufferLines(logBufferLines);
+        // 日志落盘
+        transExecutor.setLogSpool(executionLogService.create(executorId, executorParamVO.getUserId()));
+        // 按历史执行设置缓存行数
+        rowSetSizeService.prepare(transExecutor, executorParamVO.getProjectId());
+        // 断点续跑
+        checkpointService.prepare(transExecutor, executorParamVO);
+        // 步骤自动并行
+        stepParallelismService.prepare(transExecutor, executorParamVO);
+
+        try {
+            //启动转换
+            transExecutor.start(executionConfiguration, executorParamVO);
+
+        } catch (Exception e) {
+            logger.error("启动作业失败", e);
+            // 获取步骤日志
+            throw new DpException(StatusCode.CODE_10010.getCode()
+                , new LogBrowser(transExecutor).getRealTimeLog());
+        }
+
+        return transExecutor;
+    }
+
+    /**
+     * 启动预热的转换，预热期间的日志补写到本次执行的日志文件，系统变量按本次执行时间重新取值
+     */
+    private TransExecutor launch(String executorId, TransExecutor transExecutor, ProjectExecutorParam executorParamVO) throws Exception {
+        transExecutor.getLogBuffer().attachSpool(executionLogService.create(executorId, executorParamVO.getUserId()));
+        transExecutor.refreshSystemVariables();
+
+        try {
+            transExecutor.launch(executorParamVO);
+
+        } catch (Exception e) {
+            logger.error("启动作业失败", e);
+            throw new DpException(StatusCode.CODE_10010.getCode()
+                , new LogBrowser(transExecutor).getRealTimeLog());
+        }
+
+        return transExecutor;
+    }
+
+    /**
+     * 预热转换：解析项目文件并完成步骤初始化，不启动线程
+     *
+     * @param projectFile     项目文件
+     * @param executorParamVO 执行参数
+     * @return 已初始化的执行器
+     */
+    private TransExecutor prepareWarm(String projectFile, ProjectExecutorParam executorParamVO) throws Exception {
+        final String warmId = generateExecutorId();
+        TransExecutor transExecutor = new TransExecutor(buildTransMeta(warmId, projectFile));
+        transExecutor.setLogBufferLines(logBufferLines);
+        // 缓存行数需要在创建 RowSet 之前设置
+        rowSetSizeService.prepare(transExecutor, executorParamVO.getProjectId());
+        stepParallelismService.prepare(transExecutor, executorParamVO);
+        // 初始化失败时步骤资源已在初始化过程中释放
+        transExecutor.prepare(buildExecutionConfiguration(executorParamVO));
+        return transExecutor;
+    }
+
+    /**
+     * 构建执行配置
+     *
+     * @param executorParamVO 执行参数
+     * @return TransExecutionConfiguration
+     */
+    private TransExecutionConfiguration buildExecutionConfiguration(ProjectExecutorParam executorParamVO) {
         TransExecutionConfiguration executionConfiguration = new TransExecutionConfiguration();
         // 设置默认值以便运行配置可以正确设置
         executionConfiguration.setExecutingLocally(true);
@@ -421,30 +772,14 @@ public class ProjectScheduleExecutorService {
 
         // 不启用安全模式
         executionConfiguration.setSafeModeEnabled(executorParamVO.isSafeModeEnabled());
-        executionConfiguration.getUsedVariables(transMeta);
         executionConfiguration.setLogLevel(logLevel);
 
         // 默认设置本地引擎执行
         executionConfiguration.setRunConfiguration(engineName);
 
-
-        // 创建执行器
-        TransExecutor transExecutor = new TransExecutor(transMeta);
         //设置命令参数
         executionConfiguration.setVariables(executorParamVO.getVariables());
-
-        try {
-            //启动转换
-            transExecutor.start(executionConfiguration, executorParamVO);
-
-        } catch (Exception e) {
-            logger.error("启动作业失败", e);
-            // 获取步骤日志
-            throw new DpException(StatusCode.CODE_10010.getCode()
-                , new LogBrowser(transExecutor).getRealTimeLog());
-        }
-
-        return transExecutor;
+        return executionConfiguration;
     }
 
     /**
@@ -454,36 +789,9 @@ public class ProjectScheduleExecutorService {
      * @return TransMeta
      */
     private TransMeta buildTransMeta(String executorId, String projectFile) throws IOException, KettleXMLException, KettleMissingPluginsException {
-        Document document;
-        //json转xml
-        if (!projectFile.startsWith("<?xml")) {
-            // json转xml
-            projectFile = StringEscapeUtils.unescapeXml(projectFile);
-            projectFile = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + XML.toString(new JSONLinkedObject(projectFile));
-
-            logger.debug("json转换成xml，转换后的xml:{}", projectFile);
-        }
-
-        // 写到临时目录
+        // 只有保留临时文件时才写文件，否则只作为转换文件名使用
         File outFile = new File(tmpFolder, executorId + tmpFileSuffix);
-        FileUtils.writeStringToFile(outFile, projectFile);
-
-        // 加载xml
-        document = XMLHandler.loadXMLString(projectFile);
-
-        TransMeta transMeta = new TransMeta();
-        transMeta.loadXML(
-            document.getDocumentElement(), outFile.getPath(), null, null, true, new Variables(),
-            (message, rememberText, rememberPropertyName) -> {
-                // Yes means: overwrite
-                return true;
-            });
-
-        if (transMeta.hasMissingPlugins()) {
-            logger.info("【{}】缺少执行插件。", projectFile);
-        }
-
-        return transMeta;
+        return transMetaCacheService.load(projectFile, outFile, !deleteTmpFile);
     }
 
 }
@@ -0,0 +1,118 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.di.run.management.server.trans.RowSetProfiler;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.trans.TransRuntimeMetrics;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 自适应 RowSet 缓存行数
+ * <p>
+ * 每次执行开始后的一段时间内分析各连接的缓存使用情况，执行结束后计算转换的缓存行数并按项目保存到redis，
+ * 下次执行同一项目时在创建 RowSet 之前设置到 TransMeta。
+ *
+ * @author gavin
+ */
+@Service
+public class RowSetSizeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RowSetSizeService.class);
+
+    private static final String CACHE_PREFIX = "di_trans_rowset_size_";
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 是否开启自适应缓存行数
+     */
+    @Value("${dp.project.execute.rowSet.adaptive:false}")
+    private boolean adaptive;
+
+    /**
+     * 执行开始后的采样时长，单位：秒
+     */
+    @Value("${dp.project.execute.rowSet.profileSeconds:30}")
+    private int profileSeconds;
+
+    @Value("${dp.project.execute.rowSet.minSize:100}")
+    private int minSize;
+
+    @Value("${dp.project.execute.rowSet.maxSize:50000}")
+    private int maxSize;
+
+    /**
+     * 单次执行所有连接缓存的内存预算，单位：MB
+     */
+    @Value("${dp.project.execute.rowSet.memoryBudgetMb:256}")
+    private long memoryBudgetMb;
+
+    /**
+     * 分析结果保存天数
+     */
+    @Value("${dp.project.execute.rowSet.retentionDays:30}")
+    private int retentionDays;
+
+    @Autowired
+    public RowSetSizeService(RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 设置项目上次分析的缓存行数，并开启本次执行的分析
+     *
+     * @param transExecutor 执行器，创建转换（prepare）之前调用
+     * @param projectId     项目id
+     */
+    public void prepare(TransExecutor transExecutor, String projectId) {
+        if (!adaptive || projectId == null) {
+            return;
+        }
+
+        try {
+            final String size = redisTemplate.opsForValue().get(CACHE_PREFIX + projectId);
+            if (size != null) {
+                transExecutor.setRowSetSize(Integer.parseInt(size));
+            }
+        } catch (Exception e) {
+            // 读取失败时使用项目设置的缓存行数
+            logger.warn("读取缓存行数失败，projectId: {}", projectId, e);
+        }
+        transExecutor.setRowSetProfileMillis(TimeUnit.SECONDS.toMillis(profileSeconds));
+    }
+
+    /**
+     * 保存本次执行分析的缓存行数
+     *
+     * @param transExecutor 执行器，执行结束后调用
+     * @param projectId     项目id
+     */
+    public void save(TransExecutor transExecutor, String projectId) {
+        if (!adaptive || projectId == null || transExecutor == null) {
+            return;
+        }
+        final TransRuntimeMetrics runtimeMetrics = transExecutor.getRuntimeMetrics();
+        final RowSetProfiler profiler = runtimeMetrics == null ? null : runtimeMetrics.getRowSetProfiler();
+        if (profiler == null) {
+            return;
+        }
+
+        final int size = profiler.computeSize(minSize, maxSize, memoryBudgetMb * 1024 * 1024);
+        if (size <= 0) {
+            return;
+        }
+
+        try {
+            redisTemplate.opsForValue().set(CACHE_PREFIX + projectId, String.valueOf(size), retentionDays, TimeUnit.DAYS);
+            logger.info("保存缓存行数，projectId: {}, size: {}, hops: {}", projectId, size
+                    , profiler.computeSizes(minSize, maxSize));
+        } catch (Exception e) {
+            logger.warn("保存缓存行数失败，projectId: {}", projectId, e);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
+import com.youngdatafan.di.run.management.server.cluster.RunLeaseRegistry;
+import com.youngdatafan.di.run.management.server.dto.ProjectExecutorDTO;
+import com.youngdatafan.di.run.management.server.dto.ProjectExecutorStepDTO;
+import com.youngdatafan.di.run.management.server.dto.ScheduleJobDTO;
+import com.youngdatafan.di.run.management.server.dto.ScheduleJobStepDTO;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.util.ScheduleJobStatus;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import com.youngdatafan.di.run.management.server.websocket.ProjectExecuteCallback;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * 调度执行任务
+ * <p>
+ * 提交后立即返回任务id（即执行器id），执行在后台进行；任务状态和步骤运行状态保存在redis中，任意实例都可以查询，
+ * 状态变化通过执行日志异步写入，结束状态在释放执行租约之前同步写入。执行完成后按配置回调 webhook。
+ *
+ * @author gavin
+ */
+@Service
+public class ScheduleJobService {
+
+    /**
+     * 任务缓存key前缀，后接任务id
+     */
+    public static final String JOB_CACHE_PREFIX = "di_schedule_job:";
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleJobService.class);
+
+    /**
+     * 提交之后多久才按租约判断执行实例是否失效，提交时先写任务再获取租约，单位：毫秒
+     */
+    private static final long LOST_CHECK_DELAY_MS = 10000;
+
+    /**
+     * 本实例上未结束的任务
+     */
+    private final Map<String, ScheduleJobDTO> activeJobs = new ConcurrentHashMap<>();
+
+    private final ProjectScheduleExecutorService projectScheduleExecutorService;
+
+    private final RunLeaseRegistry runLeaseRegistry;
+
+    private final ExecutionJournal executionJournal;
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    @Value("${spring.cloud.consul.discovery.instance-id}")
+    private String instanceId;
+
+    /**
+     * 任务状态保存时间，单位：小时
+     */
+    @Value("${dp.project.execute.job.retentionHours:24}")
+    private long retentionHours;
+
+    /**
+     * 失败原因的最大长度，保留日志末尾
+     */
+    @Value("${dp.project.execute.job.maxMessageLength:4000}")
+    private int maxMessageLength;
+
+    /**
+     * webhook 连接和读取超时时间，单位：毫秒
+     */
+    @Value("${dp.project.execute.job.webhookTimeoutMs:5000}")
+    private int webhookTimeoutMs;
+
+    /**
+     * webhook 失败重试次数
+     */
+    @Value("${dp.project.execute.job.webhookRetries:3}")
+    private int webhookRetries;
+
+    /**
+     * webhook 重试间隔，按次数翻倍，单位：毫秒
+     */
+    @Value("${dp.project.execute.job.webhookRetryBackoffMs:5000}")
+    private long webhookRetryBackoffMs;
+
+    /**
+     * 允许回调的 webhook 主机，逗号分隔；为空时允许除本机和内网地址以外的所有主机
+     */
+    @Value("${dp.project.execute.job.webhookAllowedHosts:}")
+    private String webhookAllowedHosts;
+
+    private Set<String> allowedHosts;
+
+    private RestTemplate restTemplate;
+
+    private ScheduledThreadPoolExecutor webhookScheduler;
+
+    @Autowired
+    public ScheduleJobService(ProjectScheduleExecutorService projectScheduleExecutorService, RunLeaseRegistry runLeaseRegistry
+            , ExecutionJournal executionJournal, RedisTemplate<String, String> redisTemplate) {
+        this.projectScheduleExecutorService = projectScheduleExecutorService;
+        this.runLeaseRegistry = runLeaseRegistry;
+        this.executionJournal = executionJournal;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        allowedHosts = new HashSet<>();
+        for (String host : StringUtils.split(StringUtils.defaultString(webhookAllowedHosts), ",")) {
+            if (StringUtils.isNotBlank(host)) {
+                allowedHosts.add(host.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(webhookTimeoutMs);
+        requestFactory.setReadTimeout(webhookTimeoutMs);
+        restTemplate = new RestTemplate(requestFactory);
+
+        webhookScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dp-schedule-job-webhook");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (webhookScheduler != null) {
+            webhookScheduler.shutdown();
+        }
+    }
+
+    /**
+     * 根据项目id提交执行
+     *
+     * @param param      执行参数，执行器id作为任务id
+     * @param webhookUrl 执行完成后回调的地址，可以为空
+     * @return 执行完成
+     */
+    public CompletableFuture<TransExecutor> submitById(ProjectExecutorParam param, String webhookUrl) {
+        final ScheduleJobDTO job = create(param, webhookUrl);
+        try {
+            return projectScheduleExecutorService.submitById(param, callback(job), (executor, throwable) -> complete(job, executor, throwable));
+        } catch (RuntimeException e) {
+            discard(job);
+            throw e;
+        }
+    }
+
+    /**
+     * 根据项目文件提交执行
+     *
+     * @param projectFile 项目文件
+     * @param param       执行参数，执行器id作为任务id
+     * @param webhookUrl  执行完成后回调的地址，可以为空
+     * @return 执行完成
+     */
+    public CompletableFuture<TransExecutor> submitByFile(String projectFile, ProjectExecutorParam param, String webhookUrl) {
+        final ScheduleJobDTO job = create(param, webhookUrl);
+        try {
+            return projectScheduleExecutorService.submitByFile(projectFile, param, callback(job)
+                    , (executor, throwable) -> complete(job, executor, throwable));
+        } catch (RuntimeException e) {
+            discard(job);
+            throw e;
+        }
+    }
+
+    /**
+     * 等待执行完成，执行失败时抛出执行的异常
+     *
+     * @param completion 提交返回的执行完成
+     */
+    public static void await(CompletableFuture<?> completion) throws Exception {
+        try {
+            completion.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = ProjectScheduleExecutorService.unwrap(e);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValidationException(StatusCode.CODE_10010, "等待执行完成被中断");
+        }
+    }
+
+    /**
+     * 查询任务
+     *
+     * @param jobId 任务id
+     * @return 任务，不存在时返回null
+     */
+    public ScheduleJobDTO find(String jobId) {
+        final ScheduleJobDTO active = activeJobs.get(jobId);
+        final String json;
+        if (active != null) {
+            synchronized (active) {
+                json = JsonUtils.toString(active);
+            }
+        } else {
+            json = redisTemplate.opsForValue().get(JOB_CACHE_PREFIX + jobId);
+        }
+        if (json == null) {
+            return null;
+        }
+
+        final ScheduleJobDTO job;
+        try {
+            job = JsonUtils.parseObject(json, ScheduleJobDTO.class);
+        } catch (IOException e) {
+            logger.error("解析调度执行任务错误，json: {}", json);
+            return null;
+        }
+
+        // 其他实例上的任务没有结束而租约已经不属于该任务，执行实例已经失效
+        if (active == null && !ScheduleJobStatus.valueOf(job.getStatus()).isFinished()
+                && System.currentTimeMillis() - job.getSubmitTime() > LOST_CHECK_DELAY_MS
+                && !jobId.equals(runLeaseRegistry.getExecutorId(job.getProjectId()))) {
+            job.setStatus(ScheduleJobStatus.FAILED.name());
+            job.setMessage("执行实例失效");
+        }
+        return job;
+    }
+
+    /**
+     * 查询任务
+     *
+     * @param jobId 任务id
+     * @return 任务
+     */
+    public ScheduleJobDTO get(String jobId) {
+        final ScheduleJobDTO job = find(jobId);
+        if (job == null) {
+            throw new ValidationException(StatusCode.CODE_10010, "任务不存在或者已过期");
+        }
+        return job;
+    }
+
+    /**
+     * 取消任务，其他实例上的任务在租约续约时停止
+     *
+     * @param jobId 任务id
+     * @return 任务已经结束时返回false
+     */
+    public boolean cancel(String jobId) {
+        final ScheduleJobDTO job = get(jobId);
+        if (ScheduleJobStatus.valueOf(job.getStatus()).isFinished()) {
+            return false;
+        }
+        return projectScheduleExecutorService.stop(job.getProjectId(), jobId);
+    }
+
+    private ScheduleJobDTO create(ProjectExecutorParam param, String webhookUrl) {
+        if (StringUtils.isNotBlank(webhookUrl)) {
+            checkWebhookUrl(webhookUrl.trim(), allowedHosts);
+        }
+
+        final ScheduleJobDTO job = new ScheduleJobDTO();
+        job.setJobId(param.getExecutorId());
+        job.setRequestId(param.getRequestId());
+        job.setProjectId(param.getProjectId());
+        job.setProjectName(param.getProjectName());
+        job.setStatus(ScheduleJobStatus.QUEUED.name());
+        job.setInstanceId(instanceId);
+        job.setSubmitTime(System.currentTimeMillis());
+        job.setWebhookUrl(StringUtils.trimToNull(webhookUrl));
+
+        activeJobs.put(job.getJobId(), job);
+        // 提交后立即可以从其他实例查询，同步写入；之后的更新都在这次写入之后
+        redisTemplate.opsForValue().set(JOB_CACHE_PREFIX + job.getJobId(), JsonUtils.toString(job), retentionHours, TimeUnit.HOURS);
+        return job;
+    }
+
+    private void discard(ScheduleJobDTO job) {
+        activeJobs.remove(job.getJobId());
+        executionJournal.delete(JOB_CACHE_PREFIX + job.getJobId());
+    }
+
+    /**
+     * 运行状态回调，合并步骤状态后写入
+     */
+    private ProjectExecuteCallback callback(ScheduleJobDTO job) {
+        return (destination, webSocketMessage) -> {
+            if (!(webSocketMessage.getContent() instanceof ProjectExecutorDTO)) {
+                return;
+            }
+            final List<ProjectExecutorStepDTO> executorSteps = ((ProjectExecutorDTO) webSocketMessage.getContent()).getExecutorSteps();
+            if (executorSteps == null || executorSteps.isEmpty()) {
+                return;
+            }
+
+            synchronized (job) {
+                if (ScheduleJobStatus.QUEUED.name().equals(job.getStatus())) {
+                    job.setStatus(ScheduleJobStatus.RUNNING.name());
+                    job.setStartTime(System.currentTimeMillis());
+                }
+                // 增量消息只包含有变化的步骤
+                for (ProjectExecutorStepDTO executorStep : executorSteps) {
+                    mergeStep(job.getSteps(), executorStep);
+                }
+                executionJournal.set(JOB_CACHE_PREFIX + job.getJobId(), JsonUtils.toString(job), retentionHours, TimeUnit.HOURS);
+            }
+        };
+    }
+
+    public static void mergeStep(List<ScheduleJobStepDTO> steps, ProjectExecutorStepDTO executorStep) {
+        ScheduleJobStepDTO step = null;
+        for (ScheduleJobStepDTO existing : steps) {
+            if (existing.getStepName().equals(executorStep.getStepName()) && existing.getCopy() == executorStep.getCopy()) {
+                step = existing;
+                break;
+            }
+        }
+        if (step == null) {
+            step = new ScheduleJobStepDTO();
+            step.setStepName(executorStep.getStepName());
+            step.setCopy(executorStep.getCopy());
+            steps.add(step);
+        }
+        step.setStatus(executorStep.getStepExecutionStatus());
+        step.setLinesRead(executorStep.getLinesRead());
+        step.setLinesWritten(executorStep.getLinesWritten());
+        step.setLinesInput(executorStep.getLinesInput());
+        step.setLinesOutput(executorStep.getLinesOutput());
+        step.setLinesUpdated(executorStep.getLinesUpdated());
+        step.setLinesRejected(executorStep.getLinesRejected());
+        step.setErrors(executorStep.getErrors());
+        step.setSeconds(executorStep.getSeconds());
+        step.setRowsPerSecond10s(executorStep.getRowsPerSecond10s());
+    }
+
+    /**
+     * 执行结束，在释放租约之前调用
+     */
+    private void complete(ScheduleJobDTO job, TransExecutor executor, Throwable throwable) {
+        final String json;
+        synchronized (job) {
+            if (executor != null && executor.getTrans() != null && executor.getTrans().isStopped()) {
+                job.setStatus(ScheduleJobStatus.CANCELLED.name());
+            } else if (throwable == null) {
+                job.setStatus(ScheduleJobStatus.SUCCESS.name());
+            } else if (throwable instanceof CancellationException) {
+                job.setStatus(ScheduleJobStatus.CANCELLED.name());
+            } else {
+                job.setStatus(ScheduleJobStatus.FAILED.name());
+                job.setMessage(StringUtils.right(throwable.getMessage(), maxMessageLength));
+            }
+            job.setEndTime(System.currentTimeMillis());
+            json = JsonUtils.toString(job);
+        }
+
+        final String cacheKey = JOB_CACHE_PREFIX + job.getJobId();
+        try {
+            // 释放租约之前同步写入，其他实例不会把已经结束的任务判断为实例失效
+            redisTemplate.opsForValue().set(cacheKey, json, retentionHours, TimeUnit.HOURS);
+        } catch (Exception e) {
+            logger.warn("写入调度执行任务状态失败，jobId: {}", job.getJobId(), e);
+        }
+        // 覆盖还没有写入的运行状态
+        executionJournal.set(cacheKey, json, retentionHours, TimeUnit.HOURS);
+        activeJobs.remove(job.getJobId());
+
+        if (job.getWebhookUrl() != null) {
+            webhookScheduler.execute(() -> notifyWebhook(job.getWebhookUrl(), json, job.getJobId(), 0));
+        }
+    }
+
+    private void notifyWebhook(String webhookUrl, String json, String jobId, int attempt) {
+        try {
+            // 提交之后域名可能解析到其他地址，回调前再次检查
+            checkWebhookUrl(webhookUrl, allowedHosts);
+        } catch (ValidationException e) {
+            logger.warn("调度执行任务 webhook 地址不允许回调，jobId: {}, url: {}, 原因: {}", jobId, webhookUrl, e.getMessage());
+            return;
+        }
+
+        try {
+            final ResponseEntity<String> response = restTemplate.postForEntity(webhookUrl
+                    , JsonUtils.parseObject(json, ScheduleJobDTO.class), String.class);
+            if (response.getStatusCode().is2xxSuccessful()) {
+                return;
+            }
+            logger.warn("调度执行任务 webhook 回调失败，jobId: {}, 状态码: {}", jobId, response.getStatusCodeValue());
+        } catch (Exception e) {
+            logger.warn("调度执行任务 webhook 回调失败，jobId: {}, 第{}次", jobId, attempt + 1, e);
+        }
+
+        if (attempt < webhookRetries && !webhookScheduler.isShutdown()) {
+            webhookScheduler.schedule(() -> notifyWebhook(webhookUrl, json, jobId, attempt + 1)
+                    , webhookRetryBackoffMs << attempt, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 检查 webhook 地址，只支持 http 和 https；配置了允许的主机时只能回调这些主机，
+     * 否则主机解析出的地址不能是本机、链路本地、内网或组播地址
+     *
+     * @param webhookUrl   webhook 地址
+     * @param allowedHosts 允许的主机，小写，为空时按地址检查
+     */
+    public static void checkWebhookUrl(String webhookUrl, Set<String> allowedHosts) {
+        final URI uri;
+        try {
+            uri = new URI(webhookUrl);
+        } catch (URISyntaxException e) {
+            throw new ValidationException(StatusCode.CODE_10010, "webhook 地址格式错误");
+        }
+        final String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            throw new ValidationException(StatusCode.CODE_10010, "webhook 地址只支持 http 和 https");
+        }
+        final String host = uri.getHost();
+        if (StringUtils.isBlank(host)) {
+            throw new ValidationException(StatusCode.CODE_10010, "webhook 地址缺少主机");
+        }
+
+        if (!allowedHosts.isEmpty()) {
+            if (!allowedHosts.contains(host.toLowerCase(Locale.ROOT))) {
+                throw new ValidationException(StatusCode.CODE_10010, "webhook 主机不在允许的列表中: " + host);
+            }
+            return;
+        }
+
+        final InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            throw new ValidationException(StatusCode.CODE_10010, "webhook 主机无法解析: " + host);
+        }
+        for (InetAddress address : addresses) {
+            if (isInternal(address)) {
+                throw new ValidationException(StatusCode.CODE_10010, "webhook 地址不能是本机或内网地址: " + host);
+            }
+        }
+    }
+
+    private static boolean isInternal(InetAddress address) {
+        return address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress()
+                // IPv6 唯一本地地址 fc00::/7
+                || address instanceof Inet6Address && (address.getAddress()[0] & 0xfe) == 0xfc;
+    }
+}
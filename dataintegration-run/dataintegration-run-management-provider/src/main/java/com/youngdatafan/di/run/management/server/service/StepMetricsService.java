@@ -0,0 +1,116 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.di.run.management.server.trans.StepRuntimeMetrics;
+import com.youngdatafan.di.run.management.server.trans.TransRuntimeMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 步骤运行指标导出
+ * <p>
+ * 执行期间按 executorId/projectId/step/copy 注册步骤指标，执行结束后移除，
+ * 通过 /actuator/prometheus 抓取；指标值由状态推送线程采样更新。
+ *
+ * @author gavin
+ */
+@Service
+public class StepMetricsService {
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 执行器注册的指标
+     */
+    private final Map<String, List<Meter>> executorMeters = new ConcurrentHashMap<>();
+
+    /**
+     * 是否导出步骤指标，步骤较多时会产生大量时间序列
+     */
+    @Value("${dp.project.execute.metrics.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    public StepMetricsService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 注册执行器的步骤指标
+     *
+     * @param executorId     执行器id
+     * @param projectId      项目id
+     * @param runtimeMetrics 转换运行指标
+     */
+    public void register(String executorId, String projectId, TransRuntimeMetrics runtimeMetrics) {
+        if (!enabled || runtimeMetrics == null) {
+            return;
+        }
+
+        List<Meter> meters = new ArrayList<>();
+        for (StepRuntimeMetrics metrics : runtimeMetrics.getSteps()) {
+            final Tags tags = Tags.of("executorId", executorId
+                    , "projectId", String.valueOf(projectId)
+                    , "step", metrics.getStepName()
+                    , "copy", String.valueOf(metrics.getCopy()));
+
+            meters.add(Gauge.builder("dp.execute.step.rowset.input", metrics, StepRuntimeMetrics::getInputRowSetSize)
+                    .description("输入RowSet缓存的行数")
+                    .tags(tags)
+                    .register(meterRegistry));
+            meters.add(Gauge.builder("dp.execute.step.rowset.output", metrics, StepRuntimeMetrics::getOutputRowSetSize)
+                    .description("输出RowSet缓存的行数")
+                    .tags(tags)
+                    .register(meterRegistry));
+            meters.add(FunctionCounter.builder("dp.execute.step.blocked.put", metrics, m -> m.getPutBlockedMillis() / 1000d)
+                    .description("输出RowSet已满的等待时间")
+                    .baseUnit("seconds")
+                    .tags(tags)
+                    .register(meterRegistry));
+            meters.add(FunctionCounter.builder("dp.execute.step.blocked.get", metrics, m -> m.getGetBlockedMillis() / 1000d)
+                    .description("输入RowSet为空的等待时间")
+                    .baseUnit("seconds")
+                    .tags(tags)
+                    .register(meterRegistry));
+            meters.add(Gauge.builder("dp.execute.step.rows.rate", metrics, StepRuntimeMetrics::getRowsPerSecond10s)
+                    .description("最近10秒的处理速度")
+                    .tags(tags.and("window", "10s"))
+                    .register(meterRegistry));
+            meters.add(Gauge.builder("dp.execute.step.rows.rate", metrics, StepRuntimeMetrics::getRowsPerSecond60s)
+                    .description("最近60秒的处理速度")
+                    .tags(tags.and("window", "60s"))
+                    .register(meterRegistry));
+            meters.add(FunctionCounter.builder("dp.execute.step.cpu", metrics, m -> Math.max(m.getCpuMillis(), 0) / 1000d)
+                    .description("步骤线程CPU时间")
+                    .baseUnit("seconds")
+                    .tags(tags)
+                    .register(meterRegistry));
+        }
+
+        final List<Meter> previous = executorMeters.put(executorId, meters);
+        if (previous != null) {
+            previous.forEach(meterRegistry::remove);
+        }
+    }
+
+    /**
+     * 移除执行器的步骤指标
+     *
+     * @param executorId 执行器id
+     */
+    public void unregister(String executorId) {
+        final List<Meter> meters = executorMeters.remove(executorId);
+        if (meters != null) {
+            meters.forEach(meterRegistry::remove);
+        }
+    }
+}
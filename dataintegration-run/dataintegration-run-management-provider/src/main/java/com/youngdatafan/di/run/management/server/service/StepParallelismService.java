@@ -0,0 +1,98 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.di.run.management.server.bean.InstanceLoad;
+import com.youngdatafan.di.run.management.server.cluster.InstanceLoadRegistry;
+import com.youngdatafan.di.run.management.server.trans.StepParallelizer;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import com.youngdatafan.kettle.springboot.core.executor.ExecutorThreadPool;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 步骤自动并行
+ * <p>
+ * 按cpu核数、当前进程cpu使用率、运行中的执行数以及引擎线程池的空闲线程数计算本次执行可以额外使用的线程，
+ * 分配给无状态计算步骤的副本，见 {@link StepParallelizer}。
+ *
+ * @author gavin
+ */
+@Service
+public class StepParallelismService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StepParallelismService.class);
+
+    private final InstanceLoadRegistry instanceLoadRegistry;
+
+    /**
+     * 是否开启自动并行
+     */
+    @Value("${dp.project.execute.parallelism.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 单个步骤最大副本数
+     */
+    @Value("${dp.project.execute.parallelism.maxCopies:8}")
+    private int maxCopies;
+
+    /**
+     * 并行的步骤类型，逗号分隔，为空时使用默认类型
+     */
+    @Value("${dp.project.execute.parallelism.stepIds:}")
+    private String stepIds;
+
+    private Set<String> effectiveStepIds;
+
+    @Autowired
+    public StepParallelismService(InstanceLoadRegistry instanceLoadRegistry) {
+        this.instanceLoadRegistry = instanceLoadRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        effectiveStepIds = new LinkedHashSet<>();
+        for (String stepId : StringUtils.split(stepIds, ",")) {
+            if (StringUtils.isNotBlank(stepId)) {
+                effectiveStepIds.add(stepId.trim());
+            }
+        }
+        if (effectiveStepIds.isEmpty()) {
+            effectiveStepIds = StepParallelizer.DEFAULT_STEP_IDS;
+        }
+    }
+
+    /**
+     * 设置本次执行的自动并行
+     *
+     * @param transExecutor   执行器，初始化前调用
+     * @param executorParamVO 执行参数
+     */
+    public void prepare(TransExecutor transExecutor, ProjectExecutorParam executorParamVO) {
+        // 预览按步骤副本采集数据，断点依赖输出顺序，不并行
+        if (!enabled || executorParamVO.isPreview() || executorParamVO.isCheckpoint() || executorParamVO.isResume()) {
+            return;
+        }
+
+        final InstanceLoad load = instanceLoadRegistry.currentLoad();
+        final ThreadPoolExecutor enginePool = ExecutorThreadPool.getInstance().getThreadPoolExecutor();
+        // 引擎线程池队列无界，只有核心线程会被创建，超出的步骤线程会一直排队
+        final int spareEngineThreads = enginePool == null ? 0
+                : enginePool.getCorePoolSize() - load.getEngineActiveThreads() - load.getEngineQueued() - transExecutor.getTransMeta().nrSteps();
+
+        final int extraThreads = StepParallelizer.extraThreads(Runtime.getRuntime().availableProcessors(), load.getCpuLoad()
+                , load.getRunning(), spareEngineThreads);
+        logger.debug("自动并行可用线程: {}, cpuLoad: {}, running: {}, spareEngineThreads: {}"
+                , extraThreads, load.getCpuLoad(), load.getRunning(), spareEngineThreads);
+
+        transExecutor.setStepParallelizer(new StepParallelizer(effectiveStepIds, extraThreads, maxCopies));
+    }
+}
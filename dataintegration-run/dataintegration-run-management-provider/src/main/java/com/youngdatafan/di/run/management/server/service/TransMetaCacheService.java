@@ -0,0 +1,184 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.youngdatafan.dataintegration.core.util.Md5Utils;
+import com.youngdatafan.dataintegration.core.util.json.JsonXmlDocumentBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import org.apache.commons.io.FileUtils;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleMissingPluginsException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.plugins.PluginTypeListener;
+import org.pentaho.di.core.plugins.StepPluginType;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.trans.TransMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+
+/**
+ * TransMeta 解析缓存
+ * <p>
+ * 以项目文件内容的md5 + 插件注册表版本作为key，缓存解析好的 TransMeta 模板，每次执行返回克隆对象。
+ *
+ * @author gavin
+ */
+@Service
+public class TransMetaCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransMetaCacheService.class);
+
+    /**
+     * 插件注册表版本，插件增删改时递增，旧版本的缓存不会再命中
+     */
+    private final AtomicLong pluginRegistryVersion = new AtomicLong();
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 是否启用缓存
+     */
+    @Value("${dp.project.transMetaCache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 最大缓存项目数
+     */
+    @Value("${dp.project.transMetaCache.maximumSize:200}")
+    private long maximumSize;
+
+    /**
+     * 空闲过期时间，单位：分钟
+     */
+    @Value("${dp.project.transMetaCache.expireAfterAccessMinutes:30}")
+    private long expireAfterAccessMinutes;
+
+    private Cache<String, TransMeta> cache;
+
+    @Autowired
+    public TransMetaCacheService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "dp.transMeta.cache");
+
+        // 插件变化后旧的模板可能引用了失效的插件
+        PluginRegistry.getInstance().addPluginListener(StepPluginType.class, new PluginTypeListener() {
+            @Override
+            public void pluginAdded(Object serviceObject) {
+                onPluginChanged();
+            }
+
+            @Override
+            public void pluginRemoved(Object serviceObject) {
+                onPluginChanged();
+            }
+
+            @Override
+            public void pluginChanged(Object serviceObject) {
+                onPluginChanged();
+            }
+        });
+    }
+
+    private void onPluginChanged() {
+        pluginRegistryVersion.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * 获取 TransMeta，缓存命中时返回模板的克隆
+     *
+     * @param projectFile  项目文件(json或者xml)
+     * @param outFile      转换文件名，用于设置内部变量
+     * @param writeTmpFile 是否将xml写入到outFile(排查问题时使用)
+     * @return TransMeta
+     */
+    public TransMeta load(String projectFile, File outFile, boolean writeTmpFile) throws IOException, KettleXMLException, KettleMissingPluginsException {
+        if (!enabled) {
+            return parse(projectFile, outFile, writeTmpFile);
+        }
+
+        final String key = Md5Utils.encode(projectFile, "UTF-8", false) + "_" + pluginRegistryVersion.get();
+        TransMeta template = cache.getIfPresent(key);
+        if (template == null) {
+            template = parse(projectFile, outFile, writeTmpFile);
+            if (template.hasMissingPlugins()) {
+                // 缺少插件的不缓存
+                return template;
+            }
+            cache.put(key, template);
+        } else if (writeTmpFile) {
+            writeXml(template, outFile);
+        }
+
+        final TransMeta transMeta = (TransMeta) template.realClone(false);
+        transMeta.setFilename(outFile.getPath());
+        transMeta.setInternalKettleVariables();
+        return transMeta;
+    }
+
+    /**
+     * 解析项目文件
+     */
+    private TransMeta parse(String projectFile, File outFile, boolean writeTmpFile) throws IOException, KettleXMLException, KettleMissingPluginsException {
+        final boolean json = !projectFile.startsWith("<?xml");
+
+        // json直接流式构建Document，不再生成中间的xml字符串
+        Document document;
+        if (json) {
+            document = JsonXmlDocumentBuilder.toDocument(projectFile);
+        } else {
+            // 写到临时目录，只有需要保留临时文件时才写
+            if (writeTmpFile) {
+                FileUtils.writeStringToFile(outFile, projectFile);
+            }
+            document = XMLHandler.loadXMLString(projectFile);
+        }
+
+        TransMeta transMeta = new TransMeta();
+        transMeta.loadXML(
+                document.getDocumentElement(), outFile.getPath(), null, null, true, new Variables(),
+                (message, rememberText, rememberPropertyName) -> {
+                    // Yes means: overwrite
+                    return true;
+                });
+
+        if (json && writeTmpFile) {
+            writeXml(transMeta, outFile);
+        }
+
+        if (transMeta.hasMissingPlugins()) {
+            logger.info("【{}】缺少执行插件。", projectFile);
+        }
+
+        return transMeta;
+    }
+
+    private void writeXml(TransMeta transMeta, File outFile) {
+        try {
+            FileUtils.writeStringToFile(outFile, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + transMeta.getXML());
+        } catch (IOException | KettleException e) {
+            logger.warn("写入临时文件失败： filePath: {}", outFile.getPath(), e);
+        }
+    }
+}
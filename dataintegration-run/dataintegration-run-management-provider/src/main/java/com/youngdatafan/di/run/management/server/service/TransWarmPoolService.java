@@ -0,0 +1,412 @@
+package com.youngdatafan.di.run.management.server.service;
+
+import com.youngdatafan.dataintegration.core.util.Md5Utils;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * 调度执行预热池
+ * <p>
+ * 执行频繁的项目在上一次执行成功结束后，后台提前完成解析和步骤初始化（包括打开数据库连接），
+ * 下一次执行时如果项目文件和生效参数都没有变化，直接启动初始化好的转换。
+ * 转换只能执行一次，每个项目最多保留一个预热的转换，空闲超时后释放。
+ * <p>
+ * 步骤初始化可能有副作用（表输出清空表、文本文件输出创建文件、执行SQL脚本等），预热的转换可能不会执行，
+ * 只预热所有步骤都在允许列表（初始化只读取数据、没有副作用的步骤）中的转换。
+ *
+ * @author gavin
+ */
+@Service
+public class TransWarmPoolService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransWarmPoolService.class);
+
+    /**
+     * 默认允许预热的步骤类型，初始化时没有写入数据、创建文件或者执行语句等副作用；
+     * 数据库查询（DBLookup）初始化时可能预先加载查询缓存，预热后会使用过期的数据，不在默认范围内
+     */
+    public static final Set<String> DEFAULT_STEP_IDS = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            "TableInput", "CsvInput", "CsvInput2", "TextFileInput", "TextFileInput2", "ExcelInput", "JsonInput", "getXMLData"
+            , "RowGenerator", "DataGrid", "GetVariable", "SystemInfo", "StreamLookup", "MergeJoin"
+            , "SelectValues", "FilterRows", "SwitchCase", "Calculator", "Constant", "StringOperations", "ReplaceString"
+            , "ValueMapper", "RegexEval", "IfNull", "SetValueConstant", "SortRows", "Unique"
+            , "UniqueRowsByHashSet", "MemoryGroupBy", "GroupBy", "Dummy", "WriteToLog")));
+
+    private final ConcurrentHashMap<String, WarmEntry> entries = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private final Executor asyncTaskExecutor;
+
+    /**
+     * 是否开启预热
+     */
+    @Value("${dp.project.execute.warmPool.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 最多预热的项目数
+     */
+    @Value("${dp.project.execute.warmPool.maxProjects:20}")
+    private int maxProjects;
+
+    /**
+     * 两次执行间隔不超过该值的项目才预热，单位：秒
+     */
+    @Value("${dp.project.execute.warmPool.hotIntervalSeconds:300}")
+    private long hotIntervalSeconds;
+
+    /**
+     * 预热的转换空闲超过该值后释放，单位：秒
+     */
+    @Value("${dp.project.execute.warmPool.maxIdleSeconds:600}")
+    private long maxIdleSeconds;
+
+    /**
+     * 允许预热的步骤类型，逗号分隔，为空时使用默认步骤类型
+     */
+    @Value("${dp.project.execute.warmPool.stepIds:}")
+    private String stepIds;
+
+    private Set<String> effectiveStepIds;
+
+    private volatile Preparer preparer;
+
+    private Counter hitCounter;
+
+    private Counter missCounter;
+
+    @Autowired
+    public TransWarmPoolService(MeterRegistry meterRegistry, @Qualifier("asyncTaskExecutor") Executor asyncTaskExecutor) {
+        this.meterRegistry = meterRegistry;
+        this.asyncTaskExecutor = asyncTaskExecutor;
+    }
+
+    @PostConstruct
+    public void init() {
+        effectiveStepIds = new LinkedHashSet<>();
+        for (String stepId : StringUtils.split(StringUtils.defaultString(stepIds), ",")) {
+            if (StringUtils.isNotBlank(stepId)) {
+                effectiveStepIds.add(stepId.trim());
+            }
+        }
+        if (effectiveStepIds.isEmpty()) {
+            effectiveStepIds = DEFAULT_STEP_IDS;
+        }
+
+        Gauge.builder("dp.execute.warmPool.size", this, TransWarmPoolService::warmCount)
+                .description("预热的转换数")
+                .register(meterRegistry);
+        hitCounter = Counter.builder("dp.execute.warmPool.hit")
+                .description("使用预热转换启动的执行数")
+                .register(meterRegistry);
+        missCounter = Counter.builder("dp.execute.warmPool.miss")
+                .description("预热项目未能使用预热转换的执行数")
+                .register(meterRegistry);
+        Gauge.builder("dp.execute.warmPool.hitRate", this, TransWarmPoolService::hitRate)
+                .description("预热命中率")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (WarmEntry entry : entries.values()) {
+            discard(entry.take());
+        }
+        entries.clear();
+    }
+
+    public void setPreparer(Preparer preparer) {
+        this.preparer = preparer;
+    }
+
+    /**
+     * 是否可以使用预热，预览、断点和续跑执行在初始化前需要修改转换，不使用预热
+     *
+     * @param param 执行参数
+     * @return 可以使用时返回true
+     */
+    public boolean isEligible(ProjectExecutorParam param) {
+        return enabled && param.getProjectId() != null && !param.isPreview() && !param.isCheckpoint() && !param.isResume();
+    }
+
+    /**
+     * 取出项目预热的转换
+     *
+     * @param projectId              项目id
+     * @param projectFile            本次执行的项目文件
+     * @param executionConfiguration 本次执行的配置
+     * @return 项目文件和生效参数（不包括系统变量）都一致时返回预热的执行器，否则返回null
+     */
+    public TransExecutor take(String projectId, String projectFile, TransExecutionConfiguration executionConfiguration) {
+        final WarmEntry entry = entries.get(projectId);
+        if (entry == null) {
+            return null;
+        }
+
+        final TransExecutor executor = entry.take();
+        if (executor == null) {
+            missCounter.increment();
+            logger.debug("项目没有可用的预热转换，projectId: {}", projectId);
+            return null;
+        }
+
+        if (!entry.getFileHash().equals(hash(projectFile))) {
+            missCounter.increment();
+            logger.info("项目文件已变化，丢弃预热转换，projectId: {}", projectId);
+            discard(executor);
+            return null;
+        }
+
+        // 系统变量在启动时重新取值，不参与比较
+        if (!TransExecutor.withoutSystemVariables(TransExecutor.resolveParameters(executionConfiguration))
+                .equals(TransExecutor.withoutSystemVariables(executor.getPreparedParameters()))) {
+            missCounter.increment();
+            logger.info("执行参数已变化，丢弃预热转换，projectId: {}", projectId);
+            discard(executor);
+            return null;
+        }
+
+        hitCounter.increment();
+        executor.setStartDate(new Date());
+        return executor;
+    }
+
+    /**
+     * 记录项目执行成功，执行频繁的项目在后台初始化下一次执行的转换
+     *
+     * @param projectId   项目id
+     * @param projectFile 项目文件
+     * @param transMeta   本次执行的转换，检查步骤类型
+     * @param param       执行参数，预热时按这组参数初始化
+     */
+    public void offer(String projectId, String projectFile, TransMeta transMeta, ProjectExecutorParam param) {
+        if (!isEligible(param) || preparer == null || transMeta == null) {
+            return;
+        }
+        final String unsafeStep = findUnsafeStep(transMeta, effectiveStepIds);
+        if (unsafeStep != null) {
+            logger.debug("步骤[{}]初始化可能有副作用，不预热，projectId: {}", unsafeStep, projectId);
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final WarmEntry entry = entries.computeIfAbsent(projectId, key -> new WarmEntry());
+        final boolean hot;
+        synchronized (entry) {
+            hot = isHot(entry.lastRunTime, now, TimeUnit.SECONDS.toMillis(hotIntervalSeconds));
+            entry.lastRunTime = now;
+            if (!hot || entry.preparing || entry.executor != null) {
+                return;
+            }
+            if (warmCount() >= maxProjects) {
+                logger.debug("预热项目数已达上限，projectId: {}", projectId);
+                return;
+            }
+            entry.preparing = true;
+        }
+
+        try {
+            asyncTaskExecutor.execute(() -> prepare(projectId, entry, projectFile, param));
+        } catch (RuntimeException e) {
+            logger.warn("提交预热任务失败，projectId: {}", projectId, e);
+            synchronized (entry) {
+                entry.preparing = false;
+            }
+        }
+    }
+
+    private void prepare(String projectId, WarmEntry entry, String projectFile, ProjectExecutorParam param) {
+        TransExecutor executor = null;
+        try {
+            final long start = System.currentTimeMillis();
+            executor = preparer.prepare(projectFile, param);
+            logger.info("项目预热完成，projectId: {}, 耗时: {}ms", projectId, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.warn("项目预热失败，projectId: {}", projectId, e);
+        }
+
+        synchronized (entry) {
+            entry.preparing = false;
+            if (executor != null && entries.get(projectId) == entry) {
+                entry.fileHash = hash(projectFile);
+                entry.executor = executor;
+                entry.warmTime = System.currentTimeMillis();
+                return;
+            }
+        }
+        // 预热期间已被释放
+        discard(executor);
+    }
+
+    /**
+     * 释放空闲超时的预热转换，并清理不再频繁执行的项目
+     */
+    @Scheduled(initialDelay = 30000, fixedDelayString = "${dp.project.execute.warmPool.evictIntervalMs:30000}")
+    public void evict() {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long maxIdleMillis = TimeUnit.SECONDS.toMillis(maxIdleSeconds);
+        final long hotIntervalMillis = TimeUnit.SECONDS.toMillis(hotIntervalSeconds);
+        final Iterator<Map.Entry<String, WarmEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, WarmEntry> item = iterator.next();
+            final WarmEntry entry = item.getValue();
+            TransExecutor idle = null;
+            synchronized (entry) {
+                if (entry.executor != null && now - entry.warmTime > maxIdleMillis) {
+                    idle = entry.take();
+                }
+                if (entry.executor == null && !entry.preparing && now - entry.lastRunTime > Math.max(hotIntervalMillis, maxIdleMillis)) {
+                    iterator.remove();
+                }
+            }
+
+            if (idle != null) {
+                logger.info("释放空闲的预热转换，projectId: {}", item.getKey());
+                discard(idle);
+            }
+        }
+    }
+
+    /**
+     * 查找不在允许列表中的步骤
+     *
+     * @param transMeta 转换
+     * @param stepIds   允许预热的步骤类型
+     * @return 第一个不允许的步骤名称，都允许时返回null
+     */
+    public static String findUnsafeStep(TransMeta transMeta, Set<String> stepIds) {
+        for (StepMeta stepMeta : transMeta.getSteps()) {
+            if (!stepIds.contains(stepMeta.getStepID())) {
+                return stepMeta.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 两次执行间隔不超过阈值时认为是频繁执行的项目
+     *
+     * @param lastRunTime       上次执行结束时间，毫秒，0表示没有执行过
+     * @param now               当前时间，毫秒
+     * @param hotIntervalMillis 间隔阈值，毫秒
+     * @return 频繁执行时返回true
+     */
+    public static boolean isHot(long lastRunTime, long now, long hotIntervalMillis) {
+        return lastRunTime > 0 && now - lastRunTime <= hotIntervalMillis;
+    }
+
+    private void discard(TransExecutor executor) {
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.discard();
+        } catch (Exception e) {
+            logger.warn("释放预热转换失败", e);
+        }
+    }
+
+    private static String hash(String projectFile) {
+        return Md5Utils.encode(projectFile, "UTF-8", false);
+    }
+
+    private int warmCount() {
+        int count = 0;
+        for (WarmEntry entry : entries.values()) {
+            if (entry.executor != null || entry.preparing) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private double hitRate() {
+        final double hits = hitCounter.count();
+        final double total = hits + missCounter.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    /**
+     * 创建预热的转换，由执行服务实现
+     */
+    public interface Preparer {
+
+        /**
+         * 解析项目文件并完成步骤初始化，不启动线程
+         *
+         * @param projectFile 项目文件
+         * @param param       执行参数
+         * @return 已初始化的执行器
+         */
+        TransExecutor prepare(String projectFile, ProjectExecutorParam param) throws Exception;
+    }
+
+    /**
+     * 项目预热状态
+     */
+    private static class WarmEntry {
+
+        /**
+         * 预热转换对应的项目文件md5
+         */
+        private String fileHash;
+
+        /**
+         * 预热的执行器，取出后置空
+         */
+        private TransExecutor executor;
+
+        /**
+         * 预热完成时间，毫秒
+         */
+        private long warmTime;
+
+        /**
+         * 上次执行成功的时间，毫秒
+         */
+        private long lastRunTime;
+
+        private boolean preparing;
+
+        synchronized TransExecutor take() {
+            final TransExecutor result = executor;
+            executor = null;
+            return result;
+        }
+
+        synchronized String getFileHash() {
+            return fileHash;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.KettleLogLayout;
+import org.pentaho.di.core.logging.KettleLoggingEvent;
+
+/**
+ * 单次执行的日志环形缓冲区
+ * <p>
+ * 每行日志分配一个递增的序号，读取时从指定序号开始增量获取；
+ * 超过容量的旧日志被覆盖，并计入丢弃行数。
+ *
+ * @author gavin
+ */
+public class ExecutionLogBuffer {
+
+    /**
+     * 默认容量，单位：行
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final String[] lines;
+
+    /**
+     * 每行日志的产生时间，毫秒，和 lines 按相同下标存放
+     */
+    private final long[] timestamps;
+
+    private final KettleLogLayout logLayout = new KettleLogLayout(true);
+
+    /**
+     * 下一行日志的序号
+     */
+    private long nextSequence;
+
+    /**
+     * 日志落盘文件，为空时不落盘
+     */
+    private volatile ExecutionLogSpool spool;
+
+    public ExecutionLogBuffer(int capacity) {
+        this.lines = new String[Math.max(capacity, 1)];
+        this.timestamps = new long[lines.length];
+    }
+
+    /**
+     * 格式化并追加一行日志
+     */
+    public void append(KettleLoggingEvent event) {
+        final String line = logLayout.format(event).trim();
+        synchronized (this) {
+            final int index = (int) (nextSequence % lines.length);
+            lines[index] = line;
+            timestamps[index] = event.getTimeStamp();
+            nextSequence++;
+
+            if (spool != null) {
+                spool.append(line, event.getTimeStamp());
+            }
+        }
+    }
+
+    /**
+     * 从指定序号开始读取日志
+     *
+     * @param fromSequence 起始序号
+     * @return 日志块
+     */
+    public synchronized LogChunk read(long fromSequence) {
+        final long firstSequence = getFirstSequence();
+        final long start = Math.max(fromSequence, firstSequence);
+
+        List<String> result = new ArrayList<>((int) Math.max(nextSequence - start, 0));
+        for (long seq = start; seq < nextSequence; seq++) {
+            result.add(lines[(int) (seq % lines.length)]);
+        }
+
+        return new LogChunk(start, nextSequence, Math.max(firstSequence - fromSequence, 0), result);
+    }
+
+    /**
+     * 缓冲区中最早一行日志的序号
+     */
+    private long getFirstSequence() {
+        return Math.max(nextSequence - lines.length, 0);
+    }
+
+    /**
+     * 下一行日志的序号，即已经写入的总行数
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * 因超过容量被覆盖的行数
+     */
+    public synchronized long getDroppedLines() {
+        return getFirstSequence();
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    public ExecutionLogSpool getSpool() {
+        return spool;
+    }
+
+    public void setSpool(ExecutionLogSpool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * 绑定落盘文件，并将缓冲区中已有的日志按原来的时间先写入文件，用于提前初始化的转换；
+     * 已经被覆盖的日志写入一行省略提示
+     *
+     * @param spool 落盘文件
+     */
+    public synchronized void attachSpool(ExecutionLogSpool spool) {
+        if (spool != null) {
+            final long firstSequence = getFirstSequence();
+            if (firstSequence > 0) {
+                spool.append("... 省略" + firstSequence + "行日志 ...", timestamps[(int) (firstSequence % lines.length)]);
+            }
+            for (long seq = firstSequence; seq < nextSequence; seq++) {
+                final int index = (int) (seq % lines.length);
+                spool.append(lines[index], timestamps[index]);
+            }
+        }
+        this.spool = spool;
+    }
+
+    /**
+     * 日志块
+     */
+    public static class LogChunk {
+
+        /**
+         * 第一行的序号
+         */
+        private final long fromSequence;
+
+        /**
+         * 下一次读取的起始序号
+         */
+        private final long nextSequence;
+
+        /**
+         * 读取前已经被覆盖的行数
+         */
+        private final long skipped;
+
+        private final List<String> lines;
+
+        public LogChunk(long fromSequence, long nextSequence, long skipped, List<String> lines) {
+            this.fromSequence = fromSequence;
+            this.nextSequence = nextSequence;
+            this.skipped = skipped;
+            this.lines = lines;
+        }
+
+        public long getFromSequence() {
+            return fromSequence;
+        }
+
+        public long getNextSequence() {
+            return nextSequence;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        /**
+         * 拼接成文本，每行以换行符结束
+         */
+        public String toText() {
+            StringBuilder sb = new StringBuilder();
+            if (skipped > 0) {
+                sb.append("... 省略").append(skipped).append("行日志 ...").append(Const.CR);
+            }
+            for (String line : lines) {
+                sb.append(line).append(Const.CR);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.KettleLoggingEvent;
+import org.pentaho.di.core.logging.KettleLoggingEventListener;
+import org.pentaho.di.core.logging.LogMessage;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.logging.LoggingRegistry;
+
+/**
+ * 执行日志分发器
+ * <p>
+ * 注册到kettle中央日志，按日志通道找到所属执行的根通道，把日志写入该执行的 {@link ExecutionLogBuffer}。
+ * 通道与缓冲区的对应关系会缓存，每条日志只需要一次map查找；不属于任何执行的通道也会缓存，
+ * 避免其他转换的每条日志都遍历日志注册表。
+ *
+ * @author gavin
+ */
+public final class ExecutionLogDispatcher implements KettleLoggingEventListener {
+
+    private static final ExecutionLogDispatcher INSTANCE = new ExecutionLogDispatcher();
+
+    /**
+     * 查找父通道的最大层数
+     */
+    private static final int MAX_PARENT_DEPTH = 20;
+
+    /**
+     * 缓存的未命中通道数上限
+     */
+    private static final int MAX_MISSED_CHANNELS = 10000;
+
+    /**
+     * 根通道 -> 缓冲区
+     */
+    private final Map<String, ExecutionLogBuffer> rootBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * 日志通道 -> 缓冲区
+     */
+    private final Map<String, ExecutionLogBuffer> channelBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * 不属于任何执行的日志通道，绑定新的执行时清空
+     */
+    private final Cache<String, Boolean> missedChannels = CacheBuilder.newBuilder()
+            .maximumSize(MAX_MISSED_CHANNELS)
+            .build();
+
+    /**
+     * 绑定次数
+     */
+    private final AtomicLong attachments = new AtomicLong();
+
+    private volatile boolean registered;
+
+    private ExecutionLogDispatcher() {
+    }
+
+    public static ExecutionLogDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 绑定执行的根通道和缓冲区
+     *
+     * @param rootChannelId 根日志通道id
+     * @param buffer        缓冲区
+     */
+    public void attach(String rootChannelId, ExecutionLogBuffer buffer) {
+        register();
+        rootBuffers.put(rootChannelId, buffer);
+        channelBuffers.put(rootChannelId, buffer);
+        attachments.incrementAndGet();
+        missedChannels.invalidateAll();
+    }
+
+    /**
+     * 解除绑定，执行结束后调用
+     *
+     * @param rootChannelId 根日志通道id
+     */
+    public void detach(String rootChannelId) {
+        final ExecutionLogBuffer buffer = rootBuffers.remove(rootChannelId);
+        if (buffer != null) {
+            channelBuffers.values().removeIf(b -> b == buffer);
+        }
+    }
+
+    @Override
+    public void eventAdded(KettleLoggingEvent event) {
+        if (rootBuffers.isEmpty() || !(event.getMessage() instanceof LogMessage)) {
+            return;
+        }
+
+        final String channelId = ((LogMessage) event.getMessage()).getLogChannelId();
+        if (channelId == null) {
+            return;
+        }
+
+        ExecutionLogBuffer buffer = channelBuffers.get(channelId);
+        if (buffer == null) {
+            if (missedChannels.getIfPresent(channelId) != null) {
+                return;
+            }
+            final long attached = attachments.get();
+            buffer = resolve(channelId);
+            if (buffer == null) {
+                missedChannels.put(channelId, Boolean.TRUE);
+                // 查找期间有新的绑定，通道可能属于新执行，不缓存
+                if (attached != attachments.get()) {
+                    missedChannels.invalidate(channelId);
+                }
+                return;
+            }
+            channelBuffers.put(channelId, buffer);
+            // 查找期间执行已经解除绑定，移除刚缓存的通道，避免缓冲区泄漏
+            if (!rootBuffers.containsValue(buffer)) {
+                channelBuffers.remove(channelId, buffer);
+            }
+        }
+        buffer.append(event);
+    }
+
+    /**
+     * 向上查找已绑定的根通道
+     */
+    private ExecutionLogBuffer resolve(String channelId) {
+        final LoggingRegistry registry = LoggingRegistry.getInstance();
+        LoggingObjectInterface loggingObject = registry.getLoggingObject(channelId);
+
+        for (int depth = 0; loggingObject != null && depth < MAX_PARENT_DEPTH; depth++) {
+            final ExecutionLogBuffer buffer = rootBuffers.get(loggingObject.getLogChannelId());
+            if (buffer != null) {
+                return buffer;
+            }
+            loggingObject = loggingObject.getParent();
+        }
+        return null;
+    }
+
+    private void register() {
+        if (registered) {
+            return;
+        }
+        synchronized (this) {
+            if (!registered) {
+                KettleLogStore.getAppender().addLoggingEventListener(this);
+                registered = true;
+            }
+        }
+    }
+}
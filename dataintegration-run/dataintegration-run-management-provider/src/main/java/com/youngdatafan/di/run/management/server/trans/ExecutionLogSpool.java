@@ -0,0 +1,629 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 执行日志落盘文件
+ * <p>
+ * 日志按块压缩后追加写入 {@code <executorId>.log}，每块在 {@code <executorId>.idx} 中记录一条定长索引
+ * （文件偏移、压缩长度、首行行号、行数、首末行时间），读取时只解压需要的块。
+ * 正在写入的块保存在内存中，执行中的日志同样可以读取。
+ * 写满的块交给写入线程压缩和写文件，不占用追加日志的步骤线程；写入前仍然可以从内存中读取。
+ * <p>
+ * 块内每行的格式为：时间戳(long) + 字节长度(int) + UTF-8内容。
+ *
+ * @author gavin
+ */
+public class ExecutionLogSpool {
+
+    public static final String LOG_FILE_SUFFIX = ".log";
+
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionLogSpool.class);
+
+    private final String executorId;
+
+    private final File logFile;
+
+    private final File indexFile;
+
+    /**
+     * 块大小，未压缩的字节数
+     */
+    private final int blockSize;
+
+    private final List<BlockIndex> blocks;
+
+    /**
+     * 压缩和写文件的线程
+     */
+    private final Executor writeExecutor;
+
+    /**
+     * 已经写满、等待写入文件的块，按顺序写入
+     */
+    private final Deque<SealedBlock> sealedBlocks = new ArrayDeque<>();
+
+    /**
+     * 写文件锁，保证块按顺序写入；持有写文件锁时可以获取对象锁，反之不行
+     */
+    private final Object writeLock = new Object();
+
+    private RandomAccessFile logOutput;
+
+    private DataOutputStream indexOutput;
+
+    /**
+     * 正在写入的块
+     */
+    private ByteArrayOutputStream pendingBytes;
+
+    private DataOutputStream pendingOutput;
+
+    private long pendingFirstLine;
+
+    private int pendingLines;
+
+    private long pendingFirstTime;
+
+    private long pendingLastTime;
+
+    /**
+     * 已写入的总行数
+     */
+    private long totalLines;
+
+    /**
+     * 不再追加日志
+     */
+    private boolean closed;
+
+    /**
+     * 文件已经关闭
+     */
+    private boolean filesClosed;
+
+    private ExecutionLogSpool(String executorId, File folder, int blockSize, List<BlockIndex> blocks, Executor writeExecutor) {
+        this.executorId = executorId;
+        this.logFile = new File(folder, executorId + LOG_FILE_SUFFIX);
+        this.indexFile = new File(folder, executorId + INDEX_FILE_SUFFIX);
+        this.blockSize = blockSize;
+        this.blocks = blocks;
+        this.writeExecutor = writeExecutor;
+    }
+
+    /**
+     * 创建写入的日志文件，写满的块在追加日志的线程中写入
+     *
+     * @param folder     日志目录
+     * @param executorId 执行器id
+     * @param blockSize  块大小
+     * @return ExecutionLogSpool
+     */
+    public static ExecutionLogSpool create(File folder, String executorId, int blockSize) throws IOException {
+        return create(folder, executorId, blockSize, Runnable::run);
+    }
+
+    /**
+     * 创建写入的日志文件
+     *
+     * @param folder        日志目录
+     * @param executorId    执行器id
+     * @param blockSize     块大小
+     * @param writeExecutor 压缩和写文件的线程
+     * @return ExecutionLogSpool
+     */
+    public static ExecutionLogSpool create(File folder, String executorId, int blockSize, Executor writeExecutor) throws IOException {
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("创建日志目录失败: " + folder.getPath());
+        }
+
+        final ExecutionLogSpool spool = new ExecutionLogSpool(executorId, folder, blockSize, new ArrayList<>(), writeExecutor);
+        spool.logOutput = new RandomAccessFile(spool.logFile, "rw");
+        spool.logOutput.setLength(0);
+        spool.indexOutput = new DataOutputStream(new FileOutputStream(spool.indexFile));
+        spool.newPendingBlock();
+        return spool;
+    }
+
+    /**
+     * 打开已经写完的日志文件，只读
+     *
+     * @param folder     日志目录
+     * @param executorId 执行器id
+     * @return ExecutionLogSpool，文件不存在时返回null
+     */
+    public static ExecutionLogSpool open(File folder, String executorId) throws IOException {
+        final File indexFile = new File(folder, executorId + INDEX_FILE_SUFFIX);
+        if (!indexFile.exists() || !new File(folder, executorId + LOG_FILE_SUFFIX).exists()) {
+            return null;
+        }
+
+        List<BlockIndex> blocks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            while (true) {
+                blocks.add(BlockIndex.read(in));
+            }
+        } catch (EOFException e) {
+            // 读取完成，异常退出时最后一条索引可能不完整，直接忽略
+        }
+
+        final ExecutionLogSpool spool = new ExecutionLogSpool(executorId, folder, 0, blocks, null);
+        if (!blocks.isEmpty()) {
+            final BlockIndex last = blocks.get(blocks.size() - 1);
+            spool.totalLines = last.firstLine + last.lineCount;
+        }
+        spool.closed = true;
+        spool.filesClosed = true;
+        return spool;
+    }
+
+    /**
+     * 追加一行日志
+     *
+     * @param line      日志内容
+     * @param timestamp 日志时间
+     */
+    public void append(String line, long timestamp) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                pendingOutput.writeLong(timestamp);
+                pendingOutput.writeInt(bytes.length);
+                pendingOutput.write(bytes);
+            } catch (IOException e) {
+                // 写入内存不会出错
+                throw new IllegalStateException(e);
+            }
+
+            if (pendingLines == 0) {
+                pendingFirstTime = timestamp;
+            }
+            pendingLastTime = timestamp;
+            pendingLines++;
+            totalLines++;
+
+            if (pendingBytes.size() < blockSize) {
+                return;
+            }
+            sealBlock();
+        }
+        // 不能持有对象锁提交，写入线程繁忙时可能在当前线程写入
+        writeExecutor.execute(this::writeSealedBlocks);
+    }
+
+    /**
+     * 写入剩余日志并关闭文件
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            sealBlock();
+        }
+        writeSealedBlocks();
+        synchronized (writeLock) {
+            closeFiles();
+        }
+    }
+
+    /**
+     * 按顺序写入已经写满的块，写入失败时停止落盘，不影响项目执行
+     */
+    private void writeSealedBlocks() {
+        synchronized (writeLock) {
+            while (true) {
+                final SealedBlock sealed;
+                synchronized (this) {
+                    sealed = filesClosed ? null : sealedBlocks.peekFirst();
+                }
+                if (sealed == null) {
+                    return;
+                }
+
+                try {
+                    final byte[] compressed = compress(sealed.data);
+                    final BlockIndex block = new BlockIndex(logOutput.length(), compressed.length, sealed.firstLine
+                            , sealed.lineCount, sealed.firstTime, sealed.lastTime);
+                    logOutput.seek(block.offset);
+                    logOutput.write(compressed);
+                    block.write(indexOutput);
+                    indexOutput.flush();
+
+                    synchronized (this) {
+                        blocks.add(block);
+                        sealedBlocks.pollFirst();
+                    }
+                } catch (IOException e) {
+                    logger.warn("写入执行日志文件失败，executorId: {}", executorId, e);
+                    closeFiles();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭文件，需要持有写文件锁
+     */
+    private void closeFiles() {
+        synchronized (this) {
+            if (filesClosed) {
+                return;
+            }
+            closed = true;
+            filesClosed = true;
+            sealedBlocks.clear();
+            pendingBytes = null;
+            pendingOutput = null;
+            pendingLines = 0;
+        }
+        try {
+            indexOutput.close();
+            logOutput.close();
+        } catch (IOException e) {
+            logger.warn("关闭执行日志文件失败，executorId: {}", executorId, e);
+        }
+    }
+
+    /**
+     * 当前块加入待写入队列，需要持有对象锁
+     */
+    private void sealBlock() {
+        if (pendingLines == 0) {
+            return;
+        }
+        sealedBlocks.addLast(new SealedBlock(pendingBytes.toByteArray(), pendingFirstLine, pendingLines
+                , pendingFirstTime, pendingLastTime));
+        newPendingBlock();
+    }
+
+    private void newPendingBlock() {
+        pendingBytes = new ByteArrayOutputStream(blockSize + 1024);
+        pendingOutput = new DataOutputStream(pendingBytes);
+        pendingFirstLine = totalLines;
+        pendingLines = 0;
+    }
+
+    /**
+     * 从指定行号开始读取日志
+     *
+     * @param fromLine 起始行号，从0开始
+     * @param limit    最大行数
+     * @return 日志行
+     */
+    public List<LogLine> read(long fromLine, int limit) throws IOException {
+        if (limit <= 0 || fromLine < 0) {
+            return new ArrayList<>();
+        }
+        List<LogLine> result = new ArrayList<>(Math.min(limit, 1024));
+
+        final List<BlockIndex> blockSnapshot;
+        final List<SealedBlock> sealedSnapshot;
+        final byte[] pendingSnapshot;
+        final long pendingFirst;
+        synchronized (this) {
+            blockSnapshot = new ArrayList<>(blocks);
+            sealedSnapshot = new ArrayList<>(sealedBlocks);
+            pendingSnapshot = pendingLines > 0 ? pendingBytes.toByteArray() : null;
+            pendingFirst = pendingFirstLine;
+        }
+
+        for (int i = findBlockByLine(blockSnapshot, fromLine); i < blockSnapshot.size() && result.size() < limit; i++) {
+            final BlockIndex block = blockSnapshot.get(i);
+            decode(readBlock(block), block.firstLine, fromLine, limit, result);
+        }
+        for (SealedBlock sealed : sealedSnapshot) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (sealed.firstLine + sealed.lineCount > fromLine) {
+                decode(sealed.data, sealed.firstLine, fromLine, limit, result);
+            }
+        }
+        if (pendingSnapshot != null && result.size() < limit) {
+            decode(pendingSnapshot, pendingFirst, fromLine, limit, result);
+        }
+        return result;
+    }
+
+    /**
+     * 读取最后的日志
+     *
+     * @param lines 行数
+     * @return 日志行
+     */
+    public List<LogLine> tail(int lines) throws IOException {
+        return read(Math.max(getTotalLines() - lines, 0), lines);
+    }
+
+    /**
+     * 查找不早于指定时间的第一行的行号
+     *
+     * @param timestamp 时间
+     * @return 行号，没有时返回总行数
+     */
+    public long findLineByTime(long timestamp) throws IOException {
+        final List<BlockIndex> blockSnapshot;
+        synchronized (this) {
+            blockSnapshot = new ArrayList<>(blocks);
+        }
+
+        for (BlockIndex block : blockSnapshot) {
+            if (block.lastTime >= timestamp) {
+                List<LogLine> lines = new ArrayList<>(block.lineCount);
+                decode(readBlock(block), block.firstLine, block.firstLine, block.lineCount, lines);
+                for (LogLine line : lines) {
+                    if (line.getTimestamp() >= timestamp) {
+                        return line.getLineNumber();
+                    }
+                }
+            }
+        }
+
+        // 在内存中的块查找
+        final long from = blockSnapshot.isEmpty() ? 0
+                : blockSnapshot.get(blockSnapshot.size() - 1).firstLine + blockSnapshot.get(blockSnapshot.size() - 1).lineCount;
+        for (LogLine line : read(from, Integer.MAX_VALUE)) {
+            if (line.getTimestamp() >= timestamp) {
+                return line.getLineNumber();
+            }
+        }
+        return getTotalLines();
+    }
+
+    private static int findBlockByLine(List<BlockIndex> blocks, long line) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final BlockIndex block = blocks.get(mid);
+            if (line < block.firstLine) {
+                high = mid - 1;
+            } else if (line >= block.firstLine + block.lineCount) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return low;
+    }
+
+    private byte[] readBlock(BlockIndex block) throws IOException {
+        final byte[] compressed = new byte[block.length];
+        try (RandomAccessFile in = new RandomAccessFile(logFile, "r")) {
+            in.seek(block.offset);
+            in.readFully(compressed);
+        }
+        return decompress(compressed);
+    }
+
+    private static void decode(byte[] data, long firstLine, long fromLine, int limit, List<LogLine> result) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            long lineNumber = firstLine;
+            while (in.available() > 0 && result.size() < limit) {
+                final long timestamp = in.readLong();
+                final int length = in.readInt();
+                if (lineNumber < fromLine) {
+                    skipFully(in, length);
+                } else {
+                    final byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    result.add(new LogLine(lineNumber, timestamp, new String(bytes, StandardCharsets.UTF_8)));
+                }
+                lineNumber++;
+            }
+        }
+    }
+
+    private static void skipFully(InputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static byte[] compress(byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                final int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("日志块不完整");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("日志块格式错误", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public synchronized long getTotalLines() {
+        return totalLines;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public String getExecutorId() {
+        return executorId;
+    }
+
+    public File getLogFile() {
+        return logFile;
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    public List<BlockIndex> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * 块索引，定长40字节
+     */
+    public static class BlockIndex {
+
+        private final long offset;
+
+        private final int length;
+
+        private final long firstLine;
+
+        private final int lineCount;
+
+        private final long firstTime;
+
+        private final long lastTime;
+
+        BlockIndex(long offset, int length, long firstLine, int lineCount, long firstTime, long lastTime) {
+            this.offset = offset;
+            this.length = length;
+            this.firstLine = firstLine;
+            this.lineCount = lineCount;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+
+        static BlockIndex read(DataInputStream in) throws IOException {
+            return new BlockIndex(in.readLong(), in.readInt(), in.readLong(), in.readInt(), in.readLong(), in.readLong());
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeLong(firstLine);
+            out.writeInt(lineCount);
+            out.writeLong(firstTime);
+            out.writeLong(lastTime);
+        }
+
+        public long getFirstLine() {
+            return firstLine;
+        }
+
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        public long getFirstTime() {
+            return firstTime;
+        }
+
+        public long getLastTime() {
+            return lastTime;
+        }
+    }
+
+    /**
+     * 等待写入文件的块，未压缩
+     */
+    private static class SealedBlock {
+
+        private final byte[] data;
+
+        private final long firstLine;
+
+        private final int lineCount;
+
+        private final long firstTime;
+
+        private final long lastTime;
+
+        SealedBlock(byte[] data, long firstLine, int lineCount, long firstTime, long lastTime) {
+            this.data = data;
+            this.firstLine = firstLine;
+            this.lineCount = lineCount;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+    }
+
+    /**
+     * 日志行
+     */
+    public static class LogLine {
+
+        private final long lineNumber;
+
+        private final long timestamp;
+
+        private final String text;
+
+        public LogLine(long lineNumber, long timestamp, String text) {
+            this.lineNumber = lineNumber;
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
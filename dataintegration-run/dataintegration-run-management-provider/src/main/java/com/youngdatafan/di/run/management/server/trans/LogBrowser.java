@@ -55,6 +55,16 @@ public class LogBrowser {
     private AtomicBoolean busy;
     private KettleLogLayout logLayout;
 
+    /**
+     * 日志缓冲区的下一次读取序号
+     */
+    private long nextSequence;
+
+    /**
+     * 因缓冲区满没有读到的行数
+     */
+    private long droppedLines;
+
     public LogBrowser(LogParentProvidedInterface logProvider) {
         this.logProvider = logProvider;
         this.paused = new AtomicBoolean(false);
@@ -73,6 +83,11 @@ public class LogBrowser {
 
         HasLogChannelInterface provider = logProvider.getLogChannelProvider();
 
+        if (logProvider instanceof LogBufferProvidedInterface
+                && ((LogBufferProvidedInterface) logProvider).getLogBuffer() != null) {
+            return getBufferedLog(((LogBufferProvidedInterface) logProvider).getLogBuffer());
+        }
+
         if (provider != null && !busy.get() && !paused.get()) {
             busy.set(true);
 
@@ -109,6 +124,23 @@ public class LogBrowser {
         return logBuilder.toString();
     }
 
+    /**
+     * 从执行日志缓冲区增量读取，只读取上次之后的新日志
+     */
+    private String getBufferedLog(ExecutionLogBuffer logBuffer) {
+        if (paused.get() || !busy.compareAndSet(false, true)) {
+            return "";
+        }
+        try {
+            final ExecutionLogBuffer.LogChunk chunk = logBuffer.read(nextSequence);
+            nextSequence = chunk.getNextSequence();
+            droppedLines += chunk.getSkipped();
+            return chunk.toText();
+        } finally {
+            busy.set(false);
+        }
+    }
+
     public LogParentProvidedInterface getLogProvider() {
         return logProvider;
     }
@@ -121,4 +153,8 @@ public class LogBrowser {
         this.paused.set(paused);
     }
 
+    public long getDroppedLines() {
+        return droppedLines;
+    }
+
 }
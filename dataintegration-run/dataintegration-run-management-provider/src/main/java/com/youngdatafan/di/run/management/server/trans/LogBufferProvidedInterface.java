@@ -0,0 +1,16 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+/**
+ * 提供单次执行日志缓冲区
+ *
+ * @author gavin
+ */
+public interface LogBufferProvidedInterface {
+
+    /**
+     * 执行日志缓冲区，执行开始前返回null
+     *
+     * @return 日志缓冲区
+     */
+    ExecutionLogBuffer getLogBuffer();
+}
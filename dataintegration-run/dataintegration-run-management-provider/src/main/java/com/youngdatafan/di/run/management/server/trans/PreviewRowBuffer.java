@@ -0,0 +1,191 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * 步骤预览数据缓冲区
+ * <p>
+ * 固定容量的环形缓冲区，每个位置的行数组第一次写入时分配，之后复用；
+ * 写入时只复制不可变字段值的引用，日期、二进制等可变值才克隆，避免每行 cloneRow 和 RowMetaAndData 的分配。
+ *
+ * @author gavin
+ */
+public class PreviewRowBuffer {
+
+    private final Object[][] slots;
+
+    private RowMetaInterface rowMeta;
+
+    /**
+     * 字段值是否需要克隆
+     */
+    private boolean[] cloneValues;
+
+    /**
+     * 最早一行的位置
+     */
+    private int head;
+
+    private int size;
+
+    public PreviewRowBuffer(int capacity) {
+        this.slots = new Object[Math.max(capacity, 1)][];
+    }
+
+    /**
+     * 写入一行，已满时覆盖最早的一行
+     *
+     * @param rowMeta 行元数据
+     * @param row     行数据
+     */
+    public synchronized void add(RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+        final int index;
+        if (size < slots.length) {
+            index = (head + size) % slots.length;
+            size++;
+        } else {
+            index = head;
+            head = (head + 1) % slots.length;
+        }
+        copyInto(index, rowMeta, row);
+    }
+
+    /**
+     * 覆盖指定位置的行，位置按写入顺序从0开始
+     *
+     * @param position 位置
+     * @param rowMeta  行元数据
+     * @param row      行数据
+     */
+    public synchronized void set(int position, RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + size);
+        }
+        copyInto((head + position) % slots.length, rowMeta, row);
+    }
+
+    private void copyInto(int index, RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+        if (rowMeta != this.rowMeta) {
+            initRowMeta(rowMeta);
+        }
+
+        final int fieldCount = cloneValues.length;
+        Object[] slot = slots[index];
+        if (slot == null || slot.length != fieldCount) {
+            slot = new Object[fieldCount];
+            slots[index] = slot;
+        }
+
+        for (int i = 0; i < fieldCount; i++) {
+            final Object value = i < row.length ? row[i] : null;
+            slot[i] = value != null && cloneValues[i] ? rowMeta.getValueMeta(i).cloneValueData(value) : value;
+        }
+    }
+
+    private void initRowMeta(RowMetaInterface rowMeta) {
+        this.rowMeta = rowMeta;
+        this.cloneValues = new boolean[rowMeta.size()];
+        for (int i = 0; i < cloneValues.length; i++) {
+            final ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+            switch (valueMeta.getType()) {
+                case ValueMetaInterface.TYPE_STRING:
+                case ValueMetaInterface.TYPE_INTEGER:
+                case ValueMetaInterface.TYPE_NUMBER:
+                case ValueMetaInterface.TYPE_BIGNUMBER:
+                case ValueMetaInterface.TYPE_BOOLEAN:
+                    // 懒转换的字段以 byte[] 存储，仍然需要克隆
+                    cloneValues[i] = valueMeta.isStorageBinaryString();
+                    break;
+                default:
+                    cloneValues[i] = true;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 只保留第0、2、4...行，用于等间隔抽样时间隔加倍
+     */
+    public synchronized void retainEveryOther() {
+        final int newSize = (size + 1) / 2;
+        for (int i = 1; i < newSize; i++) {
+            // 交换而不是复制引用，保留行数组以便复用
+            final int from = (head + i * 2) % slots.length;
+            final int to = (head + i) % slots.length;
+            final Object[] slot = slots[to];
+            slots[to] = slots[from];
+            slots[from] = slot;
+        }
+        size = newSize;
+    }
+
+    /**
+     * 随机保留 newSize 行（选择抽样），保留的行维持原来的顺序，释放其余的行数组
+     *
+     * @param newSize 保留行数
+     * @param random  随机数
+     */
+    public synchronized void retainRandom(int newSize, Random random) {
+        final int target = Math.max(newSize, 0);
+        if (target >= size) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < size && kept < target; i++) {
+            // 剩余 size - i 行中还需要选 target - kept 行，当前行以 (target - kept) / (size - i) 的概率保留
+            if (random.nextInt(size - i) < target - kept) {
+                final int from = (head + i) % slots.length;
+                final int to = (head + kept) % slots.length;
+                final Object[] slot = slots[to];
+                slots[to] = slots[from];
+                slots[from] = slot;
+                kept++;
+            }
+        }
+        truncate(kept);
+    }
+
+    /**
+     * 只保留前 newSize 行，释放其余的行数组
+     */
+    public synchronized void truncate(int newSize) {
+        for (int i = Math.max(newSize, 0); i < size; i++) {
+            slots[(head + i) % slots.length] = null;
+        }
+        size = Math.min(size, Math.max(newSize, 0));
+    }
+
+    public synchronized boolean isFull() {
+        return size == slots.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public synchronized RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    /**
+     * 按写入顺序返回缓冲区中的行，返回的是内部数组，调用时步骤应该已经结束
+     *
+     * @return 行数据
+     */
+    public synchronized List<Object[]> getRows() {
+        List<Object[]> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(slots[(head + i) % slots.length]);
+        }
+        return rows;
+    }
+}
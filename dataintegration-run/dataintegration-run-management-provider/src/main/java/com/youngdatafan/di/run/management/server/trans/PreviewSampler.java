@@ -0,0 +1,304 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * 预览数据抽样
+ * <p>
+ * 所有模式的内存都不超过预览行数，每行的处理为O(1)：
+ * <ul>
+ * <li>FIRST：前N行，取满后不再需要数据</li>
+ * <li>LAST：最后N行</li>
+ * <li>RESERVOIR：蓄水池抽样，整个数据流中均匀随机的N行</li>
+ * <li>STRIDED：等间隔抽样，缓冲区满时间隔加倍并丢弃一半，覆盖整个数据流</li>
+ * <li>STRATIFIED：按字段值分层，每个值各自蓄水池抽样，N行平均分配到各层</li>
+ * </ul>
+ *
+ * @author gavin
+ */
+public abstract class PreviewSampler {
+
+    /**
+     * 创建抽样对象
+     *
+     * @param previewMode 预览模式
+     * @param size        预览行数
+     * @param seed        随机种子
+     * @param keyField    分层字段，STRATIFIED 模式使用
+     * @return PreviewSampler
+     */
+    public static PreviewSampler create(TransPreview.PreviewMode previewMode, int size, long seed, String keyField) {
+        switch (previewMode) {
+            case LAST:
+                return new LastRowsSampler(size);
+            case RESERVOIR:
+                return new ReservoirSampler(size, new Random(seed));
+            case STRIDED:
+                return new StridedSampler(size);
+            case STRATIFIED:
+                return new StratifiedSampler(size, new Random(seed), keyField);
+            default:
+                return new FirstRowsSampler(size);
+        }
+    }
+
+    /**
+     * 处理一行数据
+     *
+     * @param rowMeta 行元数据
+     * @param row     行数据
+     * @return 是否还需要后续的数据
+     */
+    public abstract boolean offer(RowMetaInterface rowMeta, Object[] row) throws KettleValueException;
+
+    /**
+     * 行元数据，没有数据时返回null
+     */
+    public abstract RowMetaInterface getRowMeta();
+
+    /**
+     * 抽样结果
+     */
+    public abstract List<Object[]> getRows();
+
+    public abstract int size();
+
+    /**
+     * 基于单个缓冲区的抽样
+     */
+    private abstract static class BufferedSampler extends PreviewSampler {
+
+        protected final PreviewRowBuffer buffer;
+
+        BufferedSampler(int size) {
+            this.buffer = new PreviewRowBuffer(size);
+        }
+
+        @Override
+        public RowMetaInterface getRowMeta() {
+            return buffer.getRowMeta();
+        }
+
+        @Override
+        public List<Object[]> getRows() {
+            return buffer.getRows();
+        }
+
+        @Override
+        public int size() {
+            return buffer.size();
+        }
+    }
+
+    private static class FirstRowsSampler extends BufferedSampler {
+
+        FirstRowsSampler(int size) {
+            super(size);
+        }
+
+        @Override
+        public boolean offer(RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+            if (!buffer.isFull()) {
+                buffer.add(rowMeta, row);
+            }
+            return !buffer.isFull();
+        }
+    }
+
+    private static class LastRowsSampler extends BufferedSampler {
+
+        LastRowsSampler(int size) {
+            super(size);
+        }
+
+        @Override
+        public boolean offer(RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+            buffer.add(rowMeta, row);
+            return true;
+        }
+    }
+
+    /**
+     * 蓄水池抽样（Algorithm R）
+     */
+    private static class ReservoirSampler extends BufferedSampler {
+
+        private final Random random;
+
+        /**
+         * 已经处理的行数
+         */
+        private long count;
+
+        /**
+         * 当前容量，分层抽样时会缩小
+         */
+        private int capacity;
+
+        ReservoirSampler(int size, Random random) {
+            super(size);
+            this.random = random;
+            this.capacity = buffer.getCapacity();
+        }
+
+        @Override
+        public boolean offer(RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+            count++;
+            if (buffer.size() < capacity) {
+                buffer.add(rowMeta, row);
+            } else {
+                // 以 capacity/count 的概率替换随机的一行
+                final long index = (long) (random.nextDouble() * count);
+                if (index < capacity) {
+                    buffer.set((int) index, rowMeta, row);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 缩小容量，随机保留 newCapacity 行
+         * <p>
+         * 蓄水池未满时前面的位置就是最早的行，直接截断会偏向数据流的开头，需要随机选择。
+         */
+        void shrink(int newCapacity) {
+            if (newCapacity < capacity) {
+                capacity = newCapacity;
+                buffer.retainRandom(newCapacity, random);
+            }
+        }
+    }
+
+    /**
+     * 等间隔抽样
+     */
+    private static class StridedSampler extends BufferedSampler {
+
+        private long stride = 1;
+
+        private long count;
+
+        StridedSampler(int size) {
+            super(size);
+        }
+
+        @Override
+        public boolean offer(RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+            if (count++ % stride != 0) {
+                return true;
+            }
+            if (buffer.isFull()) {
+                // 间隔加倍，已保留的行中只留下符合新间隔的行
+                buffer.retainEveryOther();
+                stride *= 2;
+                if ((count - 1) % stride != 0) {
+                    return true;
+                }
+            }
+            buffer.add(rowMeta, row);
+            return true;
+        }
+    }
+
+    /**
+     * 分层抽样，最多 size 个分层，之后出现的值不再抽样
+     */
+    private static class StratifiedSampler extends PreviewSampler {
+
+        private final int size;
+
+        private final Random random;
+
+        private final String keyField;
+
+        private final Map<Object, ReservoirSampler> strata = new LinkedHashMap<>();
+
+        private RowMetaInterface rowMeta;
+
+        private int keyIndex = -1;
+
+        StratifiedSampler(int size, Random random, String keyField) {
+            this.size = Math.max(size, 1);
+            this.random = random;
+            this.keyField = keyField;
+        }
+
+        @Override
+        public synchronized boolean offer(RowMetaInterface rowMeta, Object[] row) throws KettleValueException {
+            if (rowMeta != this.rowMeta) {
+                this.rowMeta = rowMeta;
+                keyIndex = keyField == null ? -1 : rowMeta.indexOfValue(keyField);
+            }
+
+            // 分层字段不存在时整体作为一层
+            final Object value = keyIndex >= 0 && keyIndex < row.length ? row[keyIndex] : null;
+            final Object lookupKey = value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+
+            ReservoirSampler stratum = strata.get(lookupKey);
+            if (stratum == null) {
+                if (strata.size() >= size) {
+                    return true;
+                }
+                stratum = newStratum(keyIndex >= 0 ? rowMeta.getValueMeta(keyIndex) : null, value);
+            }
+            return stratum.offer(rowMeta, row);
+        }
+
+        private ReservoirSampler newStratum(ValueMetaInterface keyMeta, Object value) throws KettleValueException {
+            final int perStratum = Math.max(size / (strata.size() + 1), 1);
+            for (ReservoirSampler sampler : strata.values()) {
+                sampler.shrink(perStratum);
+            }
+
+            // 行数据会被下游修改，分层的key需要复制
+            final Object key;
+            if (value instanceof byte[]) {
+                key = ByteBuffer.wrap(((byte[]) value).clone());
+            } else if (value != null && keyMeta != null) {
+                key = keyMeta.cloneValueData(value);
+            } else {
+                key = value;
+            }
+
+            final ReservoirSampler stratum = new ReservoirSampler(perStratum, random);
+            strata.put(key, stratum);
+            return stratum;
+        }
+
+        @Override
+        public synchronized RowMetaInterface getRowMeta() {
+            for (ReservoirSampler sampler : strata.values()) {
+                if (sampler.size() > 0) {
+                    return sampler.getRowMeta();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public synchronized List<Object[]> getRows() {
+            List<Object[]> rows = new ArrayList<>(size);
+            for (ReservoirSampler sampler : strata.values()) {
+                rows.addAll(sampler.getRows());
+            }
+            return rows;
+        }
+
+        @Override
+        public synchronized int size() {
+            int count = 0;
+            for (ReservoirSampler sampler : strata.values()) {
+                count += sampler.size();
+            }
+            return count;
+        }
+    }
+}
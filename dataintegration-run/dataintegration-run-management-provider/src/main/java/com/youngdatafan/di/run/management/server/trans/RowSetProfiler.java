@@ -0,0 +1,224 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * 连接缓存行数分析
+ * <p>
+ * 转换开始后的一段时间内采样每个连接（同一对步骤之间的所有副本 RowSet）的缓存行数，
+ * 统计已满、为空的比例和最大缓存行数，据此在本次执行的缓存行数基础上计算每个连接需要的缓存行数：
+ * <ul>
+ * <li>大部分时间已满：下游是瓶颈，扩大缓存也不能提速，保持不变</li>
+ * <li>偶尔已满：突发流量导致上游阻塞，扩大一倍</li>
+ * <li>从未满过、有足够的非空采样且最大缓存行数一直低于一半：缩小到最大缓存行数的两倍，每次最多缩小一半</li>
+ * <li>其余（包括几乎没有数据经过的连接）：保持不变</li>
+ * </ul>
+ * 本次执行的缓存行数就是上次分析的结果，多次执行逐步收敛，稳定的连接不会一直缩小到最小值。
+ * Kettle 在 prepareExecution 中按 TransMeta 的 sizeRowset 创建所有 RowSet，步骤初始化时会缓存 RowSet 的引用，
+ * 创建之后不能再替换，所以下次执行时取各连接需要的最大值作为转换的 sizeRowset，
+ * 所有连接按估算的行大小合计不超过内存预算，超出时缩小。
+ *
+ * @author gavin
+ */
+public class RowSetProfiler {
+
+    /**
+     * 计算缓存行数需要的最少采样次数
+     */
+    private static final int MIN_SAMPLES = 5;
+
+    private final int defaultCapacity;
+
+    private final long profileNanos;
+
+    private final Map<String, HopStats> hops = new LinkedHashMap<>();
+
+    private long startTime = -1;
+
+    /**
+     * @param defaultCapacity 转换默认的 RowSet 容量
+     * @param profileMillis   采样时长，单位：毫秒
+     */
+    public RowSetProfiler(int defaultCapacity, long profileMillis) {
+        this.defaultCapacity = defaultCapacity;
+        this.profileNanos = profileMillis * 1_000_000L;
+    }
+
+    /**
+     * 连接标识，上游步骤 -> 下游步骤，不区分副本
+     */
+    public static String hopKey(RowSet rowSet) {
+        return rowSet.getOriginStepName() + " -> " + rowSet.getDestinationStepName();
+    }
+
+    /**
+     * 添加需要分析的 RowSet
+     */
+    public void addRowSet(RowSet rowSet) {
+        hops.computeIfAbsent(hopKey(rowSet), key -> new HopStats(defaultCapacity)).rowSets.add(rowSet);
+    }
+
+    /**
+     * 采样，超过采样时长后不再统计
+     *
+     * @param now 当前时间，纳秒
+     */
+    public synchronized void sample(long now) {
+        if (startTime < 0) {
+            startTime = now;
+        }
+        if (now - startTime > profileNanos) {
+            return;
+        }
+
+        for (HopStats stats : hops.values()) {
+            for (RowSet rowSet : stats.rowSets) {
+                if (rowSet.isDone()) {
+                    continue;
+                }
+                final int size = rowSet.size();
+                stats.samples++;
+                if (size >= stats.capacity) {
+                    stats.fullSamples++;
+                } else if (size == 0) {
+                    stats.emptySamples++;
+                }
+                stats.maxFill = Math.max(stats.maxFill, size);
+
+                if (stats.rowBytes == 0) {
+                    final RowMetaInterface rowMeta = rowSet.getRowMeta();
+                    if (rowMeta != null) {
+                        stats.rowBytes = estimateRowBytes(rowMeta);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算每个连接需要的缓存行数，采样不足的连接不返回
+     *
+     * @param minSize 最小缓存行数
+     * @param maxSize 最大缓存行数
+     * @return 连接 -> 缓存行数
+     */
+    public synchronized Map<String, Integer> computeSizes(int minSize, int maxSize) {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (Map.Entry<String, HopStats> entry : hops.entrySet()) {
+            final HopStats stats = entry.getValue();
+            if (stats.samples < MIN_SAMPLES) {
+                continue;
+            }
+
+            final double fullRatio = stats.fullSamples / (double) stats.samples;
+            final int size;
+            if (fullRatio >= 0.5) {
+                size = stats.capacity;
+            } else if (fullRatio > 0.05) {
+                size = stats.capacity * 2;
+            } else if (stats.fullSamples == 0 && stats.samples - stats.emptySamples >= MIN_SAMPLES
+                    && stats.maxFill * 2 < stats.capacity) {
+                size = Math.max(stats.capacity / 2, stats.maxFill * 2);
+            } else {
+                size = stats.capacity;
+            }
+            sizes.put(entry.getKey(), Math.max(minSize, Math.min(maxSize, size)));
+        }
+        return sizes;
+    }
+
+    /**
+     * 计算转换的缓存行数（TransMeta sizeRowset），取各连接需要的最大值
+     *
+     * @param minSize     最小缓存行数
+     * @param maxSize     最大缓存行数
+     * @param budgetBytes 所有连接的内存预算，字节，0表示不限制
+     * @return 缓存行数，没有采样足够的连接时返回0
+     */
+    public synchronized int computeSize(int minSize, int maxSize, long budgetBytes) {
+        int size = 0;
+        for (int hopSize : computeSizes(minSize, maxSize).values()) {
+            size = Math.max(size, hopSize);
+        }
+        if (size == 0) {
+            return 0;
+        }
+
+        // 所有连接使用相同的缓存行数，超出内存预算时缩小
+        long bytesPerRow = 0;
+        for (HopStats stats : hops.values()) {
+            bytesPerRow += stats.rowBytes() * stats.rowSets.size();
+        }
+        if (budgetBytes > 0 && (long) size * bytesPerRow > budgetBytes) {
+            size = (int) Math.max(minSize, budgetBytes / bytesPerRow);
+        }
+        return size;
+    }
+
+    /**
+     * 估算一行数据占用的内存
+     */
+    static long estimateRowBytes(RowMetaInterface rowMeta) {
+        // 数组头和引用
+        long bytes = 16 + 8L * rowMeta.size();
+        for (int i = 0; i < rowMeta.size(); i++) {
+            final ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+            switch (valueMeta.getType()) {
+                case ValueMetaInterface.TYPE_STRING:
+                    bytes += valueMeta.getLength() > 0 ? 40 + Math.min(valueMeta.getLength(), 256) : 80;
+                    break;
+                case ValueMetaInterface.TYPE_INTEGER:
+                case ValueMetaInterface.TYPE_NUMBER:
+                case ValueMetaInterface.TYPE_BOOLEAN:
+                    bytes += 24;
+                    break;
+                case ValueMetaInterface.TYPE_DATE:
+                case ValueMetaInterface.TYPE_TIMESTAMP:
+                    bytes += 32;
+                    break;
+                case ValueMetaInterface.TYPE_BINARY:
+                    bytes += 256;
+                    break;
+                default:
+                    bytes += 64;
+                    break;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 连接统计
+     */
+    private static class HopStats {
+
+        private final int capacity;
+
+        private final List<RowSet> rowSets = new ArrayList<>();
+
+        private long samples;
+
+        private long fullSamples;
+
+        private long emptySamples;
+
+        private int maxFill;
+
+        private long rowBytes;
+
+        HopStats(int capacity) {
+            this.capacity = capacity;
+        }
+
+        long rowBytes() {
+            // 没有采样到元数据时按10个字段估算
+            return rowBytes > 0 ? rowBytes : 16 + 10 * (8 + 64);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+/**
+ * 无状态计算步骤自动并行
+ * <p>
+ * 在创建转换之前，为用户没有设置副本数的无状态计算步骤（计算器、正则、字段选择等）设置副本数，
+ * 行按轮询分发到各个副本。脚本步骤可以在行之间保存变量（累计值、上一行的值等），默认不并行。以下情况不并行：
+ * <ul>
+ * <li>步骤已经设置了副本数、分区或者集群</li>
+ * <li>步骤开启了错误处理，或者是其他步骤的错误处理目标</li>
+ * <li>上游步骤是复制模式，多个副本会重复处理同一行</li>
+ * <li>步骤是下游步骤的信息流（如流查询）</li>
+ * <li>相邻步骤已经设置了多个副本，副本数不一致时无法连接</li>
+ * <li>下游在重新排序之前有需要有序输入的步骤（合并连接、分组等），或者输出结果依赖行顺序的步骤（文件、Excel、表输出等）</li>
+ * </ul>
+ *
+ * @author gavin
+ */
+public class StepParallelizer {
+
+    /**
+     * 默认并行的步骤类型
+     */
+    public static final Set<String> DEFAULT_STEP_IDS = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            "Calculator", "RegexEval", "SelectValues", "ReplaceString", "StringOperations", "ValueMapper")));
+
+    /**
+     * 需要有序输入的步骤，包括输出结果依赖行顺序的步骤（文件中的行顺序、表中相同主键的最后一次写入等）
+     */
+    private static final Set<String> ORDER_SENSITIVE_STEP_IDS = new HashSet<>(Arrays.asList(
+            "MergeJoin", "MergeRows", "SortedMerge", "GroupBy", "Unique", "AnalyticQuery", "Denormaliser", "Flattener"
+            , "FieldsChangeSequence"
+            , "TextFileOutput", "TextFileOutputLegacy", "ExcelOutput", "TypeExitExcelWriterStep", "JsonOutput", "XMLOutput"
+            , "SQLFileOutput", "TableOutput", "InsertUpdate", "Update"));
+
+    /**
+     * 重新排序的步骤，之后的步骤不受上游顺序影响
+     */
+    private static final String SORT_ROWS = "SortRows";
+
+    private final Set<String> stepIds;
+
+    /**
+     * 可以额外使用的线程数
+     */
+    private final int extraThreads;
+
+    /**
+     * 单个步骤最大副本数
+     */
+    private final int maxCopies;
+
+    public StepParallelizer(Set<String> stepIds, int extraThreads, int maxCopies) {
+        this.stepIds = stepIds;
+        this.extraThreads = extraThreads;
+        this.maxCopies = maxCopies;
+    }
+
+    /**
+     * 设置步骤副本数，必须在创建 Trans 之前调用
+     *
+     * @param transMeta 转换，只修改本次执行克隆的对象
+     * @return 决策结果
+     */
+    public Decision apply(TransMeta transMeta) {
+        final Decision decision = new Decision(extraThreads);
+
+        final Set<StepMeta> candidates = new LinkedHashSet<>();
+        for (StepMeta stepMeta : transMeta.getSteps()) {
+            if (!stepIds.contains(stepMeta.getStepID())) {
+                continue;
+            }
+            final String reason = checkSupported(transMeta, stepMeta);
+            if (reason == null) {
+                candidates.add(stepMeta);
+            } else {
+                decision.skipped.put(stepMeta.getName(), reason);
+            }
+        }
+
+        // 相邻步骤要么是单副本，要么同样并行，排除一个候选后需要重新检查相邻的候选
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (StepMeta stepMeta : new ArrayList<>(candidates)) {
+                final StepMeta neighbor = findMultiCopyNeighbor(transMeta, stepMeta, candidates);
+                if (neighbor != null) {
+                    candidates.remove(stepMeta);
+                    decision.skipped.put(stepMeta.getName(), "相邻步骤[" + neighbor.getName() + "]已设置多个副本");
+                    changed = true;
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return decision;
+        }
+
+        final int copies = copiesFor(extraThreads, candidates.size(), maxCopies);
+        if (copies < 2) {
+            for (StepMeta stepMeta : candidates) {
+                decision.skipped.put(stepMeta.getName(), "可用线程不足");
+            }
+            return decision;
+        }
+
+        for (StepMeta stepMeta : candidates) {
+            stepMeta.setCopies(copies);
+            decision.copies.put(stepMeta.getName(), copies);
+        }
+        return decision;
+    }
+
+    /**
+     * 检查步骤本身是否可以并行
+     *
+     * @return 不能并行的原因，可以并行时返回null
+     */
+    private static String checkSupported(TransMeta transMeta, StepMeta stepMeta) {
+        if (stepMeta.getCopies() != 1) {
+            return "已设置副本数";
+        }
+        if (stepMeta.isPartitioned() || stepMeta.isClustered()) {
+            return "已设置分区或集群";
+        }
+        if (stepMeta.isDoingErrorHandling()) {
+            return "开启了错误处理";
+        }
+
+        final List<StepMeta> prevSteps = transMeta.findPreviousSteps(stepMeta, true);
+        if (prevSteps.isEmpty()) {
+            return "没有上游步骤";
+        }
+        for (StepMeta prev : prevSteps) {
+            if (prev.isDoingErrorHandling() && stepMeta.equals(prev.getStepErrorMeta().getTargetStep())) {
+                return "是步骤[" + prev.getName() + "]的错误处理目标";
+            }
+            if (!prev.isDistributes()) {
+                return "上游步骤[" + prev.getName() + "]是复制模式";
+            }
+        }
+
+        for (StepMeta next : transMeta.findNextSteps(stepMeta)) {
+            if (transMeta.isStepInformative(next, stepMeta)) {
+                return "是步骤[" + next.getName() + "]的信息流";
+            }
+        }
+
+        final StepMeta orderSensitive = findOrderSensitiveDownstream(transMeta, stepMeta);
+        if (orderSensitive != null) {
+            return "下游步骤[" + orderSensitive.getName() + "]需要有序输入";
+        }
+        return null;
+    }
+
+    /**
+     * 查找重新排序之前需要有序输入的下游步骤
+     */
+    private static StepMeta findOrderSensitiveDownstream(TransMeta transMeta, StepMeta stepMeta) {
+        final Set<StepMeta> visited = new HashSet<>();
+        final Deque<StepMeta> queue = new ArrayDeque<>(transMeta.findNextSteps(stepMeta));
+        while (!queue.isEmpty()) {
+            final StepMeta next = queue.poll();
+            if (!visited.add(next) || SORT_ROWS.equals(next.getStepID())) {
+                continue;
+            }
+            if (ORDER_SENSITIVE_STEP_IDS.contains(next.getStepID())) {
+                return next;
+            }
+            queue.addAll(transMeta.findNextSteps(next));
+        }
+        return null;
+    }
+
+    /**
+     * 查找不在候选中的多副本相邻步骤
+     */
+    private static StepMeta findMultiCopyNeighbor(TransMeta transMeta, StepMeta stepMeta, Set<StepMeta> candidates) {
+        final List<StepMeta> neighbors = new ArrayList<>(transMeta.findPreviousSteps(stepMeta, true));
+        neighbors.addAll(transMeta.findNextSteps(stepMeta));
+        for (StepMeta neighbor : neighbors) {
+            if (neighbor.getCopies() != 1 && !candidates.contains(neighbor)) {
+                return neighbor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 计算并行步骤的副本数，所有并行步骤使用相同的副本数，相邻的并行步骤按副本一一连接
+     *
+     * @param extraThreads 可以额外使用的线程数
+     * @param candidates   并行步骤数
+     * @param maxCopies    单个步骤最大副本数
+     * @return 副本数，小于2时不并行
+     */
+    public static int copiesFor(int extraThreads, int candidates, int maxCopies) {
+        if (candidates <= 0 || extraThreads <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(maxCopies, 1 + extraThreads / candidates));
+    }
+
+    /**
+     * 计算本次执行可以额外使用的线程数
+     *
+     * @param cores              cpu核数
+     * @param cpuLoad            进程cpu使用率，0-1，未知时小于0
+     * @param running            正在执行的数量，包括本次执行
+     * @param spareEngineThreads 引擎线程池的空闲线程数，已扣除本次执行原有步骤使用的线程
+     * @return 额外线程数
+     */
+    public static int extraThreads(int cores, double cpuLoad, int running, int spareEngineThreads) {
+        final double idle = cpuLoad < 0 ? 1 : Math.max(0, 1 - cpuLoad);
+        final int cpuThreads = (int) (cores * idle / Math.max(running, 1));
+        return Math.max(0, Math.min(cpuThreads, spareEngineThreads));
+    }
+
+    /**
+     * 并行决策结果
+     */
+    public static class Decision {
+
+        private final int extraThreads;
+
+        /**
+         * 并行的步骤 -> 副本数
+         */
+        private final Map<String, Integer> copies = new LinkedHashMap<>();
+
+        /**
+         * 没有并行的候选步骤 -> 原因
+         */
+        private final Map<String, String> skipped = new LinkedHashMap<>();
+
+        Decision(int extraThreads) {
+            this.extraThreads = extraThreads;
+        }
+
+        public int getExtraThreads() {
+            return extraThreads;
+        }
+
+        public Map<String, Integer> getCopies() {
+            return copies;
+        }
+
+        public Map<String, String> getSkipped() {
+            return skipped;
+        }
+    }
+}
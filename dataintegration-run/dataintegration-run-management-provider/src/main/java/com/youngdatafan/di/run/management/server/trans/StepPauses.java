@@ -0,0 +1,93 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.StepInterface;
+
+/**
+ * 步骤暂停计数
+ * <p>
+ * 内存限流和断点都会暂停输入步骤，按步骤记录暂停次数，所有暂停方都恢复后才恢复步骤，
+ * 避免一方恢复了另一方仍需要暂停的步骤。用户暂停和恢复转换也通过本类，恢复时仍有暂停次数的步骤保持暂停。
+ * 同一个转换共享一个实例，保存在转换的扩展数据中。
+ *
+ * @author gavin
+ */
+public class StepPauses {
+
+    private static final String EXTENSION_KEY = StepPauses.class.getName();
+
+    private final Trans trans;
+
+    private final Map<StepInterface, Integer> counts = new IdentityHashMap<>();
+
+    private StepPauses(Trans trans) {
+        this.trans = trans;
+    }
+
+    /**
+     * 获取转换的暂停计数
+     *
+     * @param trans 转换
+     * @return 同一个转换返回同一个实例
+     */
+    public static StepPauses of(Trans trans) {
+        final Map<String, Object> extensionDataMap = trans.getExtensionDataMap();
+        synchronized (extensionDataMap) {
+            return (StepPauses) extensionDataMap.computeIfAbsent(EXTENSION_KEY, key -> new StepPauses(trans));
+        }
+    }
+
+    /**
+     * 暂停步骤，第一次暂停时暂停步骤线程
+     */
+    public synchronized void pause(StepInterface step) {
+        if (counts.merge(step, 1, Integer::sum) == 1) {
+            step.pauseRunning();
+        }
+    }
+
+    /**
+     * 恢复步骤，所有暂停都恢复后恢复步骤线程；用户手动暂停的转换不恢复
+     */
+    public synchronized void resume(StepInterface step) {
+        final Integer count = counts.get(step);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            counts.put(step, count - 1);
+            return;
+        }
+        counts.remove(step);
+        if (!trans.isPaused()) {
+            step.resumeRunning();
+        }
+    }
+
+    /**
+     * 用户暂停转换
+     */
+    public synchronized void pauseTrans() {
+        trans.pauseRunning();
+    }
+
+    /**
+     * 用户恢复转换，限流或断点仍在暂停的步骤保持暂停
+     */
+    public synchronized void resumeTrans() {
+        // 转换恢复时恢复所有步骤，仍有暂停次数的步骤立即重新暂停
+        trans.resumeRunning();
+        for (StepInterface step : counts.keySet()) {
+            step.pauseRunning();
+        }
+    }
+
+    /**
+     * 步骤当前的暂停次数
+     */
+    public synchronized int count(StepInterface step) {
+        return counts.getOrDefault(step, 0);
+    }
+}
@@ -0,0 +1,212 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.trans.step.StepInterface;
+
+/**
+ * 步骤副本运行指标
+ * <p>
+ * 由状态推送线程定时采样：输入/输出 RowSet 的缓存行数、滑动窗口内的处理速度、步骤线程的CPU时间；
+ * put/get 阻塞时间按采样估算，采样时任一输出 RowSet 已满记为写阻塞，所有未结束的输入 RowSet 为空记为读等待，
+ * 累加两次采样之间的间隔。
+ *
+ * @author gavin
+ */
+public class StepRuntimeMetrics {
+
+    /**
+     * 保留的采样点数
+     */
+    private static final int SAMPLE_COUNT = 128;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final StepInterface step;
+
+    private final List<RowSet> inputRowSets = new ArrayList<>();
+
+    private final List<RowSet> outputRowSets = new ArrayList<>();
+
+    private final int rowSetCapacity;
+
+    /**
+     * 采样时间和处理行数，环形保存
+     */
+    private final long[] sampleTimes = new long[SAMPLE_COUNT];
+
+    private final long[] sampleRows = new long[SAMPLE_COUNT];
+
+    private int sampleIndex;
+
+    private int sampleSize;
+
+    /**
+     * 步骤线程id，步骤处理第一行数据时记录
+     */
+    private volatile long threadId = -1;
+
+    private volatile int inputRowSetSize;
+
+    private volatile int outputRowSetSize;
+
+    private volatile long putBlockedNanos;
+
+    private volatile long getBlockedNanos;
+
+    private volatile long cpuNanos = -1;
+
+    private volatile double rowsPerSecond10s;
+
+    private volatile double rowsPerSecond60s;
+
+    public StepRuntimeMetrics(StepInterface step, int rowSetCapacity) {
+        this.step = step;
+        this.rowSetCapacity = rowSetCapacity;
+    }
+
+    public void addInputRowSet(RowSet rowSet) {
+        inputRowSets.add(rowSet);
+    }
+
+    public void addOutputRowSet(RowSet rowSet) {
+        outputRowSets.add(rowSet);
+    }
+
+    void setThreadId(long threadId) {
+        this.threadId = threadId;
+    }
+
+    boolean isThreadCaptured() {
+        return threadId >= 0;
+    }
+
+    /**
+     * 采样
+     *
+     * @param now          当前时间，纳秒
+     * @param threadMXBean 为null时不采集CPU时间
+     */
+    public synchronized void sample(long now, ThreadMXBean threadMXBean) {
+        int inputSize = 0;
+        boolean starving = false;
+        for (RowSet rowSet : inputRowSets) {
+            final int size = rowSet.size();
+            inputSize += size;
+            if (!rowSet.isDone()) {
+                starving = true;
+            }
+        }
+        // 存在未结束的输入并且所有输入都为空
+        starving = starving && inputSize == 0;
+
+        int outputSize = 0;
+        boolean blocked = false;
+        for (RowSet rowSet : outputRowSets) {
+            final int size = rowSet.size();
+            outputSize += size;
+            if (size >= rowSetCapacity) {
+                blocked = true;
+            }
+        }
+
+        if (sampleSize > 0 && step.isRunning()) {
+            final long elapsed = now - sampleTimes[(sampleIndex + SAMPLE_COUNT - 1) % SAMPLE_COUNT];
+            if (blocked) {
+                putBlockedNanos += elapsed;
+            } else if (starving) {
+                getBlockedNanos += elapsed;
+            }
+        }
+        inputRowSetSize = inputSize;
+        outputRowSetSize = outputSize;
+
+        // 处理行数取读、写中较大的值，输入步骤只有写，输出步骤只有读
+        sampleTimes[sampleIndex] = now;
+        sampleRows[sampleIndex] = Math.max(step.getLinesRead(), step.getLinesWritten());
+        sampleIndex = (sampleIndex + 1) % SAMPLE_COUNT;
+        sampleSize = Math.min(sampleSize + 1, SAMPLE_COUNT);
+
+        rowsPerSecond10s = rate(now, 10 * NANOS_PER_SECOND);
+        rowsPerSecond60s = rate(now, 60 * NANOS_PER_SECOND);
+
+        if (threadMXBean != null && threadId >= 0) {
+            // 线程结束后返回-1，保留最后一次的值
+            final long threadCpuTime = threadMXBean.getThreadCpuTime(threadId);
+            if (threadCpuTime >= 0) {
+                cpuNanos = threadCpuTime;
+            }
+        }
+    }
+
+    /**
+     * 窗口内的处理速度，采样点不足时使用最早的采样点
+     */
+    private double rate(long now, long window) {
+        final int last = (sampleIndex + SAMPLE_COUNT - 1) % SAMPLE_COUNT;
+        int first = last;
+        for (int i = 1; i < sampleSize; i++) {
+            final int index = (last + SAMPLE_COUNT - i) % SAMPLE_COUNT;
+            if (now - sampleTimes[index] > window) {
+                break;
+            }
+            first = index;
+        }
+
+        final long elapsed = sampleTimes[last] - sampleTimes[first];
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (sampleRows[last] - sampleRows[first]) * (double) NANOS_PER_SECOND / elapsed;
+    }
+
+    public StepInterface getStep() {
+        return step;
+    }
+
+    public String getStepName() {
+        return step.getStepname();
+    }
+
+    public int getCopy() {
+        return step.getCopy();
+    }
+
+    public int getInputRowSetSize() {
+        return inputRowSetSize;
+    }
+
+    public int getOutputRowSetSize() {
+        return outputRowSetSize;
+    }
+
+    public int getRowSetCapacity() {
+        return rowSetCapacity;
+    }
+
+    public long getPutBlockedMillis() {
+        return putBlockedNanos / 1_000_000L;
+    }
+
+    public long getGetBlockedMillis() {
+        return getBlockedNanos / 1_000_000L;
+    }
+
+    public double getRowsPerSecond10s() {
+        return rowsPerSecond10s;
+    }
+
+    public double getRowsPerSecond60s() {
+        return rowsPerSecond60s;
+    }
+
+    /**
+     * 步骤线程CPU时间，未采集到时返回-1
+     */
+    public long getCpuMillis() {
+        final long nanos = cpuNanos;
+        return nanos < 0 ? -1 : nanos / 1_000_000L;
+    }
+}
@@ -0,0 +1,664 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import com.youngdatafan.kettle.springboot.core.entity.DpDeProjectCheckpoint;
+import com.youngdatafan.kettle.springboot.core.persist.EngineMetaDataPersistUtils;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 转换断点
+ * <p>
+ * 按间隔暂停所有输入步骤，等待所有连接的缓存为空、各步骤计数不再变化（转换处于静止状态）后，记录每个输入步骤已输出的行数，
+ * 表输入同时记录最后输出的断点字段值，然后恢复输入步骤。此时记录的断点还没有提交：只有所有表输出步骤在断点之后又写入了
+ * 超过一个提交批次的行（或者已经正常结束），断点之前的行才确定已经提交，断点才保存到引擎元数据库。
+ * <p>
+ * 续跑时文件输入按步骤变量跳过已提交的行，表输入按断点字段排序并只查询大于断点值的行，所以断点字段必须唯一：
+ * 执行中发现断点字段值重复时不再记录断点，并删除已保存的断点，避免续跑时丢失与断点值相同的行。
+ * 同一次断点所有输入步骤的位置在一条语句中保存，不会出现部分输入更新的情况。
+ * 断点之后、失败之前已经提交的行会再次写入，表输出需要配合主键或者更新步骤保证幂等。
+ * 提交判断依赖每个表输出只有一个连接和一个提交计数，表名来自字段、按日期分表、分区或者多副本的表输出不支持断点。
+ * 时间类型的断点值保留到纳秒，续跑时不会因为精度截断跳过或者重复行。
+ *
+ * @author gavin
+ */
+public class TransCheckpointer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransCheckpointer.class);
+
+    /**
+     * 文件输入跳过行数的变量前缀，变量名为前缀 + 步骤名称，和输入插件保持一致
+     */
+    public static final String SKIP_ROWS_PREFIX = "DI_CHECKPOINT_SKIP_ROWS.";
+
+    private static final String TABLE_INPUT = "TableInput";
+
+    private static final String TABLE_OUTPUT = "TableOutput";
+
+    /**
+     * 支持断点的文件输入
+     */
+    private static final Set<String> FILE_INPUTS = new HashSet<>(Arrays.asList("CsvInput2", "TextFileInput2"));
+
+    /**
+     * 支持断点的末端步骤，除表输出外只允许不产生外部数据的步骤
+     */
+    private static final Set<String> TERMINAL_STEPS = new HashSet<>(Arrays.asList(TABLE_OUTPUT, "Dummy", "WriteToLog"));
+
+    /**
+     * 会缓存或者重排数据的步骤，转换静止时数据可能还在步骤内部，无法确定断点
+     */
+    private static final Set<String> BUFFERING_STEPS = new HashSet<>(Arrays.asList(
+            "SortRows", "GroupBy", "MemoryGroupBy", "MergeJoin", "SortedMerge", "MultiwayMergeJoin"
+            , "JoinRows", "JoinRows2", "Denormaliser", "Flattener", "ReservoirSampling", "UnivariateStats"
+            , "BlockUntilStepsFinish", "DetectLastRow", "DetectEmptyStream", "SingleThreader", "TransExecutor"
+            , "Mapping", "SimpleMapping", "StepsMetrics"));
+
+    private static final Pattern KEY_FIELD_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * 等待转换静止时的检查间隔，单位：毫秒
+     */
+    private static final long POLL_MILLIS = 200;
+
+    private final String projectId;
+
+    private final String executorId;
+
+    private final String keyField;
+
+    /**
+     * 续跑时每个输入步骤的起始断点
+     */
+    private final Map<String, DpDeProjectCheckpoint> baseCheckpoints;
+
+    private final long intervalMillis;
+
+    private final long quiesceTimeoutMillis;
+
+    private final List<InputStep> inputs = new ArrayList<>();
+
+    private final Map<StepInterface, Integer> tableOutputs = new IdentityHashMap<>();
+
+    private final Deque<PendingCheckpoint> pendings = new ArrayDeque<>();
+
+    private Trans trans;
+
+    private List<RowSet> rowSets = Collections.emptyList();
+
+    private ScheduledFuture<?> future;
+
+    private long nextCheckpointTime;
+
+    private long quiesceStartTime = -1;
+
+    private long lastCounter = -1;
+
+    private volatile boolean disabled;
+
+    /**
+     * 发现断点字段值重复，需要删除已保存的断点
+     */
+    private volatile boolean keyNotUnique;
+
+    private boolean checkpointsReset;
+
+    /**
+     * @param projectId            项目id
+     * @param executorId           执行器id
+     * @param keyField             表输入的断点字段
+     * @param baseCheckpoints      续跑时每个输入步骤的起始断点
+     * @param intervalMillis       断点间隔，单位：毫秒
+     * @param quiesceTimeoutMillis 等待转换静止的超时时间，单位：毫秒
+     */
+    public TransCheckpointer(String projectId, String executorId, String keyField, Map<String, DpDeProjectCheckpoint> baseCheckpoints
+            , long intervalMillis, long quiesceTimeoutMillis) {
+        this.projectId = projectId;
+        this.executorId = executorId;
+        this.keyField = keyField;
+        this.baseCheckpoints = baseCheckpoints;
+        this.intervalMillis = intervalMillis;
+        this.quiesceTimeoutMillis = quiesceTimeoutMillis;
+    }
+
+    /**
+     * 检查转换是否支持断点
+     *
+     * @param transMeta 转换
+     * @param keyField  表输入的断点字段
+     * @return 不支持的原因，支持时返回null
+     */
+    public static String checkSupported(TransMeta transMeta, String keyField) {
+        boolean hasInput = false;
+        for (StepMeta stepMeta : transMeta.getSteps()) {
+            final String stepId = stepMeta.getStepID();
+            if (BUFFERING_STEPS.contains(stepId)) {
+                return "步骤[" + stepMeta.getName() + "]会缓存数据";
+            }
+
+            if (transMeta.findNrPrevSteps(stepMeta) == 0) {
+                if (TABLE_INPUT.equals(stepId)) {
+                    if (StringUtils.isBlank(keyField) || !KEY_FIELD_PATTERN.matcher(keyField).matches()) {
+                        return "表输入[" + stepMeta.getName() + "]没有指定有效的断点字段（唯一字段）";
+                    }
+                    if (((TableInputMeta) stepMeta.getStepMetaInterface()).isExecuteEachInputRow()) {
+                        return "表输入[" + stepMeta.getName() + "]按输入行执行";
+                    }
+                } else if (!FILE_INPUTS.contains(stepId)) {
+                    return "输入步骤[" + stepMeta.getName() + "]不支持断点";
+                }
+                if (stepMeta.getCopies() > 1) {
+                    return "输入步骤[" + stepMeta.getName() + "]启动了多个副本";
+                }
+                hasInput = true;
+            }
+
+            if (transMeta.findNrNextSteps(stepMeta) == 0 && !TERMINAL_STEPS.contains(stepId)) {
+                return "输出步骤[" + stepMeta.getName() + "]不支持断点";
+            }
+
+            if (TABLE_OUTPUT.equals(stepId)) {
+                final String reason = checkTableOutput(stepMeta);
+                if (reason != null) {
+                    return reason;
+                }
+            }
+        }
+        return hasInput ? null : "没有输入步骤";
+    }
+
+    /**
+     * 表输出的输出行数只有在一个连接、一个提交计数时才能判断断点之前的行是否已经提交
+     */
+    private static String checkTableOutput(StepMeta stepMeta) {
+        final TableOutputMeta meta = (TableOutputMeta) stepMeta.getStepMetaInterface();
+        if (meta.isTableNameInField()) {
+            return "表输出[" + stepMeta.getName() + "]的表名来自字段";
+        }
+        if (meta.isPartitioningEnabled()) {
+            return "表输出[" + stepMeta.getName() + "]按日期分表";
+        }
+        if (stepMeta.isPartitioned() || stepMeta.isClustered()) {
+            return "表输出[" + stepMeta.getName() + "]设置了分区或集群";
+        }
+        if (stepMeta.getCopies() > 1) {
+            return "表输出[" + stepMeta.getName() + "]启动了多个副本";
+        }
+        return null;
+    }
+
+    /**
+     * 按断点设置续跑参数，表输入按断点字段排序，必须在启动转换之前调用。
+     * 有断点时关闭表输出的清空表，断点之前已经提交的数据不会再写入
+     *
+     * @param transMeta   转换
+     * @param keyField    表输入的断点字段
+     * @param checkpoints 上次保存的断点，没有时从头执行
+     * @return 每个输入步骤的起始断点
+     */
+    public static Map<String, DpDeProjectCheckpoint> applyResume(TransMeta transMeta, String keyField, List<DpDeProjectCheckpoint> checkpoints) {
+        Map<String, DpDeProjectCheckpoint> checkpointMap = new HashMap<>();
+        if (checkpoints != null) {
+            for (DpDeProjectCheckpoint checkpoint : checkpoints) {
+                checkpointMap.put(checkpoint.getStepName(), checkpoint);
+            }
+        }
+
+        Map<String, DpDeProjectCheckpoint> baseCheckpoints = new HashMap<>();
+        for (StepMeta stepMeta : transMeta.getSteps()) {
+            if (!checkpointMap.isEmpty() && TABLE_OUTPUT.equals(stepMeta.getStepID())) {
+                final TableOutputMeta meta = (TableOutputMeta) stepMeta.getStepMetaInterface();
+                if (meta.truncateTable()) {
+                    meta.setTruncateTable(false);
+                    logger.info("从断点继续执行，表输出[{}]不清空表", stepMeta.getName());
+                }
+            }
+            if (transMeta.findNrPrevSteps(stepMeta) > 0) {
+                continue;
+            }
+            final DpDeProjectCheckpoint checkpoint = checkpointMap.get(stepMeta.getName());
+            final long position = checkpoint == null || checkpoint.getPosition() == null ? 0 : checkpoint.getPosition();
+
+            if (TABLE_INPUT.equals(stepMeta.getStepID())) {
+                final TableInputMeta meta = (TableInputMeta) stepMeta.getStepMetaInterface();
+                final String literal = checkpoint == null ? null : toLiteral(checkpoint.getWatermark(), checkpoint.getWatermarkType());
+                meta.setSQL(wrapSql(meta.getSQL(), keyField, literal));
+            } else if (position > 0) {
+                transMeta.setVariable(SKIP_ROWS_PREFIX + stepMeta.getName(), String.valueOf(position));
+            }
+            if (checkpoint != null) {
+                baseCheckpoints.put(stepMeta.getName(), checkpoint);
+            }
+        }
+        return baseCheckpoints;
+    }
+
+    /**
+     * 表输入语句按断点字段排序，有断点值时只查询大于断点值的行，断点字段需要唯一
+     *
+     * @param sql      原始语句
+     * @param keyField 断点字段
+     * @param literal  断点值，为空时查询全部
+     * @return 包装后的语句
+     */
+    public static String wrapSql(String sql, String keyField, String literal) {
+        String inner = sql.trim();
+        while (inner.endsWith(";")) {
+            inner = inner.substring(0, inner.length() - 1).trim();
+        }
+
+        StringBuilder builder = new StringBuilder("SELECT * FROM (").append(inner).append(") di_checkpoint");
+        if (literal != null) {
+            builder.append(" WHERE ").append(keyField).append(" > ").append(literal);
+        }
+        return builder.append(" ORDER BY ").append(keyField).toString();
+    }
+
+    /**
+     * 断点值转为SQL字面量，数值原样输出，其他类型按字符串输出
+     *
+     * @param watermark     断点值
+     * @param watermarkType 断点值类型，ValueMeta 类型描述
+     * @return 字面量，没有断点值时返回null
+     */
+    public static String toLiteral(String watermark, String watermarkType) {
+        if (watermark == null) {
+            return null;
+        }
+
+        final int type = ValueMetaBase.getType(watermarkType);
+        if (type == ValueMetaInterface.TYPE_INTEGER || type == ValueMetaInterface.TYPE_NUMBER
+                || type == ValueMetaInterface.TYPE_BIGNUMBER) {
+            // 校验数值，避免拼接非法内容
+            return new BigDecimal(watermark).toPlainString();
+        }
+        return "'" + watermark.replace("'", "''") + "'";
+    }
+
+    /**
+     * 断点字段值转为字符串保存，时间戳保留到纳秒
+     * <p>
+     * 日期类型的字段也可能是驱动返回的 {@link Timestamp}，按毫秒格式化会截断精度，续跑时大于断点值的条件会重复读取断点行，
+     * 或者在断点值被进位时跳过行，所以小数部分按实际精度输出，至少3位。
+     *
+     * @param valueMeta 字段类型
+     * @param value     字段值
+     * @return 断点值，字段值为空时返回null
+     */
+    public static String toWatermark(ValueMetaInterface valueMeta, Object value) throws KettleValueException {
+        final Object nativeValue = valueMeta.isStorageBinaryString()
+                ? valueMeta.convertBinaryStringToNativeType((byte[]) value) : value;
+        if (nativeValue == null) {
+            return null;
+        }
+        if (nativeValue instanceof Timestamp) {
+            final Timestamp timestamp = (Timestamp) nativeValue;
+            String nanos = String.format("%09d", timestamp.getNanos());
+            while (nanos.length() > 3 && nanos.endsWith("0")) {
+                nanos = nanos.substring(0, nanos.length() - 1);
+            }
+            return new SimpleDateFormat(TIMESTAMP_FORMAT).format(timestamp) + "." + nanos;
+        }
+        if (nativeValue instanceof Date) {
+            return new SimpleDateFormat(DATE_FORMAT).format((Date) nativeValue);
+        }
+        if (nativeValue instanceof BigDecimal) {
+            return ((BigDecimal) nativeValue).toPlainString();
+        }
+        return nativeValue.toString();
+    }
+
+    /**
+     * 绑定转换，记录表输入输出的断点字段值，必须在 prepareExecution 之后、启动线程之前调用
+     *
+     * @param trans 转换
+     */
+    public void attach(Trans trans) {
+        this.trans = trans;
+        this.rowSets = new ArrayList<>(trans.getRowsets());
+
+        final TransMeta transMeta = trans.getTransMeta();
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            final String stepId = combi.stepMeta.getStepID();
+            if (transMeta.findNrPrevSteps(combi.stepMeta) == 0) {
+                final InputStep input = new InputStep(combi.step, baseCheckpoints.get(combi.stepname));
+                if (TABLE_INPUT.equals(stepId)) {
+                    captureWatermark(input);
+                }
+                inputs.add(input);
+            } else if (TABLE_OUTPUT.equals(stepId)) {
+                final TableOutputMeta meta = (TableOutputMeta) combi.meta;
+                tableOutputs.put(combi.step, Const.toInt(trans.environmentSubstitute(meta.getCommitSize()), 0));
+            }
+        }
+    }
+
+    /**
+     * 表输入每输出一行记录断点字段值，行监听在写入缓存之前调用，暂停的步骤不会再触发
+     * <p>
+     * 数据按断点字段排序，相邻两行的值相同说明断点字段不唯一。
+     */
+    private void captureWatermark(InputStep input) {
+        input.step.addRowListener(new RowAdapter() {
+            private int keyIndex = -2;
+
+            @Override
+            public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+                if (keyIndex == -2) {
+                    keyIndex = rowMeta.indexOfValue(keyField);
+                    if (keyIndex < 0) {
+                        disabled = true;
+                        trans.getLogChannel().logError("表输入[{0}]没有断点字段{1}，不再记录断点", input.step.getStepname(), keyField);
+                    }
+                }
+                if (keyIndex < 0 || disabled) {
+                    return;
+                }
+
+                final ValueMetaInterface keyMeta = rowMeta.getValueMeta(keyIndex);
+                final Object keyValue = row[keyIndex];
+                try {
+                    if (input.keyMeta != null && keyMeta.compare(input.keyValue, keyValue) == 0) {
+                        keyNotUnique = true;
+                        disabled = true;
+                        trans.getLogChannel().logError("表输入[{0}]的断点字段{1}值重复（{2}），不再记录断点，已保存的断点将被删除"
+                                , input.step.getStepname(), keyField, keyMeta.getString(keyValue));
+                        return;
+                    }
+                } catch (KettleValueException e) {
+                    throw new KettleStepException(e);
+                }
+                input.keyMeta = keyMeta;
+                input.keyValue = keyValue;
+            }
+        });
+    }
+
+    /**
+     * 开始按间隔记录断点
+     *
+     * @param scheduler 调度线程池
+     */
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        if (trans == null || future != null) {
+            return;
+        }
+        nextCheckpointTime = System.currentTimeMillis() + intervalMillis;
+        future = scheduler.scheduleWithFixedDelay(this::tick, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止记录断点，并保存已经提交的断点
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        if (quiesceStartTime >= 0) {
+            resumeInputs();
+        }
+        resetIfKeyNotUnique();
+        promote();
+    }
+
+    /**
+     * 是否已经停止记录断点
+     */
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    /**
+     * 转换是否已经成功执行完成
+     */
+    public boolean isCompleted() {
+        return trans != null && trans.isFinished() && !trans.isStopped() && trans.getErrors() == 0;
+    }
+
+    private synchronized void tick() {
+        try {
+            resetIfKeyNotUnique();
+            if (disabled || trans.isFinishedOrStopped() || trans.getErrors() > 0) {
+                if (quiesceStartTime >= 0) {
+                    resumeInputs();
+                }
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            if (quiesceStartTime < 0) {
+                // 用户暂停的转换不处理
+                if (now >= nextCheckpointTime && !trans.isPaused()) {
+                    pauseInputs(now);
+                }
+            } else {
+                checkQuiesced(now);
+            }
+            promote();
+        } catch (Exception e) {
+            // 断点失败不影响转换执行
+            logger.warn("记录断点失败，executorId: {}", executorId, e);
+        }
+    }
+
+    private void pauseInputs(long now) {
+        final StepPauses pauses = StepPauses.of(trans);
+        for (InputStep input : inputs) {
+            pauses.pause(input.step);
+        }
+        quiesceStartTime = now;
+        lastCounter = -1;
+    }
+
+    private void resumeInputs() {
+        final StepPauses pauses = StepPauses.of(trans);
+        for (InputStep input : inputs) {
+            pauses.resume(input.step);
+        }
+        quiesceStartTime = -1;
+        nextCheckpointTime = System.currentTimeMillis() + intervalMillis;
+    }
+
+    /**
+     * 所有缓存为空并且两次检查之间计数没有变化时记录断点
+     */
+    private void checkQuiesced(long now) {
+        boolean empty = true;
+        for (RowSet rowSet : rowSets) {
+            if (rowSet.size() > 0) {
+                empty = false;
+                break;
+            }
+        }
+
+        final long counter = counter();
+        if (empty && counter == lastCounter) {
+            pendings.addLast(capture());
+            resumeInputs();
+        } else if (now - quiesceStartTime > quiesceTimeoutMillis) {
+            trans.getLogChannel().logBasic("等待转换静止超时，跳过本次断点");
+            resumeInputs();
+        } else {
+            lastCounter = empty ? counter : -1;
+        }
+    }
+
+    private long counter() {
+        long counter = 0;
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            final StepInterface step = combi.step;
+            counter += step.getLinesRead() + step.getLinesWritten() + step.getLinesInput() + step.getLinesOutput()
+                    + step.getLinesUpdated() + step.getLinesRejected();
+        }
+        return counter;
+    }
+
+    private PendingCheckpoint capture() {
+        final PendingCheckpoint pending = new PendingCheckpoint();
+        final Date now = new Date();
+        for (InputStep input : inputs) {
+            final DpDeProjectCheckpoint checkpoint = new DpDeProjectCheckpoint();
+            checkpoint.setProjectId(projectId);
+            checkpoint.setStepName(input.step.getStepname());
+            checkpoint.setExecutorId(executorId);
+            checkpoint.setPosition(input.basePosition + input.step.getLinesWritten());
+            checkpoint.setUpdateTime(now);
+            if (input.keyMeta == null) {
+                // 续跑后还没有输出行时沿用起始断点值
+                checkpoint.setWatermark(input.baseWatermark);
+                checkpoint.setWatermarkType(input.baseWatermarkType);
+            } else {
+                try {
+                    checkpoint.setWatermark(toWatermark(input.keyMeta, input.keyValue));
+                    checkpoint.setWatermarkType(input.keyMeta.getTypeDesc());
+                } catch (KettleValueException e) {
+                    disabled = true;
+                    trans.getLogChannel().logError("断点字段值转换失败，不再记录断点", e);
+                }
+            }
+            pending.checkpoints.add(checkpoint);
+        }
+
+        // 断点之后再写入超过一个提交批次的行，断点之前的行一定已经提交
+        for (Map.Entry<StepInterface, Integer> entry : tableOutputs.entrySet()) {
+            final int commitSize = entry.getValue();
+            pending.outputTargets.put(entry.getKey(), entry.getKey().getLinesOutput() + Math.max(commitSize, 0));
+        }
+        return pending;
+    }
+
+    /**
+     * 断点字段不唯一时删除本项目已保存的断点，续跑时从头执行
+     */
+    private void resetIfKeyNotUnique() {
+        if (!keyNotUnique || checkpointsReset) {
+            return;
+        }
+        pendings.clear();
+        EngineMetaDataPersistUtils.deleteCheckpoints(projectId);
+        checkpointsReset = true;
+    }
+
+    /**
+     * 保存最后一个已经提交的断点
+     */
+    private void promote() {
+        PendingCheckpoint committed = null;
+        while (!pendings.isEmpty() && isCommitted(pendings.peekFirst())) {
+            committed = pendings.removeFirst();
+        }
+        if (committed == null || disabled) {
+            return;
+        }
+
+        // 所有输入步骤的断点一起保存
+        EngineMetaDataPersistUtils.saveCheckpoints(committed.checkpoints);
+        trans.getLogChannel().logBasic("已保存断点：{0}", describe(committed));
+    }
+
+    private boolean isCommitted(PendingCheckpoint pending) {
+        for (Map.Entry<StepInterface, Long> entry : pending.outputTargets.entrySet()) {
+            final StepInterface step = entry.getKey();
+            final boolean finished = step.getStatus() == BaseStepData.StepExecutionStatus.STATUS_FINISHED
+                    && step.getErrors() == 0;
+            final long target = entry.getValue();
+            // 自动提交时断点之前的行已经提交
+            if (!finished && tableOutputs.get(step) > 0 && step.getLinesOutput() <= target) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String describe(PendingCheckpoint pending) {
+        StringBuilder builder = new StringBuilder();
+        for (DpDeProjectCheckpoint checkpoint : pending.checkpoints) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(checkpoint.getStepName()).append('=').append(checkpoint.getPosition());
+            if (checkpoint.getWatermark() != null) {
+                builder.append('(').append(checkpoint.getWatermark()).append(')');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 输入步骤
+     */
+    private static class InputStep {
+
+        private final StepInterface step;
+
+        private final long basePosition;
+
+        private final String baseWatermark;
+
+        private final String baseWatermarkType;
+
+        private volatile ValueMetaInterface keyMeta;
+
+        private volatile Object keyValue;
+
+        InputStep(StepInterface step, DpDeProjectCheckpoint base) {
+            this.step = step;
+            this.basePosition = base == null || base.getPosition() == null ? 0 : base.getPosition();
+            this.baseWatermark = base == null ? null : base.getWatermark();
+            this.baseWatermarkType = base == null ? null : base.getWatermarkType();
+        }
+    }
+
+    /**
+     * 已记录但还没有确认提交的断点
+     */
+    private static class PendingCheckpoint {
+
+        private final List<DpDeProjectCheckpoint> checkpoints = new ArrayList<>();
+
+        /**
+         * 表输出 -> 断点确认提交需要达到的输出行数
+         */
+        private final Map<StepInterface, Long> outputTargets = new IdentityHashMap<>();
+    }
+}
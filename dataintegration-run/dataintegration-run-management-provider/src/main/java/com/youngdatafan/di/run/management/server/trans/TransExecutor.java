@@ -10,6 +10,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.lang.StringUtils;
@@ -27,6 +28,7 @@ import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransExecutionConfiguration;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
 
 
 /**
@@ -35,10 +37,20 @@ import org.pentaho.di.trans.TransMeta;
  * @author Gavin
  * @since 2020-02-09 12:08:48
  */
-public class TransExecutor implements LogParentProvidedInterface {
+public class TransExecutor implements LogParentProvidedInterface, LogBufferProvidedInterface {
     // for i18n purposes, needed by Translator2!!
     private static Class<?> PKG = TransExecutor.class;
 
+    private static final String VARIABLE_PREFIX = "variable:";
+
+    private static final String SYSTEM_VARIABLE_PREFIX = "system:";
+
+    private static final String PARAMETER_PREFIX = "param:";
+
+    private static final String ARGUMENT_PREFIX = "argument:";
+
+    private static final String OPTION_PREFIX = "option:";
+
     private final TransMeta transMeta;
 
     public Trans trans;
@@ -80,6 +92,51 @@ public class TransExecutor implements LogParentProvidedInterface {
 
     private TransPreview transPreview = new TransPreview();
 
+    /**
+     * 日志缓冲区行数
+     */
+    private int logBufferLines = ExecutionLogBuffer.DEFAULT_CAPACITY;
+
+    /**
+     * 本次执行的日志缓冲区
+     */
+    private volatile ExecutionLogBuffer logBuffer;
+
+    /**
+     * 日志落盘文件，为空时不落盘
+     */
+    private ExecutionLogSpool logSpool;
+
+    /**
+     * 步骤运行指标，转换准备完成后创建
+     */
+    private volatile TransRuntimeMetrics runtimeMetrics;
+
+    /**
+     * 按历史执行分析的 RowSet 缓存行数，创建转换前设置到 TransMeta，0表示使用项目的设置
+     */
+    private int rowSetSize;
+
+    /**
+     * 连接缓存行数的采样时长，单位：毫秒，0表示不采样
+     */
+    private long rowSetProfileMillis;
+
+    /**
+     * 断点记录，为空时不记录断点
+     */
+    private TransCheckpointer checkpointer;
+
+    /**
+     * 步骤自动并行，为空时不调整副本数
+     */
+    private StepParallelizer stepParallelizer;
+
+    /**
+     * 初始化时生效的参数，见 {@link #resolveParameters(TransExecutionConfiguration)}
+     */
+    private Map<String, String> preparedParameters;
+
     public TransExecutor(TransMeta transMeta) {
         this.transMeta = transMeta;
     }
@@ -90,100 +147,287 @@ public class TransExecutor implements LogParentProvidedInterface {
      * @param executionConfiguration TransExecutionConfiguration
      */
     public synchronized void start(TransExecutionConfiguration executionConfiguration, ProjectExecutorParam projectExecutorParam) throws KettleException {
+        if (trans == null || !running) {
+            prepare(executionConfiguration);
+            launch(projectExecutorParam);
+        }
+    }
+
+    /**
+     * 设置参数、创建转换并初始化步骤，初始化完成后可以通过 {@link #launch(ProjectExecutorParam)} 启动
+     *
+     * @param executionConfiguration TransExecutionConfiguration
+     */
+    public synchronized void prepare(TransExecutionConfiguration executionConfiguration) throws KettleException {
         transFinished.set(false);
 
-        if (trans == null || !running) {
-            startDate = new Date();
-            // Set the requested logging level..
-            //
-            DefaultLogLevel.setLogLevel(executionConfiguration.getLogLevel());
-
-            transMeta.injectVariables(executionConfiguration.getVariables());
-
-            // 优先设置系统变量，这样可以保证用户执行的时候运行覆盖系统默认参数
-            final SystemVariableProperties systemVariableProperties = EngineSystemVariables.getInstance().getSystemVariableProperties();
-            if (systemVariableProperties != null) {
-                final List<SystemVariablesBean> systemVariables = systemVariableProperties.getSystemVariables();
-                if (systemVariables != null && !systemVariables.isEmpty()) {
-                    for (SystemVariablesBean systemVariable : systemVariables) {
-                        // 执行表达式取值
-                        String value = Const.NVL(AviatorUtils.execute(systemVariable.getExpression()), "");
-                        transMeta.setParameterValue(systemVariable.getName(), value);
-                        transMeta.setVariable(systemVariable.getName(), value);
-                    }
-                }
-            }
+        startDate = new Date();
+        // Set the requested logging level..
+        //
+        DefaultLogLevel.setLogLevel(executionConfiguration.getLogLevel());
+
+        transMeta.injectVariables(executionConfiguration.getVariables());
 
-            // Set the named parameters
-            Map<String, String> paramMap = executionConfiguration.getParams();
-            Set<String> keys = paramMap.keySet();
-            for (String key : keys) {
-                transMeta.setParameterValue(key, Const.NVL(paramMap.get(key), ""));
+        // 优先设置系统变量，这样可以保证用户执行的时候运行覆盖系统默认参数
+        preparedParameters = resolveParameters(executionConfiguration);
+        for (Map.Entry<String, String> entry : preparedParameters.entrySet()) {
+            if (entry.getKey().startsWith(SYSTEM_VARIABLE_PREFIX)) {
+                final String name = entry.getKey().substring(SYSTEM_VARIABLE_PREFIX.length());
+                transMeta.setParameterValue(name, entry.getValue());
+                transMeta.setVariable(name, entry.getValue());
             }
+        }
 
-            transMeta.activateParameters();
+        // Set the named parameters
+        Map<String, String> paramMap = executionConfiguration.getParams();
+        Set<String> keys = paramMap.keySet();
+        for (String key : keys) {
+            transMeta.setParameterValue(key, Const.NVL(paramMap.get(key), ""));
+        }
 
-            // Also make sure to clear the log entries in the central log store & registry
-            //
-            if (trans != null) {
-                KettleLogStore.discardLines(trans.getLogChannelId(), true);
+        transMeta.activateParameters();
+
+        // Also make sure to clear the log entries in the central log store & registry
+        //
+        if (trans != null) {
+            KettleLogStore.discardLines(trans.getLogChannelId(), true);
+        }
+
+        // 创建trans之前设置步骤副本数
+        final StepParallelizer.Decision parallelDecision = stepParallelizer != null ? stepParallelizer.apply(transMeta) : null;
+
+        // RowSet 在 prepareExecution 中按 sizeRowset 创建，步骤初始化时会缓存引用，只能在创建trans之前调整
+        final int projectRowSetSize = transMeta.getSizeRowset();
+        if (rowSetSize > 0) {
+            transMeta.setSizeRowset(rowSetSize);
+        }
+
+        //  创建trans
+        trans = new Trans(transMeta);
+
+        String spoonLogObjectId = UUID.randomUUID().toString();
+        SimpleLoggingObject spoonLoggingObject = new SimpleLoggingObject(Thread.currentThread().getName() + "-" + Thread.currentThread().getId()
+                , LoggingObjectType.SPOON, null);
+        spoonLoggingObject.setContainerObjectId(spoonLogObjectId);
+        spoonLoggingObject.setLogLevel(executionConfiguration.getLogLevel());
+        trans.setParent(spoonLoggingObject);
+
+        // 设置父对象后日志通道才确定，绑定本次执行的日志缓冲区
+        logBuffer = new ExecutionLogBuffer(logBufferLines);
+        logBuffer.setSpool(logSpool);
+        ExecutionLogDispatcher.getInstance().attach(trans.getLogChannelId(), logBuffer);
+
+        trans.setLogLevel(executionConfiguration.getLogLevel());
+        trans.setReplayDate(executionConfiguration.getReplayDate());
+        trans.setRepository(executionConfiguration.getRepository());
+        trans.setMonitored(false);
+
+        Map<String, String> arguments = executionConfiguration.getArguments();
+        final String[] args;
+        if (arguments != null) {
+            args = convertArguments(arguments);
+        } else {
+            args = null;
+        }
+
+        trans.getLogChannel().logBasic("正在启动项目");
+        if (rowSetSize > 0 && rowSetSize != projectRowSetSize) {
+            trans.getLogChannel().logBasic("已按历史执行情况调整缓存行数：{0} -> {1}", projectRowSetSize, rowSetSize);
+        }
+        logParallelDecision(parallelDecision);
+
+        trans.setSafeModeEnabled(executionConfiguration.isSafeModeEnabled());
+        trans.setGatheringMetrics(executionConfiguration.isGatheringMetrics());
+
+        // 预处理脚本
+        prepareExecution(args);
+    }
+
+    /**
+     * 输出自动并行的决策
+     */
+    private void logParallelDecision(StepParallelizer.Decision decision) {
+        if (decision == null) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entry : decision.getCopies().entrySet()) {
+            trans.getLogChannel().logBasic("自动并行：步骤[{0}]启动{1}个副本，可用线程{2}", entry.getKey(), entry.getValue()
+                    , decision.getExtraThreads());
+        }
+        for (Map.Entry<String, String> entry : decision.getSkipped().entrySet()) {
+            trans.getLogChannel().logBasic("自动并行：步骤[{0}]不并行，{1}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 启动已经初始化的转换
+     *
+     * @param projectExecutorParam 执行参数
+     */
+    public synchronized void launch(ProjectExecutorParam projectExecutorParam) throws KettleException {
+        if (!initialized || running) {
+            return;
+        }
+
+        // 启动线程前绑定运行指标
+        runtimeMetrics = new TransRuntimeMetrics(trans);
+        if (rowSetProfileMillis > 0) {
+            runtimeMetrics.startProfiling(rowSetProfileMillis);
+        }
+        if (checkpointer != null) {
+            checkpointer.attach(trans);
+        }
+
+        // 设置数据预览
+        if (projectExecutorParam.isPreview()) {
+            trans.setPreview(true);
+
+            transPreview.setPreviewSize(projectExecutorParam.getPreviewSize());
+
+            if (StringUtils.isBlank(projectExecutorParam.getPreviewModel())) {
+                transPreview.setPreviewMode(TransPreview.PreviewMode.FIRST);
+            } else {
+                transPreview.setPreviewMode(TransPreview.PreviewMode.valueOf(projectExecutorParam.getPreviewModel()));
             }
 
-            //  创建trans
-            trans = new Trans(transMeta);
-
-            String spoonLogObjectId = UUID.randomUUID().toString();
-            SimpleLoggingObject spoonLoggingObject = new SimpleLoggingObject(Thread.currentThread().getName() + "-" + Thread.currentThread().getId()
-                    , LoggingObjectType.SPOON, null);
-            spoonLoggingObject.setContainerObjectId(spoonLogObjectId);
-            spoonLoggingObject.setLogLevel(executionConfiguration.getLogLevel());
-            trans.setParent(spoonLoggingObject);
-
-            trans.setLogLevel(executionConfiguration.getLogLevel());
-            trans.setReplayDate(executionConfiguration.getReplayDate());
-            trans.setRepository(executionConfiguration.getRepository());
-            trans.setMonitored(false);
-
-            if (trans != null) {
-                Map<String, String> arguments = executionConfiguration.getArguments();
-                final String[] args;
-                if (arguments != null) {
-                    args = convertArguments(arguments);
-                } else {
-                    args = null;
-                }
+            if (projectExecutorParam.getPreviewSeed() != null) {
+                transPreview.setSeed(projectExecutorParam.getPreviewSeed());
+            }
+            transPreview.setKeyField(projectExecutorParam.getPreviewKeyField());
 
-                trans.getLogChannel().logBasic("正在启动项目");
+            transPreview.capturePreviewData(trans, transMeta.getSteps());
+        }
 
-                trans.setSafeModeEnabled(executionConfiguration.isSafeModeEnabled());
-                trans.setGatheringMetrics(executionConfiguration.isGatheringMetrics());
+        // 启动转换
+        startTrans();
 
-                // 预处理脚本
-                prepareExecution(args);
+        trans.getLogChannel().logBasic("已开始执行项目");
+    }
 
-                // 设置数据预览
-                if (projectExecutorParam.isPreview()) {
-                    trans.setPreview(true);
+    /**
+     * 丢弃已经初始化但没有启动的转换，释放步骤持有的连接等资源
+     */
+    public synchronized void discard() {
+        if (trans == null || running) {
+            return;
+        }
 
-                    transPreview.setPreviewSize(projectExecutorParam.getPreviewSize());
+        final List<StepMetaDataCombi> steps = trans.getSteps();
+        if (steps != null) {
+            for (StepMetaDataCombi combi : steps) {
+                try {
+                    combi.step.setStopped(true);
+                    combi.step.setRunning(false);
+                    combi.step.dispose(combi.meta, combi.data);
+                } catch (Exception e) {
+                    trans.getLogChannel().logError("释放步骤资源失败：" + combi.stepname, e);
+                }
+            }
+        }
 
-                    if (StringUtils.isBlank(projectExecutorParam.getPreviewModel())) {
-                        transPreview.setPreviewMode(TransPreview.PreviewMode.FIRST);
-                    } else {
-                        transPreview.setPreviewMode(TransPreview.PreviewMode.valueOf(projectExecutorParam.getPreviewModel()));
-                    }
+        initialized = false;
+        detachLogBuffer();
+        KettleLogStore.discardLines(trans.getLogChannelId(), true);
+    }
 
-                    transPreview.capturePreviewData(trans, transMeta.getSteps());
+    /**
+     * 计算本次执行生效的参数：变量、系统变量（执行表达式取值）、命名参数、命令行参数以及日志级别等执行选项
+     * <p>
+     * 相同的结果表示按这组参数初始化的转换可以直接用于本次执行。
+     *
+     * @param executionConfiguration TransExecutionConfiguration
+     * @return 带类型前缀的参数，按名称排序
+     */
+    public static Map<String, String> resolveParameters(TransExecutionConfiguration executionConfiguration) {
+        final Map<String, String> result = new TreeMap<>();
+        putAll(result, VARIABLE_PREFIX, executionConfiguration.getVariables());
+
+        putAll(result, SYSTEM_VARIABLE_PREFIX, resolveSystemVariables());
+        putAll(result, PARAMETER_PREFIX, executionConfiguration.getParams());
+        putAll(result, ARGUMENT_PREFIX, executionConfiguration.getArguments());
+        result.put(OPTION_PREFIX + "logLevel", String.valueOf(executionConfiguration.getLogLevel()));
+        result.put(OPTION_PREFIX + "safeMode", String.valueOf(executionConfiguration.isSafeModeEnabled()));
+        result.put(OPTION_PREFIX + "gatheringMetrics", String.valueOf(executionConfiguration.isGatheringMetrics()));
+        return result;
+    }
+
+    /**
+     * 去掉系统变量后的生效参数，用于判断预热的转换能否用于本次执行
+     * <p>
+     * 系统变量按执行时间取值（当前日期、当前时间等），每次执行都不同，在启动预热的转换时通过
+     * {@link #refreshSystemVariables()} 重新取值，不参与比较。
+     *
+     * @param parameters {@link #resolveParameters(TransExecutionConfiguration)} 的结果
+     * @return 不包括系统变量的参数
+     */
+    public static Map<String, String> withoutSystemVariables(Map<String, String> parameters) {
+        final Map<String, String> result = new TreeMap<>();
+        if (parameters != null) {
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                if (!entry.getKey().startsWith(SYSTEM_VARIABLE_PREFIX)) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 系统变量执行表达式取值
+     */
+    private static Map<String, String> resolveSystemVariables() {
+        final Map<String, String> result = new TreeMap<>();
+        final EngineSystemVariables engineSystemVariables = EngineSystemVariables.getInstance();
+        final SystemVariableProperties systemVariableProperties = engineSystemVariables == null
+                ? null : engineSystemVariables.getSystemVariableProperties();
+        if (systemVariableProperties != null) {
+            final List<SystemVariablesBean> systemVariables = systemVariableProperties.getSystemVariables();
+            if (systemVariables != null) {
+                for (SystemVariablesBean systemVariable : systemVariables) {
+                    result.put(systemVariable.getName(), Const.NVL(AviatorUtils.execute(systemVariable.getExpression()), ""));
                 }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 预热的转换启动前重新计算系统变量，并设置到转换和已经初始化的步骤上，同名的命名参数优先
+     */
+    public synchronized void refreshSystemVariables() {
+        if (trans == null || running || preparedParameters == null) {
+            return;
+        }
 
-                // 启动转换
-                startTrans();
+        for (Map.Entry<String, String> entry : resolveSystemVariables().entrySet()) {
+            final String name = entry.getKey();
+            final String value = entry.getValue();
+            if (preparedParameters.containsKey(PARAMETER_PREFIX + name)
+                    || value.equals(preparedParameters.get(SYSTEM_VARIABLE_PREFIX + name))) {
+                continue;
+            }
 
-                trans.getLogChannel().logBasic("已开始执行项目");
+            preparedParameters.put(SYSTEM_VARIABLE_PREFIX + name, value);
+            transMeta.setVariable(name, value);
+            trans.setVariable(name, value);
+            final List<StepMetaDataCombi> steps = trans.getSteps();
+            if (steps != null) {
+                for (StepMetaDataCombi combi : steps) {
+                    combi.step.setVariable(name, value);
+                }
             }
         }
     }
 
+    private static void putAll(Map<String, String> result, String prefix, Map<String, String> values) {
+        if (values == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            result.put(prefix + entry.getKey(), Const.NVL(entry.getValue(), ""));
+        }
+    }
+
     /**
      * 预处理转换
      */
@@ -195,6 +439,7 @@ public class TransExecutor implements LogParentProvidedInterface {
         } catch (KettleException e) {
             initialized = false;
             running = false;
+            detachLogBuffer();
             throw e;
         }
     }
@@ -245,6 +490,7 @@ public class TransExecutor implements LogParentProvidedInterface {
         if ((running && !halting)) {
             halting = true;
             trans.stopAll();
+            // 步骤停止时的日志和执行完成日志还会写入，日志缓冲区在 transFinished 中解除绑定
             trans.getLogChannel().logMinimal(BaseMessages.getString(PKG, "脚本处理已停止。"));
 
             running = false;
@@ -264,10 +510,10 @@ public class TransExecutor implements LogParentProvidedInterface {
             //
             if (!pausing) {
                 pausing = true;
-                trans.pauseRunning();
+                StepPauses.of(trans).pauseTrans();
             } else {
                 pausing = false;
-                trans.resumeRunning();
+                StepPauses.of(trans).resumeTrans();
             }
         }
     }
@@ -287,6 +533,7 @@ public class TransExecutor implements LogParentProvidedInterface {
                 public void transFinished(Trans trans) {
                     transFinished.set(true);
                     trans.getLogChannel().logBasic("项目执行完成，耗时{0}秒", (System.currentTimeMillis() - startDate.getTime()) / 1000);
+                    detachLogBuffer();
                 }
             });
 
@@ -296,6 +543,16 @@ public class TransExecutor implements LogParentProvidedInterface {
             // 线程启动失败，停止所有作业
             trans.stopAll();
             trans.getLogChannel().logError("启动步骤线程时出错。", e);
+            detachLogBuffer();
+        }
+    }
+
+    /**
+     * 解除日志缓冲区绑定，已写入的日志仍然可以读取
+     */
+    private void detachLogBuffer() {
+        if (trans != null) {
+            ExecutionLogDispatcher.getInstance().detach(trans.getLogChannelId());
         }
     }
 
@@ -357,4 +614,49 @@ public class TransExecutor implements LogParentProvidedInterface {
     public TransPreview getTransPreview() {
         return transPreview;
     }
+
+    @Override
+    public ExecutionLogBuffer getLogBuffer() {
+        return logBuffer;
+    }
+
+    public void setLogBufferLines(int logBufferLines) {
+        this.logBufferLines = logBufferLines;
+    }
+
+    public void setLogSpool(ExecutionLogSpool logSpool) {
+        this.logSpool = logSpool;
+    }
+
+    public TransRuntimeMetrics getRuntimeMetrics() {
+        return runtimeMetrics;
+    }
+
+    public void setRowSetSize(int rowSetSize) {
+        this.rowSetSize = rowSetSize;
+    }
+
+    public void setRowSetProfileMillis(long rowSetProfileMillis) {
+        this.rowSetProfileMillis = rowSetProfileMillis;
+    }
+
+    public TransCheckpointer getCheckpointer() {
+        return checkpointer;
+    }
+
+    public void setCheckpointer(TransCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    public void setStepParallelizer(StepParallelizer stepParallelizer) {
+        this.stepParallelizer = stepParallelizer;
+    }
+
+    public Map<String, String> getPreparedParameters() {
+        return preparedParameters;
+    }
+
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
 }
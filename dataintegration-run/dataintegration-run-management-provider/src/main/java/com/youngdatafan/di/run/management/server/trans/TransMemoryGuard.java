@@ -0,0 +1,358 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import com.youngdatafan.dataintegration.core.memory.MemoryAccountable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.sort.SortRowsData;
+
+/**
+ * 单次执行的内存预算
+ * <p>
+ * 按连接缓存的行数、步骤缓存（排序缓冲区、实现 {@link MemoryAccountable} 的插件步骤）和预览数据估算本次执行占用的堆内存：
+ * 接近预算时暂停输入步骤，下游消费完连接中的数据后恢复；超过预算或者限流超时则只停止本次执行。
+ * 输入步骤也可能被断点暂停，暂停和恢复都通过 {@link StepPauses} 计数。
+ *
+ * @author gavin
+ */
+public class TransMemoryGuard {
+
+    /**
+     * 长度未知的字符串按该长度估算
+     */
+    private static final int DEFAULT_STRING_LENGTH = 64;
+
+    /**
+     * 单个字符串字段估算长度上限，声明长度通常远大于实际长度
+     */
+    private static final int MAX_STRING_LENGTH = 256;
+
+    /**
+     * 单个二进制字段估算长度上限
+     */
+    private static final int MAX_BINARY_LENGTH = 4096;
+
+    /**
+     * 步骤数据类型是否实现了 MemoryAccountable，插件中的接口和引擎中的不是同一个类，按接口名称判断
+     */
+    private static final ClassValue<Boolean> MEMORY_ACCOUNTABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return implementsInterface(type, MemoryAccountable.class.getName());
+        }
+    };
+
+    private final Trans trans;
+
+    private final TransPreview transPreview;
+
+    private final long budgetBytes;
+
+    private final long throttleBytes;
+
+    private final long resumeBytes;
+
+    private final long throttleTimeoutMillis;
+
+    /**
+     * 开始限流的时间，0表示没有限流
+     */
+    private long throttleStart;
+
+    private volatile long estimatedBytes;
+
+    private volatile State state = State.NORMAL;
+
+    /**
+     * 限流暂停的步骤
+     */
+    private final List<StepInterface> pausedSteps = new ArrayList<>();
+
+    /**
+     * @param trans                 转换，启动线程后创建
+     * @param transPreview          预览数据，没有时为空
+     * @param budgetBytes           预算
+     * @param throttleRatio         达到预算的该比例时开始限流
+     * @param throttleTimeoutMillis 限流持续超过该时长仍然没有回落时停止执行
+     */
+    public TransMemoryGuard(Trans trans, TransPreview transPreview, long budgetBytes, double throttleRatio, long throttleTimeoutMillis) {
+        this.trans = trans;
+        this.transPreview = transPreview;
+        this.budgetBytes = budgetBytes;
+        this.throttleBytes = (long) (budgetBytes * throttleRatio);
+        // 回落到限流阈值的80%以下才恢复，避免频繁暂停恢复
+        this.resumeBytes = (long) (throttleBytes * 0.8);
+        this.throttleTimeoutMillis = throttleTimeoutMillis;
+    }
+
+    /**
+     * 检查内存占用，由监控线程定时调用
+     *
+     * @param now 当前时间，毫秒
+     * @return 检查结果
+     */
+    public synchronized State check(long now) {
+        if (state != State.ABORTED && !trans.isFinishedOrStopped()) {
+            state = doCheck(now);
+        }
+        return state;
+    }
+
+    private State doCheck(long now) {
+        final Usage usage = estimate();
+        estimatedBytes = usage.getTotalBytes();
+
+        if (usage.getTotalBytes() > budgetBytes) {
+            abort(usage, "执行内存超过预算");
+            return State.ABORTED;
+        }
+
+        if (throttleStart > 0) {
+            if (usage.getTotalBytes() < resumeBytes) {
+                resumeInputs();
+                throttleStart = 0;
+                trans.getLogChannel().logBasic("执行内存已回落到{0}MB，恢复输入步骤", toMb(usage.getTotalBytes()));
+                return State.NORMAL;
+            }
+            if (now - throttleStart > throttleTimeoutMillis) {
+                abort(usage, "执行内存持续接近预算");
+                return State.ABORTED;
+            }
+            return State.THROTTLED;
+        }
+
+        if (usage.getTotalBytes() > throttleBytes) {
+            throttleStart = now;
+            final int paused = pauseInputs();
+            trans.getLogChannel().logBasic("执行内存估算{0}MB接近预算{1}MB，暂停{2}个输入步骤，占用最多的步骤：{3}"
+                    , toMb(usage.getTotalBytes()), toMb(budgetBytes), paused, usage.getTopStep());
+            return State.THROTTLED;
+        }
+        return State.NORMAL;
+    }
+
+    /**
+     * 估算当前内存占用
+     */
+    public Usage estimate() {
+        final Usage usage = new Usage();
+        final Map<RowMetaInterface, Long> rowBytesCache = new IdentityHashMap<>();
+        final Map<String, Long> stepBytes = new HashMap<>();
+
+        for (RowSet rowSet : new ArrayList<>(trans.getRowsets())) {
+            final int size = rowSet.size();
+            if (size <= 0) {
+                continue;
+            }
+            final long bytes = size * rowBytes(rowSet.getRowMeta(), rowBytesCache);
+            usage.rowSetBytes += bytes;
+            // 连接中的数据计入下游步骤
+            stepBytes.merge(rowSet.getDestinationStepName(), bytes, Long::sum);
+        }
+
+        final List<StepMetaDataCombi> steps = trans.getSteps();
+        if (steps != null) {
+            for (StepMetaDataCombi combi : steps) {
+                long bytes = 0;
+                // 插件由独立的类加载器加载，按 MemoryAccountable 的父接口调用，只统计实现了 MemoryAccountable 的步骤
+                if (combi.data instanceof LongSupplier && MEMORY_ACCOUNTABLE.get(combi.data.getClass())) {
+                    bytes = ((LongSupplier) combi.data).getAsLong();
+                } else if (combi.data instanceof SortRowsData) {
+                    final SortRowsData sortRowsData = (SortRowsData) combi.data;
+                    final List<Object[]> buffer = sortRowsData.buffer;
+                    if (buffer != null) {
+                        bytes = buffer.size() * rowBytes(sortRowsData.outputRowMeta, rowBytesCache);
+                    }
+                }
+                if (bytes > 0) {
+                    usage.stepBytes += bytes;
+                    stepBytes.merge(combi.stepname, bytes, Long::sum);
+                }
+            }
+        }
+
+        if (transPreview != null) {
+            usage.previewBytes = transPreview.estimateBytes(rowBytesCache);
+        }
+
+        for (Map.Entry<String, Long> entry : stepBytes.entrySet()) {
+            if (entry.getValue() > usage.topStepBytes) {
+                usage.topStep = entry.getKey();
+                usage.topStepBytes = entry.getValue();
+            }
+        }
+        return usage;
+    }
+
+    private static boolean implementsInterface(Class<?> type, String interfaceName) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> face : current.getInterfaces()) {
+                if (face.getName().equals(interfaceName) || implementsInterface(face, interfaceName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static long rowBytes(RowMetaInterface rowMeta, Map<RowMetaInterface, Long> cache) {
+        if (rowMeta == null) {
+            return estimateRowBytes(null);
+        }
+        return cache.computeIfAbsent(rowMeta, TransMemoryGuard::estimateRowBytes);
+    }
+
+    /**
+     * 按字段类型和长度估算一行数据的字节数
+     *
+     * @param rowMeta 行元数据，为空时按10个字符串字段估算
+     * @return 字节数
+     */
+    public static long estimateRowBytes(RowMetaInterface rowMeta) {
+        if (rowMeta == null) {
+            return 16 + 10 * (8 + stringBytes(-1));
+        }
+
+        long bytes = 16 + 8L * rowMeta.size();
+        for (ValueMetaInterface valueMeta : rowMeta.getValueMetaList()) {
+            switch (valueMeta.getType()) {
+                case ValueMetaInterface.TYPE_STRING:
+                    bytes += stringBytes(valueMeta.getLength());
+                    break;
+                case ValueMetaInterface.TYPE_BIGNUMBER:
+                    bytes += 48;
+                    break;
+                case ValueMetaInterface.TYPE_BINARY:
+                    bytes += 16 + (valueMeta.getLength() > 0 ? Math.min(valueMeta.getLength(), MAX_BINARY_LENGTH) : 256);
+                    break;
+                case ValueMetaInterface.TYPE_TIMESTAMP:
+                    bytes += 32;
+                    break;
+                default:
+                    bytes += 24;
+                    break;
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(int length) {
+        final int chars = length > 0 ? Math.min(length, MAX_STRING_LENGTH) : DEFAULT_STRING_LENGTH;
+        return 40 + 2L * chars;
+    }
+
+    /**
+     * 暂停没有输入的步骤，步骤写出下一行时等待
+     */
+    private int pauseInputs() {
+        final StepPauses pauses = StepPauses.of(trans);
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            final StepInterface step = combi.step;
+            if (step.getInputRowSets().isEmpty()) {
+                pauses.pause(step);
+                pausedSteps.add(step);
+            }
+        }
+        return pausedSteps.size();
+    }
+
+    /**
+     * 恢复本对象暂停的步骤，断点仍在暂停的步骤等断点恢复后再继续
+     */
+    private void resumeInputs() {
+        final StepPauses pauses = StepPauses.of(trans);
+        for (StepInterface step : pausedSteps) {
+            pauses.resume(step);
+        }
+        pausedSteps.clear();
+    }
+
+    /**
+     * 停止本次执行，错误计入占用最多的步骤
+     */
+    private void abort(Usage usage, String reason) {
+        trans.getLogChannel().logError("{0}，已停止执行：估算{1}MB，预算{2}MB（连接缓存{3}MB，步骤缓存{4}MB，预览数据{5}MB），占用最多的步骤：{6}"
+                , reason, toMb(usage.getTotalBytes()), toMb(budgetBytes), toMb(usage.rowSetBytes), toMb(usage.stepBytes)
+                , toMb(usage.previewBytes), usage.getTopStep());
+
+        StepInterface errorStep = null;
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            if (errorStep == null || combi.stepname.equals(usage.getTopStep())) {
+                errorStep = combi.step;
+            }
+        }
+        if (errorStep != null) {
+            errorStep.setErrors(errorStep.getErrors() + 1);
+        }
+        resumeInputs();
+        trans.stopAll();
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / 1024 / 1024;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 检查结果
+     */
+    public enum State {
+        NORMAL, THROTTLED, ABORTED
+    }
+
+    /**
+     * 内存占用估算
+     */
+    public static class Usage {
+
+        private long rowSetBytes;
+
+        private long stepBytes;
+
+        private long previewBytes;
+
+        private String topStep;
+
+        private long topStepBytes;
+
+        public long getTotalBytes() {
+            return rowSetBytes + stepBytes + previewBytes;
+        }
+
+        public long getRowSetBytes() {
+            return rowSetBytes;
+        }
+
+        public long getStepBytes() {
+            return stepBytes;
+        }
+
+        public long getPreviewBytes() {
+            return previewBytes;
+        }
+
+        public String getTopStep() {
+            return topStep;
+        }
+    }
+}
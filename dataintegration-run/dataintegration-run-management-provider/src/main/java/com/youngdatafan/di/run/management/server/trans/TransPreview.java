@@ -23,11 +23,9 @@
 package com.youngdatafan.di.run.management.server.trans;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import org.pentaho.di.core.RowMetaAndData;
+import java.util.concurrent.ConcurrentHashMap;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -38,20 +36,33 @@ import org.pentaho.di.trans.step.StepMeta;
 
 /**
  * 数据预览捕获对象
+ * <p>
+ * 每个步骤按预览模式创建一个 {@link PreviewSampler}，写入时只复制字段值，
+ * 转换为字符串推迟到 {@link #getData(String)} 发送预览数据时；FIRST 模式取满后移除行监听，之后步骤没有额外开销。
  *
  * @author gavin
  */
 public class TransPreview {
 
-    protected Map<String, List<RowMetaAndData>> previewDataMap;
+    protected Map<String, PreviewSampler> previewDataMap;
     private int previewSize = 100;
     private PreviewMode previewMode;
 
+    /**
+     * 随机种子，RESERVOIR、STRATIFIED 模式使用
+     */
+    private long seed = System.nanoTime();
+
+    /**
+     * 分层字段，STRATIFIED 模式使用
+     */
+    private String keyField;
+
     /**
      *
      */
     public TransPreview() {
-        previewDataMap = new HashMap<>();
+        previewDataMap = new ConcurrentHashMap<>();
         previewMode = PreviewMode.FIRST;
     }
 
@@ -63,47 +74,30 @@ public class TransPreview {
 
         try {
             for (final StepMeta stepMeta : stepMetas) {
-                final List<RowMetaAndData> rowsData;
-                if (previewMode == PreviewMode.LAST) {
-                    rowsData = new LinkedList<>();
-                } else {
-                    rowsData = new ArrayList<>();
-                }
-
+                // 每个步骤使用不同的随机序列
+                final PreviewSampler rowsData = PreviewSampler.create(previewMode, previewSize
+                        , seed ^ stepMeta.getName().hashCode(), keyField);
                 previewDataMap.put(stepMeta.getName(), rowsData);
 
-                StepInterface step = trans.findRunThread(stepMeta.getName());
+                final StepInterface step = trans.findRunThread(stepMeta.getName());
 
                 if (step != null) {
-                    if (previewMode == PreviewMode.LAST) {
-                        step.addRowListener(new RowAdapter() {
-                            @Override
-                            public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
-                                try {
-                                    rowsData.add(new RowMetaAndData(rowMeta, rowMeta.cloneRow(row)));
-                                    if (rowsData.size() > previewSize) {
-                                        rowsData.remove(0);
-                                    }
-                                } catch (Exception e) {
-                                    throw new KettleStepException("Unable to clone row for metadata : " + rowMeta, e);
-                                }
+                    step.addRowListener(new RowAdapter() {
+
+                        @Override
+                        public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+                            final boolean more;
+                            try {
+                                more = rowsData.offer(rowMeta, row);
+                            } catch (Exception e) {
+                                throw new KettleStepException("Unable to clone row for metadata : " + rowMeta, e);
                             }
-                        });
-                    } else {
-                        step.addRowListener(new RowAdapter() {
-
-                            @Override
-                            public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
-                                if (rowsData.size() < previewSize) {
-                                    try {
-                                        rowsData.add(new RowMetaAndData(rowMeta, rowMeta.cloneRow(row)));
-                                    } catch (Exception e) {
-                                        throw new KettleStepException("Unable to clone row for metadata : " + rowMeta, e);
-                                    }
-                                }
+                            // 不再需要数据时移除监听，后续的行不再回调
+                            if (!more) {
+                                step.removeRowListener(this);
                             }
-                        });
-                    }
+                        }
+                    });
                 }
 
             }
@@ -112,20 +106,37 @@ public class TransPreview {
         }
     }
 
+    /**
+     * 估算预览数据占用的内存
+     *
+     * @param rowBytesCache 行元数据 -> 单行字节数
+     * @return 字节数
+     */
+    long estimateBytes(Map<RowMetaInterface, Long> rowBytesCache) {
+        long bytes = 0;
+        for (PreviewSampler sampler : previewDataMap.values()) {
+            final int size = sampler.size();
+            if (size > 0) {
+                bytes += size * TransMemoryGuard.rowBytes(sampler.getRowMeta(), rowBytesCache);
+            }
+        }
+        return bytes;
+    }
+
     /**
      * 根据步骤获取预览数据
      */
     public List<String[]> getData(String stepName) {
-        List<RowMetaAndData> rowData = previewDataMap.get(stepName);
+        PreviewSampler rowData = previewDataMap.get(stepName);
         if (rowData == null) {
             return null;
         }
 
-        List<String[]> result = new ArrayList<>(rowData.size());
+        final RowMetaInterface dataRowMeta = rowData.getRowMeta();
+        final List<Object[]> rows = rowData.getRows();
+        List<String[]> result = new ArrayList<>(rows.size());
 
-        for (RowMetaAndData rowDatum : rowData) {
-            RowMetaInterface dataRowMeta = rowDatum.getRowMeta();
-            Object[] data = rowDatum.getData();
+        for (Object[] data : rows) {
             String[] row = new String[dataRowMeta.size()];
             result.add(row);
 
@@ -155,12 +166,11 @@ public class TransPreview {
      * 获取预览字段名集合
      */
     public List<String> getFieldNames(String stepName) {
-        List<RowMetaAndData> rowData = previewDataMap.get(stepName);
-        if (rowData == null || rowData.isEmpty()) {
+        final RowMetaInterface rowMeta = getRowMeta(stepName);
+        if (rowMeta == null) {
             return null;
         }
 
-        final RowMetaInterface rowMeta = rowData.get(0).getRowMeta();
         List<String> previewFieldNames = new ArrayList<>(rowMeta.size());
 
         for (int i = 0; i < rowMeta.size(); i++) {
@@ -175,12 +185,12 @@ public class TransPreview {
      * 获取字段元数据
      */
     public RowMetaInterface getRowMeta(String stepName) {
-        List<RowMetaAndData> rowData = previewDataMap.get(stepName);
-        if (rowData == null || rowData.isEmpty()) {
+        PreviewSampler rowData = previewDataMap.get(stepName);
+        if (rowData == null || rowData.size() == 0) {
             return null;
         }
 
-        return rowData.get(0).getRowMeta();
+        return rowData.getRowMeta();
     }
 
     public PreviewMode getPreviewMode() {
@@ -204,7 +214,15 @@ public class TransPreview {
         }
     }
 
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setKeyField(String keyField) {
+        this.keyField = keyField;
+    }
+
     public enum PreviewMode {
-        FIRST, LAST, OFF,
+        FIRST, LAST, OFF, RESERVOIR, STRIDED, STRATIFIED,
     }
 }
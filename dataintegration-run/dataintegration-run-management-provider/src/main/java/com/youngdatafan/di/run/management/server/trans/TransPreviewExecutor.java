@@ -15,6 +15,7 @@ import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransHopMeta;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.debug.BreakPointListener;
@@ -30,7 +31,7 @@ import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
  * @author Gavin
  * @since 2020-02-09 12:08:48
  */
-public class TransPreviewExecutor implements LogParentProvidedInterface {
+public class TransPreviewExecutor implements LogParentProvidedInterface, LogBufferProvidedInterface {
     // for i18n purposes, needed by Translator2!!
     private static Class<?> PKG = TransPreviewExecutor.class;
 
@@ -40,6 +41,16 @@ public class TransPreviewExecutor implements LogParentProvidedInterface {
 
     private TransPreview transPreview = new TransPreview();
 
+    /**
+     * 日志缓冲区行数
+     */
+    private int logBufferLines = ExecutionLogBuffer.DEFAULT_CAPACITY;
+
+    /**
+     * 本次预览的日志缓冲区
+     */
+    private volatile ExecutionLogBuffer logBuffer;
+
     public TransPreviewExecutor(TransMeta transMeta) {
         this.transMeta = transMeta;
     }
@@ -87,8 +98,22 @@ public class TransPreviewExecutor implements LogParentProvidedInterface {
         // This transformation is ready to run in preview!
         trans = new Trans(transMeta);
 
+        logBuffer = new ExecutionLogBuffer(logBufferLines);
+        ExecutionLogDispatcher.getInstance().attach(trans.getLogChannelId(), logBuffer);
+        trans.addTransListener(new TransAdapter() {
+            @Override
+            public void transFinished(Trans trans) {
+                ExecutionLogDispatcher.getInstance().detach(trans.getLogChannelId());
+            }
+        });
+
         // 转换与执行
-        trans.prepareExecution(null);
+        try {
+            trans.prepareExecution(null);
+        } catch (KettleException e) {
+            ExecutionLogDispatcher.getInstance().detach(trans.getLogChannelId());
+            throw e;
+        }
 
         // 预览捕获
         trans.setPreview(true);
@@ -127,6 +152,7 @@ public class TransPreviewExecutor implements LogParentProvidedInterface {
     public void stop() {
         if (trans != null) {
             trans.stopAll();
+            ExecutionLogDispatcher.getInstance().detach(trans.getLogChannelId());
         }
     }
 
@@ -181,6 +207,15 @@ public class TransPreviewExecutor implements LogParentProvidedInterface {
         return transPreview;
     }
 
+    @Override
+    public ExecutionLogBuffer getLogBuffer() {
+        return logBuffer;
+    }
+
+    public void setLogBufferLines(int logBufferLines) {
+        this.logBufferLines = logBufferLines;
+    }
+
     @Override
     public HasLogChannelInterface getLogChannelProvider() {
         return new HasLogChannelInterface() {
@@ -0,0 +1,145 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+
+/**
+ * 转换运行指标，每个步骤副本一个 {@link StepRuntimeMetrics}
+ * <p>
+ * 需要在 prepareExecution 之后、启动线程之前创建，RowSet 按起止步骤名称和副本号归属到步骤；
+ * 步骤线程通过一次性的行监听记录，记录后监听立即移除，不影响后续行的处理。
+ *
+ * @author gavin
+ */
+public class TransRuntimeMetrics {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final Map<StepInterface, StepRuntimeMetrics> stepMetrics = new IdentityHashMap<>();
+
+    private final List<StepRuntimeMetrics> metricsList = new ArrayList<>();
+
+    private final List<RowSet> rowSets;
+
+    private final int rowSetCapacity;
+
+    /**
+     * 连接缓存行数分析，自适应缓存开启时创建
+     */
+    private volatile RowSetProfiler rowSetProfiler;
+
+    public TransRuntimeMetrics(Trans trans) {
+        this.rowSetCapacity = trans.getTransMeta().getSizeRowset();
+        this.rowSets = new ArrayList<>(trans.getRowsets());
+
+        Map<String, StepRuntimeMetrics> metricsByName = new HashMap<>();
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            final StepRuntimeMetrics metrics = new StepRuntimeMetrics(combi.step, rowSetCapacity);
+            stepMetrics.put(combi.step, metrics);
+            metricsList.add(metrics);
+            metricsByName.put(key(combi.step.getStepname(), combi.step.getCopy()), metrics);
+            captureThread(combi.step, metrics);
+        }
+
+        for (RowSet rowSet : rowSets) {
+            final StepRuntimeMetrics origin = metricsByName.get(key(rowSet.getOriginStepName(), rowSet.getOriginStepCopy()));
+            if (origin != null) {
+                origin.addOutputRowSet(rowSet);
+            }
+            final StepRuntimeMetrics destination = metricsByName.get(key(rowSet.getDestinationStepName(), rowSet.getDestinationStepCopy()));
+            if (destination != null) {
+                destination.addInputRowSet(rowSet);
+            }
+        }
+    }
+
+    private static String key(String stepName, int copy) {
+        return stepName + "#" + copy;
+    }
+
+    /**
+     * 步骤读或写第一行时记录当前线程
+     */
+    private static void captureThread(StepInterface step, StepRuntimeMetrics metrics) {
+        step.addRowListener(new RowAdapter() {
+            @Override
+            public void rowReadEvent(RowMetaInterface rowMeta, Object[] row) {
+                capture();
+            }
+
+            @Override
+            public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) {
+                capture();
+            }
+
+            private void capture() {
+                if (!metrics.isThreadCaptured()) {
+                    metrics.setThreadId(Thread.currentThread().getId());
+                    step.removeRowListener(this);
+                }
+            }
+        });
+    }
+
+    /**
+     * 开始分析连接的缓存行数
+     *
+     * @param profileMillis 采样时长，单位：毫秒
+     * @return RowSetProfiler
+     */
+    public RowSetProfiler startProfiling(long profileMillis) {
+        final RowSetProfiler profiler = new RowSetProfiler(rowSetCapacity, profileMillis);
+        for (RowSet rowSet : rowSets) {
+            profiler.addRowSet(rowSet);
+        }
+        rowSetProfiler = profiler;
+        return profiler;
+    }
+
+    /**
+     * 采样所有步骤
+     */
+    public void sample() {
+        final ThreadMXBean threadMXBean = THREAD_MX_BEAN.isThreadCpuTimeSupported()
+                && THREAD_MX_BEAN.isThreadCpuTimeEnabled() ? THREAD_MX_BEAN : null;
+        final long now = System.nanoTime();
+        for (StepRuntimeMetrics metrics : metricsList) {
+            metrics.sample(now, threadMXBean);
+        }
+
+        final RowSetProfiler profiler = rowSetProfiler;
+        if (profiler != null) {
+            profiler.sample(now);
+        }
+    }
+
+    /**
+     * 获取步骤指标
+     *
+     * @param step 步骤
+     * @return 转换准备后新增的步骤返回null
+     */
+    public StepRuntimeMetrics get(StepInterface step) {
+        return stepMetrics.get(step);
+    }
+
+    public RowSetProfiler getRowSetProfiler() {
+        return rowSetProfiler;
+    }
+
+    public List<StepRuntimeMetrics> getSteps() {
+        return Collections.unmodifiableList(metricsList);
+    }
+}
@@ -0,0 +1,254 @@
+package com.youngdatafan.di.run.management.server.trans;
+
+import com.youngdatafan.di.run.management.server.dto.ProjectExecutorStepDTO;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepListener;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 转换运行状态推送器
+ * <p>
+ * 步骤启动/完成、转换完成事件触发推送，行数计数由共享调度线程按最大推送频率采样；
+ * 每次只推送计数或状态发生变化的步骤（增量），相邻两次推送的间隔不小于 minEmitIntervalMs。
+ *
+ * @author gavin
+ */
+public class TransStatusPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransStatusPublisher.class);
+
+    private final TransExecutor transExecutor;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 两次推送的最小间隔，单位：毫秒
+     */
+    private final long minEmitIntervalMs;
+
+    private final Function<StepInterface, ProjectExecutorStepDTO> stepStatusBuilder;
+
+    private final StatusEmitter emitter;
+
+    private final LogBrowser logBrowser;
+
+    /**
+     * 步骤上次推送时的计数快照
+     */
+    private final Map<StepInterface, long[]> lastSnapshots = new IdentityHashMap<>();
+
+    /**
+     * 推送完成（转换结束并且最后一次全量状态已发送）
+     */
+    private final CompletableFuture<TransExecutor> completion = new CompletableFuture<>();
+
+    /**
+     * 是否已经有待执行的事件推送
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private volatile long lastEmitTime;
+
+    private volatile ScheduledFuture<?> sampleFuture;
+
+    public TransStatusPublisher(TransExecutor transExecutor, ScheduledExecutorService scheduler, long minEmitIntervalMs
+            , Function<StepInterface, ProjectExecutorStepDTO> stepStatusBuilder, StatusEmitter emitter) {
+        this.transExecutor = transExecutor;
+        this.scheduler = scheduler;
+        this.minEmitIntervalMs = Math.max(minEmitIntervalMs, 50);
+        this.stepStatusBuilder = stepStatusBuilder;
+        this.emitter = emitter;
+        this.logBrowser = new LogBrowser(transExecutor);
+    }
+
+    /**
+     * 注册监听并开始推送
+     *
+     * @return 推送完成的future，转换结束并发送最后一次全量状态后完成
+     */
+    public CompletableFuture<TransExecutor> start() {
+        final Trans trans = transExecutor.getTrans();
+
+        // 行数变化采样，没有变化的周期不会发送消息；先于监听启动，保证完成时一定能取消
+        sampleFuture = scheduler.scheduleWithFixedDelay(this::flushQuietly
+                , minEmitIntervalMs, minEmitIntervalMs, TimeUnit.MILLISECONDS);
+
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            combi.step.addStepListener(new StepListener() {
+                @Override
+                public void stepActive(Trans trans, StepMeta stepMeta, StepInterface step) {
+                    requestFlush();
+                }
+
+                @Override
+                public void stepFinished(Trans trans, StepMeta stepMeta, StepInterface step) {
+                    requestFlush();
+                }
+            });
+        }
+
+        trans.addTransListener(new TransAdapter() {
+            @Override
+            public void transFinished(Trans trans) {
+                requestFlush();
+            }
+        });
+
+        // 监听注册前转换可能已经结束
+        if (transExecutor.isFinishedOrStopped()) {
+            requestFlush();
+        }
+
+        return completion;
+    }
+
+    /**
+     * 事件触发推送，合并限流窗口内的多次事件
+     */
+    private void requestFlush() {
+        if (completion.isDone() || !flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        long delay = Math.max(0, lastEmitTime + minEmitIntervalMs - System.currentTimeMillis());
+        scheduler.schedule(() -> {
+            flushScheduled.set(false);
+            flushQuietly();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("推送运行状态失败", e);
+            if (transExecutor.isFinishedOrStopped()) {
+                finish();
+            }
+        }
+    }
+
+    private synchronized void flush() {
+        if (completion.isDone()) {
+            return;
+        }
+
+        // 必须在收集状态之前判断，保证最后一次推送的是完成后的状态
+        final boolean finished = transExecutor.isFinishedOrStopped();
+
+        // 采样步骤运行指标，随步骤状态一起推送
+        final TransRuntimeMetrics runtimeMetrics = transExecutor.getRuntimeMetrics();
+        if (runtimeMetrics != null) {
+            runtimeMetrics.sample();
+        }
+        final List<StepMetaDataCombi> steps = transExecutor.getTrans().getSteps();
+
+        if (finished) {
+            // 最后一次发送全量状态
+            List<ProjectExecutorStepDTO> executorSteps = new ArrayList<>(steps.size());
+            for (StepMetaDataCombi combi : steps) {
+                executorSteps.add(buildStepStatus(combi.step, runtimeMetrics));
+            }
+            emitter.emit(executorSteps, logBrowser.getRealTimeLog(), true, false);
+            lastEmitTime = System.currentTimeMillis();
+            finish();
+            return;
+        }
+
+        final boolean incremental = !lastSnapshots.isEmpty();
+        List<ProjectExecutorStepDTO> changedSteps = new ArrayList<>();
+        for (StepMetaDataCombi combi : steps) {
+            final StepInterface step = combi.step;
+            final long[] snapshot = snapshot(step, runtimeMetrics == null ? null : runtimeMetrics.get(step));
+            if (!Arrays.equals(snapshot, lastSnapshots.put(step, snapshot))) {
+                changedSteps.add(buildStepStatus(step, runtimeMetrics));
+            }
+        }
+
+        final String log = logBrowser.getRealTimeLog();
+        if (changedSteps.isEmpty() && log.isEmpty()) {
+            return;
+        }
+
+        emitter.emit(changedSteps, log, false, incremental);
+        lastEmitTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 构建步骤状态并附加运行指标
+     */
+    private ProjectExecutorStepDTO buildStepStatus(StepInterface step, TransRuntimeMetrics runtimeMetrics) {
+        final ProjectExecutorStepDTO stepDTO = stepStatusBuilder.apply(step);
+        final StepRuntimeMetrics metrics = runtimeMetrics == null ? null : runtimeMetrics.get(step);
+        if (stepDTO != null && metrics != null) {
+            stepDTO.setInputRowSetSize(metrics.getInputRowSetSize());
+            stepDTO.setOutputRowSetSize(metrics.getOutputRowSetSize());
+            stepDTO.setRowSetCapacity(metrics.getRowSetCapacity());
+            stepDTO.setPutBlockedMillis(metrics.getPutBlockedMillis());
+            stepDTO.setGetBlockedMillis(metrics.getGetBlockedMillis());
+            stepDTO.setRowsPerSecond10s(metrics.getRowsPerSecond10s());
+            stepDTO.setRowsPerSecond60s(metrics.getRowsPerSecond60s());
+            stepDTO.setCpuMillis(metrics.getCpuMillis());
+        }
+        return stepDTO;
+    }
+
+    private void finish() {
+        if (sampleFuture != null) {
+            sampleFuture.cancel(false);
+        }
+        completion.complete(transExecutor);
+    }
+
+    private static long[] snapshot(StepInterface step, StepRuntimeMetrics metrics) {
+        return new long[]{
+                step.getLinesRead(),
+                step.getLinesWritten(),
+                step.getLinesInput(),
+                step.getLinesOutput(),
+                step.getLinesUpdated(),
+                step.getLinesRejected(),
+                step.getErrors(),
+                step.getStatus().ordinal(),
+                // 阻塞中的步骤计数不变，按秒推送阻塞时间的变化
+                metrics == null ? 0 : metrics.getPutBlockedMillis() / 1000,
+                metrics == null ? 0 : metrics.getGetBlockedMillis() / 1000
+        };
+    }
+
+    public CompletableFuture<TransExecutor> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 状态发送接口
+     */
+    public interface StatusEmitter {
+
+        /**
+         * 发送运行状态
+         *
+         * @param executorSteps 步骤状态，增量推送时只包含发生变化的步骤
+         * @param log           新增的日志
+         * @param finished      转换是否完成
+         * @param incremental   是否为增量消息
+         */
+        void emit(List<ProjectExecutorStepDTO> executorSteps, String log, boolean finished, boolean incremental);
+    }
+}
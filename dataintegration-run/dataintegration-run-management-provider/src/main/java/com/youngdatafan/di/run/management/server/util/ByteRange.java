@@ -0,0 +1,89 @@
+package com.youngdatafan.di.run.management.server.util;
+
+/**
+ * http Range 请求头中的单个字节范围
+ * <p>
+ * 支持 bytes=start-end、bytes=start- 和 bytes=-suffixLength，多个范围时只处理第一个。
+ *
+ * @author gavin
+ */
+public final class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 解析 Range 请求头
+     *
+     * @param header Range 请求头
+     * @param size   文件大小
+     * @return 请求头为空或者格式不支持时返回null，表示返回整个文件
+     * @throws IllegalArgumentException 范围超出文件大小
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.trim().toLowerCase().startsWith(BYTES_UNIT)) {
+            return null;
+        }
+        String spec = header.trim().substring(BYTES_UNIT.length());
+        final int comma = spec.indexOf(',');
+        if (comma >= 0) {
+            spec = spec.substring(0, comma);
+        }
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        final String first = spec.substring(0, dash).trim();
+        final String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // 最后 n 个字节
+                final long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0 || size == 0) {
+                    throw new IllegalArgumentException("请求范围超出文件大小");
+                }
+                return new ByteRange(Math.max(size - suffixLength, 0), size - 1);
+            }
+
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start >= size || start > end) {
+                throw new IllegalArgumentException("请求范围超出文件大小");
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * 最后一个字节的位置，包括该字节
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Content-Range 响应头
+     */
+    public String contentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+}
@@ -0,0 +1,34 @@
+package com.youngdatafan.di.run.management.server.util;
+
+/**
+ * 数据导出任务状态
+ *
+ * @author gavin
+ */
+public enum ExportJobStatus {
+
+    /**
+     * 排队中
+     */
+    QUEUED,
+    /**
+     * 导出中
+     */
+    RUNNING,
+    /**
+     * 导出成功，可以下载
+     */
+    SUCCESS,
+    /**
+     * 导出失败
+     */
+    FAILED,
+    /**
+     * 已取消
+     */
+    CANCELLED;
+
+    public boolean isFinished() {
+        return this == SUCCESS || this == FAILED || this == CANCELLED;
+    }
+}
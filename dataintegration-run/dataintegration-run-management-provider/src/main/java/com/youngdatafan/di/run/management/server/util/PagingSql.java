@@ -0,0 +1,210 @@
+package com.youngdatafan.di.run.management.server.util;
+
+import com.youngdatafan.dataintegration.core.util.sql.DatabaseType;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 按数据库类型生成分页sql
+ * <p>
+ * 查询语句作为子查询包装后加上各数据库的分页语法；不支持偏移的数据库或者无法包装的语句，只限制返回的行数，
+ * 由调用方跳过 {@link #getSkipRows()} 行。无法包装的语句包括：非 select 开头的语句；with 开头的语句，
+ * 部分数据库不允许公用表表达式出现在子查询中；结果中有重名字段的语句（例如 join 后的 select *），
+ * 部分数据库子查询的字段名不能重复，包装后的语句执行失败时，调用方改为执行 {@link #getFallback()}，
+ * 并通过 {@link #hasDuplicateColumns(ResultSetMetaData)} 确认失败原因。
+ *
+ * @author gavin
+ */
+public final class PagingSql {
+
+    /**
+     * 生成行号的分页方式追加的行号字段，位于最后一列，读取时丢弃
+     */
+    public static final String ROW_NUMBER_COLUMN = "dp_rn_";
+
+    private final String sql;
+
+    private final long skipRows;
+
+    private final boolean rowNumberColumn;
+
+    private PagingSql fallback;
+
+    private PagingSql(String sql, long skipRows, boolean rowNumberColumn) {
+        this.sql = sql;
+        this.skipRows = skipRows;
+        this.rowNumberColumn = rowNumberColumn;
+    }
+
+    /**
+     * 偏移分页
+     *
+     * @param databaseType 数据库类型，为空时只限制行数
+     * @param sql          查询语句
+     * @param offset       跳过的行数
+     * @param limit        返回的行数
+     * @return PagingSql
+     */
+    public static PagingSql offset(DatabaseType databaseType, String sql, long offset, int limit) {
+        final String query = strip(sql);
+        if (databaseType == null || !isWrappable(query)) {
+            return new PagingSql(query, offset, false);
+        }
+
+        final PagingSql pagingSql = wrap(databaseType, query, offset, limit);
+        if (!pagingSql.sql.equals(query)) {
+            pagingSql.fallback = unwrapped(query, offset);
+        }
+        return pagingSql;
+    }
+
+    private static PagingSql wrap(DatabaseType databaseType, String query, long offset, int limit) {
+
+        final String subQuery = "SELECT * FROM (" + query + ") t_";
+        switch (databaseType) {
+            case MYSQL:
+            case CLICKHOUSE:
+            case HADOOP_HIVE2:
+                return new PagingSql(subQuery + " LIMIT " + (offset > 0 ? offset + ", " : "") + limit, 0, false);
+            case POSTGRESQL:
+            case KDW:
+            case ELK:
+                return new PagingSql(subQuery + " LIMIT " + limit + (offset > 0 ? " OFFSET " + offset : ""), 0, false);
+            case SPARK:
+                // 不支持 OFFSET
+                return new PagingSql(subQuery + " LIMIT " + (offset + limit), offset, false);
+            case ORACLE:
+                if (offset == 0) {
+                    return new PagingSql("SELECT * FROM (" + query + ") WHERE ROWNUM <= " + limit, 0, false);
+                }
+                return new PagingSql("SELECT * FROM (SELECT t_.*, ROWNUM " + ROW_NUMBER_COLUMN + " FROM (" + query + ") t_ WHERE ROWNUM <= "
+                        + (offset + limit) + ") WHERE " + ROW_NUMBER_COLUMN + " > " + offset, 0, true);
+            case DB2:
+                if (offset == 0) {
+                    return new PagingSql(subQuery + " FETCH FIRST " + limit + " ROWS ONLY", 0, false);
+                }
+                return new PagingSql("SELECT * FROM (SELECT t_.*, ROW_NUMBER() OVER () " + ROW_NUMBER_COLUMN + " FROM (" + query
+                        + ") t_) t2_ WHERE " + ROW_NUMBER_COLUMN + " > " + offset + " AND " + ROW_NUMBER_COLUMN + " <= " + (offset + limit), 0, true);
+            case TERADATA:
+                return new PagingSql("SELECT TOP " + (offset + limit) + " * FROM (" + query + ") t_", offset, false);
+            default:
+                // sql server 子查询中不允许 ORDER BY，依靠 setMaxRows 限制行数
+                return new PagingSql(query, offset, false);
+        }
+    }
+
+    /**
+     * 不改写查询语句，由调用方限制行数并跳过 offset 行
+     *
+     * @param sql    查询语句
+     * @param offset 跳过的行数
+     * @return PagingSql
+     */
+    public static PagingSql unwrapped(String sql, long offset) {
+        return new PagingSql(strip(sql), offset, false);
+    }
+
+    /**
+     * 查询结果是否有重名的字段，重名字段的查询不能作为子查询
+     *
+     * @param metaData 查询结果的字段信息，为空时返回false
+     * @return 字段名不区分大小写重复时返回true
+     */
+    public static boolean hasDuplicateColumns(ResultSetMetaData metaData) throws SQLException {
+        if (metaData == null) {
+            return false;
+        }
+        final int count = metaData.getColumnCount();
+        final Set<String> labels = new HashSet<>(count * 2);
+        for (int i = 1; i <= count; i++) {
+            if (!labels.add(String.valueOf(metaData.getColumnLabel(i)).toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按唯一字段分页，大偏移时不需要扫描跳过的行
+     *
+     * @param databaseType 数据库类型
+     * @param sql          查询语句
+     * @param keyField     分页字段，已经按数据库规则加上引号
+     * @param after        是否只查询大于上一页最后一个值的行，条件值作为第一个参数
+     * @param limit        返回的行数
+     * @return PagingSql
+     */
+    public static PagingSql keyset(DatabaseType databaseType, String sql, String keyField, boolean after, int limit) {
+        final String query = strip(sql);
+        if (databaseType == null || !isSelect(query)) {
+            throw new IllegalArgumentException("按字段分页只支持查询语句");
+        }
+
+        final String core = " * FROM (" + query + ") t_" + (after ? " WHERE t_." + keyField + " > ?" : "") + " ORDER BY t_." + keyField;
+        switch (databaseType) {
+            case ORACLE:
+                return new PagingSql("SELECT * FROM (SELECT" + core + ") WHERE ROWNUM <= " + limit, 0, false);
+            case MSSQL:
+            case TERADATA:
+                return new PagingSql("SELECT TOP " + limit + core, 0, false);
+            case DB2:
+                return new PagingSql("SELECT" + core + " FETCH FIRST " + limit + " ROWS ONLY", 0, false);
+            default:
+                return new PagingSql("SELECT" + core + " LIMIT " + limit, 0, false);
+        }
+    }
+
+    /**
+     * 去掉首尾空白和结尾的分号
+     */
+    static String strip(String sql) {
+        String query = sql.trim();
+        while (query.endsWith(";")) {
+            query = query.substring(0, query.length() - 1).trim();
+        }
+        return query;
+    }
+
+    static boolean isSelect(String sql) {
+        final String lower = sql.toLowerCase(Locale.ROOT);
+        return lower.startsWith("select") || lower.startsWith("with") || lower.startsWith("(");
+    }
+
+    /**
+     * 偏移分页能否包装为子查询，with 开头的语句不包装
+     */
+    static boolean isWrappable(String sql) {
+        final String lower = sql.toLowerCase(Locale.ROOT);
+        return lower.startsWith("select") || lower.startsWith("(");
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 读取结果时需要跳过的行数
+     */
+    public long getSkipRows() {
+        return skipRows;
+    }
+
+    /**
+     * 包装为子查询的语句执行失败时改为执行的不改写的语句
+     *
+     * @return 没有包装为子查询时返回null
+     */
+    public PagingSql getFallback() {
+        return fallback;
+    }
+
+    /**
+     * 结果最后一列是否为追加的行号
+     */
+    public boolean hasRowNumberColumn() {
+        return rowNumberColumn;
+    }
+}
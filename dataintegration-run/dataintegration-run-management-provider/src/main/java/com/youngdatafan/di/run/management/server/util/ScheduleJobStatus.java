@@ -0,0 +1,34 @@
+package com.youngdatafan.di.run.management.server.util;
+
+/**
+ * 调度执行任务状态
+ *
+ * @author gavin
+ */
+public enum ScheduleJobStatus {
+
+    /**
+     * 排队中
+     */
+    QUEUED,
+    /**
+     * 运行中
+     */
+    RUNNING,
+    /**
+     * 执行成功
+     */
+    SUCCESS,
+    /**
+     * 执行失败
+     */
+    FAILED,
+    /**
+     * 已取消
+     */
+    CANCELLED;
+
+    public boolean isFinished() {
+        return this == SUCCESS || this == FAILED || this == CANCELLED;
+    }
+}
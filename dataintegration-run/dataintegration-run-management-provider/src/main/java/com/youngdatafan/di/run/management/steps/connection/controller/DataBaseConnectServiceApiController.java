@@ -59,14 +59,14 @@ public class DataBaseConnectServiceApiController implements DBConnectServiceApi
     }
 
     @Override
-    public Result<PreviewDataInfoDTO, Object> previewData(QueryVO queryVO) {
-        return dataBaseInputService.previewData(queryVO);
+    public Result<PreviewDataInfoDTO, Object> previewData(QueryVO queryVO, boolean refresh) {
+        return dataBaseInputService.previewData(queryVO, refresh);
     }
 
     @Override
-    public Result<List<FieldDTO>, Object> getFieldInfo(QueryVO queryVO) {
+    public Result<List<FieldDTO>, Object> getFieldInfo(QueryVO queryVO, boolean refresh) {
 
-        return dataBaseInputService.getFieldInfo(queryVO);
+        return dataBaseInputService.getFieldInfo(queryVO, refresh);
     }
 
 
@@ -1,6 +1,7 @@
 package com.youngdatafan.di.run.management.steps.connection.service;
 
 import com.alibaba.fastjson.JSONObject;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.exception.DpException;
 import com.youngdatafan.dataintegration.core.model.Result;
@@ -11,6 +12,7 @@ import com.youngdatafan.di.run.management.steps.connect.dto.FieldDTO;
 import com.youngdatafan.di.run.management.steps.connect.dto.PreviewDataInfoDTO;
 import com.youngdatafan.di.run.management.steps.connect.vo.ConnectionDetailVO;
 import com.youngdatafan.di.run.management.steps.connect.vo.QueryVO;
+import com.youngdatafan.di.run.management.server.service.DesignResultCacheService;
 import com.youngdatafan.di.run.management.server.util.SqlUtills;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
@@ -42,9 +44,18 @@ import java.util.List;
 @Service
 public class DataBaseInputService {
 
+    private static final TypeReference<PreviewDataInfoDTO> PREVIEW_DATA_TYPE = new TypeReference<PreviewDataInfoDTO>() {
+    };
+
+    private static final TypeReference<List<FieldDTO>> FIELDS_TYPE = new TypeReference<List<FieldDTO>>() {
+    };
+
     @Autowired
     ResourceLoader resourceLoader;
 
+    @Autowired
+    DesignResultCacheService designResultCacheService;
+
 
     public Result getDbJson() throws Exception {
         Resource resource = resourceLoader.getResource("classpath:kettle/db.json");
@@ -108,8 +119,7 @@ public class DataBaseInputService {
 
     }
 
-    public Result<PreviewDataInfoDTO, Object> previewData(QueryVO queryVO) {
-        PreviewDataInfoDTO previewDataInfoDTO = new PreviewDataInfoDTO();
+    public Result<PreviewDataInfoDTO, Object> previewData(QueryVO queryVO, boolean refresh) {
         final ConnectionDetailVO connectionDetailVO = queryVO.getConnectionDetailVO();
         String projectFile = getJsonInfo(connectionDetailVO);
 
@@ -118,6 +128,14 @@ public class DataBaseInputService {
         int maxLimit = Math.min(limit == null ? 10 : limit, 10000);
         connectionDetailVO.getConnection().setLimit(maxLimit);
 
+        final String querySql = queryVO.getQuerySql();
+        return Result.success(designResultCacheService.get(DesignResultCacheService.definitionGroup(projectFile)
+                , DesignResultCacheService.key("dbInputPreview", querySql, maxLimit), refresh, PREVIEW_DATA_TYPE
+                , () -> queryPreviewData(projectFile, querySql, maxLimit)));
+    }
+
+    private PreviewDataInfoDTO queryPreviewData(String projectFile, String querySql, int maxLimit) {
+        PreviewDataInfoDTO previewDataInfoDTO = new PreviewDataInfoDTO();
         Database database = null;
         ResultSet resultSet = null;
 
@@ -131,10 +149,10 @@ public class DataBaseInputService {
             List<Object[]> datas = new ArrayList<>();
 
             // 执行查询
-            resultSet = database.openQuery(queryVO.getQuerySql());
+            resultSet = database.openQuery(querySql);
 
             Object[] row;
-            while ((row = database.getRow(resultSet)) != null) {
+            while (datas.size() < maxLimit && (row = database.getRow(resultSet)) != null) {
                 // 获取字段名
                 if (fieldNames == null) {
                     fieldNames = database.getReturnRowMeta().getFieldNames();
@@ -148,7 +166,7 @@ public class DataBaseInputService {
             }
             previewDataInfoDTO.setDataDTO(datas);
 
-            return Result.success(previewDataInfoDTO);
+            return previewDataInfoDTO;
         } catch (Exception e) {
             throw new DpException(StatusCode.CODE_10010.getCode(), "获取预览数据异常", e);
 
@@ -167,8 +185,15 @@ public class DataBaseInputService {
 
     }
 
-    public Result getFieldInfo(QueryVO queryVO) {
+    public Result<List<FieldDTO>, Object> getFieldInfo(QueryVO queryVO, boolean refresh) {
         String projectFile = getJsonInfo(queryVO.getConnectionDetailVO());
+        final String querySql = queryVO.getQuerySql();
+        return Result.success(designResultCacheService.get(DesignResultCacheService.definitionGroup(projectFile)
+                , DesignResultCacheService.key("dbInputFields", querySql), refresh, FIELDS_TYPE
+                , () -> queryFieldInfo(projectFile, querySql)));
+    }
+
+    private List<FieldDTO> queryFieldInfo(String projectFile, String querySql) {
         List<FieldDTO> cloumnInfos = new ArrayList<>();
         Database database = null;
 
@@ -178,8 +203,7 @@ public class DataBaseInputService {
             database = new Database(databaseMeta);
             database.connect();
 
-            String sql = queryVO.getQuerySql();
-            sql = SqlUtills.parseSql(sql);
+            String sql = SqlUtills.parseSql(querySql);
 
             // 查询字段信息
             RowMetaInterface queryFields = database.getQueryFields(sql, false);
@@ -204,7 +228,7 @@ public class DataBaseInputService {
             }
         }
 
-        return Result.success(cloumnInfos);
+        return cloumnInfos;
     }
 
     /**
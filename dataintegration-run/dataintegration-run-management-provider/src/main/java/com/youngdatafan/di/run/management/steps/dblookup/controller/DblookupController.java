@@ -1,10 +1,14 @@
 package com.youngdatafan.di.run.management.steps.dblookup.controller;
 
 import com.alipay.sofa.common.utils.StringUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.youngdatafan.dataintegration.core.exception.DpException;
 import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.dataintegration.core.util.StatusCode;
 import com.youngdatafan.dataintegration.core.util.UUIDUtils;
 import com.youngdatafan.di.run.management.steps.dblookup.api.DbLookupApi;
 import com.youngdatafan.di.run.management.steps.dblookup.vo.TableFieldVO;
+import com.youngdatafan.di.run.management.server.service.DesignResultCacheService;
 import com.youngdatafan.di.run.management.server.service.ProjectExecutorService;
 import lombok.extern.slf4j.Slf4j;
 import org.pentaho.di.core.database.Database;
@@ -32,28 +36,48 @@ import java.util.List;
 @RequestMapping("/dblookup")
 public class DblookupController implements DbLookupApi {
 
+    private static final TypeReference<List<TableFieldVO>> TABLE_FIELDS_TYPE = new TypeReference<List<TableFieldVO>>() {
+    };
+
     @Autowired
     private ProjectExecutorService projectExecutorService;
 
+    @Autowired
+    private DesignResultCacheService designResultCacheService;
+
     @Override
-    public Result<List<TableFieldVO>, Object> getTableColumns(String userId, String json, String tableName,String connectName,String schema) {
-        List<TableFieldVO> list = new ArrayList<>();
-        Database db = null;
+    public Result<List<TableFieldVO>, Object> getTableColumns(String userId, String json, String tableName, String connectName
+            , String schema, boolean refresh) {
         try {
             TransMeta transMeta = projectExecutorService.buildTransMeta(UUIDUtils.generateUUID32(),json);
             DatabaseMeta ci = transMeta.findDatabase(connectName);
-            db = new Database( ci );
-            db.shareVariablesWith( transMeta );
-            db.connect();
             String schemaTable="" ;
             if(!StringUtil.isEmpty(tableName)&&tableName.contains(".")){
                 schemaTable=tableName;
             }else{
                 schemaTable =
-                        ci.getQuotedSchemaTableCombination( db.environmentSubstitute( schema ), db
+                        ci.getQuotedSchemaTableCombination( transMeta.environmentSubstitute( schema ), transMeta
                                 .environmentSubstitute( tableName ) );
             }
 
+            // 连接定义中的变量替换后作为分组
+            final String table = schemaTable;
+            return Result.success(designResultCacheService.get(DesignResultCacheService.definitionGroup(transMeta.environmentSubstitute(ci.getXML()))
+                    , DesignResultCacheService.key("dblookupColumns", table), refresh, TABLE_FIELDS_TYPE
+                    , () -> getTableFields(transMeta, ci, table)));
+        } catch (KettleMissingPluginsException | KettleXMLException | IOException | DpException e) {
+            log.error("获取表字段失败，表: {}，连接: {}", tableName, connectName, e);
+            return Result.fail(StatusCode.CODE_10010.getCode(), "获取表字段失败：" + e.getMessage());
+        }
+    }
+
+    private List<TableFieldVO> getTableFields(TransMeta transMeta, DatabaseMeta ci, String schemaTable) throws KettleDatabaseException {
+        List<TableFieldVO> list = new ArrayList<>();
+        Database db = new Database( ci );
+        try {
+            db.shareVariablesWith( transMeta );
+            db.connect();
+
             RowMetaInterface r = db.getTableFields( schemaTable );
             for (ValueMetaInterface valueMetaInterface : r.getValueMetaList()){
                 TableFieldVO tableFieldVO = new TableFieldVO();
@@ -61,13 +85,9 @@ public class DblookupController implements DbLookupApi {
                 tableFieldVO.setType(valueMetaInterface.getTypeDesc());
                 list.add(tableFieldVO);
             }
-        } catch (KettleMissingPluginsException | KettleXMLException | IOException | KettleDatabaseException e) {
-            e.printStackTrace();
         } finally {
-            if(db!=null){
-                db.disconnect();
-            }
+            db.disconnect();
         }
-        return Result.success(list);
+        return list;
     }
 }
@@ -0,0 +1,148 @@
+package com.dp.de.run.management.plugin.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 与基线结果比较
+ * <p>
+ * 端到端吞吐下降或者峰值堆内存增加超过阈值时判定为回退；GC耗时和步骤吞吐波动较大，只输出变化供参考。
+ * 基线中没有的项目和步骤不比较。
+ *
+ * @author gavin
+ */
+public class BaselineComparator {
+
+    private final BenchmarkReport baseline;
+
+    private final double threshold;
+
+    /**
+     * @param baseline  基线结果
+     * @param threshold 阈值，例如0.1表示变化超过10%
+     */
+    public BaselineComparator(BenchmarkReport baseline, double threshold) {
+        this.baseline = baseline;
+        this.threshold = threshold;
+    }
+
+    /**
+     * 比较结果
+     *
+     * @param current 本次结果
+     * @return 每个项目、步骤的指标变化
+     */
+    public List<Comparison> compare(BenchmarkReport current) {
+        final List<Comparison> comparisons = new ArrayList<>();
+        for (BenchmarkReport.ProjectResult project : current.getProjects()) {
+            final BenchmarkReport.ProjectResult base = baseline.getProject(project.getName());
+            if (base == null) {
+                continue;
+            }
+
+            final String name = project.getName();
+            comparisons.add(new Comparison(name, "rowsPerSecond", base.getRowsPerSecond(), project.getRowsPerSecond(), true, true, threshold));
+            comparisons.add(new Comparison(name, "peakHeapBytes", base.getPeakHeapBytes(), project.getPeakHeapBytes(), false, true, threshold));
+            comparisons.add(new Comparison(name, "gcMillis", base.getGcMillis(), project.getGcMillis(), false, false, threshold));
+            comparisons.add(new Comparison(name, "maxGcPauseMillis", base.getMaxGcPauseMillis(), project.getMaxGcPauseMillis(), false, false, threshold));
+
+            for (BenchmarkReport.StepResult step : project.getSteps()) {
+                final BenchmarkReport.StepResult baseStep = base.getStep(step.getName());
+                if (baseStep != null) {
+                    comparisons.add(new Comparison(name + "/" + step.getName(), "rowsPerSecond", baseStep.getRowsPerSecond()
+                            , step.getRowsPerSecond(), true, false, threshold));
+                }
+            }
+        }
+        return comparisons;
+    }
+
+    /**
+     * 是否存在回退
+     */
+    public static boolean hasRegression(List<Comparison> comparisons) {
+        for (Comparison comparison : comparisons) {
+            if (comparison.isRegression()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 格式化为文本表格
+     */
+    public static String format(List<Comparison> comparisons) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-50s %-18s %16s %16s %9s%n", "项目/步骤", "指标", "基线", "本次", "变化"));
+        for (Comparison comparison : comparisons) {
+            sb.append(String.format("%-50s %-18s %16.1f %16.1f %+8.1f%%%s%n", comparison.getName(), comparison.getMetric()
+                    , comparison.getBaseline(), comparison.getCurrent(), comparison.getChange() * 100
+                    , comparison.isRegression() ? " 回退" : ""));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 单个指标的变化
+     */
+    public static class Comparison {
+
+        private final String name;
+
+        private final String metric;
+
+        private final double baseline;
+
+        private final double current;
+
+        /**
+         * 相对基线的变化比例
+         */
+        private final double change;
+
+        private final boolean regression;
+
+        /**
+         * @param name           项目或者步骤
+         * @param metric         指标
+         * @param baseline       基线值
+         * @param current        本次值
+         * @param higherIsBetter 指标是否越大越好
+         * @param checked        是否判定回退
+         * @param threshold      阈值
+         */
+        Comparison(String name, String metric, double baseline, double current, boolean higherIsBetter, boolean checked, double threshold) {
+            this.name = name;
+            this.metric = metric;
+            this.baseline = baseline;
+            this.current = current;
+            this.change = baseline > 0 ? (current - baseline) / baseline : 0;
+            this.regression = checked && (higherIsBetter ? change < -threshold : change > threshold);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMetric() {
+            return metric;
+        }
+
+        public double getBaseline() {
+            return baseline;
+        }
+
+        public double getCurrent() {
+            return current;
+        }
+
+        public double getChange() {
+            return change;
+        }
+
+        public boolean isRegression() {
+            return regression;
+        }
+    }
+}
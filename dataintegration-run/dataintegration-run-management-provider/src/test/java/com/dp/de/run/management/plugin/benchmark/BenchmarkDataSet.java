@@ -0,0 +1,175 @@
+package com.dp.de.run.management.plugin.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+
+/**
+ * 端到端基准测试的源数据
+ * <p>
+ * 按固定种子生成行数相同、内容一致的 csv 文件和 H2 表（PostgreSQL 兼容模式），
+ * 字段为 id、name、region、amount、created，不依赖数据库、文件服务器等外部服务。
+ *
+ * @author gavin
+ */
+public class BenchmarkDataSet {
+
+    public static final String CSV_FILE_NAME = "source.csv";
+
+    public static final String SOURCE_TABLE = "benchmark_source";
+
+    public static final String TARGET_TABLE = "benchmark_target";
+
+    public static final String DB_USER = "sa";
+
+    public static final String DB_PASSWORD = "benchmark";
+
+    private static final String[] REGIONS = {"华东", "华南", "华北", "华中", "西南", "西北", "东北", "海外"};
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private static final long SEED = 20200601L;
+
+    /**
+     * 2020-01-01 00:00:00
+     */
+    private static final long START_TIME = 1577808000000L;
+
+    private static final int BATCH_SIZE = 5000;
+
+    private final File dir;
+
+    private final int rows;
+
+    /**
+     * @param dir  数据目录
+     * @param rows 行数
+     */
+    public BenchmarkDataSet(File dir, int rows) {
+        this.dir = dir;
+        this.rows = rows;
+    }
+
+    /**
+     * 生成 csv 文件和数据库表
+     */
+    public void create() throws IOException, SQLException {
+        writeCsv();
+        seedDatabase();
+    }
+
+    /**
+     * 写出带表头的 csv 文件
+     */
+    public File writeCsv() throws IOException {
+        final File file = new File(dir, CSV_FILE_NAME);
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        final Random random = new Random(SEED);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 65536)) {
+            writer.write("id,name,region,amount,created\n");
+            for (int i = 0; i < rows; i++) {
+                final Row row = nextRow(random, i);
+                writer.write(String.valueOf(row.id));
+                writer.write(',');
+                writer.write(row.name);
+                writer.write(',');
+                writer.write(row.region);
+                writer.write(',');
+                writer.write(String.valueOf(row.amount));
+                writer.write(',');
+                writer.write(dateFormat.format(row.created));
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 创建源表和目标表，写入与 csv 文件相同的数据
+     */
+    public void seedDatabase() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:" + getDatabase(), DB_USER, DB_PASSWORD)) {
+            try (Statement statement = connection.createStatement()) {
+                for (String table : new String[]{SOURCE_TABLE, TARGET_TABLE}) {
+                    statement.execute("DROP TABLE IF EXISTS " + table);
+                    statement.execute("CREATE TABLE " + table + " (id BIGINT PRIMARY KEY, name VARCHAR(32), region VARCHAR(16)"
+                            + ", amount DOUBLE PRECISION, created TIMESTAMP)");
+                }
+            }
+
+            connection.setAutoCommit(false);
+            final Random random = new Random(SEED);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + SOURCE_TABLE
+                    + " (id, name, region, amount, created) VALUES (?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < rows; i++) {
+                    final Row row = nextRow(random, i);
+                    statement.setLong(1, row.id);
+                    statement.setString(2, row.name);
+                    statement.setString(3, row.region);
+                    statement.setDouble(4, row.amount);
+                    statement.setTimestamp(5, row.created);
+                    statement.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    private static Row nextRow(Random random, int i) {
+        final Row row = new Row();
+        row.id = i + 1L;
+        final char[] chars = new char[8];
+        for (int c = 0; c < chars.length; c++) {
+            chars[c] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        row.name = "客户" + new String(chars);
+        row.region = REGIONS[random.nextInt(REGIONS.length)];
+        row.amount = random.nextInt(100000) / 100.0;
+        row.created = new Timestamp(START_TIME + random.nextInt(365 * 24 * 3600) * 1000L);
+        return row;
+    }
+
+    /**
+     * H2 数据库名称，拼接在 jdbc:h2: 之后，使用 PostgreSQL 兼容模式
+     */
+    public String getDatabase() {
+        return new File(dir, "h2/benchmark").getAbsolutePath() + ";MODE=PostgreSQL";
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    private static class Row {
+
+        private long id;
+
+        private String name;
+
+        private String region;
+
+        private double amount;
+
+        private Timestamp created;
+    }
+}
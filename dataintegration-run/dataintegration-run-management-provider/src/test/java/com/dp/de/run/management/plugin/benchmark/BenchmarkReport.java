@@ -0,0 +1,215 @@
+package com.dp.de.run.management.plugin.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 端到端基准测试结果，以json保存，可以作为后续运行的基线
+ *
+ * @author gavin
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BenchmarkReport {
+
+    /**
+     * 运行时间
+     */
+    private String createdAt;
+
+    private String javaVersion;
+
+    /**
+     * 最大堆内存，单位：字节
+     */
+    private long maxHeapBytes;
+
+    private int availableProcessors;
+
+    /**
+     * 源数据行数
+     */
+    private int rows;
+
+    private int warmups;
+
+    private int iterations;
+
+    private List<ProjectResult> projects = new ArrayList<>();
+
+    /**
+     * 按名称查找项目结果
+     *
+     * @param name 项目名称
+     * @return 没有时返回null
+     */
+    public ProjectResult getProject(String name) {
+        for (ProjectResult project : projects) {
+            if (project.getName().equals(name)) {
+                return project;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单个项目的结果，汇总值取耗时中位数的那次执行
+     */
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ProjectResult {
+
+        private String name;
+
+        /**
+         * 输入步骤输出的行数
+         */
+        private long rows;
+
+        private long elapsedMillis;
+
+        /**
+         * 端到端吞吐，行/秒
+         */
+        private double rowsPerSecond;
+
+        private long gcCount;
+
+        private long gcMillis;
+
+        /**
+         * 所有测量执行中最长的单次GC停顿，单位：毫秒
+         */
+        private long maxGcPauseMillis;
+
+        /**
+         * 所有测量执行中最大的峰值堆内存，单位：字节
+         */
+        private long peakHeapBytes;
+
+        private List<StepResult> steps = new ArrayList<>();
+
+        private List<IterationResult> measurements = new ArrayList<>();
+
+        /**
+         * 汇总多次执行的结果
+         *
+         * @param name         项目名称
+         * @param measurements 测量执行，不包含预热
+         * @return 项目结果
+         */
+        public static ProjectResult summarize(String name, List<IterationResult> measurements) {
+            final ProjectResult result = new ProjectResult();
+            result.name = name;
+            result.measurements = new ArrayList<>(measurements);
+
+            final List<IterationResult> sorted = new ArrayList<>(measurements);
+            sorted.sort(Comparator.comparingLong(IterationResult::getElapsedMillis));
+            final IterationResult median = sorted.get(sorted.size() / 2);
+            result.rows = median.getRows();
+            result.elapsedMillis = median.getElapsedMillis();
+            result.rowsPerSecond = median.getRowsPerSecond();
+            result.gcCount = median.getGcCount();
+            result.gcMillis = median.getGcMillis();
+            result.steps = median.getSteps();
+
+            for (IterationResult measurement : measurements) {
+                result.maxGcPauseMillis = Math.max(result.maxGcPauseMillis, measurement.getMaxGcPauseMillis());
+                result.peakHeapBytes = Math.max(result.peakHeapBytes, measurement.getPeakHeapBytes());
+            }
+            return result;
+        }
+
+        /**
+         * 按名称查找步骤结果
+         *
+         * @param stepName 步骤名称
+         * @return 没有时返回null
+         */
+        public StepResult getStep(String stepName) {
+            for (StepResult step : steps) {
+                if (step.getName().equals(stepName)) {
+                    return step;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 单次执行的结果
+     */
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class IterationResult {
+
+        private long rows;
+
+        private long elapsedMillis;
+
+        private double rowsPerSecond;
+
+        private long gcCount;
+
+        private long gcMillis;
+
+        private long maxGcPauseMillis;
+
+        private long peakHeapBytes;
+
+        private List<StepResult> steps = new ArrayList<>();
+    }
+
+    /**
+     * 单个步骤的结果，多个副本合并
+     */
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class StepResult {
+
+        private String name;
+
+        private int copies;
+
+        private long linesRead;
+
+        private long linesWritten;
+
+        private long linesInput;
+
+        private long linesOutput;
+
+        /**
+         * 步骤运行时长，多个副本取最长的，单位：毫秒
+         */
+        private long runtimeMillis;
+
+        /**
+         * 步骤吞吐，读、写行数中较大的值除以运行时长，行/秒
+         */
+        private double rowsPerSecond;
+
+        /**
+         * 步骤线程CPU时间之和，未采集到时为-1
+         */
+        private long cpuMillis;
+
+        /**
+         * 输出连接已满的等待时长之和
+         */
+        private long putBlockedMillis;
+
+        /**
+         * 输入连接为空的等待时长之和
+         */
+        private long getBlockedMillis;
+    }
+}
@@ -0,0 +1,134 @@
+package com.dp.de.run.management.plugin.benchmark;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * 一次执行期间的GC和堆内存
+ * <p>
+ * GC次数和耗时取收集器累计值的差；单次最长停顿由GC通知得到，并发收集器的通知包含并发阶段，只能作为近似值。
+ * 峰值堆内存为各个堆内存池峰值之和，各内存池的峰值不一定同时出现，是实际峰值的上限。
+ *
+ * @author gavin
+ */
+public class GcMonitor implements NotificationListener {
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+
+    private final AtomicLong maxPauseMillis = new AtomicLong();
+
+    private boolean running;
+
+    private long startCount;
+
+    private long startMillis;
+
+    private long gcCount;
+
+    private long gcMillis;
+
+    private long peakHeapBytes;
+
+    /**
+     * 开始记录，重置内存池峰值
+     */
+    public void start() {
+        running = true;
+        maxPauseMillis.set(0);
+        startCount = totalCount();
+        startMillis = totalMillis();
+        for (MemoryPoolMXBean pool : memoryPools) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+            }
+        }
+    }
+
+    /**
+     * 停止记录，重复调用时保留第一次的结果
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // 没有注册成功，忽略
+                }
+            }
+        }
+        gcCount = totalCount() - startCount;
+        gcMillis = totalMillis() - startMillis;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : memoryPools) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        peakHeapBytes = peak;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final long duration = info.getGcInfo().getDuration();
+        maxPauseMillis.accumulateAndGet(duration, Math::max);
+    }
+
+    private long totalCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private long totalMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    public long getMaxPauseMillis() {
+        return maxPauseMillis.get();
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+}
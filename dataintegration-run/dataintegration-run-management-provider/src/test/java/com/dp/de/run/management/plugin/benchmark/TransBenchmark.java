@@ -0,0 +1,375 @@
+package com.dp.de.run.management.plugin.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.youngdatafan.di.run.management.server.service.ProjectExecutorService;
+import com.youngdatafan.di.run.management.server.service.TransMetaCacheService;
+import com.youngdatafan.di.run.management.server.trans.StepRuntimeMetrics;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.trans.TransRuntimeMetrics;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 端到端转换吞吐基准测试
+ * <p>
+ * 不启动 Spring 容器：项目文件通过 {@link ProjectExecutorService#buildTransMeta(String, String)} 解析，
+ * 由 {@link TransExecutor} 按线上相同的方式执行，源数据为本地 csv 文件和 H2 数据库（PostgreSQL 兼容模式）。
+ * 每个项目先预热再测量多次，输出端到端吞吐、步骤吞吐、GC和峰值堆内存，并可以与基线结果比较。
+ * <p>
+ * 项目文件可以使用以下变量：
+ * <ul>
+ *     <li>BENCHMARK_DIR：数据目录，源数据文件为 source.csv</li>
+ *     <li>BENCHMARK_ROWS：源数据行数</li>
+ *     <li>BENCHMARK_DB、BENCHMARK_DB_USER、BENCHMARK_DB_PASSWORD：H2 连接，源表 benchmark_source，目标表 benchmark_target</li>
+ * </ul>
+ * 运行：mvn -Pbenchmarks test-compile exec:exec，参数见 provider pom 中的 benchmarks profile。
+ *
+ * @author gavin
+ */
+public class TransBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransBenchmark.class);
+
+    /**
+     * 内置的项目，位于 classpath 的 benchmark 目录
+     */
+    public static final List<String> SAMPLE_PROJECTS = Arrays.asList("csv_sort_output", "table_filter_output", "generator_calc_group");
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 200;
+
+    private final File workDir;
+
+    private final int rows;
+
+    private final int warmups;
+
+    private final int iterations;
+
+    /**
+     * 项目名称和项目文件内容
+     */
+    private final Map<String, String> projects = new LinkedHashMap<>();
+
+    private ProjectExecutorService projectExecutorService;
+
+    private BenchmarkDataSet dataSet;
+
+    /**
+     * @param workDir    工作目录，保存源数据、输出文件和临时文件
+     * @param rows       源数据行数
+     * @param warmups    每个项目的预热次数
+     * @param iterations 每个项目的测量次数
+     */
+    public TransBenchmark(File workDir, int rows, int warmups, int iterations) {
+        this.workDir = workDir;
+        this.rows = rows;
+        this.warmups = warmups;
+        this.iterations = Math.max(iterations, 1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File workDir = new File(System.getProperty("benchmark.workDir", "target/trans-benchmark"));
+        final TransBenchmark benchmark = new TransBenchmark(workDir, intProperty("benchmark.rows", 500000)
+                , intProperty("benchmark.warmups", 1), intProperty("benchmark.iterations", 3));
+
+        final String names = System.getProperty("benchmark.projects");
+        benchmark.addSampleProjects(StringUtils.isBlank(names) ? SAMPLE_PROJECTS : Arrays.asList(StringUtils.split(names, ',')));
+        final String projectDir = System.getProperty("benchmark.projectDir");
+        if (StringUtils.isNotBlank(projectDir)) {
+            benchmark.addProjectDir(new File(projectDir));
+        }
+
+        final BenchmarkReport report = benchmark.run();
+        final File output = new File(StringUtils.defaultIfBlank(System.getProperty("benchmark.output")
+                , new File(workDir, "trans-benchmark-result.json").getPath()));
+        write(report, output);
+        logger.info("基准测试结果已写入：{}", output.getAbsolutePath());
+
+        final String baseline = System.getProperty("benchmark.baseline");
+        if (StringUtils.isNotBlank(baseline)) {
+            final double threshold = Double.parseDouble(StringUtils.defaultIfBlank(System.getProperty("benchmark.threshold"), "0.1"));
+            final BaselineComparator comparator = new BaselineComparator(read(new File(baseline)), threshold);
+            final List<BaselineComparator.Comparison> comparisons = comparator.compare(report);
+            logger.info("与基线比较，阈值{}%：\n{}", threshold * 100, BaselineComparator.format(comparisons));
+            if (BaselineComparator.hasRegression(comparisons)
+                    && Boolean.parseBoolean(StringUtils.defaultIfBlank(System.getProperty("benchmark.failOnRegression"), "true"))) {
+                logger.error("吞吐或峰值堆内存超过阈值，存在性能回退");
+                System.exit(1);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        final String value = System.getProperty(name);
+        return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * 添加内置的项目
+     *
+     * @param names 项目名称，见 {@link #SAMPLE_PROJECTS}
+     */
+    public TransBenchmark addSampleProjects(List<String> names) throws IOException {
+        for (String name : names) {
+            final String resource = "benchmark/" + name.trim() + ".json";
+            try (InputStream in = TransBenchmark.class.getClassLoader().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new IllegalArgumentException("项目不存在：" + resource);
+                }
+                projects.put(name.trim(), IOUtils.toString(in, StandardCharsets.UTF_8));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 添加目录下的项目文件(json或者xml)，例如从设计器导出的项目
+     *
+     * @param dir 目录
+     */
+    public TransBenchmark addProjectDir(File dir) throws IOException {
+        final File[] files = dir.listFiles((d, name) -> name.endsWith(".json") || name.endsWith(".xml") || name.endsWith(".ktr"));
+        if (files == null) {
+            throw new IllegalArgumentException("目录不存在：" + dir.getAbsolutePath());
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            projects.put(file.getName().substring(0, file.getName().lastIndexOf('.'))
+                    , FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+        }
+        return this;
+    }
+
+    /**
+     * 生成源数据并依次执行所有项目
+     *
+     * @return 基准测试结果
+     */
+    public BenchmarkReport run() throws Exception {
+        setUp();
+
+        final BenchmarkReport report = new BenchmarkReport();
+        report.setCreatedAt(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+        report.setJavaVersion(System.getProperty("java.version"));
+        report.setMaxHeapBytes(Runtime.getRuntime().maxMemory());
+        report.setAvailableProcessors(Runtime.getRuntime().availableProcessors());
+        report.setRows(rows);
+        report.setWarmups(warmups);
+        report.setIterations(iterations);
+
+        for (Map.Entry<String, String> project : projects.entrySet()) {
+            final String name = project.getKey();
+            for (int i = 0; i < warmups; i++) {
+                final BenchmarkReport.IterationResult result = runOnce(name, project.getValue(), "warmup" + i);
+                logger.info("[{}] 预热{}：{}行，{}ms", name, i + 1, result.getRows(), result.getElapsedMillis());
+            }
+
+            final List<BenchmarkReport.IterationResult> measurements = new ArrayList<>();
+            for (int i = 0; i < iterations; i++) {
+                final BenchmarkReport.IterationResult result = runOnce(name, project.getValue(), "iteration" + i);
+                logger.info("[{}] 测量{}：{}行，{}ms，{}行/秒，GC {}次{}ms，峰值堆内存{}MB", name, i + 1, result.getRows()
+                        , result.getElapsedMillis(), Math.round(result.getRowsPerSecond()), result.getGcCount(), result.getGcMillis()
+                        , result.getPeakHeapBytes() / 1024 / 1024);
+                measurements.add(result);
+            }
+            report.getProjects().add(BenchmarkReport.ProjectResult.summarize(name, measurements));
+        }
+        return report;
+    }
+
+    /**
+     * 初始化 kettle 环境、解析服务和源数据
+     */
+    private void setUp() throws Exception {
+        if (!KettleEnvironment.isInitialized()) {
+            KettleEnvironment.init(false);
+        }
+
+        FileUtils.forceMkdir(workDir);
+        FileUtils.forceMkdir(new File(workDir, "sort"));
+        FileUtils.forceMkdir(new File(workDir, "output"));
+
+        // 只使用项目解析，其余依赖在基准测试中不会用到
+        final TransMetaCacheService transMetaCacheService = new TransMetaCacheService(new SimpleMeterRegistry());
+        projectExecutorService = new ProjectExecutorService(null, null, null, null, transMetaCacheService
+                , null, null, null, null, null, null, null);
+        ReflectionTestUtils.setField(projectExecutorService, "tmpFolder", new File(workDir, "tmp").getPath());
+        ReflectionTestUtils.setField(projectExecutorService, "tmpFileSuffix", ".xml");
+        ReflectionTestUtils.setField(projectExecutorService, "deleteTmpFile", true);
+
+        dataSet = new BenchmarkDataSet(workDir, rows);
+        final long start = System.currentTimeMillis();
+        dataSet.create();
+        logger.info("已生成{}行源数据，耗时{}ms", rows, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 执行一次项目
+     */
+    private BenchmarkReport.IterationResult runOnce(String name, String projectFile, String iteration) throws Exception {
+        final TransMeta transMeta = projectExecutorService.buildTransMeta("benchmark_" + name + "_" + iteration, projectFile);
+        if (transMeta.hasMissingPlugins()) {
+            throw new IllegalStateException("[" + name + "] 缺少执行插件");
+        }
+
+        final TransExecutionConfiguration executionConfiguration = new TransExecutionConfiguration();
+        executionConfiguration.setExecutingLocally(true);
+        executionConfiguration.setExecutingRemotely(false);
+        executionConfiguration.setExecutingClustered(false);
+        executionConfiguration.getUsedVariables(transMeta);
+        executionConfiguration.setLogLevel(LogLevel.MINIMAL);
+        executionConfiguration.setVariables(variables());
+
+        // 尽量避免上一次执行的垃圾计入本次
+        System.gc();
+        final GcMonitor gcMonitor = new GcMonitor();
+        gcMonitor.start();
+        final long start = System.nanoTime();
+
+        final TransExecutor transExecutor = new TransExecutor(transMeta);
+        try {
+            transExecutor.start(executionConfiguration, new ProjectExecutorParam());
+            final Trans trans = transExecutor.getTrans();
+            if (!transExecutor.isRunning()) {
+                throw new IllegalStateException("[" + name + "] 转换启动失败：" + logText(trans));
+            }
+            final TransRuntimeMetrics runtimeMetrics = transExecutor.getRuntimeMetrics();
+            while (!transExecutor.isFinishedOrStopped()) {
+                runtimeMetrics.sample();
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            }
+            trans.waitUntilFinished();
+            final long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+            gcMonitor.stop();
+            runtimeMetrics.sample();
+
+            if (trans.getErrors() > 0) {
+                throw new IllegalStateException("[" + name + "] 转换执行失败：" + logText(trans));
+            }
+            return collect(trans, runtimeMetrics, gcMonitor, elapsedMillis);
+        } finally {
+            gcMonitor.stop();
+            if (transExecutor.getTrans() != null) {
+                KettleLogStore.discardLines(transExecutor.getTrans().getLogChannelId(), true);
+            }
+        }
+    }
+
+    private Map<String, String> variables() {
+        final Map<String, String> variables = new HashMap<>();
+        variables.put("BENCHMARK_DIR", workDir.getAbsolutePath());
+        variables.put("BENCHMARK_ROWS", String.valueOf(rows));
+        variables.put("BENCHMARK_DB", dataSet.getDatabase());
+        variables.put("BENCHMARK_DB_USER", BenchmarkDataSet.DB_USER);
+        variables.put("BENCHMARK_DB_PASSWORD", BenchmarkDataSet.DB_PASSWORD);
+        return variables;
+    }
+
+    /**
+     * 汇总执行结果，没有输入连接的步骤输出的行数作为端到端处理的行数
+     */
+    private static BenchmarkReport.IterationResult collect(Trans trans, TransRuntimeMetrics runtimeMetrics
+            , GcMonitor gcMonitor, long elapsedMillis) {
+        final BenchmarkReport.IterationResult result = new BenchmarkReport.IterationResult();
+        final Map<String, BenchmarkReport.StepResult> steps = new LinkedHashMap<>();
+        long rows = 0;
+        for (StepMetaDataCombi combi : trans.getSteps()) {
+            final StepInterface step = combi.step;
+            if (trans.getTransMeta().findNrPrevSteps(combi.stepMeta) == 0) {
+                rows += step.getLinesWritten();
+            }
+
+            final BenchmarkReport.StepResult stepResult = steps.computeIfAbsent(combi.stepname, stepName -> {
+                final BenchmarkReport.StepResult s = new BenchmarkReport.StepResult();
+                s.setName(stepName);
+                s.setCpuMillis(-1);
+                return s;
+            });
+            stepResult.setCopies(stepResult.getCopies() + 1);
+            stepResult.setLinesRead(stepResult.getLinesRead() + step.getLinesRead());
+            stepResult.setLinesWritten(stepResult.getLinesWritten() + step.getLinesWritten());
+            stepResult.setLinesInput(stepResult.getLinesInput() + step.getLinesInput());
+            stepResult.setLinesOutput(stepResult.getLinesOutput() + step.getLinesOutput());
+            stepResult.setRuntimeMillis(Math.max(stepResult.getRuntimeMillis(), step.getRuntime()));
+
+            final StepRuntimeMetrics metrics = runtimeMetrics.get(step);
+            if (metrics != null) {
+                if (metrics.getCpuMillis() >= 0) {
+                    stepResult.setCpuMillis(Math.max(stepResult.getCpuMillis(), 0) + metrics.getCpuMillis());
+                }
+                stepResult.setPutBlockedMillis(stepResult.getPutBlockedMillis() + metrics.getPutBlockedMillis());
+                stepResult.setGetBlockedMillis(stepResult.getGetBlockedMillis() + metrics.getGetBlockedMillis());
+            }
+        }
+        for (BenchmarkReport.StepResult stepResult : steps.values()) {
+            stepResult.setRowsPerSecond(rate(Math.max(stepResult.getLinesRead(), stepResult.getLinesWritten()), stepResult.getRuntimeMillis()));
+        }
+
+        result.setRows(rows);
+        result.setElapsedMillis(elapsedMillis);
+        result.setRowsPerSecond(rate(rows, elapsedMillis));
+        result.setGcCount(gcMonitor.getGcCount());
+        result.setGcMillis(gcMonitor.getGcMillis());
+        result.setMaxGcPauseMillis(gcMonitor.getMaxPauseMillis());
+        result.setPeakHeapBytes(gcMonitor.getPeakHeapBytes());
+        result.setSteps(new ArrayList<>(steps.values()));
+        return result;
+    }
+
+    private static double rate(long rows, long millis) {
+        return millis <= 0 ? 0 : rows * 1000.0 / millis;
+    }
+
+    private static String logText(Trans trans) {
+        return trans == null ? "" : KettleLogStore.getAppender().getBuffer(trans.getLogChannelId(), false).toString();
+    }
+
+    /**
+     * 写出结果
+     */
+    public static void write(BenchmarkReport report, File file) throws IOException {
+        if (file.getParentFile() != null) {
+            FileUtils.forceMkdir(file.getParentFile());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+    }
+
+    /**
+     * 读取结果，用作基线
+     */
+    public static BenchmarkReport read(File file) throws IOException {
+        return new ObjectMapper().readValue(file, BenchmarkReport.class);
+    }
+
+    public BenchmarkDataSet getDataSet() {
+        return dataSet;
+    }
+}
@@ -0,0 +1,43 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.util.ByteRange;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author gavin
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void testParse() {
+        Assert.assertNull(ByteRange.parse(null, 100));
+        Assert.assertNull(ByteRange.parse("items=0-10", 100));
+
+        ByteRange range = ByteRange.parse("bytes=10-19", 100);
+        Assert.assertEquals(10, range.getStart());
+        Assert.assertEquals(19, range.getEnd());
+        Assert.assertEquals(10, range.getLength());
+        Assert.assertEquals("bytes 10-19/100", range.contentRange(100));
+
+        // 断点续传
+        range = ByteRange.parse("bytes=40-", 100);
+        Assert.assertEquals(40, range.getStart());
+        Assert.assertEquals(99, range.getEnd());
+
+        // 最后20个字节
+        range = ByteRange.parse("bytes=-20", 100);
+        Assert.assertEquals(80, range.getStart());
+        Assert.assertEquals(20, range.getLength());
+
+        // 结束位置超出文件大小，多个范围只处理第一个
+        range = ByteRange.parse("bytes=90-200, 0-1", 100);
+        Assert.assertEquals(90, range.getStart());
+        Assert.assertEquals(99, range.getEnd());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsatisfiable() {
+        ByteRange.parse("bytes=100-", 100);
+    }
+}
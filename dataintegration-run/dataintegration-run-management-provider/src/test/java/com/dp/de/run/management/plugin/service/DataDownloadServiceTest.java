@@ -0,0 +1,49 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.exception.DpException;
+import com.youngdatafan.di.run.management.datasource.PluginRunDataSourceRepository;
+import com.youngdatafan.di.run.management.server.service.DataDownloadService;
+import com.youngdatafan.di.run.management.server.vo.PreviewDownloadVO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class DataDownloadServiceTest {
+
+    @Test
+    public void testQueryErrorBeforeResponse() {
+        final PluginRunDataSourceRepository dataSourceRepository = Mockito.mock(PluginRunDataSourceRepository.class);
+        Mockito.when(dataSourceRepository.getDataSource("u1", "ds1")).thenThrow(new IllegalStateException("数据源不存在"));
+        final DataDownloadService dataDownloadService = new DataDownloadService(dataSourceRepository);
+        ReflectionTestUtils.setField(dataDownloadService, "previewDownloadMaxRow", 100);
+        ReflectionTestUtils.setField(dataDownloadService, "downloadGzip", true);
+
+        final PreviewDownloadVO previewDownloadVO = new PreviewDownloadVO();
+        previewDownloadVO.setFileName("data");
+        previewDownloadVO.setFormat("csv");
+        previewDownloadVO.setDatasourceId("ds1");
+        previewDownloadVO.setDataQuerySql("select 1");
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Accept-Encoding", "gzip");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        try {
+            dataDownloadService.download("u1", previewDownloadVO, true, request, response);
+            Assert.fail();
+        } catch (DpException e) {
+            Assert.assertEquals("数据下载失败", e.getMessage());
+        }
+
+        // 查询失败时响应还没有提交，也没有设置下载和压缩的响应头
+        Assert.assertFalse(response.isCommitted());
+        Assert.assertNull(response.getHeader("Content-disposition"));
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        Assert.assertEquals(0, response.getContentAsByteArray().length);
+    }
+}
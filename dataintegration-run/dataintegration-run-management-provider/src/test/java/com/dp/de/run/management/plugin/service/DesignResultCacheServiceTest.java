@@ -0,0 +1,90 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.youngdatafan.dataintegration.core.exception.DpException;
+import com.youngdatafan.di.run.management.server.service.DesignResultCacheService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class DesignResultCacheServiceTest {
+
+    private static final TypeReference<String> STRING_TYPE = new TypeReference<String>() {
+    };
+
+    private DesignResultCacheService cacheService;
+
+    @Before
+    public void setUp() {
+        cacheService = new DesignResultCacheService(null, new ObjectMapper(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cacheService, "enabled", true);
+        ReflectionTestUtils.setField(cacheService, "maximumWeightMb", 1L);
+        ReflectionTestUtils.setField(cacheService, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(cacheService, "redisEnabled", false);
+        cacheService.init();
+    }
+
+    @Test
+    public void testNormalize() {
+        Assert.assertEquals("select a, b from t where c = 'x  y'"
+                , DesignResultCacheService.normalize("  select a,\n\t b   from t\nwhere c = 'x  y' ;\n"));
+        Assert.assertEquals(DesignResultCacheService.key("preview", "select 1 from t", 10)
+                , DesignResultCacheService.key("preview", "select  1\nfrom t;", 10));
+        Assert.assertNotEquals(DesignResultCacheService.key("preview", "select 1 from t", 10)
+                , DesignResultCacheService.key("preview", "select 1 from t", 20));
+    }
+
+    @Test
+    public void testGet() {
+        final AtomicInteger calls = new AtomicInteger();
+        final String key = DesignResultCacheService.key("preview", "select 1", 10);
+
+        Assert.assertEquals("1", cacheService.get("ds1", key, false, STRING_TYPE, () -> String.valueOf(calls.incrementAndGet())));
+        Assert.assertEquals("1", cacheService.get("ds1", key, false, STRING_TYPE, () -> String.valueOf(calls.incrementAndGet())));
+        Assert.assertEquals(1, calls.get());
+
+        // 跳过缓存并更新
+        Assert.assertEquals("2", cacheService.get("ds1", key, true, STRING_TYPE, () -> String.valueOf(calls.incrementAndGet())));
+        Assert.assertEquals("2", cacheService.get("ds1", key, false, STRING_TYPE, () -> String.valueOf(calls.incrementAndGet())));
+
+        // 数据源修改后清理
+        cacheService.invalidate("ds2");
+        Assert.assertEquals("2", cacheService.get("ds1", key, false, STRING_TYPE, () -> String.valueOf(calls.incrementAndGet())));
+        cacheService.invalidate("ds1");
+        Assert.assertEquals("3", cacheService.get("ds1", key, false, STRING_TYPE, () -> String.valueOf(calls.incrementAndGet())));
+    }
+
+    @Test
+    public void testWeight() {
+        final AtomicInteger calls = new AtomicInteger();
+        final String key = DesignResultCacheService.key("preview", "select text from t", 10);
+        // 估算超过1MB，不保留
+        final String large = StringUtils.repeat("x", 600 * 1024);
+
+        Assert.assertEquals(large, cacheService.get("ds1", key, false, STRING_TYPE, () -> {
+            calls.incrementAndGet();
+            return large;
+        }));
+        Assert.assertEquals(large, cacheService.get("ds1", key, false, STRING_TYPE, () -> {
+            calls.incrementAndGet();
+            return large;
+        }));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test(expected = DpException.class)
+    public void testLoadFailed() {
+        cacheService.get("ds1", "k", false, STRING_TYPE, () -> {
+            throw new IOException("连接失败");
+        });
+    }
+}
@@ -0,0 +1,79 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.mapper.DpUserTenantMapper;
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
+import com.youngdatafan.di.run.management.server.service.ExecuteTenantService;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class ExecuteTenantServiceTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    private ExecuteTenantService tenantService;
+
+    @Before
+    public void setUp() {
+        tenantService = new ExecuteTenantService(new DpUserTenantMapper() {
+            @Override
+            public String selectTenantIdByUserId(String userId) {
+                queries.incrementAndGet();
+                return "u1".equals(userId) ? "tenantA" : null;
+            }
+
+            @Override
+            public String selectTenantIdByProjectId(String projectId) {
+                queries.incrementAndGet();
+                if ("broken".equals(projectId)) {
+                    throw new IllegalStateException("数据库连接失败");
+                }
+                return "p1".equals(projectId) ? "tenantB" : null;
+            }
+        });
+        ReflectionTestUtils.setField(tenantService, "tenantCacheMinutes", 10L);
+        tenantService.init();
+    }
+
+    @Test
+    public void testResolve() {
+        // 不使用客户端传入的租户
+        Assert.assertEquals("tenantA", tenantService.resolve(ExecutePriority.DESIGNER, param("t0", "u1", "p1")));
+        Assert.assertEquals("tenantB", tenantService.resolve(ExecutePriority.SCHEDULE, param("t0", "schedule", "p1")));
+
+        Assert.assertEquals("tenantA", tenantService.resolve(ExecutePriority.DESIGNER, param(null, "u1", "p1")));
+        // 用户没有租户时使用项目创建人的租户
+        Assert.assertEquals("tenantB", tenantService.resolve(ExecutePriority.DESIGNER, param(null, "u2", "p1")));
+        // 调度用户不是真实用户，按项目查询
+        Assert.assertEquals("tenantB", tenantService.resolve(ExecutePriority.SCHEDULE, param(null, "schedule", "p1")));
+        Assert.assertEquals(ProjectExecuteScheduler.DEFAULT_TENANT
+                , tenantService.resolve(ExecutePriority.SCHEDULE, param(null, "schedule", "p2")));
+
+        // 查询结果（包括没有租户）会缓存
+        final int count = queries.get();
+        tenantService.resolve(ExecutePriority.DESIGNER, param(null, "u2", "p1"));
+        tenantService.resolve(ExecutePriority.SCHEDULE, param(null, "schedule", "p2"));
+        Assert.assertEquals(count, queries.get());
+    }
+
+    @Test
+    public void testLookupFailed() {
+        Assert.assertEquals(ProjectExecuteScheduler.DEFAULT_TENANT
+                , tenantService.resolve(ExecutePriority.SCHEDULE, param(null, "schedule", "broken")));
+    }
+
+    private static ProjectExecutorParam param(String tenantId, String userId, String projectId) {
+        final ProjectExecutorParam param = new ProjectExecutorParam();
+        param.setTenantId(tenantId);
+        param.setUserId(userId);
+        param.setProjectId(projectId);
+        return param;
+    }
+}
@@ -0,0 +1,183 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.mapper.DpDeProjectExecHistoryMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class ExecutionJournalTest {
+
+    /**
+     * 已提交的执行记录写入，格式：类型:id:状态
+     */
+    private final List<String> written = new ArrayList<>();
+
+    /**
+     * 写入失败的执行记录id
+     */
+    private final Set<Long> poisonIds = new HashSet<>();
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private boolean dbDown;
+
+    private int pipelines;
+
+    private ExecutionJournal journal;
+
+    @Before
+    public void setUp() {
+        journal = new ExecutionJournal(sqlSessionFactory(), null, new RedisTemplate<String, String>() {
+            @Override
+            public List<Object> executePipelined(SessionCallback<?> session) {
+                pipelines++;
+                return Collections.emptyList();
+            }
+        }, meterRegistry);
+        ReflectionTestUtils.setField(journal, "instanceId", "i1");
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        // 由测试调用写入
+        ReflectionTestUtils.setField(journal, "flushIntervalMs", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(journal, "batchSize", 200);
+        ReflectionTestUtils.setField(journal, "maxRetries", 2);
+        ReflectionTestUtils.setField(journal, "retryBackoffMs", 0L);
+        journal.init();
+    }
+
+    @After
+    public void tearDown() {
+        poisonIds.clear();
+        dbDown = false;
+        journal.close();
+    }
+
+    @Test
+    public void testDatabaseDownDoesNotBlockRedis() {
+        dbDown = true;
+        journal.insertHistory(history(1L, "RUNNING"));
+        journal.set("k", "v", 1, TimeUnit.HOURS);
+        flush();
+
+        Assert.assertEquals(1, pipelines);
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals(1, gauge("dp.execute.journal.pending"), 0);
+
+        dbDown = false;
+        flush();
+        Assert.assertEquals(Collections.singletonList("insert:1:RUNNING"), written);
+    }
+
+    @Test
+    public void testParkPoisonEntry() {
+        poisonIds.add(2L);
+        journal.insertHistory(history(1L, "RUNNING"));
+        journal.insertHistory(history(2L, "RUNNING"));
+        journal.insertHistory(history(3L, "RUNNING"));
+        flush();
+
+        // 其他条目不受影响
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(1, gauge("dp.execute.journal.parked"), 0);
+
+        // 同一执行记录的更新排在搁置的插入之后
+        journal.updateHistory(history(2L, "END"));
+        journal.updateHistory(history(3L, "END"));
+        flush();
+        Assert.assertEquals("update:3:END", written.get(2));
+        Assert.assertEquals(3, written.size());
+
+        poisonIds.clear();
+        flush();
+        Assert.assertEquals("insert:2:END", written.get(3));
+        Assert.assertEquals(0, gauge("dp.execute.journal.parked"), 0);
+    }
+
+    @Test
+    public void testNeverDropHistory() {
+        dbDown = true;
+        journal.insertHistory(history(1L, "RUNNING"));
+        for (int i = 0; i < 10; i++) {
+            flush();
+        }
+        Assert.assertEquals(0, gauge("dp.execute.journal.pending"), 0);
+        Assert.assertEquals(1, gauge("dp.execute.journal.parked"), 0);
+        Assert.assertEquals(0, meterRegistry.counter("dp.execute.journal.dropped").count(), 0);
+
+        dbDown = false;
+        // 搁置的条目按重试间隔重试
+        ReflectionTestUtils.setField(ReflectionTestUtils.getField(journal, "dbSink"), "parkedRetryAt", 0L);
+        flush();
+        Assert.assertEquals(Collections.singletonList("insert:1:RUNNING"), written);
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(journal, "flush");
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private static DpDeProjectExecHistory history(Long id, String status) {
+        final DpDeProjectExecHistory history = new DpDeProjectExecHistory();
+        history.setId(id);
+        history.setStatus(status);
+        return history;
+    }
+
+    private SqlSessionFactory sqlSessionFactory() {
+        final SqlSessionFactory sqlSessionFactory = Mockito.mock(SqlSessionFactory.class);
+        Mockito.when(sqlSessionFactory.openSession(ExecutorType.BATCH, false)).thenAnswer(invocation -> session());
+        return sqlSessionFactory;
+    }
+
+    private SqlSession session() {
+        // 提交之前的写入
+        final List<String> batch = new ArrayList<>();
+        final DpDeProjectExecHistoryMapper mapper = Mockito.mock(DpDeProjectExecHistoryMapper.class);
+        Mockito.when(mapper.insertIgnoreDuplicate(Mockito.any(DpDeProjectExecHistory.class)))
+                .thenAnswer(invocation -> write(batch, "insert", invocation.getArgument(0)));
+        Mockito.when(mapper.updateByPrimaryKeySelective(Mockito.any(DpDeProjectExecHistory.class)))
+                .thenAnswer(invocation -> write(batch, "update", invocation.getArgument(0)));
+
+        final SqlSession session = Mockito.mock(SqlSession.class);
+        Mockito.when(session.getMapper(DpDeProjectExecHistoryMapper.class)).thenReturn(mapper);
+        Mockito.doAnswer(invocation -> {
+            if (dbDown) {
+                throw new IllegalStateException("Connection refused");
+            }
+            written.addAll(batch);
+            return null;
+        }).when(session).commit();
+        return session;
+    }
+
+    private int write(List<String> batch, String type, DpDeProjectExecHistory history) {
+        if (poisonIds.contains(history.getId())) {
+            throw new IllegalStateException("Data too long");
+        }
+        batch.add(type + ":" + history.getId() + ":" + history.getStatus());
+        return 1;
+    }
+}
@@ -0,0 +1,84 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.ExecutionLogBuffer;
+import com.youngdatafan.di.run.management.server.trans.ExecutionLogSpool;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.logging.KettleLoggingEvent;
+import org.pentaho.di.core.logging.LogLevel;
+
+/**
+ * @author gavin
+ */
+public class ExecutionLogBufferTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testIncrementalRead() {
+        ExecutionLogBuffer buffer = new ExecutionLogBuffer(10);
+        append(buffer, 3);
+
+        ExecutionLogBuffer.LogChunk chunk = buffer.read(0);
+        Assert.assertEquals(3, chunk.getLines().size());
+        Assert.assertEquals(3, chunk.getNextSequence());
+        Assert.assertEquals(0, chunk.getSkipped());
+
+        append(buffer, 2);
+        chunk = buffer.read(chunk.getNextSequence());
+        Assert.assertEquals(2, chunk.getLines().size());
+        Assert.assertTrue(chunk.getLines().get(0).endsWith("line-3"));
+
+        chunk = buffer.read(chunk.getNextSequence());
+        Assert.assertTrue(chunk.getLines().isEmpty());
+    }
+
+    @Test
+    public void testOverflow() {
+        ExecutionLogBuffer buffer = new ExecutionLogBuffer(4);
+        append(buffer, 10);
+
+        Assert.assertEquals(6, buffer.getDroppedLines());
+
+        ExecutionLogBuffer.LogChunk chunk = buffer.read(2);
+        Assert.assertEquals(6, chunk.getFromSequence());
+        Assert.assertEquals(4, chunk.getSkipped());
+        Assert.assertEquals(4, chunk.getLines().size());
+        Assert.assertTrue(chunk.getLines().get(0).endsWith("line-6"));
+        Assert.assertTrue(chunk.getLines().get(3).endsWith("line-9"));
+    }
+
+    @Test
+    public void testAttachSpoolReplay() throws Exception {
+        ExecutionLogBuffer buffer = new ExecutionLogBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            buffer.append(new KettleLoggingEvent("line-" + i, 1000L + i, LogLevel.BASIC));
+        }
+
+        // 提前初始化时产生的日志，绑定落盘文件时按原来的时间补写缓冲区中仍保留的行，已覆盖的行写入省略提示
+        final ExecutionLogSpool spool = ExecutionLogSpool.create(temporaryFolder.newFolder(), "exec1", 256);
+        buffer.attachSpool(spool);
+        append(buffer, 2);
+
+        List<ExecutionLogSpool.LogLine> lines = spool.read(0, 10);
+        Assert.assertEquals(7, lines.size());
+        Assert.assertEquals("... 省略2行日志 ...", lines.get(0).getText());
+        Assert.assertEquals(1002L, lines.get(0).getTimestamp());
+        Assert.assertTrue(lines.get(1).getText().endsWith("line-2"));
+        Assert.assertEquals(1002L, lines.get(1).getTimestamp());
+        Assert.assertEquals(1005L, lines.get(4).getTimestamp());
+        Assert.assertTrue(lines.get(6).getText().endsWith("line-7"));
+        spool.close();
+    }
+
+    private void append(ExecutionLogBuffer buffer, int count) {
+        final long start = buffer.getNextSequence();
+        for (int i = 0; i < count; i++) {
+            buffer.append(new KettleLoggingEvent("line-" + (start + i), System.currentTimeMillis(), LogLevel.BASIC));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.ExecutionLogSpool;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author gavin
+ */
+public class ExecutionLogSpoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadRunningAndClosed() throws Exception {
+        final File folder = temporaryFolder.newFolder();
+        final ExecutionLogSpool spool = ExecutionLogSpool.create(folder, "exec1", 256);
+        for (int i = 0; i < 100; i++) {
+            spool.append("line-" + i, 1000L + i);
+        }
+
+        // 执行中，包含内存中的块
+        Assert.assertTrue(spool.getBlocks().size() > 1);
+        List<ExecutionLogSpool.LogLine> lines = spool.read(95, 10);
+        Assert.assertEquals(5, lines.size());
+        Assert.assertEquals("line-99", lines.get(4).getText());
+
+        spool.close();
+
+        final ExecutionLogSpool reopened = ExecutionLogSpool.open(folder, "exec1");
+        Assert.assertNotNull(reopened);
+        Assert.assertEquals(100, reopened.getTotalLines());
+
+        lines = reopened.read(10, 30);
+        Assert.assertEquals(30, lines.size());
+        Assert.assertEquals(10, lines.get(0).getLineNumber());
+        Assert.assertEquals("line-39", lines.get(29).getText());
+
+        lines = reopened.tail(3);
+        Assert.assertEquals("line-97", lines.get(0).getText());
+
+        Assert.assertEquals(42, reopened.findLineByTime(1042L));
+        Assert.assertEquals(100, reopened.findLineByTime(5000L));
+    }
+
+    @Test
+    public void testBackgroundWrite() throws Exception {
+        final File folder = temporaryFolder.newFolder();
+        // 写入线程还没有执行
+        final List<Runnable> writes = new ArrayList<>();
+        final ExecutionLogSpool spool = ExecutionLogSpool.create(folder, "exec2", 256, writes::add);
+        for (int i = 0; i < 100; i++) {
+            spool.append("line-" + i, 1000L + i);
+        }
+
+        // 写满的块在写入文件前可以从内存读取
+        Assert.assertTrue(spool.getBlocks().isEmpty());
+        Assert.assertFalse(writes.isEmpty());
+        List<ExecutionLogSpool.LogLine> lines = spool.read(0, 100);
+        Assert.assertEquals(100, lines.size());
+        Assert.assertEquals("line-50", lines.get(50).getText());
+        Assert.assertEquals(42, spool.findLineByTime(1042L));
+
+        // 部分写入后仍然按行号顺序读取
+        writes.get(0).run();
+        Assert.assertFalse(spool.getBlocks().isEmpty());
+        lines = spool.read(0, 100);
+        Assert.assertEquals(100, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            Assert.assertEquals(i, lines.get(i).getLineNumber());
+        }
+
+        // 关闭时写入剩余的块
+        spool.close();
+        final ExecutionLogSpool reopened = ExecutionLogSpool.open(folder, "exec2");
+        Assert.assertEquals(100, reopened.getTotalLines());
+        Assert.assertEquals("line-99", reopened.tail(1).get(0).getText());
+    }
+
+    @Test
+    public void testOpenMissing() throws Exception {
+        Assert.assertNull(ExecutionLogSpool.open(temporaryFolder.newFolder(), "missing"));
+    }
+}
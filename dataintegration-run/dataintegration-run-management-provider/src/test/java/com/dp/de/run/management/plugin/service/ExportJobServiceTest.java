@@ -0,0 +1,238 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.dto.ExportJobDTO;
+import com.youngdatafan.di.run.management.server.export.RowExporter;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.service.DataDownloadService;
+import com.youngdatafan.di.run.management.server.service.ExportJobService;
+import com.youngdatafan.di.run.management.server.util.ExportJobStatus;
+import com.youngdatafan.di.run.management.server.vo.PreviewDownloadVO;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class ExportJobServiceTest {
+
+    private static final String CANCEL_KEY_PREFIX = "di_export_job_cancel:";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    private final AtomicInteger exports = new AtomicInteger();
+
+    /**
+     * 导出的行数
+     */
+    private long rows = 3;
+
+    private boolean truncated;
+
+    /**
+     * 导出结束前调用
+     */
+    private Runnable onExport;
+
+    private ExportJobService exportJobService;
+
+    @Before
+    public void setUp() {
+        final DataDownloadService dataDownloadService = new DataDownloadService(null) {
+            @Override
+            public ExportResult export(String userId, PreviewDownloadVO previewDownloadVO, boolean useNativeSql
+                    , RowExporter exporter, long maxRow, LongPredicate progress) throws IOException, KettleValueException {
+                exports.incrementAndGet();
+                final RowMeta rowMeta = new RowMeta();
+                rowMeta.addValueMeta(new ValueMetaInteger("id"));
+                exporter.start(rowMeta, new String[]{"编号"});
+                for (long i = 0; i < rows; i++) {
+                    exporter.write(new Object[]{i});
+                }
+                exporter.finish();
+                if (onExport != null) {
+                    onExport.run();
+                }
+                return new ExportResult(rows, truncated);
+            }
+        };
+
+        final ExecutionJournal executionJournal = new ExecutionJournal(null, null, null, null);
+        ReflectionTestUtils.setField(executionJournal, "enabled", true);
+
+        exportJobService = new ExportJobService(dataDownloadService, executionJournal, redisTemplate());
+        ReflectionTestUtils.setField(exportJobService, "instanceId", "i1");
+        ReflectionTestUtils.setField(exportJobService, "folder", temporaryFolder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(exportJobService, "fileServerType", "");
+        ReflectionTestUtils.setField(exportJobService, "workers", 1);
+        ReflectionTestUtils.setField(exportJobService, "maxQueued", 10);
+        ReflectionTestUtils.setField(exportJobService, "maxRow", 100L);
+        ReflectionTestUtils.setField(exportJobService, "retentionHours", 1L);
+        ReflectionTestUtils.setField(exportJobService, "progressIntervalMs", 1000L);
+        ReflectionTestUtils.setField(exportJobService, "maxMessageLength", 4000);
+        exportJobService.init();
+
+        // 导出任务由测试直接执行
+        ((ThreadPoolExecutor) ReflectionTestUtils.getField(exportJobService, "exportExecutor")).shutdownNow();
+        ReflectionTestUtils.setField(exportJobService, "exportExecutor"
+                , new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+                    @Override
+                    public void execute(Runnable command) {
+                        tasks.add(command);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        exportJobService.close();
+    }
+
+    @Test
+    public void testSubmitAndComplete() {
+        final ExportJobDTO submitted = exportJobService.submit("u1", downloadVO(), false);
+        Assert.assertEquals(ExportJobStatus.QUEUED.name(), submitted.getStatus());
+        Assert.assertEquals("data.csv", submitted.getFileName());
+        Assert.assertTrue(redis.containsKey(ExportJobService.JOB_CACHE_PREFIX + submitted.getJobId()));
+
+        runTasks();
+        final ExportJobDTO job = exportJobService.get("u1", submitted.getJobId());
+        Assert.assertEquals(ExportJobStatus.SUCCESS.name(), job.getStatus());
+        Assert.assertEquals(3, job.getRows());
+        Assert.assertFalse(job.isTruncated());
+        Assert.assertTrue(job.getSize() > 0);
+        Assert.assertTrue(exportFile(job).exists());
+
+        // 已经结束的任务不能取消
+        Assert.assertFalse(exportJobService.cancel("u1", job.getJobId()));
+    }
+
+    @Test
+    public void testTruncated() {
+        // 正好导出最大行数，没有更多数据
+        rows = 100;
+        final String fullJobId = exportJobService.submit("u1", downloadVO(), false).getJobId();
+        runTasks();
+        Assert.assertFalse(exportJobService.get("u1", fullJobId).isTruncated());
+
+        truncated = true;
+        final String truncatedJobId = exportJobService.submit("u1", downloadVO(), false).getJobId();
+        runTasks();
+        final ExportJobDTO job = exportJobService.get("u1", truncatedJobId);
+        Assert.assertTrue(job.isTruncated());
+        Assert.assertEquals(100, job.getRows());
+    }
+
+    @Test
+    public void testCancelQueued() {
+        final String jobId = exportJobService.submit("u1", downloadVO(), false).getJobId();
+        Assert.assertTrue(exportJobService.cancel("u1", jobId));
+
+        runTasks();
+        Assert.assertEquals(ExportJobStatus.CANCELLED.name(), exportJobService.get("u1", jobId).getStatus());
+        Assert.assertEquals(0, exports.get());
+    }
+
+    @Test
+    public void testRemoteCancelBeforeStart() {
+        final String jobId = exportJobService.submit("u1", downloadVO(), false).getJobId();
+        // 其他实例写入的取消请求
+        redis.put(CANCEL_KEY_PREFIX + jobId, "u1");
+
+        runTasks();
+        Assert.assertEquals(ExportJobStatus.CANCELLED.name(), exportJobService.get("u1", jobId).getStatus());
+        Assert.assertEquals(0, exports.get());
+        Assert.assertFalse(redis.containsKey(CANCEL_KEY_PREFIX + jobId));
+    }
+
+    @Test
+    public void testRemoteCancelBeforeComplete() {
+        final ExportJobDTO submitted = exportJobService.submit("u1", downloadVO(), false);
+        // 行数不足一次进度回调，导出结束前收到取消请求
+        onExport = () -> redis.put(CANCEL_KEY_PREFIX + submitted.getJobId(), "u1");
+
+        runTasks();
+        final ExportJobDTO job = exportJobService.get("u1", submitted.getJobId());
+        Assert.assertEquals(ExportJobStatus.CANCELLED.name(), job.getStatus());
+        Assert.assertEquals(1, exports.get());
+        Assert.assertFalse(exportFile(job).exists());
+        Assert.assertFalse(redis.containsKey(CANCEL_KEY_PREFIX + submitted.getJobId()));
+    }
+
+    @Test
+    public void testCloseFailsUnfinished() {
+        final String runningJobId = exportJobService.submit("u1", downloadVO(), false).getJobId();
+        final String queuedJobId = exportJobService.submit("u1", downloadVO(), false).getJobId();
+        // 导出过程中服务停止
+        onExport = exportJobService::close;
+
+        tasks.remove(0).run();
+        for (String jobId : new String[]{runningJobId, queuedJobId}) {
+            final ExportJobDTO job = exportJobService.get("u1", jobId);
+            Assert.assertEquals(ExportJobStatus.FAILED.name(), job.getStatus());
+            Assert.assertEquals("服务停止，导出任务已中断", job.getMessage());
+        }
+
+        // 已经取出的任务在停止后执行，不再覆盖状态
+        runTasks();
+        Assert.assertEquals(1, exports.get());
+        Assert.assertEquals(ExportJobStatus.FAILED.name(), exportJobService.get("u1", queuedJobId).getStatus());
+    }
+
+    private void runTasks() {
+        final List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    private File exportFile(ExportJobDTO job) {
+        return new File(temporaryFolder.getRoot(), job.getJobId() + ".csv");
+    }
+
+    private static PreviewDownloadVO downloadVO() {
+        final PreviewDownloadVO previewDownloadVO = new PreviewDownloadVO();
+        previewDownloadVO.setFileName("data");
+        previewDownloadVO.setFormat("csv");
+        return previewDownloadVO;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisTemplate<String, String> redisTemplate() {
+        final ValueOperations<String, String> valueOperations = Mockito.mock(ValueOperations.class);
+        Mockito.doAnswer(invocation -> redis.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(valueOperations).set(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any(TimeUnit.class));
+        Mockito.when(valueOperations.get(Mockito.anyString())).thenAnswer(invocation -> redis.get(invocation.getArgument(0)));
+
+        final RedisTemplate<String, String> redisTemplate = Mockito.mock(RedisTemplate.class);
+        Mockito.when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(redisTemplate.hasKey(Mockito.anyString())).thenAnswer(invocation -> redis.containsKey(invocation.getArgument(0)));
+        Mockito.when(redisTemplate.delete(Mockito.anyString())).thenAnswer(invocation -> redis.remove(invocation.getArgument(0)) != null);
+        return redisTemplate;
+    }
+}
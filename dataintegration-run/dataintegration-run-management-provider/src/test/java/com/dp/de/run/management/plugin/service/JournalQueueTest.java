@@ -0,0 +1,84 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import com.youngdatafan.di.run.management.server.journal.JournalEntry;
+import com.youngdatafan.di.run.management.server.journal.JournalQueue;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author gavin
+ */
+public class JournalQueueTest {
+
+    @Test
+    public void testMergeHeartbeat() {
+        final JournalQueue queue = new JournalQueue();
+        Assert.assertFalse(queue.add(JournalEntry.hashPut("heartbeat", "p1", "1")));
+        Assert.assertTrue(queue.add(JournalEntry.hashPut("heartbeat", "p1", "2")));
+        Assert.assertFalse(queue.add(JournalEntry.hashPut("heartbeat", "p2", "3")));
+
+        final List<JournalEntry> batch = queue.poll(10);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals("2", batch.get(0).getValue());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testKeepOrderAfterDelete() {
+        final JournalQueue queue = new JournalQueue();
+        queue.add(JournalEntry.hashPut("heartbeat", "p1", "1"));
+        queue.add(JournalEntry.hashDelete("heartbeat", "p1"));
+        // 删除之后的写入不能合并到删除之前
+        Assert.assertFalse(queue.add(JournalEntry.hashPut("heartbeat", "p1", "2")));
+
+        final List<JournalEntry> batch = queue.poll(10);
+        Assert.assertEquals(3, batch.size());
+        Assert.assertEquals(JournalEntry.Type.HDEL, batch.get(1).getType());
+        Assert.assertEquals("2", batch.get(2).getValue());
+    }
+
+    @Test
+    public void testMergeHistoryUpdate() {
+        final JournalQueue queue = new JournalQueue();
+        final DpDeProjectExecHistory history = new DpDeProjectExecHistory();
+        history.setId(1L);
+        history.setStatus("RUNNING");
+        queue.add(JournalEntry.insertHistory(history));
+
+        final DpDeProjectExecHistory update = new DpDeProjectExecHistory();
+        update.setId(1L);
+        update.setStatus("END");
+        update.setExecSecond(10);
+        Assert.assertTrue(queue.add(JournalEntry.updateHistory(update)));
+
+        final List<JournalEntry> batch = queue.poll(10);
+        Assert.assertEquals(1, batch.size());
+        Assert.assertEquals(JournalEntry.Type.HISTORY_INSERT, batch.get(0).getType());
+        Assert.assertEquals("END", batch.get(0).getHistory().getStatus());
+        Assert.assertEquals(Integer.valueOf(10), batch.get(0).getHistory().getExecSecond());
+        // 入队时复制，调用方的对象不受影响
+        Assert.assertEquals("RUNNING", history.getStatus());
+    }
+
+    @Test
+    public void testRequeue() {
+        final JournalQueue queue = new JournalQueue();
+        queue.add(JournalEntry.set("a", "1", 0));
+        queue.add(JournalEntry.set("b", "1", 0));
+        final List<JournalEntry> failed = queue.poll(2);
+        queue.add(JournalEntry.set("a", "2", 0));
+
+        // 放回的条目在前，新条目不合并到已取出的条目
+        queue.requeue(failed);
+        Assert.assertTrue(queue.contains("redis:b"));
+        final List<JournalEntry> batch = queue.poll(10);
+        Assert.assertEquals(3, batch.size());
+        Assert.assertEquals("1", batch.get(0).getValue());
+        Assert.assertEquals("2", batch.get(2).getValue());
+        Assert.assertEquals(0, queue.lagMillis(System.currentTimeMillis()));
+        Assert.assertFalse(queue.contains("redis:a"));
+        Assert.assertFalse(queue.contains("redis:b"));
+    }
+}
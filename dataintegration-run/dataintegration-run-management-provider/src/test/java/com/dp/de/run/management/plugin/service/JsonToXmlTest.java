@@ -2,11 +2,18 @@ package com.dp.de.run.management.plugin.service;
 
 import com.alibaba.fastjson.JSONArray;
 import com.youngdatafan.dataintegration.core.util.json.JSONLinkedObject;
+import com.youngdatafan.dataintegration.core.util.json.JsonXmlDocumentBuilder;
 import com.youngdatafan.dataintegration.core.util.json.XML;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.junit.Assert;
 import org.junit.Test;
+import org.w3c.dom.Document;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
 /**
@@ -79,4 +86,23 @@ public class JsonToXmlTest {
 
     }
 
+    /**
+     * 流式构建的 Document 与原来的处理（commons-lang 整体反转义后转换成xml字符串再解析）相同
+     */
+    @Test
+    public void testDocumentSameAsBaseline() throws Exception {
+        final String json = "{\"transformation\":{\"step\":[{\"name\":\"a &lt; b &amp;&amp; c &gt; d &apos;e&apos;\","
+                + "\"description\":\"&#39;&#20013;&#x4e2d;&#X6587;&#0065;&#x41;\","
+                + "\"sql\":\"select 'AT&T', '&nbsp;', 'a & b &lt; c', '&lt b' from t\","
+                + "\"remark\":\"&#12a; &#x; &#; &; &&amp; &amp;lt;\"}]}}";
+
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + XML.toString(new JSONLinkedObject(StringEscapeUtils.unescapeXml(json)));
+        final Document expected = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        final Document actual = JsonXmlDocumentBuilder.toDocument(json);
+        expected.normalizeDocument();
+        actual.normalizeDocument();
+        Assert.assertTrue(expected.getDocumentElement().isEqualNode(actual.getDocumentElement()));
+    }
 }
@@ -0,0 +1,120 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.util.sql.DatabaseType;
+import com.youngdatafan.di.run.management.server.util.PagingSql;
+import java.sql.ResultSetMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * @author gavin
+ */
+public class PagingSqlTest {
+
+    private static final String SQL = "select id, name from t_user order by id;";
+
+    @Test
+    public void testOffset() {
+        PagingSql pagingSql = PagingSql.offset(DatabaseType.MYSQL, SQL, 0, 11);
+        Assert.assertEquals("SELECT * FROM (select id, name from t_user order by id) t_ LIMIT 11", pagingSql.getSql());
+        Assert.assertEquals(0, pagingSql.getSkipRows());
+
+        pagingSql = PagingSql.offset(DatabaseType.MYSQL, SQL, 20, 11);
+        Assert.assertEquals("SELECT * FROM (select id, name from t_user order by id) t_ LIMIT 20, 11", pagingSql.getSql());
+
+        pagingSql = PagingSql.offset(DatabaseType.POSTGRESQL, SQL, 20, 11);
+        Assert.assertEquals("SELECT * FROM (select id, name from t_user order by id) t_ LIMIT 11 OFFSET 20", pagingSql.getSql());
+        Assert.assertFalse(pagingSql.hasRowNumberColumn());
+
+        pagingSql = PagingSql.offset(DatabaseType.ORACLE, SQL, 20, 11);
+        Assert.assertEquals("SELECT * FROM (SELECT t_.*, ROWNUM dp_rn_ FROM (select id, name from t_user order by id) t_ WHERE ROWNUM <= 31)"
+                + " WHERE dp_rn_ > 20", pagingSql.getSql());
+        Assert.assertTrue(pagingSql.hasRowNumberColumn());
+        Assert.assertEquals(0, pagingSql.getSkipRows());
+    }
+
+    @Test
+    public void testOffsetSkipRows() {
+        // 不支持 OFFSET 的数据库由读取方跳过
+        PagingSql pagingSql = PagingSql.offset(DatabaseType.SPARK, SQL, 20, 11);
+        Assert.assertEquals("SELECT * FROM (select id, name from t_user order by id) t_ LIMIT 31", pagingSql.getSql());
+        Assert.assertEquals(20, pagingSql.getSkipRows());
+
+        // sql server 不改写
+        pagingSql = PagingSql.offset(DatabaseType.MSSQL, SQL, 20, 11);
+        Assert.assertEquals("select id, name from t_user order by id", pagingSql.getSql());
+        Assert.assertEquals(20, pagingSql.getSkipRows());
+
+        // 非查询语句不改写
+        pagingSql = PagingSql.offset(DatabaseType.MYSQL, "show tables", 10, 11);
+        Assert.assertEquals("show tables", pagingSql.getSql());
+        Assert.assertEquals(10, pagingSql.getSkipRows());
+    }
+
+    @Test
+    public void testFallback() {
+        // 包装为子查询的语句执行失败时改为不改写，由读取方跳过 offset 行
+        PagingSql pagingSql = PagingSql.offset(DatabaseType.MYSQL, SQL, 20, 11);
+        Assert.assertEquals("select id, name from t_user order by id", pagingSql.getFallback().getSql());
+        Assert.assertEquals(20, pagingSql.getFallback().getSkipRows());
+        Assert.assertNull(pagingSql.getFallback().getFallback());
+
+        // 没有包装时不需要回退
+        pagingSql = PagingSql.offset(DatabaseType.MSSQL, SQL, 20, 11);
+        Assert.assertNull(pagingSql.getFallback());
+        pagingSql = PagingSql.offset(DatabaseType.MYSQL, "show tables", 10, 11);
+        Assert.assertNull(pagingSql.getFallback());
+    }
+
+    @Test
+    public void testWith() {
+        // 公用表表达式不包装为子查询
+        final PagingSql pagingSql = PagingSql.offset(DatabaseType.MYSQL, "with a as (select id from t_user) select * from a", 20, 11);
+        Assert.assertEquals("with a as (select id from t_user) select * from a", pagingSql.getSql());
+        Assert.assertEquals(20, pagingSql.getSkipRows());
+    }
+
+    @Test
+    public void testDuplicateColumns() throws Exception {
+        // join 后 select * 的结果中有两个 id 字段，作为子查询时报字段重复
+        final ResultSetMetaData joinMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(joinMetaData.getColumnCount()).thenReturn(3);
+        Mockito.when(joinMetaData.getColumnLabel(1)).thenReturn("id");
+        Mockito.when(joinMetaData.getColumnLabel(2)).thenReturn("name");
+        Mockito.when(joinMetaData.getColumnLabel(3)).thenReturn("ID");
+        Assert.assertTrue(PagingSql.hasDuplicateColumns(joinMetaData));
+
+        final PagingSql pagingSql = PagingSql.unwrapped("select * from t_user u join t_order o on u.id = o.id;", 20);
+        Assert.assertEquals("select * from t_user u join t_order o on u.id = o.id", pagingSql.getSql());
+        Assert.assertEquals(20, pagingSql.getSkipRows());
+        Assert.assertFalse(pagingSql.hasRowNumberColumn());
+
+        final ResultSetMetaData metaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(metaData.getColumnCount()).thenReturn(2);
+        Mockito.when(metaData.getColumnLabel(1)).thenReturn("id");
+        Mockito.when(metaData.getColumnLabel(2)).thenReturn("name");
+        Assert.assertFalse(PagingSql.hasDuplicateColumns(metaData));
+        // 驱动不能在执行前返回字段信息
+        Assert.assertFalse(PagingSql.hasDuplicateColumns(null));
+    }
+
+    @Test
+    public void testKeyset() {
+        PagingSql pagingSql = PagingSql.keyset(DatabaseType.MYSQL, SQL, "`id`", false, 11);
+        Assert.assertEquals("SELECT * FROM (select id, name from t_user order by id) t_ ORDER BY t_.`id` LIMIT 11", pagingSql.getSql());
+
+        pagingSql = PagingSql.keyset(DatabaseType.POSTGRESQL, SQL, "\"id\"", true, 11);
+        Assert.assertEquals("SELECT * FROM (select id, name from t_user order by id) t_ WHERE t_.\"id\" > ? ORDER BY t_.\"id\" LIMIT 11"
+                , pagingSql.getSql());
+
+        pagingSql = PagingSql.keyset(DatabaseType.MSSQL, SQL, "[id]", true, 11);
+        Assert.assertEquals("SELECT TOP 11 * FROM (select id, name from t_user order by id) t_ WHERE t_.[id] > ? ORDER BY t_.[id]"
+                , pagingSql.getSql());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetNotSelect() {
+        PagingSql.keyset(DatabaseType.MYSQL, "show tables", "id", false, 11);
+    }
+}
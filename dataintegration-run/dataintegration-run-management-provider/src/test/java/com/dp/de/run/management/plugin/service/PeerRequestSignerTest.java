@@ -0,0 +1,91 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.cluster.PeerRequestSigner;
+import com.youngdatafan.di.run.management.server.cluster.ScheduleExecutePlacementFilter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class PeerRequestSignerTest {
+
+    private static final String SUBMIT_URI = "/scheduleJob/submitById";
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+    private PeerRequestSigner signer;
+
+    private PeerRequestSigner peerSigner;
+
+    @Before
+    public void setUp() {
+        signer = signer();
+        peerSigner = signer();
+    }
+
+    @Test
+    public void testPeerRequest() {
+        // 其他实例读取同一个共享密钥校验
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", SUBMIT_URI);
+        request.addHeader(ScheduleExecutePlacementFilter.PLACED_HEADER, signer.sign("host:8080", "POST", SUBMIT_URI));
+        Assert.assertTrue(peerSigner.isPeerRequest(request));
+    }
+
+    @Test
+    public void testForgedHeader() {
+        // 调用方自己设置的请求头不能跳过放置
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", SUBMIT_URI);
+        request.addHeader(ScheduleExecutePlacementFilter.PLACED_HEADER, "i1");
+        Assert.assertFalse(peerSigner.isPeerRequest(request));
+
+        request = new MockHttpServletRequest("POST", SUBMIT_URI);
+        request.addHeader(ScheduleExecutePlacementFilter.PLACED_HEADER, "i1:" + System.currentTimeMillis() + ":abc");
+        Assert.assertFalse(peerSigner.isPeerRequest(request));
+
+        Assert.assertFalse(peerSigner.isPeerRequest(new MockHttpServletRequest("POST", SUBMIT_URI)));
+    }
+
+    @Test
+    public void testOtherRequest() {
+        // 签名只对同一个方法和路径有效
+        final String header = signer.sign("i1", "POST", SUBMIT_URI);
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/scheduleJob/submitByFile");
+        request.addHeader(ScheduleExecutePlacementFilter.PLACED_HEADER, header);
+        Assert.assertFalse(peerSigner.isPeerRequest(request));
+    }
+
+    @Test
+    public void testExpired() {
+        ReflectionTestUtils.setField(peerSigner, "signatureTtlMs", -1L);
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", SUBMIT_URI);
+        request.addHeader(ScheduleExecutePlacementFilter.PLACED_HEADER, signer.sign("i1", "POST", SUBMIT_URI));
+        Assert.assertFalse(peerSigner.isPeerRequest(request));
+    }
+
+    private PeerRequestSigner signer() {
+        final PeerRequestSigner peerRequestSigner = new PeerRequestSigner(redisTemplate());
+        ReflectionTestUtils.setField(peerRequestSigner, "signatureTtlMs", 300000L);
+        return peerRequestSigner;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisTemplate<String, String> redisTemplate() {
+        final ValueOperations<String, String> valueOperations = Mockito.mock(ValueOperations.class);
+        Mockito.when(valueOperations.setIfAbsent(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> redis.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+        Mockito.when(valueOperations.get(Mockito.anyString())).thenAnswer(invocation -> redis.get(invocation.getArgument(0)));
+
+        final RedisTemplate<String, String> redisTemplate = Mockito.mock(RedisTemplate.class);
+        Mockito.when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        return redisTemplate;
+    }
+}
@@ -0,0 +1,87 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.PreviewRowBuffer;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * @author gavin
+ */
+public class PreviewRowBufferTest {
+
+    @Test
+    public void testRingOverwrite() throws Exception {
+        RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaDate("time"));
+
+        PreviewRowBuffer buffer = new PreviewRowBuffer(3);
+        // 行数组比元数据长，并且被上游复用
+        Object[] row = new Object[5];
+        for (int i = 0; i < 5; i++) {
+            row[0] = "n" + i;
+            row[1] = new Date(i);
+            buffer.add(rowMeta, row);
+        }
+
+        Assert.assertTrue(buffer.isFull());
+        final List<Object[]> rows = buffer.getRows();
+        Assert.assertEquals(3, rows.size());
+        Assert.assertEquals(2, rows.get(0).length);
+        Assert.assertEquals("n2", rows.get(0)[0]);
+        Assert.assertEquals("n4", rows.get(2)[0]);
+
+        // 日期是可变对象，需要克隆
+        ((Date) row[1]).setTime(100);
+        Assert.assertEquals(new Date(4), rows.get(2)[1]);
+    }
+
+    @Test
+    public void testRetainRandom() throws Exception {
+        RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+
+        PreviewRowBuffer buffer = new PreviewRowBuffer(100);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(rowMeta, new Object[] {String.valueOf(1000 + i)});
+        }
+        buffer.retainRandom(20, new Random(3L));
+
+        final List<Object[]> rows = buffer.getRows();
+        Assert.assertEquals(20, rows.size());
+        // 保留的行维持原来的顺序，并且不只是前20行
+        for (int i = 1; i < rows.size(); i++) {
+            Assert.assertTrue(((String) rows.get(i - 1)[0]).compareTo((String) rows.get(i)[0]) < 0);
+        }
+        Assert.assertTrue(((String) rows.get(rows.size() - 1)[0]).compareTo("1020") >= 0);
+
+        // 保留行数不小于当前行数时不变
+        buffer.retainRandom(50, new Random(3L));
+        Assert.assertEquals(20, buffer.size());
+    }
+
+    @Test
+    public void testRetainRandomExactCount() throws Exception {
+        RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+
+        // 不同的种子和保留行数，都正好保留 newSize 行
+        for (long seed = 0; seed < 20; seed++) {
+            for (int newSize : new int[] {0, 1, 37, 50, 99}) {
+                PreviewRowBuffer buffer = new PreviewRowBuffer(100);
+                for (int i = 0; i < 100; i++) {
+                    buffer.add(rowMeta, new Object[] {String.valueOf(1000 + i)});
+                }
+                buffer.retainRandom(newSize, new Random(seed));
+                Assert.assertEquals(newSize, buffer.size());
+                Assert.assertEquals(newSize, buffer.getRows().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.PreviewSampler;
+import com.youngdatafan.di.run.management.server.trans.TransPreview;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * @author gavin
+ */
+public class PreviewSamplerTest {
+
+    private final RowMeta rowMeta = new RowMeta();
+
+    public PreviewSamplerTest() {
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowMeta.addValueMeta(new ValueMetaString("type"));
+    }
+
+    @Test
+    public void testFirst() throws Exception {
+        final PreviewSampler sampler = PreviewSampler.create(TransPreview.PreviewMode.FIRST, 10, 1L, null);
+        int offered = 0;
+        while (sampler.offer(rowMeta, row(offered))) {
+            offered++;
+        }
+        // 第10行取满后不再需要数据
+        Assert.assertEquals(9, offered);
+        Assert.assertEquals(10, sampler.size());
+    }
+
+    @Test
+    public void testReservoir() throws Exception {
+        final List<Object[]> first = sample(TransPreview.PreviewMode.RESERVOIR, 100000, 42L);
+        Assert.assertEquals(100, first.size());
+        // 相同的种子得到相同的结果
+        final List<Object[]> second = sample(TransPreview.PreviewMode.RESERVOIR, 100000, 42L);
+        for (int i = 0; i < first.size(); i++) {
+            Assert.assertEquals(first.get(i)[0], second.get(i)[0]);
+        }
+
+        // 均匀抽样，后半部分的数据大约占一半
+        int secondHalf = 0;
+        for (Object[] row : first) {
+            if ((Long) row[0] >= 50000) {
+                secondHalf++;
+            }
+        }
+        Assert.assertTrue(secondHalf > 25 && secondHalf < 75);
+    }
+
+    @Test
+    public void testStrided() throws Exception {
+        final List<Object[]> rows = sample(TransPreview.PreviewMode.STRIDED, 1000, 0L);
+        Assert.assertTrue(rows.size() <= 100 && rows.size() >= 50);
+
+        final long stride = (Long) rows.get(1)[0] - (Long) rows.get(0)[0];
+        for (int i = 0; i < rows.size(); i++) {
+            Assert.assertEquals(i * stride, ((Long) rows.get(i)[0]).longValue());
+        }
+        Assert.assertTrue((Long) rows.get(rows.size() - 1)[0] >= 1000 - stride);
+    }
+
+    @Test
+    public void testStratified() throws Exception {
+        final PreviewSampler sampler = PreviewSampler.create(TransPreview.PreviewMode.STRATIFIED, 90, 7L, "type");
+        for (int i = 0; i < 100000; i++) {
+            // type_0 占绝大多数
+            sampler.offer(rowMeta, new Object[] {(long) i, i % 1000 == 0 ? "type_1" : i % 1000 == 1 ? "type_2" : "type_0"});
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (Object[] row : sampler.getRows()) {
+            counts.merge((String) row[1], 1, Integer::sum);
+        }
+        Assert.assertEquals(3, counts.size());
+        Assert.assertEquals(30, counts.get("type_0").intValue());
+        Assert.assertEquals(30, counts.get("type_1").intValue());
+        Assert.assertEquals(30, counts.get("type_2").intValue());
+    }
+
+    @Test
+    public void testStratifiedShrinkKeepsRandomRows() throws Exception {
+        final PreviewSampler sampler = PreviewSampler.create(TransPreview.PreviewMode.STRATIFIED, 90, 7L, "type");
+        // 第一层刚好填满蓄水池，出现第二层时缩小到45行
+        for (int i = 0; i < 90; i++) {
+            sampler.offer(rowMeta, new Object[] {(long) i, "type_0"});
+        }
+        sampler.offer(rowMeta, new Object[] {90L, "type_1"});
+
+        int kept = 0;
+        int secondHalf = 0;
+        for (Object[] row : sampler.getRows()) {
+            if ("type_0".equals(row[1])) {
+                kept++;
+                if ((Long) row[0] >= 45) {
+                    secondHalf++;
+                }
+            }
+        }
+        Assert.assertEquals(45, kept);
+        // 随机保留而不是截断为前45行
+        Assert.assertTrue(secondHalf > 10 && secondHalf < 35);
+    }
+
+    private List<Object[]> sample(TransPreview.PreviewMode mode, int rows, long seed) throws Exception {
+        final PreviewSampler sampler = PreviewSampler.create(mode, 100, seed, null);
+        for (int i = 0; i < rows; i++) {
+            sampler.offer(rowMeta, row(i));
+        }
+        return sampler.getRows();
+    }
+
+    private Object[] row(long id) {
+        return new Object[] {id, "type_" + (id % 3)};
+    }
+}
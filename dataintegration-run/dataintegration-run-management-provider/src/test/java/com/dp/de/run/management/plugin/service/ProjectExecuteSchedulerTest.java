@@ -0,0 +1,123 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.di.run.management.server.queue.ExecutePriority;
+import com.youngdatafan.di.run.management.server.queue.ExecuteTicket;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class ProjectExecuteSchedulerTest {
+
+    private ProjectExecuteScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ProjectExecuteScheduler(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(scheduler, "maxRunning", 2);
+        ReflectionTestUtils.setField(scheduler, "maxRunningPerTenant", 2);
+        ReflectionTestUtils.setField(scheduler, "maxRunningPerUser", 1);
+        ReflectionTestUtils.setField(scheduler, "maxRunningBatch", 1);
+        ReflectionTestUtils.setField(scheduler, "maxQueued", 100);
+        ReflectionTestUtils.setField(scheduler, "maxQueuedPerUser", 10);
+        scheduler.init();
+    }
+
+    @Test
+    public void testUserQuotaAndFairShare() {
+        // 用户a大量提交，不应阻塞用户b
+        List<ExecuteTicket> userA = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            userA.add(scheduler.submit(ExecutePriority.DESIGNER, null, "a", "p" + i, "a" + i, null));
+        }
+        final ExecuteTicket b0 = scheduler.submit(ExecutePriority.DESIGNER, null, "b", "p0", "b0", null);
+
+        Assert.assertTrue(userA.get(0).getAdmission().isDone());
+        Assert.assertFalse(userA.get(1).getAdmission().isDone());
+        Assert.assertTrue(b0.getAdmission().isDone());
+        Assert.assertEquals(2, scheduler.getRunningCount());
+        Assert.assertEquals(4, scheduler.getQueuedCount());
+
+        userA.get(0).release();
+        Assert.assertTrue(userA.get(1).getAdmission().isDone());
+        Assert.assertEquals(3, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void testPriority() {
+        final ExecuteTicket running1 = scheduler.submit(ExecutePriority.DESIGNER, null, "x", "p", "x0", null);
+        final ExecuteTicket running2 = scheduler.submit(ExecutePriority.DESIGNER, null, "y", "p", "y0", null);
+
+        final ExecuteTicket batch = scheduler.submit(ExecutePriority.SCHEDULE, null, "schedule", "p1", "s1", null);
+        final ExecuteTicket preview = scheduler.submit(ExecutePriority.PREVIEW, null, null, "p2", "v1", null);
+        // 预览优先于先提交的批量执行
+        Assert.assertEquals(1, preview.getPosition());
+        Assert.assertEquals(2, batch.getPosition());
+
+        running1.release();
+        Assert.assertTrue(preview.getAdmission().isDone());
+        Assert.assertFalse(batch.getAdmission().isDone());
+
+        running2.release();
+        Assert.assertTrue(batch.getAdmission().isDone());
+    }
+
+    @Test
+    public void testCancel() {
+        scheduler.submit(ExecutePriority.DESIGNER, null, "a", "p0", "a0", null);
+        final ExecuteTicket queued = scheduler.submit(ExecutePriority.DESIGNER, null, "a", "p1", "a1", null);
+
+        Assert.assertTrue(scheduler.isQueued("a", "p1"));
+        Assert.assertTrue(scheduler.cancel("a1"));
+        Assert.assertTrue(queued.getAdmission().isCompletedExceptionally());
+        Assert.assertFalse(scheduler.isQueued("a1"));
+
+        // 取消后归还许可不影响计数
+        queued.release();
+        Assert.assertEquals(1, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void testScheduleNotLimitedPerUser() {
+        // 调度执行都使用同一个调度用户，不受单个用户排队数限制
+        for (int i = 0; i < 15; i++) {
+            scheduler.submit(ExecutePriority.SCHEDULE, "t1", "schedule", "p" + i, "s" + i, null);
+        }
+        Assert.assertEquals(14, scheduler.getQueuedCount());
+
+        // 普通用户第一个直接执行，之后排队10个
+        for (int i = 0; i < 11; i++) {
+            scheduler.submit(ExecutePriority.DESIGNER, null, "a", "p" + i, "a" + i, null);
+        }
+        try {
+            scheduler.submit(ExecutePriority.DESIGNER, null, "a", "p11", "a11", null);
+            Assert.fail("超过单个用户排队数");
+        } catch (ValidationException e) {
+            Assert.assertEquals(24, scheduler.getQueuedCount());
+        }
+    }
+
+    @Test
+    public void testScheduleFairShareByTenant() {
+        ReflectionTestUtils.setField(scheduler, "maxRunning", 1);
+        final ExecuteTicket running = scheduler.submit(ExecutePriority.DESIGNER, null, "x", "p", "x0", null);
+
+        // 租户t1先提交多个批量任务，租户t2的批量任务不排在最后
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit(ExecutePriority.SCHEDULE, "t1", "schedule", "p" + i, "s" + i, null);
+        }
+        final ExecuteTicket t2 = scheduler.submit(ExecutePriority.SCHEDULE, "t2", "schedule", "q0", "q0", null);
+        Assert.assertEquals(2, t2.getPosition());
+
+        running.release();
+        Assert.assertEquals(1, t2.getPosition());
+    }
+}
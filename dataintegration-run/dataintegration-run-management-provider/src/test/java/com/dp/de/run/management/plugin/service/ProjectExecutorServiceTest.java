@@ -50,7 +50,7 @@ public class ProjectExecutorServiceTest {
                     // 打印
                     System.out.println(JsonUtils.toString(webSocketMessage));
                 }
-        );
+        ).join();
     }
 
 }
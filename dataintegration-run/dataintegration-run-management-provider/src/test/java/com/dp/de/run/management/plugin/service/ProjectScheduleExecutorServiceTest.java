@@ -0,0 +1,241 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.model.Result;
+import com.youngdatafan.di.run.management.server.bean.RunLease;
+import com.youngdatafan.di.run.management.server.dto.ProjectExecutorStepDTO;
+import com.youngdatafan.di.run.management.server.dto.ScheduleJobStepDTO;
+import com.youngdatafan.di.run.management.server.cluster.RunLeaseRegistry;
+import com.youngdatafan.di.run.management.server.entity.DpDeProjectExecHistory;
+import com.youngdatafan.di.run.management.server.feign.ProjectServiceApiClient;
+import com.youngdatafan.di.run.management.server.journal.ExecutionJournal;
+import com.youngdatafan.di.run.management.server.mapper.DpDeProjectExecHistoryMapper;
+import com.youngdatafan.di.run.management.server.queue.ProjectExecuteScheduler;
+import com.youngdatafan.di.run.management.server.service.ExecutionLogService;
+import com.youngdatafan.di.run.management.server.service.ProjectScheduleExecutorService;
+import com.youngdatafan.di.run.management.server.service.ScheduleJobService;
+import com.youngdatafan.di.run.management.server.util.ProjectExecuteStatus;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import com.youngdatafan.portal.common.project.dto.ProjectFileDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepInterface;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class ProjectScheduleExecutorServiceTest {
+
+    /**
+     * 重新排队时获取的租约
+     */
+    private final List<RunLease> acquired = new ArrayList<>();
+
+    private final List<String> statusUpdates = new ArrayList<>();
+
+    private final List<DpDeProjectExecHistory> inserted = new ArrayList<>();
+
+    /**
+     * 取消请求，项目id:执行器id
+     */
+    private final List<String> cancelRequests = new ArrayList<>();
+
+    private final List<String> released = new ArrayList<>();
+
+    /**
+     * 项目运行中的执行器id
+     */
+    private String runningExecutorId;
+
+    /**
+     * 执行记录是否已经写入
+     */
+    private boolean historyWritten;
+
+    private boolean dbDown;
+
+    private ProjectScheduleExecutorService service;
+
+    @Before
+    public void setUp() {
+        final DpDeProjectExecHistoryMapper mapper = Mockito.mock(DpDeProjectExecHistoryMapper.class);
+        Mockito.when(mapper.updateStatusIfRunning(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            checkDb();
+            statusUpdates.add(invocation.getArgument(1));
+            return historyWritten ? 1 : 0;
+        });
+        Mockito.when(mapper.insertIgnoreDuplicate(Mockito.any())).thenAnswer(invocation -> {
+            checkDb();
+            inserted.add(invocation.getArgument(0));
+            return 1;
+        });
+        final ProjectServiceApiClient projectServiceApiClient = Mockito.mock(ProjectServiceApiClient.class);
+        Mockito.when(projectServiceApiClient.getProjectFile(Mockito.anyString())).thenAnswer(invocation -> {
+            final ProjectFileDTO projectFile = new ProjectFileDTO();
+            projectFile.setProjectId(invocation.getArgument(0));
+            projectFile.setProjectFile("<transformation/>");
+            return Result.success(projectFile);
+        });
+        final RunLeaseRegistry runLeaseRegistry = new RunLeaseRegistry(null, null) {
+            @Override
+            public boolean acquire(RunLease lease) {
+                acquired.add(lease);
+                // 不启动执行
+                return false;
+            }
+
+            @Override
+            public String getExecutorId(String projectId) {
+                return runningExecutorId;
+            }
+
+            @Override
+            public void requestCancel(String projectId, String executorId) {
+                cancelRequests.add(projectId + ":" + executorId);
+            }
+
+            @Override
+            public void release(String projectId, String executorId) {
+                released.add(projectId + ":" + executorId);
+            }
+        };
+
+        service = new ProjectScheduleExecutorService(null, null, new ProjectExecuteScheduler(new SimpleMeterRegistry()), new ExecutionLogService(null), null, null, null, null
+                , null, null, new ExecutionJournal(null, null, null, null), runLeaseRegistry, mapper, projectServiceApiClient
+                , null, Runnable::run);
+        ReflectionTestUtils.setField(service, "requeueOnExpire", true);
+        ReflectionTestUtils.setField(service, "maxRequeue", 1);
+    }
+
+    @Test
+    public void testRequeueBeforeHistoryWritten() {
+        expire(lease(0));
+
+        // 原实例的执行记录还没有写入，补写已终止的记录
+        Assert.assertEquals(1, inserted.size());
+        Assert.assertEquals(Long.valueOf(100), inserted.get(0).getId());
+        Assert.assertEquals("e1", inserted.get(0).getExecutorId());
+        Assert.assertEquals(ProjectExecuteStatus.TERMINATIN.name(), inserted.get(0).getStatus());
+
+        Assert.assertEquals(1, acquired.size());
+        final RunLease requeued = acquired.get(0);
+        Assert.assertEquals("p1", requeued.getProjectId());
+        Assert.assertNotEquals("e1", requeued.getExecutorId());
+        Assert.assertEquals(1, requeued.getRequeueCount());
+        Assert.assertTrue(requeued.isRequeueable());
+        // 开启断点的执行从断点继续
+        Assert.assertTrue(requeued.getParam().isResume());
+    }
+
+    @Test
+    public void testRequeueAfterHistoryWritten() {
+        historyWritten = true;
+        expire(lease(0));
+
+        Assert.assertEquals(1, statusUpdates.size());
+        Assert.assertEquals(ProjectExecuteStatus.TERMINATIN.name(), statusUpdates.get(0));
+        Assert.assertTrue(inserted.isEmpty());
+        Assert.assertEquals(1, acquired.size());
+    }
+
+    @Test
+    public void testRequeueWhenDatabaseDown() {
+        dbDown = true;
+        expire(lease(0));
+        Assert.assertEquals(1, acquired.size());
+    }
+
+    @Test
+    public void testMaxRequeue() {
+        expire(lease(1));
+        Assert.assertEquals(1, inserted.size());
+        Assert.assertTrue(acquired.isEmpty());
+
+        final RunLease lease = lease(0);
+        lease.setRequeueable(false);
+        expire(lease);
+        Assert.assertTrue(acquired.isEmpty());
+    }
+
+    @Test
+    public void testStopRemote() {
+        Assert.assertFalse(service.stop("p1"));
+        Assert.assertTrue(cancelRequests.isEmpty());
+
+        // 执行在其他实例上：写入取消标记，不释放租约，由持有租约的实例结束后释放
+        runningExecutorId = "e1";
+        Assert.assertTrue(service.stop("p1"));
+        Assert.assertEquals(Collections.singletonList("p1:e1"), cancelRequests);
+        Assert.assertTrue(released.isEmpty());
+
+        // 项目已经在运行其他执行
+        Assert.assertFalse(service.stop("p1", "e0"));
+        Assert.assertEquals(1, cancelRequests.size());
+    }
+
+    @Test
+    public void testBuildStepStatus() {
+        final List<ScheduleJobStepDTO> steps = new ArrayList<>();
+        ScheduleJobService.mergeStep(steps, buildStepStatus(step("output", 0, 10, 8)));
+        ScheduleJobService.mergeStep(steps, buildStepStatus(step("output", 1, 20, 18)));
+        ScheduleJobService.mergeStep(steps, buildStepStatus(step("output", 0, 30, 28)));
+
+        // 同一步骤的多个副本分别合并
+        Assert.assertEquals(2, steps.size());
+        Assert.assertEquals(0, steps.get(0).getCopy());
+        Assert.assertEquals(30, steps.get(0).getLinesWritten());
+        Assert.assertEquals(28, steps.get(0).getLinesOutput());
+        Assert.assertEquals(1, steps.get(1).getCopy());
+        Assert.assertEquals(20, steps.get(1).getLinesWritten());
+        Assert.assertEquals(18, steps.get(1).getLinesOutput());
+    }
+
+    private ProjectExecutorStepDTO buildStepStatus(StepInterface step) {
+        return ReflectionTestUtils.invokeMethod(service, "buildStepStatus", step);
+    }
+
+    private StepInterface step(String name, int copy, long linesWritten, long linesOutput) {
+        final StepInterface step = Mockito.mock(StepInterface.class);
+        Mockito.when(step.getStepname()).thenReturn(name);
+        Mockito.when(step.getCopy()).thenReturn(copy);
+        Mockito.when(step.getLinesWritten()).thenReturn(linesWritten);
+        Mockito.when(step.getLinesOutput()).thenReturn(linesOutput);
+        Mockito.when(step.getStatus()).thenReturn(BaseStepData.StepExecutionStatus.STATUS_RUNNING);
+        return step;
+    }
+
+    private void checkDb() {
+        if (dbDown) {
+            throw new IllegalStateException("Connection refused");
+        }
+    }
+
+    private void expire(RunLease lease) {
+        ReflectionTestUtils.invokeMethod(service, "onLeaseExpired", lease);
+    }
+
+    private static RunLease lease(int requeueCount) {
+        final ProjectExecutorParam param = new ProjectExecutorParam();
+        param.setProjectId("p1");
+        param.setExecutorId("e1");
+        param.setUserId("u1");
+        param.setCheckpoint(true);
+
+        final RunLease lease = new RunLease();
+        lease.setProjectId("p1");
+        lease.setExecutorId("e1");
+        lease.setHistoryId(100L);
+        lease.setStartTime(System.currentTimeMillis() - 60_000);
+        lease.setRequeueable(true);
+        lease.setRequeueCount(requeueCount);
+        lease.setParam(param);
+        return lease;
+    }
+}
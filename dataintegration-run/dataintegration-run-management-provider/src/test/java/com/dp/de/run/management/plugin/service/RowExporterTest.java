@@ -0,0 +1,128 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.export.ExportFormat;
+import com.youngdatafan.di.run.management.server.export.RowExporter;
+import com.youngdatafan.di.run.management.server.export.XlsxRowExporter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * @author gavin
+ */
+public class RowExporterTest {
+
+    private static final String[] HEADERS = {"编号", "名称", "金额"};
+
+    @Test
+    public void testCsv() throws Exception {
+        final String csv = export(ExportFormat.CSV, new Object[]{1L, "a,\"b\"", new BigDecimal("12.50")}, new Object[]{2L, null, null});
+        Assert.assertEquals("\uFEFF编号,名称,金额\r\n1,\"a,\"\"b\"\"\",12.50\r\n2,,\r\n", csv);
+    }
+
+    @Test
+    public void testTsv() throws Exception {
+        final String tsv = export(ExportFormat.TSV, new Object[]{1L, "a,b", new BigDecimal("1E+3")});
+        Assert.assertEquals("\uFEFF编号\t名称\t金额\r\n1\ta,b\t1000\r\n", tsv);
+    }
+
+    @Test
+    public void testNumber() throws Exception {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaNumber("value"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final RowExporter exporter = ExportFormat.CSV.create(out);
+        exporter.start(rowMeta, new String[]{"值"});
+        for (Double value : new Double[]{1.5, 1.0E10, 1.25E-5, -3.0E20, null}) {
+            exporter.write(new Object[]{value});
+        }
+        exporter.finish();
+
+        // 不使用科学计数法
+        Assert.assertEquals("\uFEFF值\r\n1.5\r\n10000000000\r\n0.0000125\r\n-300000000000000000000\r\n\r\n"
+                , new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        final String json = export(ExportFormat.JSONL, new Object[]{1L, "a\"b", new BigDecimal("12.50")}, new Object[]{2L, null, null});
+        Assert.assertEquals("{\"编号\":1,\"名称\":\"a\\\"b\",\"金额\":12.50}\n{\"编号\":2,\"名称\":null,\"金额\":null}\n", json);
+    }
+
+    @Test
+    public void testXlsx() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final RowExporter exporter = ExportFormat.XLSX.create(out);
+        exporter.start(rowMeta(), HEADERS);
+        for (long i = 0; i < 1000; i++) {
+            exporter.write(new Object[]{i, "名称" + i, BigDecimal.valueOf(i)});
+        }
+        exporter.finish();
+
+        try (XSSFWorkbook book = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            final XSSFSheet sheet = book.getSheetAt(0);
+            Assert.assertEquals(1000, sheet.getLastRowNum());
+            Assert.assertEquals("名称999", sheet.getRow(1000).getCell(1).getStringCellValue());
+            Assert.assertEquals(999, sheet.getRow(1000).getCell(0).getNumericCellValue(), 0);
+            // 按前500行估算列宽，“名称499”中文按两个字符计算，共7个字符，两边各留一个字符
+            Assert.assertEquals((7 + 2) * 256, sheet.getColumnWidth(1));
+        }
+    }
+
+    @Test
+    public void testXlsxSheets() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 每个 sheet 包括表头最多3行
+        final RowExporter exporter = new XlsxRowExporter(out, 3);
+        exporter.start(rowMeta(), HEADERS);
+        for (long i = 0; i < 5; i++) {
+            exporter.write(new Object[]{i, "名称" + i, BigDecimal.valueOf(i)});
+        }
+        exporter.finish();
+
+        try (XSSFWorkbook book = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            Assert.assertEquals(3, book.getNumberOfSheets());
+            long id = 0;
+            for (int i = 0; i < book.getNumberOfSheets(); i++) {
+                final XSSFSheet sheet = book.getSheetAt(i);
+                Assert.assertEquals("sheet" + (i + 1), sheet.getSheetName());
+                Assert.assertEquals("编号", sheet.getRow(0).getCell(0).getStringCellValue());
+                Assert.assertEquals((5 + 2) * 256, sheet.getColumnWidth(1));
+                for (int j = 1; j <= sheet.getLastRowNum(); j++) {
+                    Assert.assertEquals(id++, sheet.getRow(j).getCell(0).getNumericCellValue(), 0);
+                }
+            }
+            // 没有行数超过上限被丢弃
+            Assert.assertEquals(5, id);
+        }
+    }
+
+    private static String export(ExportFormat format, Object[]... rows) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final RowExporter exporter = format.create(out);
+        exporter.start(rowMeta(), HEADERS);
+        for (Object[] row : rows) {
+            exporter.write(row);
+        }
+        exporter.finish();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static RowMeta rowMeta() {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaBigNumber("amount"));
+        return rowMeta;
+    }
+}
@@ -0,0 +1,130 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.dto.ColumnProfileDTO;
+import com.youngdatafan.di.run.management.server.profile.HyperLogLog;
+import com.youngdatafan.di.run.management.server.profile.RowProfiler;
+import com.youngdatafan.di.run.management.server.profile.SpaceSaving;
+import com.youngdatafan.di.run.management.server.profile.TDigest;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * @author gavin
+ */
+public class RowProfilerTest {
+
+    @Test
+    public void testHyperLogLog() {
+        final HyperLogLog hll = new HyperLogLog(12);
+        final Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            hll.offerHash(random.nextLong());
+        }
+        Assert.assertEquals(100000, hll.cardinality(), 100000 * 0.05);
+    }
+
+    @Test
+    public void testSpaceSaving() {
+        final SpaceSaving<String> topValues = new SpaceSaving<>(20);
+        for (int i = 0; i < 10000; i++) {
+            topValues.offer(i % 10 == 0 ? "hot" : "v" + i);
+        }
+        final List<SpaceSaving.Item<String>> top = topValues.top(1);
+        Assert.assertEquals("hot", top.get(0).getValue());
+        Assert.assertTrue(top.get(0).getCount() >= 1000);
+    }
+
+    @Test
+    public void testSpaceSavingEviction() {
+        final SpaceSaving<String> topValues = new SpaceSaving<>(3);
+        for (String value : new String[]{"a", "a", "b", "c", "d"}) {
+            topValues.offer(value);
+        }
+        // d 替换计数最小的值中最早加入的 b，继承其计数
+        final List<SpaceSaving.Item<String>> top = topValues.top(5);
+        Assert.assertEquals(3, top.size());
+        assertItem(top.get(0), "a", 2, 0);
+        assertItem(top.get(1), "d", 2, 1);
+        assertItem(top.get(2), "c", 1, 0);
+
+        topValues.offer("c");
+        topValues.offer("c");
+        assertItem(topValues.top(1).get(0), "c", 3, 0);
+        Assert.assertEquals(2, topValues.top(2).size());
+    }
+
+    @Test
+    public void testTDigest() {
+        final TDigest digest = new TDigest(100);
+        for (int i = 1; i <= 100000; i++) {
+            digest.add(i);
+        }
+        Assert.assertEquals(100000, digest.size());
+        Assert.assertEquals(50000, digest.quantile(0.5), 500);
+        Assert.assertEquals(99000, digest.quantile(0.99), 200);
+        Assert.assertEquals(1, digest.quantile(0), 0);
+        Assert.assertEquals(100000, digest.quantile(1), 0);
+    }
+
+    @Test
+    public void testProfile() throws KettleValueException {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowMeta.addValueMeta(new ValueMetaString("city"));
+
+        final RowProfiler profiler = new RowProfiler(rowMeta, 2);
+        final String[] cities = {"beijing", "beijing", "shanghai", null};
+        for (long i = 1; i <= 1000; i++) {
+            profiler.add(new Object[]{i, cities[(int) (i % cities.length)]});
+        }
+
+        Assert.assertEquals(1000, profiler.getRows());
+        final ColumnProfileDTO id = profiler.getColumnProfiles().get(0);
+        Assert.assertEquals("id", id.getFieldName());
+        Assert.assertEquals(0, id.getNullCount());
+        Assert.assertEquals(1L, id.getMin());
+        Assert.assertEquals(1000L, id.getMax());
+        Assert.assertEquals(1000, id.getDistinct(), 50);
+        Assert.assertEquals(500.5, id.getMean(), 0.001);
+        Assert.assertEquals(500, id.getQuantiles().get("p50"), 10);
+
+        final ColumnProfileDTO city = profiler.getColumnProfiles().get(1);
+        Assert.assertEquals(250, city.getNullCount());
+        Assert.assertEquals("beijing", city.getMin());
+        Assert.assertEquals("shanghai", city.getMax());
+        Assert.assertEquals(2, city.getDistinct());
+        Assert.assertEquals("beijing", city.getTopValues().get(0).getValue());
+        Assert.assertEquals(500, city.getTopValues().get(0).getCount());
+        Assert.assertNull(city.getQuantiles());
+    }
+
+    @Test
+    public void testProfileNaN() throws KettleValueException {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaNumber("value"));
+
+        final RowProfiler profiler = new RowProfiler(rowMeta, 2);
+        for (Double value : new Double[]{1.0, Double.NaN, 3.0}) {
+            profiler.add(new Object[]{value});
+        }
+
+        // NaN 不参与平均值和分位数计算
+        final ColumnProfileDTO column = profiler.getColumnProfiles().get(0);
+        Assert.assertEquals(3, column.getCount());
+        Assert.assertEquals(2.0, column.getMean(), 0.001);
+        Assert.assertEquals(3.0, column.getQuantiles().get("p99"), 0.001);
+    }
+
+    private static void assertItem(SpaceSaving.Item<String> item, String value, long count, long error) {
+        Assert.assertEquals(value, item.getValue());
+        Assert.assertEquals(count, item.getCount());
+        Assert.assertEquals(error, item.getError());
+    }
+}
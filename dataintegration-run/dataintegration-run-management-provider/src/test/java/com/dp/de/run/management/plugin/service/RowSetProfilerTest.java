@@ -0,0 +1,103 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.RowSetProfiler;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+
+/**
+ * @author gavin
+ */
+public class RowSetProfilerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final RowMeta rowMeta = new RowMeta();
+
+    public RowSetProfilerTest() {
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+    }
+
+    private BlockingRowSet rowSet(String from, String to, int rows) {
+        return rowSet(from, to, rows, 10);
+    }
+
+    private BlockingRowSet rowSet(String from, String to, int rows, int capacity) {
+        final BlockingRowSet rowSet = new BlockingRowSet(capacity);
+        rowSet.setThreadNameFromToCopy(from, 0, to, 0);
+        for (int i = 0; i < rows; i++) {
+            rowSet.putRow(rowMeta, new Object[]{(long) i});
+        }
+        return rowSet;
+    }
+
+    @Test
+    public void testComputeSizes() {
+        final RowSetProfiler profiler = new RowSetProfiler(10, 60_000);
+        // 下游慢，一直是满的
+        profiler.addRowSet(rowSet("csv", "output", 10));
+        // 上游慢，一直是空的
+        profiler.addRowSet(rowSet("input", "calc", 0));
+        // 最多缓存3行
+        profiler.addRowSet(rowSet("calc", "filter", 3));
+        for (int i = 0; i < 10; i++) {
+            profiler.sample(i * SECOND);
+        }
+
+        final Map<String, Integer> sizes = profiler.computeSizes(1, 100);
+        // 上游阻塞在下游，扩大缓存也不能提速，保持不变
+        Assert.assertEquals(Integer.valueOf(10), sizes.get("csv -> output"));
+        // 没有数据经过，不能判断需要的缓存，保持不变
+        Assert.assertEquals(Integer.valueOf(10), sizes.get("input -> calc"));
+        Assert.assertEquals(Integer.valueOf(6), sizes.get("calc -> filter"));
+        // 所有连接使用同一个缓存行数，取最大值
+        Assert.assertEquals(10, profiler.computeSize(1, 100, 0));
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        final RowSetProfiler profiler = new RowSetProfiler(10, 60_000);
+        profiler.addRowSet(rowSet("a", "b", 10));
+        profiler.addRowSet(rowSet("b", "c", 3));
+        for (int i = 0; i < 10; i++) {
+            profiler.sample(i * SECOND);
+        }
+        // 一行约 16 + 8 + 24 = 48 字节，两个连接各10行需要960字节
+        Assert.assertEquals(10, profiler.computeSize(1, 100, 0));
+        Assert.assertEquals(2, profiler.computeSize(1, 100, 200));
+    }
+
+    @Test
+    public void testSteadyPipelineConverges() {
+        // 稳定缓存40行的连接，按上次的结果继续执行，收敛到两倍的最大缓存行数，不会缩小到最小值
+        int capacity = 1000;
+        for (int run = 0; run < 10; run++) {
+            final RowSetProfiler profiler = new RowSetProfiler(capacity, 60_000);
+            profiler.addRowSet(rowSet("a", "b", 40, capacity));
+            for (int i = 0; i < 10; i++) {
+                profiler.sample(i * SECOND);
+            }
+            final int size = profiler.computeSize(10, 10_000, 0);
+            // 每次最多缩小一半
+            Assert.assertTrue(size >= capacity / 2);
+            capacity = size;
+        }
+        Assert.assertEquals(80, capacity);
+    }
+
+    @Test
+    public void testProfileWindow() {
+        final RowSetProfiler profiler = new RowSetProfiler(10, 1_000);
+        profiler.addRowSet(rowSet("a", "b", 10));
+        profiler.sample(0);
+        for (int i = 2; i < 10; i++) {
+            profiler.sample(i * SECOND);
+        }
+        // 采样时长外的采样不统计，采样不足不计算
+        Assert.assertTrue(profiler.computeSizes(1, 100).isEmpty());
+        Assert.assertEquals(0, profiler.computeSize(1, 100, 0));
+    }
+}
@@ -0,0 +1,287 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.util.JsonUtils;
+import com.youngdatafan.di.run.management.server.bean.RunLease;
+import com.youngdatafan.di.run.management.server.cluster.RunLeaseRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class RunLeaseRegistryTest {
+
+    private static final int SHARDS = 2;
+
+    /**
+     * 分片 -> 索引
+     */
+    private final List<Map<String, String>> indexes = new ArrayList<>();
+
+    /**
+     * 分片 -> 续约更新的到期时间
+     */
+    private final List<Map<String, String>> expires = new ArrayList<>();
+
+    /**
+     * 租约key已经过期的项目
+     */
+    private final Set<String> expiredKeys = new HashSet<>();
+
+    private final List<RunLease> expired = new ArrayList<>();
+
+    private final List<RunLease> cancelled = new ArrayList<>();
+
+    /**
+     * 续约 pipeline 的返回值，每个租约两个：续约结果、取消标记
+     */
+    private final List<Object> renewResults = new ArrayList<>();
+
+    /**
+     * 取消回调的返回值
+     */
+    private boolean cancelStopped = true;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * 获取租约脚本的返回值
+     */
+    private String acquireResult = "1";
+
+    /**
+     * 扫描读取索引之后执行
+     */
+    private Runnable afterRead = () -> {
+    };
+
+    private RunLeaseRegistry registry;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < SHARDS; i++) {
+            indexes.add(new HashMap<>());
+            expires.add(new HashMap<>());
+        }
+        registry = new RunLeaseRegistry(new RedisTemplate<String, String>() {
+            @Override
+            public List<Object> executePipelined(SessionCallback<?> session) {
+                final List<Object> snapshot = new ArrayList<>();
+                for (int shard = 0; shard < SHARDS; shard++) {
+                    snapshot.add(new HashMap<>(indexes.get(shard)));
+                    snapshot.add(new HashMap<>(expires.get(shard)));
+                }
+                afterRead.run();
+                return snapshot;
+            }
+
+            @Override
+            public List<Object> executePipelined(RedisCallback<?> action) {
+                return renewResults;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                if (script.getScriptAsString().startsWith("if not redis.call('set'")) {
+                    return (T) acquireResult;
+                }
+                // 认领过期租约：租约key不存在且索引没有变化时删除索引
+                final String projectId = (String) args[0];
+                final Map<String, String> index = indexes.get(RunLeaseRegistry.shardOf(projectId, SHARDS));
+                if (expiredKeys.contains(projectId) && args[1].equals(index.get(projectId))) {
+                    index.remove(projectId);
+                    expires.get(RunLeaseRegistry.shardOf(projectId, SHARDS)).remove(projectId);
+                    return (T) Long.valueOf(1);
+                }
+                return (T) Long.valueOf(0);
+            }
+        }, meterRegistry);
+        ReflectionTestUtils.setField(registry, "instanceId", "i1");
+        ReflectionTestUtils.setField(registry, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(registry, "shards", SHARDS);
+        ReflectionTestUtils.setField(registry, "graceMs", 5000L);
+        registry.init();
+        registry.setListener(new RunLeaseRegistry.Listener() {
+            @Override
+            public void onExpired(RunLease lease) {
+                expired.add(lease);
+            }
+
+            @Override
+            public void onLost(RunLease lease) {
+                Assert.fail();
+            }
+
+            @Override
+            public boolean onCancel(RunLease lease) {
+                cancelled.add(lease);
+                return cancelStopped;
+            }
+        });
+    }
+
+    @Test
+    public void testShardOf() {
+        for (String projectId : new String[]{"", "p1", "1234567890abcdef", "项目"}) {
+            final int shard = RunLeaseRegistry.shardOf(projectId, 16);
+            Assert.assertTrue(shard >= 0 && shard < 16);
+        }
+        // 各实例按相同的规则计算分片："p1".hashCode() = 3521
+        Assert.assertEquals(1, RunLeaseRegistry.shardOf("p1", 16));
+        // hashCode 为负数时分片也不能为负："polygenelubricants".hashCode() = Integer.MIN_VALUE
+        Assert.assertEquals(0, RunLeaseRegistry.shardOf("polygenelubricants", 16));
+        Assert.assertEquals(1, RunLeaseRegistry.shardOf("polygenelubricants", 3));
+    }
+
+    @Test
+    public void testKeysShareHashTag() {
+        final int shard = RunLeaseRegistry.shardOf("p1", 16);
+        Assert.assertEquals("di_run_lease:{" + shard + "}:p1", RunLeaseRegistry.leaseKey("p1", shard));
+        Assert.assertEquals("di_run_lease_index:{" + shard + "}", RunLeaseRegistry.indexKey(shard));
+        Assert.assertEquals(hashTag(RunLeaseRegistry.indexKey(shard)), hashTag(RunLeaseRegistry.leaseKey("p1", shard)));
+        Assert.assertEquals(hashTag(RunLeaseRegistry.expireKey(shard)), hashTag(RunLeaseRegistry.leaseKey("p1", shard)));
+    }
+
+    @Test
+    public void testScanExpired() {
+        final long now = System.currentTimeMillis();
+        index(lease("p1", "e1", now - 10_000));
+        // 还在宽限时间内
+        index(lease("p2", "e2", now - 1000));
+        index(lease("p3", "e3", now + 60_000));
+        expiredKeys.add("p1");
+        expiredKeys.add("p2");
+
+        registry.scan();
+        Assert.assertEquals(1, expired.size());
+        Assert.assertEquals("e1", expired.get(0).getExecutorId());
+        Assert.assertEquals(Long.valueOf(100), expired.get(0).getHistoryId());
+        Assert.assertEquals(1, meterRegistry.counter("dp.execute.lease.expired").count(), 0);
+
+        // 已经认领的租约不再处理
+        registry.scan();
+        Assert.assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testScanRenewedLease() {
+        final RunLease lease = lease("p1", "e1", System.currentTimeMillis() - 10_000);
+        index(lease);
+        expiredKeys.add("p1");
+
+        // 读取索引之后原实例续约成功，认领失败
+        afterRead = () -> {
+            lease.setExpireAt(System.currentTimeMillis() + 60_000);
+            index(lease);
+            expiredKeys.remove("p1");
+        };
+        registry.scan();
+        Assert.assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testScanRenewedExpire() {
+        final long now = System.currentTimeMillis();
+        // 索引中是获取租约时的到期时间，续约只更新到期时间hash
+        index(lease("p1", "e1", now - 10_000));
+        expires.get(RunLeaseRegistry.shardOf("p1", SHARDS)).put("p1", String.valueOf(now + 60_000));
+        index(lease("p2", "e2", now + 60_000));
+        expires.get(RunLeaseRegistry.shardOf("p2", SHARDS)).put("p2", String.valueOf(now - 10_000));
+        expiredKeys.add("p1");
+        expiredKeys.add("p2");
+
+        registry.scan();
+        Assert.assertEquals(Collections.singletonList("e2"), executorIds(expired));
+        Assert.assertFalse(expires.get(RunLeaseRegistry.shardOf("p2", SHARDS)).containsKey("p2"));
+    }
+
+    @Test
+    public void testAcquireOverExpired() {
+        final RunLease old = lease("p1", "e1", System.currentTimeMillis() - 10_000);
+        acquireResult = JsonUtils.toString(old);
+
+        final RunLease lease = lease("p1", "e2", 0);
+        Assert.assertTrue(registry.acquire(lease));
+        Assert.assertEquals("i1", lease.getInstanceId());
+        // 覆盖的过期租约由本实例处理
+        Assert.assertEquals(Collections.singletonList("e1"), executorIds(expired));
+        Assert.assertEquals(1, meterRegistry.get("dp.execute.lease.owned").gauge().value(), 0);
+
+        acquireResult = "0";
+        Assert.assertFalse(registry.acquire(lease("p1", "e3", 0)));
+        Assert.assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testRenewCancel() {
+        Assert.assertTrue(registry.acquire(lease("p1", "e1", 0)));
+        Assert.assertTrue(registry.acquire(lease("p2", "e2", 0)));
+        final List<String> projectIds = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        final Map<String, RunLease> ownedLeases = (Map<String, RunLease>) ReflectionTestUtils.getField(registry, "ownedLeases");
+        // 续约顺序与持有租约的遍历顺序一致
+        ownedLeases.values().forEach(lease -> projectIds.add(lease.getProjectId()));
+
+        // 只有 p1 有属于本次执行的取消标记
+        for (String projectId : projectIds) {
+            renewResults.add(1L);
+            renewResults.add("p1".equals(projectId) ? "e1" : null);
+        }
+
+        // 执行还在启动中，下次续约时再次回调
+        cancelStopped = false;
+        registry.renew();
+        Assert.assertEquals(Collections.singletonList("e1"), executorIds(cancelled));
+        cancelStopped = true;
+        registry.renew();
+        Assert.assertEquals(2, cancelled.size());
+
+        // 已经停止的执行不再回调
+        registry.renew();
+        Assert.assertEquals(2, cancelled.size());
+    }
+
+    @Test
+    public void testCancelKeyShareHashTag() {
+        final int shard = RunLeaseRegistry.shardOf("p1", 16);
+        Assert.assertEquals(hashTag(RunLeaseRegistry.leaseKey("p1", shard)), hashTag(RunLeaseRegistry.cancelKey("p1", shard)));
+    }
+
+    private void index(RunLease lease) {
+        indexes.get(RunLeaseRegistry.shardOf(lease.getProjectId(), SHARDS)).put(lease.getProjectId(), JsonUtils.toString(lease));
+    }
+
+    private static RunLease lease(String projectId, String executorId, long expireAt) {
+        final RunLease lease = new RunLease();
+        lease.setProjectId(projectId);
+        lease.setExecutorId(executorId);
+        lease.setHistoryId(100L);
+        lease.setExpireAt(expireAt);
+        return lease;
+    }
+
+    private static List<String> executorIds(List<RunLease> leases) {
+        final List<String> executorIds = new ArrayList<>();
+        leases.forEach(lease -> executorIds.add(lease.getExecutorId()));
+        return executorIds;
+    }
+
+    private static String hashTag(String key) {
+        return key.substring(key.indexOf('{') + 1, key.indexOf('}'));
+    }
+}
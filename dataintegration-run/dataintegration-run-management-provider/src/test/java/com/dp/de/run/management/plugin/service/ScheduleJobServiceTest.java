@@ -0,0 +1,67 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.exception.ValidationException;
+import com.youngdatafan.di.run.management.server.dto.ProjectExecutorStepDTO;
+import com.youngdatafan.di.run.management.server.dto.ScheduleJobStepDTO;
+import com.youngdatafan.di.run.management.server.service.ScheduleJobService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author gavin
+ */
+public class ScheduleJobServiceTest {
+
+    @Test
+    public void testMergeIncrementalSteps() {
+        List<ScheduleJobStepDTO> steps = new ArrayList<>();
+        ScheduleJobService.mergeStep(steps, ProjectExecutorStepDTO.builder().stepName("input").copy(0)
+                .stepExecutionStatus("STATUS_RUNNING").linesRead(10).build());
+        ScheduleJobService.mergeStep(steps, ProjectExecutorStepDTO.builder().stepName("output").copy(0)
+                .stepExecutionStatus("STATUS_RUNNING").linesWritten(5).build());
+        ScheduleJobService.mergeStep(steps, ProjectExecutorStepDTO.builder().stepName("output").copy(1)
+                .stepExecutionStatus("STATUS_RUNNING").linesWritten(3).build());
+        Assert.assertEquals(3, steps.size());
+
+        // 增量消息只更新变化的步骤
+        ScheduleJobService.mergeStep(steps, ProjectExecutorStepDTO.builder().stepName("input").copy(0)
+                .stepExecutionStatus("STATUS_FINISHED").linesRead(100).build());
+        Assert.assertEquals(3, steps.size());
+        Assert.assertEquals("input", steps.get(0).getStepName());
+        Assert.assertEquals("STATUS_FINISHED", steps.get(0).getStatus());
+        Assert.assertEquals(100, steps.get(0).getLinesRead());
+        Assert.assertEquals(5, steps.get(1).getLinesWritten());
+        Assert.assertEquals(3, steps.get(2).getLinesWritten());
+    }
+
+    @Test
+    public void testCheckWebhookUrl() {
+        ScheduleJobService.checkWebhookUrl("http://8.8.8.8/hook", Collections.emptySet());
+        ScheduleJobService.checkWebhookUrl("HTTPS://8.8.8.8:8443/hook", Collections.emptySet());
+
+        // 本机、内网、链路本地（云主机元数据）地址都不能回调
+        for (String url : new String[]{"ftp://8.8.8.8/hook", "http:///hook", "http://127.0.0.1:8080/hook"
+                , "http://10.0.0.1/hook", "http://192.168.1.1/hook", "http://169.254.169.254/latest/meta-data"
+                , "http://0.0.0.0/hook", "http://[::1]/hook", "http://[fd00::1]/hook", "http://[::ffff:127.0.0.1]/hook"}) {
+            assertRejected(url, Collections.emptySet());
+        }
+
+        // 配置了允许的主机时只按主机检查
+        final Set<String> allowedHosts = Collections.singleton("hooks.internal");
+        ScheduleJobService.checkWebhookUrl("http://Hooks.Internal/hook", allowedHosts);
+        assertRejected("http://8.8.8.8/hook", allowedHosts);
+    }
+
+    private static void assertRejected(String url, Set<String> allowedHosts) {
+        try {
+            ScheduleJobService.checkWebhookUrl(url, allowedHosts);
+            Assert.fail(url);
+        } catch (ValidationException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("webhook"));
+        }
+    }
+}
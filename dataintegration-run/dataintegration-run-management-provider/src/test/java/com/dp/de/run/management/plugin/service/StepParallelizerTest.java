@@ -0,0 +1,194 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.StepParallelizer;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepErrorMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.steps.calculator.CalculatorMeta;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.di.trans.steps.groupby.GroupByMeta;
+import org.pentaho.di.trans.steps.scriptvalues_mod.ScriptValuesMetaMod;
+import org.pentaho.di.trans.steps.sort.SortRowsMeta;
+import org.pentaho.di.trans.steps.streamlookup.StreamLookupMeta;
+import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+
+/**
+ * @author gavin
+ */
+public class StepParallelizerTest {
+
+    private final StepParallelizer parallelizer = new StepParallelizer(StepParallelizer.DEFAULT_STEP_IDS, 4, 8);
+
+    @BeforeClass
+    public static void init() throws Exception {
+        KettleEnvironment.init(false);
+    }
+
+    @Test
+    public void testExtraThreads() {
+        // 32核空闲，2个执行平分
+        Assert.assertEquals(16, StepParallelizer.extraThreads(32, 0, 2, 100));
+        // cpu使用率75%
+        Assert.assertEquals(8, StepParallelizer.extraThreads(32, 0.75, 1, 100));
+        // 使用率未知时按空闲计算，受引擎空闲线程限制
+        Assert.assertEquals(5, StepParallelizer.extraThreads(32, -1, 1, 5));
+        Assert.assertEquals(0, StepParallelizer.extraThreads(32, 0, 1, -3));
+    }
+
+    @Test
+    public void testCopiesFor() {
+        Assert.assertEquals(1, StepParallelizer.copiesFor(0, 2, 8));
+        Assert.assertEquals(1, StepParallelizer.copiesFor(10, 0, 8));
+        // 每个步骤增加5个副本
+        Assert.assertEquals(6, StepParallelizer.copiesFor(10, 2, 8));
+        Assert.assertEquals(8, StepParallelizer.copiesFor(30, 1, 8));
+        // 线程不足每个步骤一个
+        Assert.assertEquals(1, StepParallelizer.copiesFor(2, 3, 8));
+    }
+
+    @Test
+    public void testApply() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        final StepMeta out = step(transMeta, "Dummy", "out", new DummyTransMeta());
+        hop(transMeta, input, calc);
+        hop(transMeta, calc, out);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertEquals(Collections.singletonMap("calc", 5), decision.getCopies());
+        Assert.assertEquals(5, calc.getCopies());
+        Assert.assertEquals(1, out.getCopies());
+    }
+
+    @Test
+    public void testScriptNotDefault() {
+        // 脚本可以在行之间保存状态，默认不并行
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta script = step(transMeta, "ScriptValueMod", "script", new ScriptValuesMetaMod());
+        hop(transMeta, input, script);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertTrue(decision.getCopies().isEmpty());
+        Assert.assertTrue(decision.getSkipped().isEmpty());
+        Assert.assertEquals(1, script.getCopies());
+    }
+
+    @Test
+    public void testErrorHandlingTarget() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta output = step(transMeta, "TableOutput", "out", new TableOutputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        hop(transMeta, input, output);
+        hop(transMeta, output, calc);
+        final StepErrorMeta errorMeta = new StepErrorMeta(transMeta, output, calc);
+        errorMeta.setEnabled(true);
+        output.setStepErrorMeta(errorMeta);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertTrue(decision.getCopies().isEmpty());
+        Assert.assertEquals("是步骤[out]的错误处理目标", decision.getSkipped().get("calc"));
+        Assert.assertEquals(1, calc.getCopies());
+    }
+
+    @Test
+    public void testCopyModeUpstream() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        final StepMeta other = step(transMeta, "Dummy", "other", new DummyTransMeta());
+        hop(transMeta, input, calc);
+        hop(transMeta, input, other);
+        // 复制模式，每个下游步骤都收到所有行
+        input.setDistributes(false);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertTrue(decision.getCopies().isEmpty());
+        Assert.assertEquals("上游步骤[in]是复制模式", decision.getSkipped().get("calc"));
+    }
+
+    @Test
+    public void testInfoStream() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta lookupInput = step(transMeta, "TableInput", "lookupIn", new TableInputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        final StreamLookupMeta lookupMeta = new StreamLookupMeta();
+        final StepMeta lookup = step(transMeta, "StreamLookup", "lookup", lookupMeta);
+        hop(transMeta, lookupInput, calc);
+        hop(transMeta, calc, lookup);
+        hop(transMeta, input, lookup);
+        lookupMeta.getStepIOMeta().getInfoStreams().get(0).setStepMeta(calc);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertTrue(decision.getCopies().isEmpty());
+        Assert.assertEquals("是步骤[lookup]的信息流", decision.getSkipped().get("calc"));
+    }
+
+    @Test
+    public void testOrderSensitiveDownstream() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        final StepMeta dummy = step(transMeta, "Dummy", "dummy", new DummyTransMeta());
+        final StepMeta group = step(transMeta, "GroupBy", "group", new GroupByMeta());
+        hop(transMeta, input, calc);
+        hop(transMeta, calc, dummy);
+        hop(transMeta, dummy, group);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertTrue(decision.getCopies().isEmpty());
+        Assert.assertEquals("下游步骤[group]需要有序输入", decision.getSkipped().get("calc"));
+    }
+
+    @Test
+    public void testOrderedOutputDownstream() {
+        // 文件和表输出的行顺序依赖上游顺序
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        final StepMeta output = step(transMeta, "TableOutput", "out", new TableOutputMeta());
+        hop(transMeta, input, calc);
+        hop(transMeta, calc, output);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertTrue(decision.getCopies().isEmpty());
+        Assert.assertEquals("下游步骤[out]需要有序输入", decision.getSkipped().get("calc"));
+    }
+
+    @Test
+    public void testSortBeforeOrderSensitive() {
+        // 排序之后的步骤不受上游顺序影响
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = step(transMeta, "TableInput", "in", new TableInputMeta());
+        final StepMeta calc = step(transMeta, "Calculator", "calc", new CalculatorMeta());
+        final StepMeta sort = step(transMeta, "SortRows", "sort", new SortRowsMeta());
+        final StepMeta group = step(transMeta, "GroupBy", "group", new GroupByMeta());
+        hop(transMeta, input, calc);
+        hop(transMeta, calc, sort);
+        hop(transMeta, sort, group);
+
+        final StepParallelizer.Decision decision = parallelizer.apply(transMeta);
+        Assert.assertEquals(Collections.singletonMap("calc", 5), decision.getCopies());
+    }
+
+    private static StepMeta step(TransMeta transMeta, String stepId, String name, StepMetaInterface meta) {
+        final StepMeta stepMeta = new StepMeta(stepId, name, meta);
+        transMeta.addStep(stepMeta);
+        return stepMeta;
+    }
+
+    private static void hop(TransMeta transMeta, StepMeta from, StepMeta to) {
+        transMeta.addTransHop(new TransHopMeta(from, to));
+    }
+}
@@ -0,0 +1,77 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.StepRuntimeMetrics;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.trans.step.StepInterface;
+
+/**
+ * @author gavin
+ */
+public class StepRuntimeMetricsTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong linesWritten = new AtomicLong();
+
+    private final StepInterface step = Mockito.mock(StepInterface.class);
+
+    @Before
+    public void setUp() {
+        Mockito.when(step.isRunning()).thenReturn(true);
+        Mockito.when(step.getLinesWritten()).thenAnswer(invocation -> linesWritten.get());
+        Mockito.when(step.getStepname()).thenReturn("step");
+    }
+
+    @Test
+    public void testBlockedOnPut() {
+        final BlockingRowSet output = new BlockingRowSet(2);
+        final StepRuntimeMetrics metrics = new StepRuntimeMetrics(step, 2);
+        metrics.addOutputRowSet(output);
+
+        metrics.sample(0, null);
+        output.putRow(new RowMeta(), new Object[0]);
+        metrics.sample(SECOND, null);
+        Assert.assertEquals(0, metrics.getPutBlockedMillis());
+        Assert.assertEquals(1, metrics.getOutputRowSetSize());
+
+        output.putRow(new RowMeta(), new Object[0]);
+        metrics.sample(3 * SECOND, null);
+        Assert.assertEquals(2000, metrics.getPutBlockedMillis());
+        Assert.assertEquals(0, metrics.getGetBlockedMillis());
+    }
+
+    @Test
+    public void testBlockedOnGet() {
+        final BlockingRowSet input = new BlockingRowSet(2);
+        final StepRuntimeMetrics metrics = new StepRuntimeMetrics(step, 2);
+        metrics.addInputRowSet(input);
+
+        metrics.sample(0, null);
+        metrics.sample(SECOND, null);
+        Assert.assertEquals(1000, metrics.getGetBlockedMillis());
+
+        // 输入已经结束的不算等待
+        input.setDone();
+        metrics.sample(2 * SECOND, null);
+        Assert.assertEquals(1000, metrics.getGetBlockedMillis());
+    }
+
+    @Test
+    public void testRate() {
+        final StepRuntimeMetrics metrics = new StepRuntimeMetrics(step, 2);
+        for (int i = 0; i <= 60; i++) {
+            // 前30秒每秒100行，后30秒每秒10行
+            linesWritten.addAndGet(i == 0 ? 0 : i <= 30 ? 100 : 10);
+            metrics.sample(i * SECOND, null);
+        }
+        Assert.assertEquals(10, metrics.getRowsPerSecond10s(), 0.001);
+        Assert.assertEquals(55, metrics.getRowsPerSecond60s(), 0.001);
+        Assert.assertEquals(-1, metrics.getCpuMillis());
+    }
+}
@@ -0,0 +1,80 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.dp.de.run.management.plugin.benchmark.BaselineComparator;
+import com.dp.de.run.management.plugin.benchmark.BenchmarkReport;
+import com.dp.de.run.management.plugin.benchmark.TransBenchmark;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author gavin
+ */
+public class TransBenchmarkTest {
+
+    @Test
+    public void testRunSampleProjects() throws Exception {
+        final File workDir = Files.createTempDirectory("trans-benchmark").toFile();
+        try {
+            final BenchmarkReport report = new TransBenchmark(workDir, 1000, 0, 1)
+                    .addSampleProjects(TransBenchmark.SAMPLE_PROJECTS)
+                    .run();
+
+            Assert.assertEquals(TransBenchmark.SAMPLE_PROJECTS.size(), report.getProjects().size());
+            for (BenchmarkReport.ProjectResult project : report.getProjects()) {
+                Assert.assertEquals(project.getName(), 1000, project.getRows());
+                Assert.assertFalse(project.getName(), project.getSteps().isEmpty());
+                Assert.assertTrue(project.getName(), project.getPeakHeapBytes() > 0);
+            }
+            // 排序后写出全部行
+            Assert.assertEquals(1000, report.getProject("csv_sort_output").getStep("文本文件输出").getLinesOutput());
+            // 10个分组
+            Assert.assertEquals(10, report.getProject("generator_calc_group").getStep("空操作").getLinesWritten());
+            Assert.assertTrue(new File(workDir, "output/csv_sort_output.csv").exists());
+
+            // 结果可以作为基线读回
+            final File result = new File(workDir, "result.json");
+            TransBenchmark.write(report, result);
+            final BenchmarkReport baseline = TransBenchmark.read(result);
+            Assert.assertEquals(report.getProjects().size(), baseline.getProjects().size());
+            Assert.assertFalse(BaselineComparator.hasRegression(new BaselineComparator(baseline, 10).compare(report)));
+        } finally {
+            FileUtils.deleteQuietly(workDir);
+        }
+    }
+
+    @Test
+    public void testCompareBaseline() {
+        final BenchmarkReport baseline = report(project("a", 1000, 100), project("b", 1000, 100));
+        final BaselineComparator comparator = new BaselineComparator(baseline, 0.1);
+
+        // 吞吐下降5%、内存增加5%不算回退
+        Assert.assertFalse(BaselineComparator.hasRegression(comparator.compare(report(project("a", 950, 105)))));
+        // 吞吐下降20%
+        Assert.assertTrue(BaselineComparator.hasRegression(comparator.compare(report(project("a", 800, 100)))));
+        // 峰值堆内存增加20%
+        Assert.assertTrue(BaselineComparator.hasRegression(comparator.compare(report(project("b", 1000, 120)))));
+        // 吞吐提升不算回退，基线中没有的项目不比较
+        final List<BaselineComparator.Comparison> comparisons = comparator.compare(report(project("a", 2000, 100), project("c", 1, 1000)));
+        Assert.assertFalse(BaselineComparator.hasRegression(comparisons));
+        Assert.assertEquals(1.0, comparisons.get(0).getChange(), 0.0001);
+    }
+
+    private static BenchmarkReport report(BenchmarkReport.ProjectResult... projects) {
+        final BenchmarkReport report = new BenchmarkReport();
+        report.setProjects(Arrays.asList(projects));
+        return report;
+    }
+
+    private static BenchmarkReport.ProjectResult project(String name, double rowsPerSecond, long peakHeapBytes) {
+        final BenchmarkReport.IterationResult iteration = new BenchmarkReport.IterationResult();
+        iteration.setRowsPerSecond(rowsPerSecond);
+        iteration.setPeakHeapBytes(peakHeapBytes);
+        return BenchmarkReport.ProjectResult.summarize(name, Collections.singletonList(iteration));
+    }
+}
@@ -0,0 +1,342 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.trans.TransCheckpointer;
+import com.youngdatafan.kettle.springboot.core.entity.DpDeProjectCheckpoint;
+import com.youngdatafan.kettle.springboot.core.mapper.DpDeProjectCheckpointMapper;
+import com.youngdatafan.kettle.springboot.core.persist.DpDeProjectCheckpointMapperHelper;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.RowListener;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.sort.SortRowsMeta;
+import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+
+/**
+ * @author gavin
+ */
+public class TransCheckpointerTest {
+
+    /**
+     * 保存的断点，每次调用一个元素
+     */
+    private final List<List<DpDeProjectCheckpoint>> saved = new ArrayList<>();
+
+    private final List<String> deleted = new ArrayList<>();
+
+    private final Map<String, RowListener> listeners = new HashMap<>();
+
+    private final Map<String, AtomicLong> linesWritten = new HashMap<>();
+
+    private Runnable tick;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        KettleEnvironment.init(false);
+    }
+
+    @Before
+    public void setUp() {
+        new DpDeProjectCheckpointMapperHelper(new DpDeProjectCheckpointMapper() {
+            @Override
+            public List<DpDeProjectCheckpoint> selectByProjectId(String projectId) {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public int upsert(DpDeProjectCheckpoint record) {
+                saved.add(Collections.singletonList(record));
+                return 1;
+            }
+
+            @Override
+            public int upsertBatch(List<DpDeProjectCheckpoint> records) {
+                saved.add(new ArrayList<>(records));
+                return records.size();
+            }
+
+            @Override
+            public int deleteByProjectId(String projectId) {
+                deleted.add(projectId);
+                return 1;
+            }
+        }).init();
+    }
+
+    @Test
+    public void testWrapSql() {
+        Assert.assertEquals("SELECT * FROM (select id, name from t) di_checkpoint ORDER BY id"
+                , TransCheckpointer.wrapSql(" select id, name from t; ", "id", null));
+        Assert.assertEquals("SELECT * FROM (select id, name from t) di_checkpoint WHERE id > 100 ORDER BY id"
+                , TransCheckpointer.wrapSql("select id, name from t", "id", "100"));
+    }
+
+    @Test
+    public void testToLiteral() {
+        Assert.assertNull(TransCheckpointer.toLiteral(null, "Integer"));
+        Assert.assertEquals("100", TransCheckpointer.toLiteral("100", "Integer"));
+        Assert.assertEquals("1.5", TransCheckpointer.toLiteral("1.5", "BigNumber"));
+        Assert.assertEquals("'2020-01-01 00:00:00.000'", TransCheckpointer.toLiteral("2020-01-01 00:00:00.000", "Date"));
+        // 字符串中的单引号转义
+        Assert.assertEquals("'a''b'", TransCheckpointer.toLiteral("a'b", "String"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidNumber() {
+        TransCheckpointer.toLiteral("1 or 1=1", "Integer");
+    }
+
+    @Test
+    public void testCheckSupported() {
+        Assert.assertNull(TransCheckpointer.checkSupported(transMeta(), "id"));
+        Assert.assertNotNull(TransCheckpointer.checkSupported(transMeta(), null));
+        Assert.assertNotNull(TransCheckpointer.checkSupported(transMeta(), "id; drop table t"));
+
+        // 排序会缓存数据
+        final TransMeta sorted = transMeta();
+        final StepMeta sort = new StepMeta("SortRows", "sort", new SortRowsMeta());
+        sorted.addStep(sort);
+        sorted.addTransHop(new TransHopMeta(sorted.findStep("in1"), sort));
+        Assert.assertEquals("步骤[sort]会缓存数据", TransCheckpointer.checkSupported(sorted, "id"));
+    }
+
+    @Test
+    public void testTableOutputNotSupported() {
+        // 一个表输出写入多个目标时无法按输出行数判断是否已经提交
+        TransMeta transMeta = transMeta();
+        ((TableOutputMeta) transMeta.findStep("out").getStepMetaInterface()).setTableNameInField(true);
+        Assert.assertEquals("表输出[out]的表名来自字段", TransCheckpointer.checkSupported(transMeta, "id"));
+
+        transMeta = transMeta();
+        ((TableOutputMeta) transMeta.findStep("out").getStepMetaInterface()).setPartitioningEnabled(true);
+        Assert.assertEquals("表输出[out]按日期分表", TransCheckpointer.checkSupported(transMeta, "id"));
+
+        transMeta = transMeta();
+        transMeta.findStep("out").setCopies(2);
+        Assert.assertEquals("表输出[out]启动了多个副本", TransCheckpointer.checkSupported(transMeta, "id"));
+    }
+
+    @Test
+    public void testTimestampWatermark() throws Exception {
+        final Timestamp timestamp = Timestamp.valueOf("2020-01-01 12:00:00.123456789");
+        Assert.assertEquals("2020-01-01 12:00:00.123456789"
+                , TransCheckpointer.toWatermark(new ValueMetaTimestamp("ts"), timestamp));
+        // 驱动返回的时间戳放在日期类型中时同样保留精度
+        Assert.assertEquals("2020-01-01 12:00:00.123456789"
+                , TransCheckpointer.toWatermark(new ValueMetaDate("ts"), timestamp));
+        Assert.assertEquals("2020-01-01 12:00:00.120"
+                , TransCheckpointer.toWatermark(new ValueMetaTimestamp("ts"), Timestamp.valueOf("2020-01-01 12:00:00.12")));
+    }
+
+    @Test
+    public void testApplyResume() {
+        final TransMeta transMeta = transMeta();
+        final DpDeProjectCheckpoint checkpoint = new DpDeProjectCheckpoint();
+        checkpoint.setStepName("in1");
+        checkpoint.setPosition(10L);
+        checkpoint.setWatermark("10");
+        checkpoint.setWatermarkType("Integer");
+
+        final Map<String, DpDeProjectCheckpoint> base = TransCheckpointer.applyResume(transMeta, "id"
+                , Collections.singletonList(checkpoint));
+        Assert.assertSame(checkpoint, base.get("in1"));
+        Assert.assertEquals("SELECT * FROM (select id from t1) di_checkpoint WHERE id > 10 ORDER BY id"
+                , ((TableInputMeta) transMeta.findStep("in1").getStepMetaInterface()).getSQL());
+        // 没有断点的输入从头执行
+        Assert.assertEquals("SELECT * FROM (select id from t2) di_checkpoint ORDER BY id"
+                , ((TableInputMeta) transMeta.findStep("in2").getStepMetaInterface()).getSQL());
+    }
+
+    @Test
+    public void testResumeKeepsTable() {
+        // 从头执行时按设置清空表
+        final TransMeta fresh = transMeta();
+        ((TableOutputMeta) fresh.findStep("out").getStepMetaInterface()).setTruncateTable(true);
+        TransCheckpointer.applyResume(fresh, "id", Collections.emptyList());
+        Assert.assertTrue(((TableOutputMeta) fresh.findStep("out").getStepMetaInterface()).truncateTable());
+
+        // 续跑时不能清空断点之前已经写入的数据
+        final TransMeta resumed = transMeta();
+        ((TableOutputMeta) resumed.findStep("out").getStepMetaInterface()).setTruncateTable(true);
+        final DpDeProjectCheckpoint checkpoint = new DpDeProjectCheckpoint();
+        checkpoint.setStepName("in1");
+        checkpoint.setWatermark("10");
+        checkpoint.setWatermarkType("Integer");
+        TransCheckpointer.applyResume(resumed, "id", Collections.singletonList(checkpoint));
+        Assert.assertFalse(((TableOutputMeta) resumed.findStep("out").getStepMetaInterface()).truncateTable());
+    }
+
+    @Test
+    public void testSaveAllInputsTogether() throws Exception {
+        final TransCheckpointer checkpointer = start();
+        write("in1", 1L);
+        write("in2", 5L);
+        write("in1", 2L);
+
+        // 暂停输入 -> 两次计数相同 -> 记录断点，表输出自动提交，直接保存
+        for (int i = 0; i < 3; i++) {
+            tick.run();
+        }
+        Assert.assertEquals(1, saved.size());
+        Assert.assertEquals(2, saved.get(0).size());
+        for (DpDeProjectCheckpoint checkpoint : saved.get(0)) {
+            if ("in1".equals(checkpoint.getStepName())) {
+                Assert.assertEquals(2L, checkpoint.getPosition().longValue());
+                Assert.assertEquals("2", checkpoint.getWatermark());
+            } else {
+                Assert.assertEquals(1L, checkpoint.getPosition().longValue());
+                Assert.assertEquals("5", checkpoint.getWatermark());
+            }
+        }
+        Assert.assertFalse(checkpointer.isDisabled());
+    }
+
+    @Test
+    public void testKeyNotUnique() throws Exception {
+        final TransCheckpointer checkpointer = start();
+        write("in1", 1L);
+        write("in1", 2L);
+        for (int i = 0; i < 3; i++) {
+            tick.run();
+        }
+        Assert.assertEquals(1, saved.size());
+
+        // 断点字段值重复，续跑时会丢失与断点值相同的行
+        write("in1", 2L);
+        Assert.assertTrue(checkpointer.isDisabled());
+        for (int i = 0; i < 3; i++) {
+            tick.run();
+        }
+        checkpointer.stop();
+        Assert.assertEquals(1, saved.size());
+        Assert.assertEquals(Collections.singletonList("p1"), deleted);
+    }
+
+    private TransMeta transMeta() {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta output = new StepMeta("TableOutput", "out", tableOutput());
+        transMeta.addStep(output);
+        for (String name : new String[]{"in1", "in2"}) {
+            final TableInputMeta meta = new TableInputMeta();
+            meta.setSQL("select id from t" + name.substring(2));
+            final StepMeta input = new StepMeta("TableInput", name, meta);
+            transMeta.addStep(input);
+            transMeta.addTransHop(new TransHopMeta(input, output));
+        }
+        return transMeta;
+    }
+
+    private static TableOutputMeta tableOutput() {
+        final TableOutputMeta meta = new TableOutputMeta();
+        meta.setCommitSize("0");
+        return meta;
+    }
+
+    private TransCheckpointer start() {
+        final TransMeta transMeta = transMeta();
+        final List<StepMetaDataCombi> combis = new ArrayList<>();
+        for (StepMeta stepMeta : transMeta.getSteps()) {
+            final StepMetaDataCombi combi = new StepMetaDataCombi();
+            combi.stepMeta = stepMeta;
+            combi.stepname = stepMeta.getName();
+            combi.meta = stepMeta.getStepMetaInterface();
+            combi.step = step(stepMeta.getName());
+            combis.add(combi);
+        }
+        final Trans trans = new Trans() {
+            private final LogChannelInterface logChannel = new LogChannel("checkpoint");
+
+            @Override
+            public TransMeta getTransMeta() {
+                return transMeta;
+            }
+
+            @Override
+            public List<StepMetaDataCombi> getSteps() {
+                return combis;
+            }
+
+            @Override
+            public List<RowSet> getRowsets() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public boolean isFinishedOrStopped() {
+                return false;
+            }
+
+            @Override
+            public boolean isPaused() {
+                return false;
+            }
+
+            @Override
+            public int getErrors() {
+                return 0;
+            }
+
+            @Override
+            public LogChannelInterface getLogChannel() {
+                return logChannel;
+            }
+        };
+
+        final TransCheckpointer checkpointer = new TransCheckpointer("p1", "e1", "id", Collections.emptyMap(), 0, 60_000);
+        checkpointer.attach(trans);
+        // 断点检查由测试直接调用
+        final ScheduledExecutorService scheduler = Mockito.mock(ScheduledExecutorService.class);
+        checkpointer.start(scheduler);
+        final ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(scheduler).scheduleWithFixedDelay(captor.capture(), Mockito.anyLong(), Mockito.anyLong()
+                , Mockito.any(TimeUnit.class));
+        tick = captor.getValue();
+        return checkpointer;
+    }
+
+    private StepInterface step(String name) {
+        final AtomicLong lines = linesWritten.computeIfAbsent(name, key -> new AtomicLong());
+        final StepInterface step = Mockito.mock(StepInterface.class);
+        Mockito.when(step.getStepname()).thenReturn(name);
+        Mockito.doAnswer(invocation -> listeners.put(name, invocation.getArgument(0)))
+                .when(step).addRowListener(Mockito.any(RowListener.class));
+        Mockito.when(step.getLinesWritten()).thenAnswer(invocation -> lines.get());
+        Mockito.when(step.getLinesOutput()).thenAnswer(invocation -> lines.get());
+        Mockito.when(step.getStatus()).thenReturn(BaseStepData.StepExecutionStatus.STATUS_RUNNING);
+        return step;
+    }
+
+    private void write(String stepName, long id) throws Exception {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        listeners.get(stepName).rowWrittenEvent(rowMeta, new Object[]{id});
+        linesWritten.get(stepName).incrementAndGet();
+    }
+}
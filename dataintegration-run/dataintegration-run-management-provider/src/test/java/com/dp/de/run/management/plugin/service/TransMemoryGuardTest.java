@@ -0,0 +1,322 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.dataintegration.core.memory.MemoryAccountable;
+import com.youngdatafan.dataintegration.core.memory.RowSizeEstimator;
+import com.youngdatafan.di.run.management.server.trans.StepPauses;
+import com.youngdatafan.di.run.management.server.trans.TransMemoryGuard;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.pentaho.di.core.QueueRowSet;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+
+/**
+ * @author gavin
+ */
+public class TransMemoryGuardTest {
+
+    /**
+     * 一个整数字段的行估算字节数
+     */
+    private static final long ROW_BYTES = 16 + 8 + 24;
+
+    private final Map<String, StepInterface> steps = new HashMap<>();
+
+    private final Map<String, AtomicLong> errors = new HashMap<>();
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * 用户暂停了转换
+     */
+    private final AtomicBoolean paused = new AtomicBoolean();
+
+    private final List<StepMetaDataCombi> combis = new ArrayList<>();
+
+    private final RowMeta rowMeta = new RowMeta();
+
+    private RowSet rowSet;
+
+    private Trans trans;
+
+    private StepInterface input;
+
+    /**
+     * 预算100行，50行时限流，40行以下恢复，限流1秒后停止
+     */
+    private TransMemoryGuard guard;
+
+    @Before
+    public void setUp() {
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowSet = new QueueRowSet();
+        rowSet.setThreadNameFromToCopy("in", 0, "out", 0);
+
+        input = step("in", Collections.emptyList());
+        combis.add(combi(input));
+        combis.add(combi(step("out", Collections.singletonList(rowSet))));
+
+        trans = new Trans() {
+            private final LogChannelInterface logChannel = new LogChannel("memory");
+
+            @Override
+            public List<StepMetaDataCombi> getSteps() {
+                return combis;
+            }
+
+            @Override
+            public List<RowSet> getRowsets() {
+                return Collections.singletonList(rowSet);
+            }
+
+            @Override
+            public boolean isFinishedOrStopped() {
+                return stopped.get();
+            }
+
+            @Override
+            public boolean isPaused() {
+                return paused.get();
+            }
+
+            @Override
+            public void pauseRunning() {
+                paused.set(true);
+                combis.forEach(combi -> combi.step.pauseRunning());
+            }
+
+            @Override
+            public void resumeRunning() {
+                combis.forEach(combi -> combi.step.resumeRunning());
+                paused.set(false);
+            }
+
+            @Override
+            public void stopAll() {
+                stopped.set(true);
+            }
+
+            @Override
+            public LogChannelInterface getLogChannel() {
+                return logChannel;
+            }
+        };
+        guard = new TransMemoryGuard(trans, null, ROW_BYTES * 100, 0.5, 1000);
+    }
+
+    @Test
+    public void testEstimateRowBytes() {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        final ValueMetaString name = new ValueMetaString("name");
+        name.setLength(20);
+        rowMeta.addValueMeta(name);
+        // 长度未知按64个字符
+        rowMeta.addValueMeta(new ValueMetaString("remark"));
+
+        Assert.assertEquals(16 + 8 * 3 + 24 + (40 + 2 * 20) + (40 + 2 * 64), TransMemoryGuard.estimateRowBytes(rowMeta));
+
+        // 声明长度过大时按上限估算
+        final ValueMetaString text = new ValueMetaString("text");
+        text.setLength(100000);
+        rowMeta.addValueMeta(text);
+        Assert.assertEquals(16 + 8 * 4 + 24 + (40 + 2 * 20) + (40 + 2 * 64) + (40 + 2 * 256), TransMemoryGuard.estimateRowBytes(rowMeta));
+    }
+
+    @Test
+    public void testEstimateRowValues() {
+        Assert.assertEquals(0, RowSizeEstimator.estimate(null));
+        final long bytes = RowSizeEstimator.estimate(new Object[]{1L, "abcd", null, new Date()});
+        Assert.assertEquals(16 + 8 * 4 + 24 + (40 + 2 * 4) + 24, bytes);
+    }
+
+    @Test
+    public void testThrottleAndResume() {
+        fill(60);
+        Assert.assertEquals(TransMemoryGuard.State.THROTTLED, guard.check(1000));
+        Assert.assertEquals(1, count("in", "pauseRunning"));
+        // 有输入的步骤不暂停
+        Assert.assertEquals(0, count("out", "pauseRunning"));
+
+        // 没有回落到恢复阈值以下
+        drain(15);
+        Assert.assertEquals(TransMemoryGuard.State.THROTTLED, guard.check(1500));
+        Assert.assertEquals(0, count("in", "resumeRunning"));
+
+        drain(10);
+        Assert.assertEquals(TransMemoryGuard.State.NORMAL, guard.check(1600));
+        Assert.assertEquals(1, count("in", "resumeRunning"));
+        Assert.assertEquals(ROW_BYTES * 35, guard.getEstimatedBytes());
+        Assert.assertFalse(stopped.get());
+    }
+
+    @Test
+    public void testThrottleTimeout() {
+        fill(60);
+        Assert.assertEquals(TransMemoryGuard.State.THROTTLED, guard.check(1000));
+        Assert.assertEquals(TransMemoryGuard.State.THROTTLED, guard.check(2000));
+        Assert.assertEquals(TransMemoryGuard.State.ABORTED, guard.check(2001));
+
+        // 停止前恢复输入步骤，错误计入占用最多的步骤
+        Assert.assertTrue(stopped.get());
+        Assert.assertEquals(1, count("in", "resumeRunning"));
+        Assert.assertEquals(1, errors.get("out").get());
+        Assert.assertEquals(0, errors.get("in").get());
+
+        // 停止后不再检查
+        drain(60);
+        Assert.assertEquals(TransMemoryGuard.State.ABORTED, guard.check(3000));
+        Assert.assertEquals(TransMemoryGuard.State.ABORTED, guard.getState());
+    }
+
+    @Test
+    public void testAbortOverBudget() {
+        fill(101);
+        Assert.assertEquals(TransMemoryGuard.State.ABORTED, guard.check(1000));
+        Assert.assertTrue(stopped.get());
+        Assert.assertEquals(1, errors.get("out").get());
+        // 没有暂停过的步骤不恢复
+        Assert.assertEquals(0, count("in", "pauseRunning"));
+        Assert.assertEquals(0, count("in", "resumeRunning"));
+    }
+
+    @Test
+    public void testSharedPause() {
+        // 断点已经暂停了输入步骤
+        final StepPauses pauses = StepPauses.of(trans);
+        pauses.pause(input);
+        Assert.assertEquals(1, count("in", "pauseRunning"));
+
+        fill(60);
+        Assert.assertEquals(TransMemoryGuard.State.THROTTLED, guard.check(1000));
+        Assert.assertEquals(1, count("in", "pauseRunning"));
+        Assert.assertEquals(2, pauses.count(input));
+
+        // 限流恢复时断点仍在暂停
+        drain(60);
+        Assert.assertEquals(TransMemoryGuard.State.NORMAL, guard.check(1100));
+        Assert.assertEquals(0, count("in", "resumeRunning"));
+
+        pauses.resume(input);
+        Assert.assertEquals(1, count("in", "resumeRunning"));
+        Assert.assertEquals(0, pauses.count(input));
+    }
+
+    @Test
+    public void testUserResumeKeepsThrottle() {
+        fill(60);
+        Assert.assertEquals(TransMemoryGuard.State.THROTTLED, guard.check(1000));
+        final StepPauses pauses = StepPauses.of(trans);
+        pauses.pauseTrans();
+        Assert.assertEquals(2, count("in", "pauseRunning"));
+
+        // 用户恢复转换时限流仍在暂停输入步骤
+        pauses.resumeTrans();
+        Assert.assertFalse(trans.isPaused());
+        Assert.assertEquals(3, count("in", "pauseRunning"));
+        Assert.assertEquals(1, count("out", "resumeRunning"));
+        Assert.assertEquals(1, pauses.count(input));
+
+        // 限流结束后恢复
+        drain(60);
+        Assert.assertEquals(TransMemoryGuard.State.NORMAL, guard.check(1100));
+        Assert.assertEquals(2, count("in", "resumeRunning"));
+    }
+
+    @Test
+    public void testAccountableStepData() {
+        combis.get(0).data = new AccountableData(ROW_BYTES * 10);
+        // 只实现了 LongSupplier 的步骤数据不是缓存大小
+        combis.get(1).data = new SupplierData(ROW_BYTES * 1000);
+
+        final TransMemoryGuard.Usage usage = guard.estimate();
+        Assert.assertEquals(ROW_BYTES * 10, usage.getStepBytes());
+        Assert.assertEquals("in", usage.getTopStep());
+    }
+
+    private void fill(int rows) {
+        for (int i = 0; i < rows; i++) {
+            rowSet.putRow(rowMeta, new Object[]{(long) i});
+        }
+    }
+
+    private void drain(int rows) {
+        for (int i = 0; i < rows; i++) {
+            rowSet.getRow();
+        }
+    }
+
+    private int count(String stepName, String method) {
+        return (int) Mockito.mockingDetails(steps.get(stepName)).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals(method))
+                .count();
+    }
+
+    private static StepMetaDataCombi combi(StepInterface step) {
+        final StepMetaDataCombi combi = new StepMetaDataCombi();
+        combi.stepname = step.getStepname();
+        combi.step = step;
+        return combi;
+    }
+
+    private StepInterface step(String name, List<RowSet> inputRowSets) {
+        final AtomicLong stepErrors = errors.computeIfAbsent(name, key -> new AtomicLong());
+        final StepInterface step = Mockito.mock(StepInterface.class);
+        Mockito.when(step.getStepname()).thenReturn(name);
+        Mockito.when(step.getInputRowSets()).thenReturn(inputRowSets);
+        Mockito.when(step.getErrors()).thenAnswer(invocation -> stepErrors.get());
+        Mockito.doAnswer(invocation -> {
+            stepErrors.set(invocation.getArgument(0));
+            return null;
+        }).when(step).setErrors(Mockito.anyLong());
+        steps.put(name, step);
+        return step;
+    }
+
+    private static class AccountableData extends BaseStepData implements MemoryAccountable {
+
+        private final long bytes;
+
+        AccountableData(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long getEstimatedBytes() {
+            return bytes;
+        }
+    }
+
+    private static class SupplierData extends BaseStepData implements LongSupplier {
+
+        private final long value;
+
+        SupplierData(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public long getAsLong() {
+            return value;
+        }
+    }
+}
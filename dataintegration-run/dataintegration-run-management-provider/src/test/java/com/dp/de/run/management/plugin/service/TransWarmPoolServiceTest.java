@@ -0,0 +1,154 @@
+package com.dp.de.run.management.plugin.service;
+
+import com.youngdatafan.di.run.management.server.service.TransWarmPoolService;
+import com.youngdatafan.di.run.management.server.trans.TransExecutor;
+import com.youngdatafan.di.run.management.server.vo.ProjectExecutorParam;
+import com.youngdatafan.kettle.springboot.core.bean.SystemVariablesBean;
+import com.youngdatafan.kettle.springboot.core.properties.SystemVariableProperties;
+import com.youngdatafan.kettle.springboot.core.variable.EngineSystemVariables;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author gavin
+ */
+public class TransWarmPoolServiceTest {
+
+    private final AtomicInteger prepared = new AtomicInteger();
+
+    private TransWarmPoolService warmPoolService;
+
+    private ProjectExecutorParam param;
+
+    @BeforeClass
+    public static void initKettle() throws Exception {
+        KettleEnvironment.init(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new EngineSystemVariables(new SystemVariableProperties()).init();
+    }
+
+    @Before
+    public void setUp() {
+        warmPoolService = new TransWarmPoolService(new SimpleMeterRegistry(), Runnable::run);
+        ReflectionTestUtils.setField(warmPoolService, "enabled", true);
+        ReflectionTestUtils.setField(warmPoolService, "maxProjects", 20);
+        ReflectionTestUtils.setField(warmPoolService, "hotIntervalSeconds", 300L);
+        ReflectionTestUtils.setField(warmPoolService, "maxIdleSeconds", 600L);
+        warmPoolService.init();
+        warmPoolService.setPreparer((projectFile, param) -> {
+            prepared.incrementAndGet();
+            return null;
+        });
+
+        param = new ProjectExecutorParam();
+        param.setProjectId("p1");
+    }
+
+    @Test
+    public void testWarmReadOnly() {
+        final TransMeta transMeta = transMeta(new StepMeta("Dummy", "dummy", new DummyTransMeta()));
+
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        Assert.assertEquals(0, prepared.get());
+
+        // 第二次执行在间隔内，频繁执行的项目预热
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        Assert.assertEquals(1, prepared.get());
+    }
+
+    @Test
+    public void testNeverWarmTableOutput() {
+        final TransMeta transMeta = transMeta(new StepMeta("TableOutput", "out", new TableOutputMeta()));
+
+        // 表输出初始化时可能清空表，预热后不执行就会丢失数据
+        for (int i = 0; i < 3; i++) {
+            warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        }
+        Assert.assertEquals(0, prepared.get());
+        Assert.assertEquals("out", TransWarmPoolService.findUnsafeStep(transMeta, TransWarmPoolService.DEFAULT_STEP_IDS));
+    }
+
+    @Test
+    public void testConfiguredStepIds() {
+        ReflectionTestUtils.setField(warmPoolService, "stepIds", "TableInput, TableOutput");
+        warmPoolService.init();
+        final TransMeta transMeta = transMeta(new StepMeta("TableOutput", "out", new TableOutputMeta()));
+
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        Assert.assertEquals(1, prepared.get());
+    }
+
+    @Test
+    public void testSystemVariableHit() throws Exception {
+        // 系统变量每次取值都不同（当前时间等），不影响预热转换的使用
+        final SystemVariablesBean variable = new SystemVariablesBean();
+        variable.setName("currentDateTime");
+        variable.setExpression("rand()");
+        final SystemVariableProperties properties = new SystemVariableProperties();
+        properties.setSystemVariables(Collections.singletonList(variable));
+        new EngineSystemVariables(properties).init();
+
+        final TransExecutionConfiguration executionConfiguration = new TransExecutionConfiguration();
+        executionConfiguration.getParams().put("p", "1");
+        warmPoolService.setPreparer((projectFile, param) -> {
+            prepared.incrementAndGet();
+            final TransExecutor executor = new TransExecutor(new TransMeta());
+            ReflectionTestUtils.setField(executor, "preparedParameters", TransExecutor.resolveParameters(executionConfiguration));
+            return executor;
+        });
+
+        final TransMeta transMeta = transMeta(new StepMeta("Dummy", "dummy", new DummyTransMeta()));
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        Assert.assertEquals(1, prepared.get());
+        Assert.assertNotEquals(TransExecutor.resolveParameters(executionConfiguration), TransExecutor.resolveParameters(executionConfiguration));
+
+        Assert.assertNotNull(warmPoolService.take("p1", "<transformation/>", executionConfiguration));
+    }
+
+    @Test
+    public void testParameterMiss() {
+        final TransExecutionConfiguration executionConfiguration = new TransExecutionConfiguration();
+        warmPoolService.setPreparer((projectFile, param) -> {
+            final TransExecutor executor = new TransExecutor(new TransMeta());
+            ReflectionTestUtils.setField(executor, "preparedParameters", TransExecutor.resolveParameters(executionConfiguration));
+            return executor;
+        });
+        final TransMeta transMeta = transMeta(new StepMeta("Dummy", "dummy", new DummyTransMeta()));
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+        warmPoolService.offer("p1", "<transformation/>", transMeta, param);
+
+        // 命名参数变化时不能使用预热的转换
+        final TransExecutionConfiguration changed = new TransExecutionConfiguration();
+        changed.getParams().put("p", "2");
+        Assert.assertNull(warmPoolService.take("p1", "<transformation/>", changed));
+    }
+
+    private static TransMeta transMeta(StepMeta last) {
+        final TransMeta transMeta = new TransMeta();
+        final StepMeta input = new StepMeta("TableInput", "in", new TableInputMeta());
+        transMeta.addStep(input);
+        transMeta.addStep(last);
+        transMeta.addTransHop(new TransHopMeta(input, last));
+        return transMeta;
+    }
+}
@@ -0,0 +1,96 @@
+package com.youngdatafan.kettle.springboot.core.entity;
+
+import java.util.Date;
+
+public class DpDeProjectCheckpoint {
+    /**
+     * 项目编号(PK)
+     */
+    private String projectId;
+
+    /**
+     * 输入步骤名称(PK)
+     */
+    private String stepName;
+
+    /**
+     * 执行器编号
+     */
+    private String executorId;
+
+    /**
+     * 已提交的行数（文件输入）
+     */
+    private Long position;
+
+    /**
+     * 已提交的最大排序键值（表输入）
+     */
+    private String watermark;
+
+    /**
+     * 排序键值类型（NUMBER、STRING）
+     */
+    private String watermarkType;
+
+    /**
+     * 更新时间
+     */
+    private Date updateTime;
+
+    public String getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(String projectId) {
+        this.projectId = projectId;
+    }
+
+    public String getStepName() {
+        return stepName;
+    }
+
+    public void setStepName(String stepName) {
+        this.stepName = stepName;
+    }
+
+    public String getExecutorId() {
+        return executorId;
+    }
+
+    public void setExecutorId(String executorId) {
+        this.executorId = executorId;
+    }
+
+    public Long getPosition() {
+        return position;
+    }
+
+    public void setPosition(Long position) {
+        this.position = position;
+    }
+
+    public String getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+
+    public String getWatermarkType() {
+        return watermarkType;
+    }
+
+    public void setWatermarkType(String watermarkType) {
+        this.watermarkType = watermarkType;
+    }
+
+    public Date getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Date updateTime) {
+        this.updateTime = updateTime;
+    }
+}
@@ -0,0 +1,15 @@
+package com.youngdatafan.kettle.springboot.core.mapper;
+
+import com.youngdatafan.kettle.springboot.core.entity.DpDeProjectCheckpoint;
+import java.util.List;
+import org.apache.ibatis.annotations.Param;
+
+public interface DpDeProjectCheckpointMapper {
+    List<DpDeProjectCheckpoint> selectByProjectId(@Param("projectId") String projectId);
+
+    int upsert(DpDeProjectCheckpoint record);
+
+    int upsertBatch(@Param("list") List<DpDeProjectCheckpoint> records);
+
+    int deleteByProjectId(@Param("projectId") String projectId);
+}
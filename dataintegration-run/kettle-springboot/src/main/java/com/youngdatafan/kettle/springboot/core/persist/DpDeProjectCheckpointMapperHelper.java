@@ -0,0 +1,36 @@
+package com.youngdatafan.kettle.springboot.core.persist;
+
+import com.youngdatafan.kettle.springboot.core.mapper.DpDeProjectCheckpointMapper;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * @author gavin
+ */
+@Component
+public class DpDeProjectCheckpointMapperHelper {
+
+    private static DpDeProjectCheckpointMapperHelper INSTANCE;
+
+    private final DpDeProjectCheckpointMapper projectCheckpointMapper;
+
+    @Autowired
+    public DpDeProjectCheckpointMapperHelper(DpDeProjectCheckpointMapper projectCheckpointMapper) {
+        this.projectCheckpointMapper = projectCheckpointMapper;
+    }
+
+    public DpDeProjectCheckpointMapper getProjectCheckpointMapper() {
+        return projectCheckpointMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        DpDeProjectCheckpointMapperHelper.INSTANCE = this;
+    }
+
+    public static DpDeProjectCheckpointMapper getInstance() {
+        return DpDeProjectCheckpointMapperHelper.INSTANCE.getProjectCheckpointMapper();
+    }
+
+}
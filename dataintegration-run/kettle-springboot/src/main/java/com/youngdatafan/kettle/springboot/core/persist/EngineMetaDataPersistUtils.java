@@ -1,7 +1,10 @@
 package com.youngdatafan.kettle.springboot.core.persist;
 
+import com.youngdatafan.kettle.springboot.core.entity.DpDeProjectCheckpoint;
 import com.youngdatafan.kettle.springboot.core.entity.DpDeProjectExecStatus;
+import com.youngdatafan.kettle.springboot.core.mapper.DpDeProjectCheckpointMapper;
 import com.youngdatafan.kettle.springboot.core.mapper.DpDeProjectExecStatusMapper;
+import java.util.List;
 
 /**
  * 引擎元数据持久化工具类
@@ -43,4 +46,48 @@ public class EngineMetaDataPersistUtils {
         return projectExecStatusMapper.updateByPrimaryKeySelective(dpDeProjectExecStatus);
     }
 
+    /**
+     * 查询项目的检查点
+     *
+     * @param projectId 项目id
+     * @return 每个输入步骤的检查点
+     */
+    public static List<DpDeProjectCheckpoint> selectCheckpoints(String projectId) {
+        DpDeProjectCheckpointMapper projectCheckpointMapper = DpDeProjectCheckpointMapperHelper.getInstance();
+        return projectCheckpointMapper.selectByProjectId(projectId);
+    }
+
+    /**
+     * 保存检查点，已存在时更新
+     *
+     * @param checkpoint DpDeProjectCheckpoint
+     */
+    public static void saveCheckpoint(DpDeProjectCheckpoint checkpoint) {
+        DpDeProjectCheckpointMapper projectCheckpointMapper = DpDeProjectCheckpointMapperHelper.getInstance();
+        projectCheckpointMapper.upsert(checkpoint);
+    }
+
+    /**
+     * 在一条语句中保存多个检查点，已存在时更新，要么全部保存要么都不保存
+     *
+     * @param checkpoints 同一次断点的所有输入步骤的检查点
+     */
+    public static void saveCheckpoints(List<DpDeProjectCheckpoint> checkpoints) {
+        if (checkpoints == null || checkpoints.isEmpty()) {
+            return;
+        }
+        DpDeProjectCheckpointMapper projectCheckpointMapper = DpDeProjectCheckpointMapperHelper.getInstance();
+        projectCheckpointMapper.upsertBatch(checkpoints);
+    }
+
+    /**
+     * 删除项目的检查点
+     *
+     * @param projectId 项目id
+     */
+    public static int deleteCheckpoints(String projectId) {
+        DpDeProjectCheckpointMapper projectCheckpointMapper = DpDeProjectCheckpointMapperHelper.getInstance();
+        return projectCheckpointMapper.deleteByProjectId(projectId);
+    }
+
 }